@@ -374,8 +374,6 @@ public class Authenticate extends AppCompatActivity
 					     "data.");
 				    else
 				    {
-					m_databaseHelper.cleanNeighborStatistics
-					    (s_cryptography);
 					Kernel.getInstance();
 					State.getInstance().
 					    populateParticipants();
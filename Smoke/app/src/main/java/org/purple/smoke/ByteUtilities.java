@@ -0,0 +1,296 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public abstract class ByteUtilities
+{
+    /*
+    ** Conversions of byte arrays. The class does not depend upon
+    ** Android so that Cryptography and Messages may be compiled
+    ** outside of the application.
+    */
+
+    public static final int INTEGER_BYTES = 4;
+    public static final int LONG_BYTES = 8;
+
+    public static String byteArrayAsHexString(byte bytes[])
+    {
+	if(bytes == null || bytes.length == 0)
+	    return "";
+
+	try
+	{
+	    StringBuilder stringBuilder = new StringBuilder();
+
+	    for(byte b : bytes)
+		stringBuilder.append(String.format("%02x", b));
+
+	    return stringBuilder.toString();
+	}
+	catch(Exception exception)
+	{
+	    return "";
+	}
+    }
+
+    public static String byteArrayAsHexStringDelimited(byte bytes[],
+						       char delimiter,
+						       int offset)
+    {
+	if(bytes == null || bytes.length == 0 || offset < 0)
+	    return "";
+
+	String string = byteArrayAsHexString(bytes);
+
+	try
+	{
+	    StringBuilder stringBuilder = new StringBuilder();
+	    int length = string.length();
+
+	    for(int i = 0; i < length; i += offset)
+	    {
+		if(i < length - offset)
+		    stringBuilder.append(string, i, i + offset);
+		else
+		    stringBuilder.append(string.substring(i));
+
+		stringBuilder.append(delimiter);
+	    }
+
+	    if(stringBuilder.length() > 0 &&
+	       stringBuilder.charAt(stringBuilder.length() - 1) == delimiter)
+		return stringBuilder.substring(0, stringBuilder.length() - 1);
+	    else
+		return stringBuilder.toString();
+	}
+	catch(Exception exception)
+	{
+	    return "";
+	}
+    }
+
+    public static byte[] compressed(byte bytes[])
+    {
+	if(bytes == null)
+	    return null;
+
+	try
+	{
+	    ByteArrayOutputStream byteArrayOutputStream =
+		new ByteArrayOutputStream(bytes.length);
+
+	    try
+	    {
+		try(GZIPOutputStream gzipOutputStream =
+		    new GZIPOutputStream(byteArrayOutputStream))
+		{
+		    gzipOutputStream.write(bytes);
+		}
+
+		return byteArrayOutputStream.toByteArray();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		try
+		{
+		    byteArrayOutputStream.close();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+
+	return null;
+    }
+
+    public static byte[] decompressed(byte bytes[])
+    {
+	if(bytes == null)
+	    return null;
+
+	try
+	{
+	    ByteArrayInputStream byteArrayInputStream = null;
+	    ByteArrayOutputStream byteArrayOutputStream = null;
+
+	    try
+	    {
+		byteArrayInputStream = new ByteArrayInputStream(bytes);
+		byteArrayOutputStream = new ByteArrayOutputStream();
+
+		try(GZIPInputStream gzipInputStream =
+		    new GZIPInputStream(byteArrayInputStream))
+		{
+		    byte buffer[] = new byte[4096];
+		    int rc = 0;
+
+		    while((rc = gzipInputStream.read(buffer)) > 0)
+			byteArrayOutputStream.write(buffer, 0, rc);
+		}
+
+		return byteArrayOutputStream.toByteArray();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		try
+		{
+		    if(byteArrayInputStream != null)
+			byteArrayInputStream.close();
+		}
+		catch(Exception exception)
+		{
+		}
+
+		try
+		{
+		    if(byteArrayOutputStream != null)
+			byteArrayOutputStream.close();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+
+	return null;
+    }
+
+    public static byte[] intToByteArray(int value)
+    {
+	try
+	{
+	    return ByteBuffer.allocate(INTEGER_BYTES).putInt(value).array();
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+    }
+
+    public static byte[] joinByteArrays(byte[] ... data)
+    {
+	if(data == null)
+	    return null;
+
+	try
+	{
+	    int length = 0;
+
+	    for(byte b[] : data)
+		if(b != null && b.length > 0)
+		    length += b.length;
+
+	    if(length == 0)
+		return null;
+
+	    byte bytes[] = new byte[length];
+	    int i = 0;
+
+	    for(byte b[] : data)
+		if(b != null && b.length > 0)
+		{
+		    System.arraycopy(b, 0, bytes, i, b.length);
+		    i += b.length;
+		}
+
+	    return bytes; // data[0] + data[1] + ... + data[n - 1]
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+    }
+
+    public static byte[] longArrayToByteArray(long value[])
+    {
+	try
+	{
+	    ByteBuffer byteBuffer = ByteBuffer.allocate
+		(LONG_BYTES * value.length);
+
+	    for(long l : value)
+		byteBuffer.putLong(l);
+
+	    return byteBuffer.array();
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+    }
+
+    public static byte[] longToByteArray(long value)
+    {
+	try
+	{
+	    return ByteBuffer.allocate(LONG_BYTES).putLong(value).array();
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+    }
+
+    public static long byteArrayToLong(byte bytes[])
+    {
+	if(bytes == null || bytes.length != LONG_BYTES)
+	    return 0L;
+
+	try
+	{
+	    ByteBuffer byteBuffer = ByteBuffer.allocate(LONG_BYTES);
+
+	    byteBuffer.put(bytes);
+	    byteBuffer.flip();
+	    return byteBuffer.getLong();
+	}
+	catch(Exception exception)
+	{
+	    return 0L;
+	}
+    }
+}
@@ -609,9 +609,9 @@ public class Chat extends AppCompatActivity implements NavigationView.OnNavigati
 									Cryptography.SIPHASH_OUTPUT_LENGTH);
 
 					stringBuilder.append
-							(Miscellaneous.
+							(ByteUtilities.
 									byteArrayAsHexStringDelimited
-											(Miscellaneous.
+											(ByteUtilities.
 													longArrayToByteArray(value), '-', 4).toUpperCase());
 				}
 			}
@@ -822,8 +822,8 @@ public class Chat extends AppCompatActivity implements NavigationView.OnNavigati
 								Cryptography.SIPHASH_OUTPUT_LENGTH);
 
 				stringBuilder.append
-						(Miscellaneous.
-								byteArrayAsHexStringDelimited(Miscellaneous.
+						(ByteUtilities.
+								byteArrayAsHexStringDelimited(ByteUtilities.
 												longArrayToByteArray(value),
 										'-', 4).toUpperCase());
 			}
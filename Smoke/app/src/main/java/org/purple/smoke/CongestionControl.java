@@ -0,0 +1,294 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.util.Arrays;
+
+public class CongestionControl
+{
+    /*
+    ** An in-memory set of 64-bit digests having time-based expiry.
+    ** Digests are distributed across independently-locked segments.
+    ** Each segment rotates GENERATIONS open-addressing tables. A digest
+    ** is recorded in the current generation and is forgotten after
+    ** it has existed for at least the provided lifetime.
+    **
+    ** Tables do not grow beyond MAXIMUM_CAPACITY. The footprint is
+    ** therefore bounded by SEGMENTS * GENERATIONS * MAXIMUM_CAPACITY
+    ** longs (8 MiB). If the current table of a segment is full, the
+    ** segment rotates early and its oldest generation is evicted.
+    */
+
+    private static class Segment
+    {
+	public int m_sizes[] = new int[GENERATIONS];
+	public long m_bucket = 0L;
+	public long m_tables[][] = new long[GENERATIONS][];
+
+	public Segment(long bucket)
+	{
+	    m_bucket = bucket;
+
+	    for(int i = 0; i < GENERATIONS; i++)
+		m_tables[i] = new long[INITIAL_CAPACITY];
+	}
+    }
+
+    private long m_bucketInterval = 0L; // Nanoseconds.
+    private final Segment m_segments[] = new Segment[SEGMENTS];
+    private final long m_start = System.nanoTime();
+    private final static int GENERATIONS = 4;
+    private final static int INITIAL_CAPACITY = 256; // Power of two.
+    private final static int MAXIMUM_CAPACITY = 1 << 14; // Power of two.
+    private final static int SEGMENTS = 16; // Power of two.
+    private final static long EMPTY = 0L;
+    private final static long EMPTY_SUBSTITUTE = 0x9e3779b97f4a7c15L;
+
+    private static boolean contains(long table[], long value)
+    {
+	int mask = table.length - 1;
+	int index = index(value) & mask;
+
+	for(int i = 0; i < table.length; i++)
+	{
+	    long v = table[index];
+
+	    if(v == EMPTY)
+		return false;
+	    else if(v == value)
+		return true;
+
+	    index = (index + 1) & mask;
+	}
+
+	return false;
+    }
+
+    private static boolean insert(long table[], long value)
+    {
+	int mask = table.length - 1;
+	int index = index(value) & mask;
+
+	for(int i = 0; i < table.length; i++)
+	{
+	    long v = table[index];
+
+	    if(v == EMPTY)
+	    {
+		table[index] = value;
+		return true;
+	    }
+	    else if(v == value)
+		return false;
+
+	    index = (index + 1) & mask;
+	}
+
+	return false;
+    }
+
+    private static int index(long value)
+    {
+	return (int) (value ^ (value >>> 32));
+    }
+
+    private static long[] resize(long table[], int capacity)
+    {
+	long t[] = new long[capacity];
+
+	for(long value : table)
+	    if(value != EMPTY)
+		insert(t, value);
+
+	return t;
+    }
+
+    private static void advance(Segment segment)
+    {
+	/*
+	** Evict the oldest generation ahead of time. Regular rotations
+	** resume once the clock reaches the segment's bucket.
+	*/
+
+	segment.m_bucket += 1L;
+
+	int i = (int) (segment.m_bucket % GENERATIONS);
+
+	if(segment.m_tables[i].length > INITIAL_CAPACITY)
+	    segment.m_tables[i] = new long[INITIAL_CAPACITY];
+	else
+	    Arrays.fill(segment.m_tables[i], EMPTY);
+
+	segment.m_sizes[i] = 0;
+    }
+
+    private Segment segment(long value)
+    {
+	/*
+	** The index of a segment is derived from the upper bits of the
+	** value whereas table indices are derived from the lower bits.
+	*/
+
+	return m_segments[(int) (value >>> 59) & (SEGMENTS - 1)];
+    }
+
+    private long bucket()
+    {
+	/*
+	** System.nanoTime() may be negative. Buckets are counted from
+	** construction so that they, and therefore the generation
+	** indices, are never negative.
+	*/
+
+	return (System.nanoTime() - m_start) / m_bucketInterval;
+    }
+
+    private void rotate(Segment segment)
+    {
+	long bucket = bucket();
+
+	if(bucket <= segment.m_bucket)
+	    return;
+
+	/*
+	** Discard the generations which have expired.
+	*/
+
+	long count = Math.min((long) GENERATIONS, bucket - segment.m_bucket);
+
+	for(long i = 1L; i <= count; i++)
+	{
+	    int j = (int) ((segment.m_bucket + i) % GENERATIONS);
+
+	    if(segment.m_tables[j].length > INITIAL_CAPACITY)
+		segment.m_tables[j] = new long[INITIAL_CAPACITY];
+	    else
+		Arrays.fill(segment.m_tables[j], EMPTY);
+
+	    segment.m_sizes[j] = 0;
+	}
+
+	segment.m_bucket = bucket;
+    }
+
+    public CongestionControl(long lifetime)
+    {
+	/*
+	** The lifetime is expressed in seconds. A digest expires
+	** after (GENERATIONS - 1) to GENERATIONS buckets.
+	*/
+
+	m_bucketInterval = Math.max
+	    (1L, 1000000000L * Math.max(1L, lifetime) / (GENERATIONS - 1));
+
+	long bucket = bucket();
+
+	for(int i = 0; i < SEGMENTS; i++)
+	    m_segments[i] = new Segment(bucket);
+    }
+
+    public boolean add(long value)
+    {
+	/*
+	** Returns true if the value was already present. The value is
+	** recorded otherwise.
+	*/
+
+	if(value == EMPTY)
+	    value = EMPTY_SUBSTITUTE;
+
+	Segment segment = segment(value);
+
+	synchronized(segment)
+	{
+	    rotate(segment);
+
+	    for(int i = 0; i < GENERATIONS; i++)
+		if(segment.m_sizes[i] > 0 &&
+		   contains(segment.m_tables[i], value))
+		    return true;
+
+	    int i = (int) (segment.m_bucket % GENERATIONS);
+	    int capacity = segment.m_tables[i].length;
+
+	    if(2 * (segment.m_sizes[i] + 1) > capacity)
+	    {
+		if(capacity < MAXIMUM_CAPACITY)
+		    segment.m_tables[i] = resize
+			(segment.m_tables[i], 2 * capacity);
+		else if(4 * (segment.m_sizes[i] + 1) > 3 * capacity)
+		{
+		    /*
+		    ** The table is saturated.
+		    */
+
+		    advance(segment);
+		    i = (int) (segment.m_bucket % GENERATIONS);
+		}
+	    }
+
+	    if(insert(segment.m_tables[i], value))
+		segment.m_sizes[i] += 1;
+
+	    return false;
+	}
+    }
+
+    public boolean contains(long value)
+    {
+	if(value == EMPTY)
+	    value = EMPTY_SUBSTITUTE;
+
+	Segment segment = segment(value);
+
+	synchronized(segment)
+	{
+	    rotate(segment);
+
+	    for(int i = 0; i < GENERATIONS; i++)
+		if(segment.m_sizes[i] > 0 &&
+		   contains(segment.m_tables[i], value))
+		    return true;
+	}
+
+	return false;
+    }
+
+    public void clear()
+    {
+	for(Segment segment : m_segments)
+	    synchronized(segment)
+	    {
+		for(int i = 0; i < GENERATIONS; i++)
+		{
+		    segment.m_sizes[i] = 0;
+		    segment.m_tables[i] = new long[INITIAL_CAPACITY];
+		}
+	    }
+    }
+}
@@ -27,10 +27,7 @@
 
 package org.purple.smoke;
 
-import android.content.res.AssetFileDescriptor;
-import android.net.Uri;
 import android.util.Base64;
-import java.io.FileInputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -48,7 +45,8 @@ import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
@@ -74,40 +72,104 @@ public class Cryptography
 	Security.addProvider(new BouncyCastlePQCProvider());
     }
 
-    private KeyPair m_chatEncryptionPublicKeyPair = null;
-    private KeyPair m_chatSignaturePublicKeyPair = null;
-    private SecretKey m_encryptionKey = null;
-    private SecretKey m_macKey = null;
-    private String m_chatEncryptionPublicKeyAlgorithm = "";
-    private String m_sipHashId = "0000-0000-0000-0000-0000-0000-0000-0000";
-    private byte m_identity[] = null; // Random identity.
-    private byte m_ozoneEncryptionKey[] = null;
-    private byte m_ozoneMacKey[] = null;
-    private byte m_sipHashEncryptionKey[] = null;
-    private byte m_sipHashIdDigest[] = null;
-    private byte m_sipHashMacKey[] = null;
-    private final ReentrantReadWriteLock m_chatEncryptionPublicKeyPairMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_chatSignaturePublicKeyPairMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_encryptionKeyMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_identityMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_macKeyMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_ozoneEncryptionKeyMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_ozoneMacKeyMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_sipHashEncryptionKeyMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_sipHashIdDigestMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_sipHashIdMutex =
-	new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_sipHashMacKeyMutex =
-	new ReentrantReadWriteLock();
+    private static class Contexts
+    {
+	/*
+	** Per-thread cipher and MAC contexts. Provider lookups are
+	** performed once per thread and a MAC context is initialized
+	** again only if its key changes. Key bytes are identified by
+	** keyed digests rather than by copies. Contexts of an earlier
+	** generation are discarded by contexts().
+	*/
+
+	public Cipher m_cipher = null;
+	public Cipher m_fireCipher = null;
+	public Mac m_fireMac = null;
+	public Mac m_mac = null;
+	public SecretKey m_macKey = null;
+	public SipHash m_sipHash = null;
+	public boolean m_fireMacKeyed = false;
+	public boolean m_macKeyed = false;
+	public byte m_iv[] = new byte[CIPHER_IV_LENGTH];
+	public long m_fireMacKeyDigest = 0L;
+	public long m_generation = 0L;
+	public long m_macKeyDigest = 0L;
+
+	public long digest(byte keyBytes[])
+	{
+	    if(m_sipHash == null)
+		m_sipHash = new SipHash(randomBytes(SipHash.KEY_LENGTH));
+
+	    return m_sipHash.hash64(keyBytes) ^ keyBytes.length;
+	}
+    }
+
+    private static class Keys
+    {
+	/*
+	** Key material. A snapshot is not modified after it has been
+	** published. Writers publish modified copies while owning
+	** m_keysMutex and readers therefore require a single read of
+	** m_keys.
+	*/
+
+	public KeyPair m_chatEncryptionPublicKeyPair = null;
+	public KeyPair m_chatSignaturePublicKeyPair = null;
+	public SecretKey m_encryptionKey = null;
+	public SecretKey m_macKey = null;
+	public String m_chatEncryptionPublicKeyAlgorithm = "";
+	public String m_sipHashId = DEFAULT_SIPHASH_ID;
+	public byte m_identity[] = null; // Random identity.
+	public byte m_ozoneEncryptionKey[] = null;
+	public byte m_ozoneMacKey[] = null;
+	public byte m_sipHashEncryptionKey[] = null;
+	public byte m_sipHashIdDigest[] = null;
+	public byte m_sipHashMacKey[] = null;
+
+	public Keys()
+	{
+	}
+
+	public Keys(Keys keys)
+	{
+	    m_chatEncryptionPublicKeyAlgorithm =
+		keys.m_chatEncryptionPublicKeyAlgorithm;
+	    m_chatEncryptionPublicKeyPair = keys.m_chatEncryptionPublicKeyPair;
+	    m_chatSignaturePublicKeyPair = keys.m_chatSignaturePublicKeyPair;
+	    m_encryptionKey = keys.m_encryptionKey;
+	    m_identity = keys.m_identity;
+	    m_macKey = keys.m_macKey;
+	    m_ozoneEncryptionKey = keys.m_ozoneEncryptionKey;
+	    m_ozoneMacKey = keys.m_ozoneMacKey;
+	    m_sipHashEncryptionKey = keys.m_sipHashEncryptionKey;
+	    m_sipHashId = keys.m_sipHashId;
+	    m_sipHashIdDigest = keys.m_sipHashIdDigest;
+	    m_sipHashMacKey = keys.m_sipHashMacKey;
+	}
+
+	public void clearPKI()
+	{
+	    /*
+	    ** The arrays of the replaced snapshot are cleared by
+	    ** the caller.
+	    */
+
+	    m_chatEncryptionPublicKeyPair = null;
+	    m_chatSignaturePublicKeyPair = null;
+	    m_identity = null;
+	    m_ozoneEncryptionKey = null;
+	    m_ozoneMacKey = null;
+	    m_sipHashEncryptionKey = null;
+	    m_sipHashId = DEFAULT_SIPHASH_ID;
+	    m_sipHashIdDigest = null;
+	    m_sipHashMacKey = null;
+	}
+    }
+
+    private final AtomicReference<Keys> m_keys =
+	new AtomicReference<> (new Keys());
+    private final Object m_keysMutex = new Object();
+    private final static AtomicLong s_generation = new AtomicLong(0L);
     private final static String FIRE_HASH_ALGORITHM = "SHA-384";
     private final static String FIRE_HMAC_ALGORITHM = "HmacSHA384";
     private final static String FIRE_SYMMETRIC_ALGORITHM = "AES";
@@ -131,6 +193,15 @@ public class Cryptography
     private final static String SYMMETRIC_ALGORITHM = "AES";
     private final static String SYMMETRIC_CIPHER_TRANSFORMATION =
 	"AES/CBC/PKCS7Padding";
+    private final static ThreadLocal<Contexts> s_contexts =
+	new ThreadLocal<Contexts> ()
+	{
+	    @Override
+	    protected Contexts initialValue()
+	    {
+		return new Contexts();
+	    }
+	};
     private final static int FIRE_STREAM_CREATION_ITERATION_COUNT = 10000;
     private final static int MCELIECE_M[] = {11, 12, 13};
     private final static int MCELIECE_T[] = {50, 68, 118};
@@ -185,85 +256,166 @@ public class Cryptography
 	prepareSecureRandom();
     }
 
-    private static synchronized void prepareSecureRandom()
+    private static Cipher cipher() throws Exception
     {
-	if(s_secureRandom != null)
-	    return;
+	Contexts contexts = contexts();
 
-	try
-	{
-	    s_secureRandom = new SecureRandom();
-	}
-	catch(Exception exception)
+	if(contexts.m_cipher == null)
+	    contexts.m_cipher = Cipher.getInstance
+		(SYMMETRIC_CIPHER_TRANSFORMATION);
+
+	return contexts.m_cipher;
+    }
+
+    private static Cipher fireCipher() throws Exception
+    {
+	Contexts contexts = contexts();
+
+	if(contexts.m_fireCipher == null)
+	    contexts.m_fireCipher = Cipher.getInstance
+		(FIRE_SYMMETRIC_CIPHER_TRANSFORMATION);
+
+	return contexts.m_fireCipher;
+    }
+
+    private static Mac fireMac(byte keyBytes[]) throws Exception
+    {
+	Contexts contexts = contexts();
+
+	if(contexts.m_fireMac == null)
+	    contexts.m_fireMac = Mac.getInstance(FIRE_HMAC_ALGORITHM);
+
+	long digest = contexts.digest(keyBytes);
+
+	if(contexts.m_fireMacKeyed && contexts.m_fireMacKeyDigest == digest)
+	    contexts.m_fireMac.reset();
+	else
 	{
+	    contexts.m_fireMacKeyed = false;
+	    contexts.m_fireMac.init
+		(new SecretKeySpec(keyBytes, FIRE_HASH_ALGORITHM));
+	    contexts.m_fireMacKeyDigest = digest;
+	    contexts.m_fireMacKeyed = true;
 	}
+
+	return contexts.m_fireMac;
     }
 
-    public KeyPair chatEncryptionKeyPair()
+    private static Mac mac(SecretKey key, byte keyBytes[]) throws Exception
     {
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	/*
+	** Either key or keyBytes is provided. Keys are compared by
+	** reference whereas key bytes are compared by digest.
+	*/
 
-	try
+	Contexts contexts = contexts();
+
+	if(contexts.m_mac == null)
+	    contexts.m_mac = Mac.getInstance(HMAC_ALGORITHM);
+
+	long digest = key == null ? contexts.digest(keyBytes) : 0L;
+
+	if((key != null && key == contexts.m_macKey) ||
+	   (key == null &&
+	    contexts.m_macKeyed &&
+	    contexts.m_macKeyDigest == digest))
+	    contexts.m_mac.reset();
+	else
 	{
-	    return m_chatEncryptionPublicKeyPair;
+	    contexts.m_macKey = null;
+	    contexts.m_macKeyed = false;
+
+	    if(key != null)
+	    {
+		contexts.m_mac.init(key);
+		contexts.m_macKey = key;
+	    }
+	    else
+	    {
+		contexts.m_mac.init
+		    (new SecretKeySpec(keyBytes, HASH_ALGORITHM));
+		contexts.m_macKeyDigest = digest;
+		contexts.m_macKeyed = true;
+	    }
 	}
-	finally
+
+	return contexts.m_mac;
+    }
+
+    private static Contexts contexts()
+    {
+	/*
+	** Contexts which were prepared before the most recent reset()
+	** retain keys and are replaced.
+	*/
+
+	Contexts contexts = s_contexts.get();
+	long generation = s_generation.get();
+
+	if(contexts.m_generation != generation)
 	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
+	    clear(contexts.m_iv);
+	    contexts = new Contexts();
+	    contexts.m_generation = generation;
+	    s_contexts.set(contexts);
 	}
+
+	return contexts;
     }
 
-    public KeyPair chatSignatureKeyPair()
+    private static void clear(byte bytes[])
     {
-	m_chatSignaturePublicKeyPairMutex.readLock().lock();
+	if(bytes != null)
+	    Arrays.fill(bytes, (byte) 0);
+    }
+
+    private static synchronized void prepareSecureRandom()
+    {
+	if(s_secureRandom != null)
+	    return;
 
 	try
 	{
-	    return m_chatSignaturePublicKeyPair;
+	    s_secureRandom = new SecureRandom();
 	}
-	finally
+	catch(Exception exception)
 	{
-	    m_chatSignaturePublicKeyPairMutex.readLock().unlock();
 	}
     }
 
+    public KeyPair chatEncryptionKeyPair()
+    {
+	return m_keys.get().m_chatEncryptionPublicKeyPair;
+    }
+
+    public KeyPair chatSignatureKeyPair()
+    {
+	return m_keys.get().m_chatSignaturePublicKeyPair;
+    }
+
     public PublicKey chatEncryptionPublicKey()
     {
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatEncryptionPublicKeyPair;
 
-	try
-	{
-	    if(m_chatEncryptionPublicKeyPair != null)
-		return m_chatEncryptionPublicKeyPair.getPublic();
-	    else
-		return null;
-	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
-	}
+	if(keyPair != null)
+	    return keyPair.getPublic();
+	else
+	    return null;
     }
 
     public PublicKey chatSignaturePublicKey()
     {
-	m_chatSignaturePublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatSignaturePublicKeyPair;
 
-	try
-	{
-	    if(m_chatSignaturePublicKeyPair != null)
-		return m_chatSignaturePublicKeyPair.getPublic();
-	    else
-		return null;
-	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.readLock().unlock();
-	}
+	if(keyPair != null)
+	    return keyPair.getPublic();
+	else
+	    return null;
     }
 
     public String chatEncryptionPublicKeyAlgorithm()
     {
-	return m_chatEncryptionPublicKeyAlgorithm;
+	return m_keys.get().m_chatEncryptionPublicKeyAlgorithm;
     }
 
     public String etmBase64String(String string)
@@ -341,16 +493,7 @@ public class Cryptography
 
     public String sipHashId()
     {
-	m_sipHashIdMutex.readLock().lock();
-
-	try
-	{
-	    return m_sipHashId;
-	}
-	finally
-	{
-	    m_sipHashIdMutex.readLock().unlock();
-	}
+	return m_keys.get().m_sipHashId;
     }
 
     public boolean compareChatEncryptionPublicKey(PublicKey key)
@@ -358,22 +501,17 @@ public class Cryptography
 	if(key == null)
 	    return false;
 
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatEncryptionPublicKeyPair;
 
 	try
 	{
-	    if(key.equals(m_chatEncryptionPublicKeyPair.getPublic()) ||
-	       key.hashCode() ==
-	       m_chatEncryptionPublicKeyPair.getPublic().hashCode())
+	    if(key.equals(keyPair.getPublic()) ||
+	       key.hashCode() == keyPair.getPublic().hashCode())
 		return true;
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
-	}
 
 	return false;
     }
@@ -383,22 +521,17 @@ public class Cryptography
 	if(key == null)
 	    return false;
 
-	m_chatSignaturePublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatSignaturePublicKeyPair;
 
 	try
 	{
-	    if(key.equals(m_chatSignaturePublicKeyPair.getPublic()) ||
-	       key.hashCode() ==
-	       m_chatSignaturePublicKeyPair.getPublic().hashCode())
+	    if(key.equals(keyPair.getPublic()) ||
+	       key.hashCode() == keyPair.getPublic().hashCode())
 		return true;
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.readLock().unlock();
-	}
 
 	return false;
     }
@@ -424,16 +557,7 @@ public class Cryptography
 	if(data == null || mac == null)
 	    return false;
 
-	m_sipHashMacKeyMutex.readLock().lock();
-
-	try
-	{
-	    return memcmp(hmac(data, m_sipHashMacKey), mac);
-	}
-	finally
-	{
-	    m_sipHashMacKeyMutex.readLock().unlock();
-	}
+	return memcmp(hmac(data, m_keys.get().m_sipHashMacKey), mac);
     }
 
     public boolean iAmTheDestination(byte data[], byte mac[])
@@ -441,40 +565,23 @@ public class Cryptography
 	if(data == null || mac == null)
 	    return false;
 
-	m_sipHashIdDigestMutex.readLock().lock();
-
-	try
-	{
-	    return memcmp(hmac(data, m_sipHashIdDigest), mac);
-	}
-	finally
-	{
-	    m_sipHashIdDigestMutex.readLock().unlock();
-	}
+	return memcmp(hmac(data, m_keys.get().m_sipHashIdDigest), mac);
     }
 
     public boolean prepareSipHashKeys()
     {
 	try
 	{
+	    String sipHashId = m_keys.get().m_sipHashId;
 	    byte bytes[] = null;
 	    byte salt[] = null;
 	    byte temporary[] = null;
 
-	    m_sipHashIdMutex.readLock().lock();
-
-	    try
-	    {
-		salt = sha512(m_sipHashId.getBytes(StandardCharsets.UTF_8));
-		temporary = pbkdf2(salt,
-				   m_sipHashId.toCharArray(),
-				   SIPHASH_STREAM_CREATION_ITERATION_COUNT,
-				   SHA_1_OUTPUT_SIZE_BITS); // SHA-1
-	    }
-	    finally
-	    {
-		m_sipHashIdMutex.readLock().unlock();
-	    }
+	    salt = sha512(sipHashId.getBytes(StandardCharsets.UTF_8));
+	    temporary = pbkdf2(salt,
+			       sipHashId.toCharArray(),
+			       SIPHASH_STREAM_CREATION_ITERATION_COUNT,
+			       SHA_1_OUTPUT_SIZE_BITS); // SHA-1
 
 	    if(temporary != null)
 		bytes = pbkdf2
@@ -486,30 +593,17 @@ public class Cryptography
 
 	    if(bytes != null)
 	    {
-		m_sipHashEncryptionKeyMutex.writeLock().lock();
-
-		try
-		{
-		    m_sipHashEncryptionKey = Arrays.copyOfRange
-			(bytes, 0, CIPHER_KEY_LENGTH);
-		}
-		finally
+		synchronized(m_keysMutex)
 		{
-		    m_sipHashEncryptionKeyMutex.writeLock().unlock();
-		}
+		    Keys keys = new Keys(m_keys.get());
 
-		m_sipHashMacKeyMutex.writeLock().lock();
-
-		try
-		{
-		    m_sipHashMacKey = Arrays.copyOfRange
+		    keys.m_sipHashEncryptionKey = Arrays.copyOfRange
+			(bytes, 0, CIPHER_KEY_LENGTH);
+		    keys.m_sipHashMacKey = Arrays.copyOfRange
 			(bytes,
 			 CIPHER_KEY_LENGTH,
 			 CIPHER_KEY_LENGTH + HASH_KEY_LENGTH);
-		}
-		finally
-		{
-		    m_sipHashMacKeyMutex.writeLock().unlock();
+		    m_keys.set(keys);
 		}
 	    }
 	    else
@@ -525,48 +619,36 @@ public class Cryptography
 
     public byte[] chatEncryptionPublicKeyDigest()
     {
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatEncryptionPublicKeyPair;
 
 	try
 	{
-	    if(m_chatEncryptionPublicKeyPair == null ||
-	       m_chatEncryptionPublicKeyPair.getPublic() == null)
+	    if(keyPair == null || keyPair.getPublic() == null)
 		return null;
 
-	    return sha512
-		(m_chatEncryptionPublicKeyPair.getPublic().getEncoded());
+	    return sha512(keyPair.getPublic().getEncoded());
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
-	}
 
 	return null;
     }
 
     public byte[] chatSignaturePublicKeyDigest()
     {
-	m_chatSignaturePublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatSignaturePublicKeyPair;
 
 	try
 	{
-	    if(m_chatSignaturePublicKeyPair == null ||
-	       m_chatSignaturePublicKeyPair.getPublic() == null)
+	    if(keyPair == null || keyPair.getPublic() == null)
 		return null;
 
-	    return sha512
-		(m_chatSignaturePublicKeyPair.getPublic().getEncoded());
+	    return sha512(keyPair.getPublic().getEncoded());
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.readLock().unlock();
-	}
 
 	return null;
     }
@@ -577,36 +659,21 @@ public class Cryptography
 	    return null;
 
 	byte bytes[] = null;
+	byte key[] = m_keys.get().m_sipHashEncryptionKey;
+
+	if(key == null)
+	    return null;
 
 	try
 	{
-	    m_sipHashEncryptionKeyMutex.readLock().lock();
+	    Cipher cipher = cipher();
+	    SecretKey secretKey = new SecretKeySpec(key, SYMMETRIC_ALGORITHM);
 
-	    try
-	    {
-		if(m_sipHashEncryptionKey == null)
-		    return null;
-
-		Cipher cipher = null;
-		SecretKey secretKey = new SecretKeySpec
-		    (m_sipHashEncryptionKey, SYMMETRIC_ALGORITHM);
-		byte iv[] = Arrays.copyOf(data, CIPHER_IV_LENGTH);
-
-		cipher = Cipher.getInstance(SYMMETRIC_CIPHER_TRANSFORMATION);
-		cipher.init(Cipher.DECRYPT_MODE,
-			    secretKey,
-			    new IvParameterSpec(iv));
-		bytes = cipher.doFinal
-		    (Arrays.copyOfRange(data, CIPHER_IV_LENGTH, data.length));
-	    }
-	    catch(Exception exception)
-	    {
-		return null;
-	    }
-	    finally
-	    {
-		m_sipHashEncryptionKeyMutex.readLock().unlock();
-	    }
+	    cipher.init(Cipher.DECRYPT_MODE,
+			secretKey,
+			new IvParameterSpec(data, 0, CIPHER_IV_LENGTH));
+	    bytes = cipher.doFinal
+		(data, CIPHER_IV_LENGTH, data.length - CIPHER_IV_LENGTH);
 	}
 	catch(Exception exception)
 	{
@@ -625,82 +692,40 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	m_encryptionKeyMutex.readLock().lock();
-
-	try
-	{
-	    if(m_encryptionKey == null)
-		return null;
-	}
-	finally
-	{
-	    m_encryptionKeyMutex.readLock().unlock();
-	}
+	Keys keys = m_keys.get();
 
-	m_macKeyMutex.readLock().lock();
-
-	try
-	{
-	    if(m_macKey == null)
-		return null;
-	}
-	finally
-	{
-	    m_macKeyMutex.readLock().unlock();
-	}
+	if(keys.m_encryptionKey == null || keys.m_macKey == null)
+	    return null;
 
 	byte bytes[] = null;
 
 	try
 	{
-	    m_encryptionKeyMutex.readLock().lock();
+	    /*
+	    ** IV || Ciphertext || Digest
+	    */
 
-	    try
-	    {
-		if(m_encryptionKey == null)
-		    return null;
-
-		Cipher cipher = null;
-		byte iv[] = new byte[CIPHER_IV_LENGTH];
-
-		cipher = Cipher.getInstance(SYMMETRIC_CIPHER_TRANSFORMATION);
-		s_secureRandom.nextBytes(iv);
-		cipher.init(Cipher.ENCRYPT_MODE,
-			    m_encryptionKey,
-			    new IvParameterSpec(iv));
-		bytes = cipher.doFinal(data);
-		bytes = Miscellaneous.joinByteArrays(iv, bytes);
-	    }
-	    catch(Exception exception)
-	    {
-		return null;
-	    }
-	    finally
-	    {
-		m_encryptionKeyMutex.readLock().unlock();
-	    }
+	    Cipher cipher = cipher();
+	    byte iv[] = contexts().m_iv;
 
-	    m_macKeyMutex.readLock().lock();
+	    s_secureRandom.nextBytes(iv);
+	    cipher.init(Cipher.ENCRYPT_MODE,
+			keys.m_encryptionKey,
+			new IvParameterSpec(iv));
+	    bytes = new byte[CIPHER_IV_LENGTH +
+			     cipher.getOutputSize(data.length) +
+			     HASH_KEY_LENGTH];
+	    System.arraycopy(iv, 0, bytes, 0, CIPHER_IV_LENGTH);
 
-	    try
-	    {
-		if(m_macKey == null)
-		    return null;
+	    int length = CIPHER_IV_LENGTH + cipher.doFinal
+		(data, 0, data.length, bytes, CIPHER_IV_LENGTH);
+	    Mac mac = mac(keys.m_macKey, null);
 
-		Mac mac = null;
+	    mac.update(bytes, 0, length);
+	    mac.doFinal(bytes, length);
 
-		mac = Mac.getInstance(HMAC_ALGORITHM);
-		mac.init(m_macKey);
-		bytes = Miscellaneous.joinByteArrays(bytes, mac.doFinal(bytes));
-	    }
-	    catch(Exception exception)
-	    {
-		return null;
-	    }
-	    finally
-	    {
-		m_macKeyMutex.readLock().unlock();
-	    }
+	    if(bytes.length > length + HASH_KEY_LENGTH)
+		bytes = Arrays.copyOf(bytes, length + HASH_KEY_LENGTH);
 	}
 	catch(Exception exception)
 	{
@@ -717,7 +742,7 @@ public class Cryptography
 	try
 	{
 	    salt = sha512
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(digest.getBytes(StandardCharsets.ISO_8859_1),
 				"sha384".getBytes(StandardCharsets.
 						  ISO_8859_1)));
@@ -807,7 +832,7 @@ public class Cryptography
 	{
 	    key = pbkdf2
 		(s,
-		 new String(new String(Miscellaneous.
+		 new String(new String(ByteUtilities.
 				       joinByteArrays(c, ciphertext, sha384)).
 			    getBytes(StandardCharsets.UTF_8)).toCharArray(),
 		 FIRE_STREAM_CREATION_ITERATION_COUNT,
@@ -829,53 +854,41 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	m_macKeyMutex.readLock().lock();
+	SecretKey key = m_keys.get().m_macKey;
+
+	if(key == null)
+	    return null;
 
 	try
 	{
-	    if(m_macKey == null)
-		return null;
-
-	    byte bytes[] = null;
-
-	    try
-	    {
-		Mac mac = null;
-
-		mac = Mac.getInstance(HMAC_ALGORITHM);
-		mac.init(m_macKey);
-		bytes = mac.doFinal(data);
-	    }
-	    catch(Exception exception)
-	    {
-		bytes = null;
-	    }
-
-	    return bytes;
+	    return mac(key, null).doFinal(data);
 	}
-	finally
+	catch(Exception exception)
 	{
-	    m_macKeyMutex.readLock().unlock();
 	}
+
+	return null;
     }
 
     public byte[] identity()
     {
-	m_identityMutex.writeLock().lock();
+	Keys keys = m_keys.get();
 
-	try
+	if(keys.m_identity != null)
+	    return keys.m_identity;
+
+	synchronized(m_keysMutex)
 	{
-	    if(m_identity == null)
+	    keys = new Keys(m_keys.get());
+
+	    if(keys.m_identity == null)
 	    {
-		m_identity = new byte[IDENTITY_SIZE];
-		s_secureRandom.nextBytes(m_identity);
+		keys.m_identity = new byte[IDENTITY_SIZE];
+		s_secureRandom.nextBytes(keys.m_identity);
+		m_keys.set(keys);
 	    }
 
-	    return m_identity;
-	}
-	finally
-	{
-	    m_identityMutex.writeLock().unlock();
+	    return keys.m_identity;
 	}
     }
 
@@ -885,141 +898,52 @@ public class Cryptography
 	** MAC-then-decrypt.
 	*/
 
-	if(data == null)
+	if(data == null || data.length < CIPHER_IV_LENGTH + HASH_KEY_LENGTH)
 	    return null;
 
-	m_encryptionKeyMutex.readLock().lock();
+	Keys keys = m_keys.get();
+
+	if(keys.m_encryptionKey == null || keys.m_macKey == null)
+	    return null;
 
 	try
 	{
-	    if(m_encryptionKey == null)
-		return null;
-	}
-	finally
-	{
-	    m_encryptionKeyMutex.readLock().unlock();
-	}
+	    /*
+	    ** Verify the computed digest with the provided digest.
+	    */
 
-	m_macKeyMutex.readLock().lock();
+	    Mac mac = mac(keys.m_macKey, null);
 
-	try
-	{
-	    if(m_macKey == null)
-		return null;
-	}
-	finally
-	{
-	    m_macKeyMutex.readLock().unlock();
-	}
-
-	try
-	{
-	    /*
-	    ** Verify the computed digest with the provided digest.
-	    */
-
-	    byte digest1[] = null; // Provided digest.
-	    byte digest2[] = null; // Computed digest.
-
-	    digest1 = Arrays.copyOfRange
-		(data, data.length - HASH_KEY_LENGTH, data.length);
-	    m_macKeyMutex.readLock().lock();
-
-	    try
-	    {
-		if(m_macKey == null)
-		    return null;
+	    mac.update(data, 0, data.length - HASH_KEY_LENGTH);
 
-		Mac mac = null;
-
-		mac = Mac.getInstance(HMAC_ALGORITHM);
-		mac.init(m_macKey);
-		digest2 = mac.doFinal
-		    (Arrays.copyOf(data, data.length - HASH_KEY_LENGTH));
-	    }
-	    catch(Exception exception)
-	    {
-		return null;
-	    }
-	    finally
-	    {
-		m_macKeyMutex.readLock().unlock();
-	    }
-
-	    if(!memcmp(digest1, digest2))
+	    if(!memcmp(mac.doFinal(), data, data.length - HASH_KEY_LENGTH))
 		return null;
-	}
-	catch(Exception exception)
-	{
-	    return null;
-	}
-
-	byte bytes[] = null;
 
-	try
-	{
-	    m_encryptionKeyMutex.readLock().lock();
+	    Cipher cipher = cipher();
 
-	    try
-	    {
-		if(m_encryptionKey == null)
-		    return null;
-
-		Cipher cipher = null;
-		byte iv[] = Arrays.copyOf(data, CIPHER_IV_LENGTH);
-
-		cipher = Cipher.getInstance(SYMMETRIC_CIPHER_TRANSFORMATION);
-		cipher.init(Cipher.DECRYPT_MODE,
-			    m_encryptionKey,
-			    new IvParameterSpec(iv));
-		bytes = cipher.doFinal
-		    (Arrays.copyOfRange(data,
-					CIPHER_IV_LENGTH,
-					data.length - HASH_KEY_LENGTH));
-	    }
-	    catch(Exception exception)
-	    {
-		bytes = null;
-	    }
-	    finally
-	    {
-		m_encryptionKeyMutex.readLock().unlock();
-	    }
+	    cipher.init(Cipher.DECRYPT_MODE,
+			keys.m_encryptionKey,
+			new IvParameterSpec(data, 0, CIPHER_IV_LENGTH));
+	    return cipher.doFinal
+		(data,
+		 CIPHER_IV_LENGTH,
+		 data.length - CIPHER_IV_LENGTH - HASH_KEY_LENGTH);
 	}
 	catch(Exception exception)
 	{
-	    bytes = null;
 	}
 
-	return bytes;
+	return null;
     }
 
     public byte[] ozoneEncryptionKey()
     {
-	m_ozoneEncryptionKeyMutex.readLock().lock();
-
-	try
-	{
-	    return m_ozoneEncryptionKey;
-	}
-	finally
-	{
-	    m_ozoneEncryptionKeyMutex.readLock().unlock();
-	}
+	return m_keys.get().m_ozoneEncryptionKey;
     }
 
     public byte[] ozoneMacKey()
     {
-	m_ozoneMacKeyMutex.readLock().lock();
-
-	try
-	{
-	    return m_ozoneMacKey;
-	}
-	finally
-	{
-	    m_ozoneMacKeyMutex.readLock().unlock();
-	}
+	return m_keys.get().m_ozoneMacKey;
     }
 
     public byte[] pkiDecrypt(byte data[])
@@ -1027,51 +951,43 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	Keys keys = m_keys.get();
+	byte bytes[] = null;
 
 	try
 	{
-	    byte bytes[] = null;
+	    Cipher cipher = null;
 
-	    try
+	    if(keys.m_chatEncryptionPublicKeyPair.getPrivate().getAlgorithm().
+	       equals("McEliece-CCA2"))
 	    {
-		Cipher cipher = null;
-
-		if(m_chatEncryptionPublicKeyPair.getPrivate().getAlgorithm().
-		   equals("McEliece-CCA2"))
-		{
-		    if(m_chatEncryptionPublicKeyAlgorithm.
-		       startsWith("McEliece-Fujisaki"))
-			cipher = Cipher.getInstance("McElieceFujisaki");
-		    else
-			cipher = Cipher.getInstance("McEliecePointcheval");
-
-		    cipher.init
-			(Cipher.DECRYPT_MODE,
-			 m_chatEncryptionPublicKeyPair.getPrivate(),
-			 (McElieceCCA2KeyGenParameterSpec) null);
-		}
+		if(keys.m_chatEncryptionPublicKeyAlgorithm.
+		   startsWith("McEliece-Fujisaki"))
+		    cipher = Cipher.getInstance("McElieceFujisaki");
 		else
-		{
-		    cipher = Cipher.getInstance(PKI_RSA_ENCRYPTION_ALGORITHM);
-		    cipher.init
-			(Cipher.DECRYPT_MODE,
-			 m_chatEncryptionPublicKeyPair.getPrivate());
-		}
+		    cipher = Cipher.getInstance("McEliecePointcheval");
 
-		bytes = cipher.doFinal(data);
+		cipher.init
+		    (Cipher.DECRYPT_MODE,
+		     keys.m_chatEncryptionPublicKeyPair.getPrivate(),
+		     (McElieceCCA2KeyGenParameterSpec) null);
 	    }
-	    catch(Exception exception)
+	    else
 	    {
-		bytes = null;
+		cipher = Cipher.getInstance(PKI_RSA_ENCRYPTION_ALGORITHM);
+		cipher.init
+		    (Cipher.DECRYPT_MODE,
+		     keys.m_chatEncryptionPublicKeyPair.getPrivate());
 	    }
 
-	    return bytes;
+	    bytes = cipher.doFinal(data);
 	}
-	finally
+	catch(Exception exception)
 	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
+	    bytes = null;
 	}
+
+	return bytes;
     }
 
     public byte[] signViaChatEncryption(byte data[])
@@ -1079,42 +995,32 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
-
-	try
-	{
-	    if(m_chatEncryptionPublicKeyPair == null ||
-	       m_chatEncryptionPublicKeyPair.getPrivate() == null)
-		return null;
+	KeyPair keyPair = m_keys.get().m_chatEncryptionPublicKeyPair;
 
-	    Signature signature = null;
-	    byte bytes[] = null;
+	if(keyPair == null || keyPair.getPrivate() == null)
+	    return null;
 
-	    try
-	    {
-		if(m_chatEncryptionPublicKeyPair.getPrivate().getAlgorithm().
-		   equals("EC"))
-		    signature = Signature.getInstance
-			(PKI_ECDSA_SIGNATURE_ALGORITHM);
-		else
-		    signature = Signature.getInstance
-			(PKI_RSA_SIGNATURE_ALGORITHM);
+	Signature signature = null;
+	byte bytes[] = null;
 
-		signature.initSign(m_chatEncryptionPublicKeyPair.getPrivate());
-		signature.update(data);
-		bytes = signature.sign();
-	    }
-	    catch(Exception exception)
-	    {
-		bytes = null;
-	    }
+	try
+	{
+	    if(keyPair.getPrivate().getAlgorithm().equals("EC"))
+		signature = Signature.getInstance
+		    (PKI_ECDSA_SIGNATURE_ALGORITHM);
+	    else
+		signature = Signature.getInstance(PKI_RSA_SIGNATURE_ALGORITHM);
 
-	    return bytes;
+	    signature.initSign(keyPair.getPrivate());
+	    signature.update(data);
+	    bytes = signature.sign();
 	}
-	finally
+	catch(Exception exception)
 	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
+	    bytes = null;
 	}
+
+	return bytes;
     }
 
     public byte[] signViaChatSignature(byte data[])
@@ -1122,92 +1028,56 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	m_chatSignaturePublicKeyPairMutex.readLock().lock();
-
-	try
-	{
-	    if(m_chatSignaturePublicKeyPair == null ||
-	       m_chatSignaturePublicKeyPair.getPrivate() == null)
-		return null;
+	KeyPair keyPair = m_keys.get().m_chatSignaturePublicKeyPair;
 
-	    Signature signature = null;
-	    byte bytes[] = null;
+	if(keyPair == null || keyPair.getPrivate() == null)
+	    return null;
 
-	    try
-	    {
-		if(m_chatSignaturePublicKeyPair.getPrivate().getAlgorithm().
-		   equals("EC"))
-		    signature = Signature.getInstance
-			(PKI_ECDSA_SIGNATURE_ALGORITHM);
-		else
-		    signature = Signature.getInstance
-			(PKI_RSA_SIGNATURE_ALGORITHM);
+	Signature signature = null;
+	byte bytes[] = null;
 
-		signature.initSign(m_chatSignaturePublicKeyPair.getPrivate());
-		signature.update(data);
-		bytes = signature.sign();
-	    }
-	    catch(Exception exception)
-	    {
-		bytes = null;
-	    }
+	try
+	{
+	    if(keyPair.getPrivate().getAlgorithm().equals("EC"))
+		signature = Signature.getInstance
+		    (PKI_ECDSA_SIGNATURE_ALGORITHM);
+	    else
+		signature = Signature.getInstance(PKI_RSA_SIGNATURE_ALGORITHM);
 
-	    return bytes;
+	    signature.initSign(keyPair.getPrivate());
+	    signature.update(data);
+	    bytes = signature.sign();
 	}
-	finally
+	catch(Exception exception)
 	{
-	    m_chatSignaturePublicKeyPairMutex.readLock().unlock();
+	    bytes = null;
 	}
+
+	return bytes;
     }
 
     public byte[] sipHashEncryptionKey()
     {
-	m_sipHashEncryptionKeyMutex.readLock().lock();
-
-	try
-	{
-	    return m_sipHashEncryptionKey;
-	}
-	finally
-	{
-	    m_sipHashEncryptionKeyMutex.readLock().unlock();
-	}
+	return m_keys.get().m_sipHashEncryptionKey;
     }
 
     public byte[] sipHashMacKey()
     {
-	m_sipHashMacKeyMutex.readLock().lock();
-
-	try
-	{
-	    return m_sipHashMacKey;
-	}
-	finally
-	{
-	    m_sipHashMacKeyMutex.readLock().unlock();
-	}
+	return m_keys.get().m_sipHashMacKey;
     }
 
     public int chatEncryptionPublicKeyT()
     {
-	m_chatEncryptionPublicKeyPairMutex.readLock().lock();
+	KeyPair keyPair = m_keys.get().m_chatEncryptionPublicKeyPair;
 
 	try
 	{
-	    if(m_chatEncryptionPublicKeyPair != null)
-		return
-		    ((BCMcElieceCCA2PublicKey) m_chatEncryptionPublicKeyPair.
-		     getPublic()).getT();
-	    else
-		return 0;
+	    if(keyPair != null)
+		return ((BCMcElieceCCA2PublicKey) keyPair.getPublic()).getT();
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.readLock().unlock();
-	}
 
 	return 0;
     }
@@ -1651,7 +1521,7 @@ public class Cryptography
 	    bytes = sha512(bytes);
 
 	    if(bytes != null)
-		fingerprint = Miscellaneous.byteArrayAsHexString(bytes);
+		fingerprint = ByteUtilities.byteArrayAsHexString(bytes);
 	}
 
 	try
@@ -1733,12 +1603,12 @@ public class Cryptography
 		if(value.equals(new long[] {0L, 0L}))
 		    return "";
 
-		bytes = Miscellaneous.longArrayToByteArray(value);
+		bytes = ByteUtilities.longArrayToByteArray(value);
 
 		if(bytes == null)
 		    return "";
 
-		return Miscellaneous.
+		return ByteUtilities.
 		    byteArrayAsHexStringDelimited(bytes, '-', 4).toUpperCase();
 	    }
 	}
@@ -1763,6 +1633,26 @@ public class Cryptography
 	return rc == 0;
     }
 
+    public static boolean memcmp(byte a[], byte b[], int offset)
+    {
+	/*
+	** Compare a with b[offset ... offset + a.length - 1].
+	*/
+
+	if(a == null ||
+	   b == null ||
+	   offset < 0 ||
+	   b.length - offset < a.length)
+	    return false;
+
+	int rc = 0;
+
+	for(int i = 0; i < a.length; i++)
+	    rc |= a[i] ^ b[offset + i];
+
+	return rc == 0;
+    }
+
     public static boolean verifySignature(PublicKey publicKey,
 					  byte bytes[],
 					  byte data[])
@@ -1817,17 +1707,15 @@ public class Cryptography
 
 	try
 	{
-	    Cipher cipher = null;
+	    Cipher cipher = cipher();
 	    SecretKey secretKey = new SecretKeySpec
 		(keyBytes, SYMMETRIC_ALGORITHM);
-	    byte iv[] = Arrays.copyOf(data, CIPHER_IV_LENGTH);
 
-	    cipher = Cipher.getInstance(SYMMETRIC_CIPHER_TRANSFORMATION);
 	    cipher.init(Cipher.DECRYPT_MODE,
 			secretKey,
-			new IvParameterSpec(iv));
+			new IvParameterSpec(data, 0, CIPHER_IV_LENGTH));
 	    bytes = cipher.doFinal
-		(Arrays.copyOfRange(data, CIPHER_IV_LENGTH, data.length));
+		(data, CIPHER_IV_LENGTH, data.length - CIPHER_IV_LENGTH);
 	}
 	catch(Exception exception)
 	{
@@ -1846,17 +1734,17 @@ public class Cryptography
 
 	try
 	{
-	    Cipher cipher = null;
+	    Cipher cipher = fireCipher();
 	    SecretKey secretKey = new SecretKeySpec
 		(keyBytes, FIRE_SYMMETRIC_ALGORITHM);
-	    byte iv[] = Arrays.copyOf(data, FIRE_CIPHER_IV_LENGTH);
 
-	    cipher = Cipher.getInstance(FIRE_SYMMETRIC_CIPHER_TRANSFORMATION);
 	    cipher.init(Cipher.DECRYPT_MODE,
 			secretKey,
-			new IvParameterSpec(iv));
+			new IvParameterSpec(data, 0, FIRE_CIPHER_IV_LENGTH));
 	    bytes = cipher.doFinal
-		(Arrays.copyOfRange(data, FIRE_CIPHER_IV_LENGTH, data.length));
+		(data,
+		 FIRE_CIPHER_IV_LENGTH,
+		 data.length - FIRE_CIPHER_IV_LENGTH);
 	}
 	catch(Exception exception)
 	{
@@ -1871,31 +1759,15 @@ public class Cryptography
 	if(data == null || keyBytes == null)
 	    return null;
 
-	prepareSecureRandom();
-
-	byte bytes[] = null;
-
-	try
-	{
-	    Cipher cipher = null;
-	    SecretKey secretKey = new SecretKeySpec
-		(keyBytes, SYMMETRIC_ALGORITHM);
-	    byte iv[] = new byte[CIPHER_IV_LENGTH];
-
-	    cipher = Cipher.getInstance(SYMMETRIC_CIPHER_TRANSFORMATION);
-	    s_secureRandom.nextBytes(iv);
-	    cipher.init(Cipher.ENCRYPT_MODE,
-			secretKey,
-			new IvParameterSpec(iv));
-	    bytes = cipher.doFinal(data);
-	    bytes = Miscellaneous.joinByteArrays(iv, bytes);
-	}
-	catch(Exception exception)
-	{
-	    bytes = null;
-	}
+	byte bytes[] = new byte[encryptedLength(data.length)];
+	int length = encrypt(data, 0, data.length, keyBytes, bytes, 0);
 
-	return bytes;
+	if(length < 0)
+	    return null;
+	else if(length < bytes.length)
+	    return Arrays.copyOf(bytes, length);
+	else
+	    return bytes;
     }
 
     public static byte[] encryptFire(byte data[], byte keyBytes[])
@@ -1909,26 +1781,36 @@ public class Cryptography
 
 	try
 	{
-	    Cipher cipher = null;
+	    Cipher cipher = fireCipher();
 	    SecretKey secretKey = new SecretKeySpec
 		(keyBytes, FIRE_SYMMETRIC_ALGORITHM);
 	    byte iv[] = new byte[FIRE_CIPHER_IV_LENGTH];
+	    byte plaintext[] = ByteUtilities.joinByteArrays
+		(data,
+
+		 /*
+		 ** Add the size of the original data.
+		 */
+
+		 ByteUtilities.intToByteArray(data.length));
 
-	    cipher = Cipher.getInstance(FIRE_SYMMETRIC_CIPHER_TRANSFORMATION);
 	    s_secureRandom.nextBytes(iv);
 	    cipher.init(Cipher.ENCRYPT_MODE,
 			secretKey,
 			new IvParameterSpec(iv));
-	    bytes = cipher.doFinal
-		(Miscellaneous.
-		 joinByteArrays(data,
+	    bytes = new byte[FIRE_CIPHER_IV_LENGTH +
+			     cipher.getOutputSize(plaintext.length)];
+	    System.arraycopy(iv, 0, bytes, 0, FIRE_CIPHER_IV_LENGTH);
 
-				/*
-				** Add the size of the original data.
-				*/
+	    int length = FIRE_CIPHER_IV_LENGTH + cipher.doFinal
+		(plaintext,
+		 0,
+		 plaintext.length,
+		 bytes,
+		 FIRE_CIPHER_IV_LENGTH);
 
-				Miscellaneous.intToByteArray(data.length)));
-	    bytes = Miscellaneous.joinByteArrays(iv, bytes);
+	    if(length < bytes.length)
+		bytes = Arrays.copyOf(bytes, length);
 	}
 	catch(Exception exception)
 	{
@@ -1944,7 +1826,7 @@ public class Cryptography
 	    return null;
 
 	return pbkdf2(sha512(data),
-		      Miscellaneous.byteArrayAsHexString(data).toCharArray(),
+		      ByteUtilities.byteArrayAsHexString(data).toCharArray(),
 		      SIPHASH_STREAM_CREATION_ITERATION_COUNT,
 		      8 * SipHash.KEY_LENGTH);
     }
@@ -1958,12 +1840,7 @@ public class Cryptography
 
 	try
 	{
-	    Mac mac = null;
-	    SecretKey key = new SecretKeySpec(keyBytes, HASH_ALGORITHM);
-
-	    mac = Mac.getInstance(HMAC_ALGORITHM);
-	    mac.init(key);
-	    bytes = mac.doFinal(data);
+	    bytes = mac(null, keyBytes).doFinal(data);
 	}
 	catch(Exception exception)
 	{
@@ -1982,12 +1859,7 @@ public class Cryptography
 
 	try
 	{
-	    Mac mac = null;
-	    SecretKey key = new SecretKeySpec(keyBytes, FIRE_HASH_ALGORITHM);
-
-	    mac = Mac.getInstance(FIRE_HMAC_ALGORITHM);
-	    mac.init(key);
-	    bytes = mac.doFinal(data);
+	    bytes = fireMac(keyBytes).doFinal(data);
 	}
 	catch(Exception exception)
 	{
@@ -2135,54 +2007,6 @@ public class Cryptography
 	return bytes;
     }
 
-    public static byte[] sha256FileDigest(String fileName)
-    {
-	AssetFileDescriptor assetFileDescriptor = null;
-
-	try
-	{
-	    Uri uri = Uri.parse(fileName);
-
-	    assetFileDescriptor = Smoke.getApplication().getContentResolver().
-		openAssetFileDescriptor(uri, "r");
-
-	    FileInputStream fileInputStream = assetFileDescriptor.
-		createInputStream();
-	    MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-	    byte buffer[] = new byte[4096];
-	    int n = 0;
-
-	    while(n != -1)
-	    {
-		if(Thread.currentThread().isInterrupted())
-		    return null;
-
-		n = fileInputStream.read(buffer);
-
-		if(n > 0)
-		    messageDigest.update(buffer, 0, n);
-	    }
-
-	    return messageDigest.digest();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    try
-	    {
-		if(assetFileDescriptor != null)
-		    assetFileDescriptor.close();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
-
-	return null;
-    }
-
     public static byte[] sha512(byte[] ... data)
     {
 	byte bytes[] = null;
@@ -2259,402 +2083,256 @@ public class Cryptography
 	return null;
     }
 
-    public static synchronized Cryptography getInstance()
+    public static int decrypt(byte data[],
+			      int offset,
+			      int length,
+			      byte keyBytes[],
+			      byte output[],
+			      int outputOffset)
     {
-	if(s_instance == null)
-	    s_instance = new Cryptography();
+	/*
+	** Decrypt IV || Ciphertext of data[offset ... offset + length - 1]
+	** into output, which must provide length - CIPHER_IV_LENGTH bytes.
+	** Returns the length of the plaintext or -1.
+	*/
 
-	return s_instance;
-    }
+	if(data == null || keyBytes == null || output == null)
+	    return -1;
 
-    public boolean prepareSipHashIds(String alias)
-    {
 	try
 	{
-	    byte bytes[] = null;
+	    Cipher cipher = cipher();
+	    SecretKey secretKey = new SecretKeySpec
+		(keyBytes, SYMMETRIC_ALGORITHM);
 
-	    if(alias == null || alias.trim().isEmpty())
-		bytes = Miscellaneous.joinByteArrays
-		    (chatEncryptionKeyPair().getPublic().getEncoded(),
-		     chatSignatureKeyPair().getPublic().getEncoded());
-	    else
-		bytes = alias.getBytes(StandardCharsets.UTF_8);
+	    cipher.init(Cipher.DECRYPT_MODE,
+			secretKey,
+			new IvParameterSpec(data, offset, CIPHER_IV_LENGTH));
+	    return cipher.doFinal(data,
+				  offset + CIPHER_IV_LENGTH,
+				  length - CIPHER_IV_LENGTH,
+				  output,
+				  outputOffset);
+	}
+	catch(Exception exception)
+	{
+	    return -1;
+	}
+    }
 
-	    if(bytes != null)
-	    {
-		byte key[] = keyForSipHash(bytes);
+    public static int encrypt(byte data[],
+			      int offset,
+			      int length,
+			      byte keyBytes[],
+			      byte output[],
+			      int outputOffset)
+    {
+	/*
+	** Encrypt data[offset ... offset + length - 1] into output as
+	** IV || Ciphertext. The output must provide
+	** encryptedLength(length) bytes. Returns the number of bytes
+	** written or -1.
+	*/
 
-		if(key == null)
-		    return false;
-
-		SipHash sipHash = new SipHash();
-		long value[] = sipHash.hmac(bytes, key, SIPHASH_OUTPUT_LENGTH);
-
-		if(value.equals(new long[] {0L, 0L}))
-		    return false;
-
-		bytes = Miscellaneous.longArrayToByteArray(value);
-
-		if(bytes == null)
-		    return false;
-
-		m_sipHashIdDigestMutex.writeLock().lock();
+	if(data == null || keyBytes == null || output == null)
+	    return -1;
 
-		try
-		{
-		    m_sipHashIdDigest =
-			sha512(Miscellaneous.
-			       byteArrayAsHexStringDelimited(bytes, '-', 4).
-			       toUpperCase().getBytes());
-		}
-		catch(Exception exception)
-		{
-		}
-		finally
-		{
-		    m_sipHashIdDigestMutex.writeLock().unlock();
-		}
+	prepareSecureRandom();
 
-		m_sipHashIdMutex.writeLock().lock();
+	try
+	{
+	    Cipher cipher = cipher();
+	    SecretKey secretKey = new SecretKeySpec
+		(keyBytes, SYMMETRIC_ALGORITHM);
+	    byte iv[] = contexts().m_iv;
 
-		try
-		{
-		    m_sipHashId = Miscellaneous.
-			byteArrayAsHexStringDelimited(bytes, '-', 4).
-			toUpperCase();
-		}
-		catch(Exception exception)
-		{
-		}
-		finally
-		{
-		    m_sipHashIdMutex.writeLock().unlock();
-		}
-	    }
-	    else
-		return false;
+	    s_secureRandom.nextBytes(iv);
+	    cipher.init(Cipher.ENCRYPT_MODE,
+			secretKey,
+			new IvParameterSpec(iv));
+	    System.arraycopy(iv, 0, output, outputOffset, CIPHER_IV_LENGTH);
+	    return CIPHER_IV_LENGTH + cipher.doFinal
+		(data,
+		 offset,
+		 length,
+		 output,
+		 outputOffset + CIPHER_IV_LENGTH);
 	}
 	catch(Exception exception)
 	{
-	    return false;
+	    return -1;
 	}
-
-	return true;
     }
 
-    public void exit()
+    public static int encryptedLength(int length)
     {
-	reset();
+	/*
+	** AES blocks and IVs are of identical lengths. PKCS #7
+	** padding adds at least one byte.
+	*/
+
+	return CIPHER_IV_LENGTH +
+	    CIPHER_IV_LENGTH * (Math.max(0, length) / CIPHER_IV_LENGTH + 1);
     }
 
-    public void reset()
+    public static int hmac(byte data[],
+			   int offset,
+			   int length,
+			   byte keyBytes[],
+			   byte output[],
+			   int outputOffset)
     {
-	m_chatEncryptionPublicKeyPairMutex.writeLock().lock();
-
-	try
-	{
-	    m_chatEncryptionPublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.writeLock().unlock();
-	}
-
-	m_chatSignaturePublicKeyPairMutex.writeLock().lock();
-
-	try
-	{
-	    m_chatSignaturePublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.writeLock().unlock();
-	}
-
-	m_encryptionKeyMutex.writeLock().lock();
-
-	try
-	{
-	    byte bytes[] = new byte[CIPHER_KEY_LENGTH];
-
-	    Arrays.fill(bytes, (byte) 0);
-	    m_encryptionKey = new SecretKeySpec(bytes, SYMMETRIC_ALGORITHM);
-	}
-	finally
-	{
-	    m_encryptionKeyMutex.writeLock().unlock();
-	}
-
-	m_identityMutex.writeLock().lock();
-
-	try
-	{
-	    m_identity = null;
-	}
-	finally
-	{
-	    m_identityMutex.writeLock().unlock();
-	}
-
-	m_macKeyMutex.writeLock().lock();
-
-	try
-	{
-	    byte bytes[] = new byte[HASH_KEY_LENGTH];
-
-	    Arrays.fill(bytes, (byte) 0);
-	    m_encryptionKey = new SecretKeySpec(bytes, HASH_ALGORITHM);
-	}
-	finally
-	{
-	    m_macKeyMutex.writeLock().unlock();
-	}
-
-	m_ozoneEncryptionKeyMutex.writeLock().lock();
-
-	try
-	{
-	    if(m_ozoneEncryptionKey != null)
-		Arrays.fill(m_ozoneEncryptionKey, (byte) 0);
-
-	    m_ozoneEncryptionKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_ozoneEncryptionKeyMutex.writeLock().unlock();
-	}
-
-	m_ozoneMacKeyMutex.writeLock().lock();
-
-	try
-	{
-	    if(m_ozoneMacKey != null)
-		Arrays.fill(m_ozoneMacKey, (byte) 0);
-
-	    m_ozoneMacKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_ozoneMacKeyMutex.writeLock().unlock();
-	}
-
-	m_sipHashEncryptionKeyMutex.writeLock().lock();
-
-	try
-	{
-	    if(m_sipHashEncryptionKey != null)
-		Arrays.fill(m_sipHashEncryptionKey, (byte) 0);
-
-	    m_sipHashEncryptionKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_sipHashEncryptionKeyMutex.writeLock().unlock();
-	}
+	/*
+	** Write the HMAC of data[offset ... offset + length - 1] into
+	** output. Returns HASH_KEY_LENGTH or -1.
+	*/
 
-	m_sipHashIdDigestMutex.writeLock().lock();
+	if(data == null || keyBytes == null || output == null)
+	    return -1;
 
 	try
 	{
-	    if(m_sipHashIdDigest != null)
-		Arrays.fill(m_sipHashIdDigest, (byte) 0);
+	    Mac mac = mac(null, keyBytes);
 
-	    m_sipHashIdDigest = null;
+	    mac.update(data, offset, length);
+	    mac.doFinal(output, outputOffset);
+	    return mac.getMacLength();
 	}
 	catch(Exception exception)
 	{
+	    return -1;
 	}
-	finally
-	{
-	    m_sipHashIdDigestMutex.writeLock().unlock();
-	}
-
-	m_sipHashIdMutex.writeLock().lock();
-
-	try
-	{
-	    m_sipHashId = DEFAULT_SIPHASH_ID;
-	}
-	finally
-	{
-	    m_sipHashIdMutex.writeLock().unlock();
-	}
-
-	m_sipHashMacKeyMutex.writeLock().lock();
+    }
 
-	try
-	{
-	    if(m_sipHashMacKey != null)
-		Arrays.fill(m_sipHashMacKey, (byte) 0);
+    public static synchronized Cryptography getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new Cryptography();
 
-	    m_sipHashMacKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_sipHashMacKeyMutex.writeLock().unlock();
-	}
+	return s_instance;
     }
 
-    public void resetPKI()
+    public boolean prepareSipHashIds(String alias)
     {
-	m_chatEncryptionPublicKeyPairMutex.writeLock().lock();
-
 	try
 	{
-	    m_chatEncryptionPublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.writeLock().unlock();
-	}
+	    byte bytes[] = null;
 
-	m_chatSignaturePublicKeyPairMutex.writeLock().lock();
+	    if(alias == null || alias.trim().isEmpty())
+		bytes = ByteUtilities.joinByteArrays
+		    (chatEncryptionKeyPair().getPublic().getEncoded(),
+		     chatSignatureKeyPair().getPublic().getEncoded());
+	    else
+		bytes = alias.getBytes(StandardCharsets.UTF_8);
 
-	try
-	{
-	    m_chatSignaturePublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.writeLock().unlock();
-	}
+	    if(bytes != null)
+	    {
+		byte key[] = keyForSipHash(bytes);
 
-	m_identityMutex.writeLock().lock();
+		if(key == null)
+		    return false;
 
-	try
-	{
-	    m_identity = null;
-	}
-	finally
-	{
-	    m_identityMutex.writeLock().unlock();
-	}
+		SipHash sipHash = new SipHash();
+		long value[] = sipHash.hmac(bytes, key, SIPHASH_OUTPUT_LENGTH);
 
-	m_ozoneEncryptionKeyMutex.writeLock().lock();
+		if(value.equals(new long[] {0L, 0L}))
+		    return false;
 
-	try
-	{
-	    if(m_ozoneEncryptionKey != null)
-		Arrays.fill(m_ozoneEncryptionKey, (byte) 0);
+		bytes = ByteUtilities.longArrayToByteArray(value);
 
-	    m_ozoneEncryptionKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_ozoneEncryptionKeyMutex.writeLock().unlock();
-	}
+		if(bytes == null)
+		    return false;
 
-	m_ozoneMacKeyMutex.writeLock().lock();
+		String sipHashId = ByteUtilities.
+		    byteArrayAsHexStringDelimited(bytes, '-', 4).
+		    toUpperCase();
 
-	try
-	{
-	    if(m_ozoneMacKey != null)
-		Arrays.fill(m_ozoneMacKey, (byte) 0);
+		synchronized(m_keysMutex)
+		{
+		    Keys keys = new Keys(m_keys.get());
 
-	    m_ozoneMacKey = null;
+		    keys.m_sipHashId = sipHashId;
+		    keys.m_sipHashIdDigest = sha512(sipHashId.getBytes());
+		    m_keys.set(keys);
+		}
+	    }
+	    else
+		return false;
 	}
 	catch(Exception exception)
 	{
-	}
-	finally
-	{
-	    m_ozoneMacKeyMutex.writeLock().unlock();
+	    return false;
 	}
 
-	m_sipHashEncryptionKeyMutex.writeLock().lock();
-
-	try
-	{
-	    if(m_sipHashEncryptionKey != null)
-		Arrays.fill(m_sipHashEncryptionKey, (byte) 0);
+	return true;
+    }
 
-	    m_sipHashEncryptionKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_sipHashEncryptionKeyMutex.writeLock().unlock();
-	}
+    public void exit()
+    {
+	reset();
+    }
 
-	m_sipHashIdDigestMutex.writeLock().lock();
+    public void reset()
+    {
+	/*
+	** The symmetric keys are discarded. Every thread prepares new
+	** contexts.
+	*/
 
-	try
-	{
-	    if(m_sipHashIdDigest != null)
-		Arrays.fill(m_sipHashIdDigest, (byte) 0);
+	s_generation.getAndIncrement();
 
-	    m_sipHashIdDigest = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
+	synchronized(m_keysMutex)
 	{
-	    m_sipHashIdDigestMutex.writeLock().unlock();
-	}
-
-	m_sipHashIdMutex.writeLock().lock();
+	    Keys keys = new Keys();
+	    Keys previous = m_keys.get();
 
-	try
-	{
-	    m_sipHashId = DEFAULT_SIPHASH_ID;
-	}
-	finally
-	{
-	    m_sipHashIdMutex.writeLock().unlock();
+	    keys.m_chatEncryptionPublicKeyAlgorithm =
+		previous.m_chatEncryptionPublicKeyAlgorithm;
+	    m_keys.set(keys);
+	    clear(previous.m_ozoneEncryptionKey);
+	    clear(previous.m_ozoneMacKey);
+	    clear(previous.m_sipHashEncryptionKey);
+	    clear(previous.m_sipHashIdDigest);
+	    clear(previous.m_sipHashMacKey);
 	}
+    }
 
-	m_sipHashMacKeyMutex.writeLock().lock();
-
-	try
+    public void resetPKI()
+    {
+	synchronized(m_keysMutex)
 	{
-	    if(m_sipHashMacKey != null)
-		Arrays.fill(m_sipHashMacKey, (byte) 0);
+	    Keys previous = m_keys.get();
+	    Keys keys = new Keys(previous);
 
-	    m_sipHashMacKey = null;
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_sipHashMacKeyMutex.writeLock().unlock();
+	    keys.clearPKI();
+	    m_keys.set(keys);
+	    clear(previous.m_ozoneEncryptionKey);
+	    clear(previous.m_ozoneMacKey);
+	    clear(previous.m_sipHashEncryptionKey);
+	    clear(previous.m_sipHashIdDigest);
+	    clear(previous.m_sipHashMacKey);
 	}
     }
 
     public void setChatEncryptionPublicKeyAlgorithm(String algorithm)
     {
-	m_chatEncryptionPublicKeyAlgorithm = algorithm;
+	synchronized(m_keysMutex)
+	{
+	    Keys keys = new Keys(m_keys.get());
+
+	    keys.m_chatEncryptionPublicKeyAlgorithm = algorithm;
+	    m_keys.set(keys);
+	}
     }
 
     public void setChatEncryptionPublicKeyPair(KeyPair keyPair)
     {
-	m_chatEncryptionPublicKeyPairMutex.writeLock().lock();
-
-	try
-	{
-	    m_chatEncryptionPublicKeyPair = keyPair;
-	}
-	finally
+	synchronized(m_keysMutex)
 	{
-	    m_chatEncryptionPublicKeyPairMutex.writeLock().unlock();
+	    Keys keys = new Keys(m_keys.get());
+
+	    keys.m_chatEncryptionPublicKeyPair = keyPair;
+	    m_keys.set(keys);
 	}
     }
 
@@ -2662,34 +2340,29 @@ public class Cryptography
 					       byte privateBytes[],
 					       byte publicBytes[])
     {
-	m_chatEncryptionPublicKeyPairMutex.writeLock().lock();
+	KeyPair keyPair = null;
 
 	try
 	{
-	    m_chatEncryptionPublicKeyPair = generatePrivatePublicKeyPair
+	    keyPair = generatePrivatePublicKeyPair
 		(algorithm, privateBytes, publicBytes);
 	}
 	catch(Exception exception)
 	{
-	    m_chatEncryptionPublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatEncryptionPublicKeyPairMutex.writeLock().unlock();
+	    keyPair = null;
 	}
+
+	setChatEncryptionPublicKeyPair(keyPair);
     }
 
     public void setChatSignaturePublicKeyPair(KeyPair keyPair)
     {
-	m_chatSignaturePublicKeyPairMutex.writeLock().lock();
-
-	try
-	{
-	    m_chatSignaturePublicKeyPair = keyPair;
-	}
-	finally
+	synchronized(m_keysMutex)
 	{
-	    m_chatSignaturePublicKeyPairMutex.writeLock().unlock();
+	    Keys keys = new Keys(m_keys.get());
+
+	    keys.m_chatSignaturePublicKeyPair = keyPair;
+	    m_keys.set(keys);
 	}
     }
 
@@ -2697,98 +2370,76 @@ public class Cryptography
 					      byte privateBytes[],
 					      byte publicBytes[])
     {
-	m_chatSignaturePublicKeyPairMutex.writeLock().lock();
+	KeyPair keyPair = null;
 
 	try
 	{
-	    m_chatSignaturePublicKeyPair = generatePrivatePublicKeyPair
+	    keyPair = generatePrivatePublicKeyPair
 		(algorithm, privateBytes, publicBytes);
 	}
 	catch(Exception exception)
 	{
-	    m_chatSignaturePublicKeyPair = null;
-	}
-	finally
-	{
-	    m_chatSignaturePublicKeyPairMutex.writeLock().unlock();
+	    keyPair = null;
 	}
+
+	setChatSignaturePublicKeyPair(keyPair);
     }
 
     public void setEncryptionKey(SecretKey key)
     {
-	m_encryptionKeyMutex.writeLock().lock();
-
-	try
+	synchronized(m_keysMutex)
 	{
-	    m_encryptionKey = key;
-	}
-	finally
-	{
-	    m_encryptionKeyMutex.writeLock().unlock();
+	    Keys keys = new Keys(m_keys.get());
+
+	    keys.m_encryptionKey = key;
+	    m_keys.set(keys);
 	}
     }
 
     public void setMacKey(SecretKey key)
     {
-	m_macKeyMutex.writeLock().lock();
-
-	try
+	synchronized(m_keysMutex)
 	{
-	    m_macKey = key;
-	}
-	finally
-	{
-	    m_macKeyMutex.writeLock().unlock();
+	    Keys keys = new Keys(m_keys.get());
+
+	    keys.m_macKey = key;
+	    m_keys.set(keys);
 	}
     }
 
     public void setOzoneEncryptionKey(byte bytes[])
     {
-	m_ozoneEncryptionKeyMutex.writeLock().lock();
-
-	try
+	synchronized(m_keysMutex)
 	{
+	    Keys keys = new Keys(m_keys.get());
+
 	    if(bytes != null && bytes.length == CIPHER_KEY_LENGTH)
-		m_ozoneEncryptionKey = bytes;
+		keys.m_ozoneEncryptionKey = bytes;
 	    else
 	    {
-		if(m_ozoneEncryptionKey != null)
-		    Arrays.fill(m_ozoneEncryptionKey, (byte) 0);
-
-		m_ozoneEncryptionKey = null;
+		clear(keys.m_ozoneEncryptionKey);
+		keys.m_ozoneEncryptionKey = null;
 	    }
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_ozoneEncryptionKeyMutex.writeLock().unlock();
+
+	    m_keys.set(keys);
 	}
     }
 
     public void setOzoneMacKey(byte bytes[])
     {
-	m_ozoneMacKeyMutex.writeLock().lock();
-
-	try
+	synchronized(m_keysMutex)
 	{
+	    Keys keys = new Keys(m_keys.get());
+
 	    if(bytes != null && bytes.length == HASH_KEY_LENGTH)
-		m_ozoneMacKey = bytes;
+		keys.m_ozoneMacKey = bytes;
 	    else
 	    {
-		if(m_ozoneMacKey != null)
-		    Arrays.fill(m_ozoneMacKey, (byte) 0);
-
-		m_ozoneMacKey = null;
+		clear(keys.m_ozoneMacKey);
+		keys.m_ozoneMacKey = null;
 	    }
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_ozoneMacKeyMutex.writeLock().unlock();
+
+	    m_keys.set(keys);
 	}
     }
 }
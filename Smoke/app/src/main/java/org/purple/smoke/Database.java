@@ -32,6 +32,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Base64;
 import android.util.Patterns;
@@ -47,7 +48,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.security.KeyPair;
 
@@ -56,7 +57,16 @@ public class Database extends SQLiteOpenHelper
     private Cursor m_readMemberChatCursor = null;
     private SQLiteDatabase m_db = null;
     private String m_readMemberChatSipHashId = "";
+    private final AtomicLong m_freePages = new AtomicLong(0L);
+    private final AtomicLong m_lastVacuum = new AtomicLong(-1L);
+    private final AtomicLong m_neighborsGeneration = new AtomicLong(0L);
+    private final AtomicLong m_pages = new AtomicLong(0L);
+    private final AtomicLong m_vacuumFailures = new AtomicLong(0L);
+    private final AtomicLong m_vacuumRetry = new AtomicLong(0L);
+    private final Object m_neighborRecordMutex = new Object();
     private final Object m_readMemberChatCursorMutex = new Object();
+    private final ParticipantCache m_participantCache =
+	new ParticipantCache();
     private final static Comparator<FireElement>
 	s_readFiresComparator = new Comparator<FireElement> ()
 	{
@@ -151,10 +161,98 @@ public class Database extends SQLiteOpenHelper
 		return e1.m_sipHashId.compareTo(e2.m_sipHashId);
 	    }
 	};
-    private final static ReentrantReadWriteLock s_congestionControlMutex =
-	new ReentrantReadWriteLock();
     private final static String DATABASE_NAME = "smoke.db";
-    private final static int DATABASE_VERSION = 1;
+    private final static String DELETE_ORPHANED_OUTBOUND_MESSAGES =
+	"DELETE FROM outbound_messages WHERE NOT EXISTS " +
+	"(SELECT 1 FROM outbound_deliveries d " +
+	"WHERE d.message_oid = outbound_messages.oid)";
+    private final static String INDEXES[] = new String[]
+	{"CREATE INDEX IF NOT EXISTS outbound_deliveries_neighbor_oid_index " +
+	 "ON outbound_deliveries (neighbor_oid)",
+	 "CREATE INDEX IF NOT EXISTS participants_encryption_index " +
+	 "ON participants (encryption_public_key_digest)",
+	 "CREATE INDEX IF NOT EXISTS participants_keys_siphash_id_index " +
+	 "ON participants_keys (siphash_id_digest, timestamp)",
+	 "CREATE INDEX IF NOT EXISTS participants_messages_siphash_id_index " +
+	 "ON participants_messages (siphash_id_digest, timestamp)",
+	 "CREATE INDEX IF NOT EXISTS steam_files_file_identity_index " +
+	 "ON steam_files (file_identity_digest)"};
+    private final static String MIGRATIONS[][] =
+    {
+	/*
+	** Version 2.
+	*/
+
+	{"CREATE INDEX IF NOT EXISTS outbound_queue_neighbor_oid_index " +
+	 "ON outbound_queue (neighbor_oid)",
+	 "CREATE INDEX IF NOT EXISTS participants_encryption_index " +
+	 "ON participants (encryption_public_key_digest)",
+	 "CREATE INDEX IF NOT EXISTS participants_keys_siphash_id_index " +
+	 "ON participants_keys (siphash_id_digest, timestamp)",
+	 "CREATE INDEX IF NOT EXISTS participants_messages_siphash_id_index " +
+	 "ON participants_messages (siphash_id_digest, timestamp)",
+	 "CREATE INDEX IF NOT EXISTS steam_files_file_identity_index " +
+	 "ON steam_files (file_identity_digest)"},
+
+	/*
+	** Version 3. The outbound_queue table is replaced by the
+	** outbound_deliveries and outbound_messages tables.
+	*/
+
+	{"INSERT INTO outbound_messages " +
+	 "(oid, message, message_identity_digest) " +
+	 "SELECT oid, message, message_identity_digest FROM outbound_queue",
+	 "INSERT INTO outbound_deliveries (message_oid, neighbor_oid) " +
+	 "SELECT oid, neighbor_oid FROM outbound_queue",
+	 "DROP TABLE IF EXISTS outbound_queue",
+	 "CREATE INDEX IF NOT EXISTS outbound_deliveries_neighbor_oid_index " +
+	 "ON outbound_deliveries (neighbor_oid)"},
+
+	/*
+	** Version 4. The non-key fields of neighbors are stored in
+	** a single encrypted record. Existing rows are converted as
+	** they are read since the keys are not available here.
+	*/
+
+	{"ALTER TABLE neighbors ADD COLUMN record BLOB"}
+    };
+    private final static String NEIGHBOR_RECORD_FIELDS[] = new String[]
+	{"ip_version",
+	 "non_tls",
+	 "passthrough",
+	 "proxy_ip_address",
+	 "proxy_port",
+	 "proxy_type",
+	 "remote_certificate",
+	 "remote_ip_address",
+	 "remote_port",
+	 "remote_scope_id",
+	 "status_control",
+	 "transport"};
+
+    /*
+    ** Statistics are maintained by NeighborMetrics. The legacy columns
+    ** remain in the schema and are cleared whenever a record is written.
+    */
+
+    private final static String NEIGHBOR_STATISTICS_FIELDS[] = new String[]
+	{"bytes_read",
+	 "bytes_written",
+	 "echo_queue_size",
+	 "last_error",
+	 "local_ip_address",
+	 "local_port",
+	 "session_cipher",
+	 "status",
+	 "uptime"};
+    private final static int DATABASE_VERSION = 1 + MIGRATIONS.length;
+    private final static int MAINTENANCE_INCREMENTAL_PAGES = 128;
+    private final static int MAINTENANCE_VACUUM_PERCENT = 25;
+    private final static long MAINTENANCE_VACUUM_BACKOFF =
+	300000L; // 5 minutes.
+    private final static long MAINTENANCE_VACUUM_INTERVAL =
+	86400000L; // 24 hours.
+    private final static long MAINTENANCE_VACUUM_PAGES = 2048L;
     private final static long WRITE_PARTICIPANT_TIME_DELTA =
 	60000L; // 60 seconds.
     private static Database s_instance = null;
@@ -164,6 +262,344 @@ public class Database extends SQLiteOpenHelper
     }
     public final static int SIPHASH_STREAM_CREATION_ITERATION_COUNT = 4096;
 
+    private static boolean migrate(SQLiteDatabase db, int version)
+    {
+	/*
+	** MIGRATIONS[i] transforms version i + 1 into version i + 2.
+	** The statements of a version are applied in a transaction and
+	** the first failure stops the migration. Returns false if a
+	** version could not be applied.
+	*/
+
+	for(int i = Math.max(0, version - 1); i < MIGRATIONS.length; i++)
+	{
+	    boolean migrated = false;
+
+	    db.beginTransaction();
+
+	    try
+	    {
+		for(String string : MIGRATIONS[i])
+		    db.execSQL(string);
+
+		db.setTransactionSuccessful();
+		migrated = true;
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		db.endTransaction();
+	    }
+
+	    if(!migrated)
+		return false;
+	}
+
+	return true;
+    }
+
+    private DatabaseRecord readNeighborRecord(Cryptography cryptography,
+					      String oid)
+    {
+	/*
+	** Rows which predate the record column are converted.
+	*/
+
+	if(cryptography == null || m_db == null)
+	    return null;
+
+	Cursor cursor = null;
+	DatabaseRecord record = null;
+	boolean convert = false;
+
+	try
+	{
+	    StringBuilder stringBuilder = new StringBuilder();
+
+	    stringBuilder.append("SELECT record");
+
+	    for(String string : NEIGHBOR_RECORD_FIELDS)
+	    {
+		stringBuilder.append(", ");
+		stringBuilder.append(string);
+	    }
+
+	    stringBuilder.append(" FROM neighbors WHERE oid = ?");
+	    cursor = m_db.rawQuery
+		(stringBuilder.toString(), new String[] {oid});
+
+	    if(cursor != null && cursor.moveToFirst())
+	    {
+		if(!cursor.isNull(0))
+		    record = DatabaseRecord.decrypt
+			(cryptography, cursor.getBlob(0));
+		else
+		{
+		    convert = true;
+		    record = new DatabaseRecord();
+
+		    for(int i = 0; i < NEIGHBOR_RECORD_FIELDS.length; i++)
+		    {
+			byte bytes[] = cryptography.mtd
+			    (Base64.decode(cursor.getString(i + 1).getBytes(),
+					   Base64.DEFAULT));
+
+			if(bytes == null)
+			{
+			    record = null;
+			    break;
+			}
+
+			record.put(NEIGHBOR_RECORD_FIELDS[i], bytes);
+		    }
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	    record = null;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	if(convert && record != null)
+	    writeNeighborRecord(cryptography, null, record, oid, true);
+
+	return record;
+    }
+
+    private ParticipantCache.Element participant(Cryptography cryptography,
+						 String sipHashId)
+    {
+	if(cryptography == null || sipHashId == null || m_db == null)
+	    return null;
+
+	ParticipantCache.Element element = m_participantCache.get(sipHashId);
+
+	if(element != null)
+	    return element;
+
+	byte bytes[] = cryptography.hmac
+	    (sipHashId.toUpperCase().trim().getBytes(StandardCharsets.UTF_8));
+
+	if(bytes == null)
+	    return null;
+	else
+	    return readParticipantElement
+		(cryptography,
+		 "siphash_id_digest",
+		 Base64.encodeToString(bytes, Base64.DEFAULT));
+    }
+
+    private ParticipantCache.Element participant(Cryptography cryptography,
+						 byte digest[])
+    {
+	if(cryptography == null || digest == null || m_db == null)
+	    return null;
+
+	ParticipantCache.Element element = m_participantCache.get(digest);
+
+	if(element != null)
+	    return element;
+	else
+	    return readParticipantElement
+		(cryptography,
+		 "encryption_public_key_digest",
+		 Base64.encodeToString(digest, Base64.DEFAULT));
+    }
+
+    private ParticipantCache.Element readParticipantElement
+	(Cryptography cryptography, String column, String value)
+    {
+	Cursor cursor = null;
+	ParticipantCache.Element element = null;
+	long generation = m_participantCache.generation();
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT p.encryption_public_key_digest, " + // 0
+		 "p.keystream, " +                           // 1
+		 "p.options, " +                             // 2
+		 "p.signature_public_key, " +                // 3
+		 "p.siphash_id, " +                          // 4
+		 "s.name " +                                 // 5
+		 "FROM participants p " +
+		 "LEFT JOIN siphash_ids s " +
+		 "ON p.siphash_id_digest = s.siphash_id_digest " +
+		 "WHERE p." + column + " = ?",
+		 new String[] {value});
+
+	    if(cursor != null && cursor.moveToFirst())
+	    {
+		byte bytes[] = cryptography.mtd
+		    (Base64.decode(cursor.getString(4).getBytes(),
+				   Base64.DEFAULT));
+
+		if(bytes != null)
+		{
+		    element = new ParticipantCache.Element();
+		    element.m_digest = Base64.decode
+			(cursor.getString(0).getBytes(), Base64.DEFAULT);
+		    element.m_keyStream = cryptography.mtd
+			(Base64.decode(cursor.getString(1).getBytes(),
+				       Base64.DEFAULT));
+		    element.m_sipHashId = new String
+			(bytes, StandardCharsets.UTF_8);
+		    bytes = cryptography.mtd
+			(Base64.decode(cursor.getString(2).getBytes(),
+				       Base64.DEFAULT));
+
+		    if(bytes != null)
+			element.m_options = new String(bytes);
+
+		    bytes = cryptography.mtd
+			(Base64.decode(cursor.getString(3).getBytes(),
+				       Base64.DEFAULT));
+
+		    if(bytes != null)
+			for(int i = 0; i < 2; i++)
+			    try
+			    {
+				if(i == 0)
+				    element.m_signatureKey = KeyFactory.
+					getInstance("EC").generatePublic
+					(new X509EncodedKeySpec(bytes));
+				else
+				    element.m_signatureKey = KeyFactory.
+					getInstance("RSA").generatePublic
+					(new X509EncodedKeySpec(bytes));
+
+				break;
+			    }
+			    catch(Exception exception)
+			    {
+			    }
+
+		    if(!cursor.isNull(5))
+		    {
+			bytes = cryptography.mtd
+			    (Base64.decode(cursor.getString(5).getBytes(),
+					   Base64.DEFAULT));
+
+			if(bytes != null)
+			    element.m_name = new String(bytes);
+		    }
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	    element = null;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	m_participantCache.put(element, generation);
+	return element;
+    }
+
+    private boolean writeNeighborRecord(Cryptography cryptography,
+					ContentValues values,
+					DatabaseRecord record,
+					String oid,
+					boolean convert)
+    {
+	/*
+	** The legacy columns are cleared. A conversion does not replace
+	** a record which was written in the meantime.
+	*/
+
+	byte bytes[] = record.encrypt(cryptography);
+
+	if(bytes == null)
+	    return false;
+
+	boolean ok = false;
+
+	m_db.beginTransactionNonExclusive();
+
+	try
+	{
+	    if(values == null)
+		values = new ContentValues();
+
+	    for(String string : NEIGHBOR_RECORD_FIELDS)
+		values.put(string, "");
+
+	    for(String string : NEIGHBOR_STATISTICS_FIELDS)
+		values.put(string, "");
+
+	    values.put("record", bytes);
+	    ok = m_db.update("neighbors",
+			     values,
+			     convert ? "oid = ? AND record IS NULL" : "oid = ?",
+			     new String[] {oid}) > 0;
+	    m_db.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	    ok = false;
+	}
+	finally
+	{
+	    m_db.endTransaction();
+	}
+
+	if(ok)
+	    m_neighborsGeneration.getAndIncrement();
+
+	return ok;
+    }
+
+    private long pragma(String name)
+    {
+	if(m_db == null)
+	    return -1L;
+
+	Cursor cursor = null;
+	long value = -1L;
+
+	try
+	{
+	    cursor = m_db.rawQuery("PRAGMA " + name, null);
+
+	    if(cursor != null && cursor.moveToFirst())
+		value = cursor.getLong(0);
+	}
+	catch(Exception exception)
+	{
+	    value = -1L;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	return value;
+    }
+
+    private long readMaintenanceSetting(String name)
+    {
+	try
+	{
+	    return Math.max(0L, Long.parseLong(readSetting(null, name)));
+	}
+	catch(Exception exception)
+	{
+	    return 0L;
+	}
+    }
+
     private Database(Context context)
     {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -178,6 +614,53 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
+    private void convertNeighborRecords(Cryptography cryptography)
+    {
+	Cursor cursor = null;
+	ArrayList<String> oids = new ArrayList<> ();
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT oid FROM neighbors WHERE record IS NULL", null);
+
+	    if(cursor != null && cursor.moveToFirst())
+		while(!cursor.isAfterLast())
+		{
+		    oids.add(cursor.getString(0));
+		    cursor.moveToNext();
+		}
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	for(String oid : oids)
+	    readNeighborRecord(cryptography, oid);
+    }
+
+    private void loadMaintenanceState()
+    {
+	/*
+	** The vacuum schedule survives restarts. Otherwise, a large
+	** database would be vacuumed again after every launch.
+	*/
+
+	if(m_lastVacuum.get() >= 0L)
+	    return;
+
+	m_vacuumFailures.set
+	    (readMaintenanceSetting("database_vacuum_failures"));
+	m_vacuumRetry.set(readMaintenanceSetting("database_vacuum_retry"));
+	m_lastVacuum.compareAndSet
+	    (-1L, readMaintenanceSetting("database_last_vacuum"));
+    }
+
     public ArrayList<FireElement> readFires(Cryptography cryptography)
     {
 	if(cryptography == null || m_db == null)
@@ -268,15 +751,14 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return null;
 
+	convertNeighborRecords(cryptography);
+
 	Cursor cursor = null;
 	ArrayList<NeighborElement> arrayList = null;
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("SELECT passthrough, " +
-		 "status_control, " +
-		 "oid FROM neighbors", null);
+	    cursor = m_db.rawQuery("SELECT record, oid FROM neighbors", null);
 
 	    if(cursor != null && cursor.moveToFirst())
 	    {
@@ -284,52 +766,35 @@ public class Database extends SQLiteOpenHelper
 
 		while(!cursor.isAfterLast())
 		{
-		    NeighborElement neighborElement = new NeighborElement();
-		    boolean error = false;
-		    int count = cursor.getColumnCount();
-
-		    for(int i = 0; i < count; i++)
-		    {
-			if(i == count - 1)
-			{
-			    neighborElement.m_oid = cursor.getInt(i);
-			    continue;
-			}
-
-			byte bytes[] = cryptography.mtd
-			    (Base64.decode(cursor.getString(i).getBytes(),
-					   Base64.DEFAULT));
-
-			if(bytes == null)
-			{
-			    error = true;
+		    DatabaseRecord record = null;
+		    int oid = cursor.getInt(1);
 
-			    StringBuilder stringBuilder = new StringBuilder();
+		    if(!cursor.isNull(0))
+			record = DatabaseRecord.decrypt
+			    (cryptography, cursor.getBlob(0));
 
-			    stringBuilder.append
-				("Database::readNeighborOids(): ");
-			    stringBuilder.append("error on column ");
-			    stringBuilder.append(cursor.getColumnName(i));
-			    stringBuilder.append(".");
-			    writeLog(stringBuilder.toString());
-			    break;
-			}
+		    if(record == null)
+		    {
+			StringBuilder stringBuilder = new StringBuilder();
 
-			switch(i)
-			{
-			case 0:
-			    neighborElement.m_passthrough = new String(bytes);
-			    break;
-			case 1:
-			    neighborElement.m_statusControl = new String(bytes);
-			    break;
-			default:
-			    break;
-			}
+			stringBuilder.append("Database::readNeighborOids(): ");
+			stringBuilder.append("error on record of neighbor ");
+			stringBuilder.append(oid);
+			stringBuilder.append(".");
+			writeLog(stringBuilder.toString());
 		    }
-
-		    if(!error)
+		    else
+		    {
+			NeighborElement neighborElement =
+			    new NeighborElement();
+
+			neighborElement.m_oid = oid;
+			neighborElement.m_passthrough = record.getString
+			    ("passthrough");
+			neighborElement.m_statusControl = record.getString
+			    ("status_control");
 			arrayList.add(neighborElement);
+		    }
 
 		    cursor.moveToNext();
 		}
@@ -359,6 +824,8 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return null;
 
+	convertNeighborRecords(cryptography);
+
 	Cursor cursor = null;
 	ArrayList<NeighborElement> arrayList = null;
 
@@ -366,29 +833,9 @@ public class Database extends SQLiteOpenHelper
 	{
 	    cursor = m_db.rawQuery
 		("SELECT " +
-		 "(SELECT COUNT(*) FROM outbound_queue o WHERE " +
+		 "(SELECT COUNT(*) FROM outbound_deliveries o WHERE " +
 		 "o.neighbor_oid = n.oid), " +
-		 "n.bytes_read, " +
-		 "n.bytes_written, " +
-		 "n.echo_queue_size, " +
-		 "n.ip_version, " +
-		 "n.last_error, " +
-		 "n.local_ip_address, " +
-		 "n.local_port, " +
-		 "n.non_tls, " +
-		 "n.passthrough, " +
-		 "n.proxy_ip_address, " +
-		 "n.proxy_port, " +
-		 "n.proxy_type, " +
-		 "n.remote_certificate, " +
-		 "n.remote_ip_address, " +
-		 "n.remote_port, " +
-		 "n.remote_scope_id, " +
-		 "n.session_cipher, " +
-		 "n.status, " +
-		 "n.status_control, " +
-		 "n.transport, " +
-		 "n.uptime, " +
+		 "n.record, " +
 		 "n.oid " +
 		 "FROM neighbors n ORDER BY n.oid", null);
 
@@ -398,218 +845,64 @@ public class Database extends SQLiteOpenHelper
 
 		while(!cursor.isAfterLast())
 		{
+		    DatabaseRecord record = null;
 		    NeighborElement neighborElement = new NeighborElement();
-		    int count = cursor.getColumnCount();
-		    int oid = cursor.getInt(count - 1);
-
-		    for(int i = 0; i < count; i++)
-		    {
-			if(i == count - 1)
-			{
-			    neighborElement.m_oid = oid;
-			    continue;
-			}
-
-			byte bytes[] = null;
-
-			if(i != 0)
-			    bytes = cryptography.mtd
-				(Base64.decode(cursor.getString(i).getBytes(),
-					       Base64.DEFAULT));
-
-			if(bytes == null && i != 0)
-			{
-			    StringBuilder stringBuilder = new StringBuilder();
-
-			    stringBuilder.append("Database::readNeighbors(): ");
-			    stringBuilder.append("error on column ");
-			    stringBuilder.append(cursor.getColumnName(i));
-			    stringBuilder.append(".");
-			    writeLog(stringBuilder.toString());
-			}
-
-			switch(i)
-			{
-			case 0:
-			    neighborElement.m_outboundQueued =
-				cursor.getInt(i);
-			    break;
-			case 1:
-			    if(bytes != null)
-				neighborElement.m_bytesRead = new String(bytes);
-			    else
-				neighborElement.m_bytesRead =
-				    "error (" + oid + ")";
-
-			    break;
-			case 2:
-			    if(bytes != null)
-				neighborElement.m_bytesWritten =
-				    new String(bytes);
-			    else
-				neighborElement.m_bytesWritten =
-				    "error (" + oid + ")";
-
-			    break;
-			case 3:
-			    if(bytes != null)
-				neighborElement.m_echoQueueSize =
-				    new String(bytes);
-			    else
-				neighborElement.m_echoQueueSize =
-				    "error (" + oid + ")";
-
-			    break;
-			case 4:
-			    if(bytes != null)
-				neighborElement.m_ipVersion = new String(bytes);
-			    else
-				neighborElement.m_ipVersion =
-				    "error (" + oid + ")";
-
-			    break;
-			case 5:
-			    if(bytes != null)
-				neighborElement.m_error = new String(bytes);
-			    else
-				neighborElement.m_error =
-				    "error (" + oid + ")";
-
-			    break;
-			case 6:
-			    if(bytes != null)
-				neighborElement.m_localIpAddress =
-				    new String(bytes);
-			    else
-				neighborElement.m_localIpAddress =
-				    "error (" + oid + ")";
-
-			    break;
-			case 7:
-			    if(bytes != null)
-				neighborElement.m_localPort = new String(bytes);
-			    else
-				neighborElement.m_localPort =
-				    "error (" + oid + ")";
-
-			    break;
-			case 8:
-			    if(bytes != null)
-				neighborElement.m_nonTls = new String(bytes);
-			    else
-				neighborElement.m_nonTls =
-				    "error (" + oid + ")";
-
-			    break;
-			case 9:
-			    if(bytes != null)
-				neighborElement.m_passthrough =
-				    new String(bytes);
-			    else
-				neighborElement.m_passthrough =
-				    "error (" + oid + ")";
-
-			    break;
-			case 10:
-			    if(bytes != null)
-				neighborElement.m_proxyIpAddress =
-				    new String(bytes);
-			    else
-				neighborElement.m_proxyIpAddress =
-				    "error (" + oid + ")";
-
-			    break;
-			case 11:
-			    if(bytes != null)
-				neighborElement.m_proxyPort = new String(bytes);
-			    else
-				neighborElement.m_proxyPort =
-				    "error (" + oid + ")";
-
-			    break;
-			case 12:
-			    if(bytes != null)
-				neighborElement.m_proxyType = new String(bytes);
-			    else
-				neighborElement.m_proxyType =
-				    "error (" + oid + ")";
-
-			    break;
-			case 13:
-			    neighborElement.m_remoteCertificate = bytes;
-			    break;
-			case 14:
-			    if(bytes != null)
-				neighborElement.m_remoteIpAddress =
-				    new String(bytes);
-			    else
-				neighborElement.m_remoteIpAddress =
-				    "error (" + oid + ")";
-
-			    break;
-			case 15:
-			    if(bytes != null)
-				neighborElement.m_remotePort =
-				    new String(bytes);
-			    else
-				neighborElement.m_remotePort =
-				    "error (" + oid + ")";
-
-			    break;
-			case 16:
-			    if(bytes != null)
-				neighborElement.m_remoteScopeId =
-				    new String(bytes);
-			    else
-				neighborElement.m_remoteScopeId =
-				    "error (" + oid + ")";
-
-			    break;
-			case 17:
-			    if(bytes != null)
-				neighborElement.m_sessionCipher =
-				    new String(bytes);
-			    else
-				neighborElement.m_sessionCipher =
-				    "error (" + oid + ")";
-
-			    break;
-			case 18:
-			    if(bytes != null)
-				neighborElement.m_status = new String(bytes);
-			    else
-				neighborElement.m_status =
-				    "error (" + oid + ")";
+		    int oid = cursor.getInt(2);
 
-			    break;
-			case 19:
-			    if(bytes != null)
-				neighborElement.m_statusControl =
-				    new String(bytes);
-			    else
-				neighborElement.m_statusControl =
-				    "error (" + oid + ")";
+		    if(!cursor.isNull(1))
+			record = DatabaseRecord.decrypt
+			    (cryptography, cursor.getBlob(1));
 
-			    break;
-			case 20:
-			    if(bytes != null)
-				neighborElement.m_transport = new String(bytes);
-			    else
-				neighborElement.m_transport =
-				    "error (" + oid + ")";
+		    neighborElement.m_oid = oid;
+		    neighborElement.m_outboundQueued = cursor.getInt(0);
 
-			    break;
-			case 21:
-			    if(bytes != null)
-				neighborElement.m_uptime = new String(bytes);
-			    else
-				neighborElement.m_uptime =
-				    "error (" + oid + ")";
+		    if(record == null)
+		    {
+			StringBuilder stringBuilder = new StringBuilder();
+			String error = "error (" + oid + ")";
 
-			    break;
-			default:
-			    break;
-			}
+			stringBuilder.append("Database::readNeighbors(): ");
+			stringBuilder.append("error on record of neighbor ");
+			stringBuilder.append(oid);
+			stringBuilder.append(".");
+			writeLog(stringBuilder.toString());
+			neighborElement.m_ipVersion = error;
+			neighborElement.m_nonTls = error;
+			neighborElement.m_passthrough = error;
+			neighborElement.m_proxyIpAddress = error;
+			neighborElement.m_proxyPort = error;
+			neighborElement.m_proxyType = error;
+			neighborElement.m_remoteIpAddress = error;
+			neighborElement.m_remotePort = error;
+			neighborElement.m_remoteScopeId = error;
+			neighborElement.m_statusControl = error;
+			neighborElement.m_transport = error;
+		    }
+		    else
+		    {
+			neighborElement.m_ipVersion = record.getString
+			    ("ip_version");
+			neighborElement.m_nonTls = record.getString("non_tls");
+			neighborElement.m_passthrough = record.getString
+			    ("passthrough");
+			neighborElement.m_proxyIpAddress = record.getString
+			    ("proxy_ip_address");
+			neighborElement.m_proxyPort = record.getString
+			    ("proxy_port");
+			neighborElement.m_proxyType = record.getString
+			    ("proxy_type");
+			neighborElement.m_remoteCertificate = record.get
+			    ("remote_certificate");
+			neighborElement.m_remoteIpAddress = record.getString
+			    ("remote_ip_address");
+			neighborElement.m_remotePort = record.getString
+			    ("remote_port");
+			neighborElement.m_remoteScopeId = record.getString
+			    ("remote_scope_id");
+			neighborElement.m_statusControl = record.getString
+			    ("status_control");
+			neighborElement.m_transport = record.getString
+			    ("transport");
 		    }
 
 		    arrayList.add(neighborElement);
@@ -730,7 +1023,7 @@ public class Database extends SQLiteOpenHelper
 			case 2:
 			    if(bytes != null)
 				participantElement.m_lastStatusTimestamp =
-				    Miscellaneous.byteArrayToLong(bytes);
+				    ByteUtilities.byteArrayToLong(bytes);
 
 			    break;
 			case 3:
@@ -1213,23 +1506,136 @@ public class Database extends SQLiteOpenHelper
 				{
 				}
 
-			    break;
-			case 10:
-			    break;
-			case 11:
-			    if(bytes != null)
-				steamElement.m_transferRate = new String(bytes);
-			    else
-				steamElement.m_transferRate =
-				    "error (" + oid + ")";
+			    break;
+			case 10:
+			    break;
+			case 11:
+			    if(bytes != null)
+				steamElement.m_transferRate = new String(bytes);
+			    else
+				steamElement.m_transferRate =
+				    "error (" + oid + ")";
+
+			    break;
+			default:
+			    break;
+			}
+		    }
+
+		    arrayList.add(steamElement);
+		    cursor.moveToNext();
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	    if(arrayList != null)
+		arrayList.clear();
+
+	    arrayList = null;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	return arrayList;
+    }
+
+    public ArrayList<String> readSipHashIdStrings(Cryptography cryptography)
+    {
+	if(cryptography == null || m_db == null)
+	    return null;
+
+	ArrayList<String> arrayList = null;
+	Cursor cursor = null;
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT siphash_id FROM participants", null);
+
+	    if(cursor != null && cursor.moveToFirst())
+	    {
+		arrayList = new ArrayList<> ();
+
+		int count = cursor.getColumnCount();
+
+		while(!cursor.isAfterLast())
+		{
+		    for(int i = 0; i < count; i++)
+		    {
+			byte bytes[] = cryptography.mtd
+			    (Base64.decode(cursor.getString(i).getBytes(),
+					   Base64.DEFAULT));
+
+			if(bytes == null)
+			{
+			    StringBuilder stringBuilder = new StringBuilder();
+
+			    stringBuilder.append
+				("Database::readSipHashIdStrings(): ");
+			    stringBuilder.append("error on column ");
+			    stringBuilder.append(cursor.getColumnName(i));
+			    stringBuilder.append(".");
+			    writeLog(stringBuilder.toString());
+			    break;
+			}
+
+			arrayList.add
+			    (new String(bytes, StandardCharsets.UTF_8));
+		    }
+
+		    cursor.moveToNext();
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	    if(arrayList != null)
+		arrayList.clear();
+
+	    arrayList = null;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	return arrayList;
+    }
 
-			    break;
-			default:
-			    break;
-			}
-		    }
+    public ArrayList<String[]> readOutboundMessages(int oid, int limit)
+    {
+	if(limit <= 0 || m_db == null)
+	    return null;
 
-		    arrayList.add(steamElement);
+	ArrayList<String[]> arrayList = null;
+	Cursor cursor = null;
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT m.message, m.message_identity_digest, d.oid " +
+		 "FROM outbound_deliveries d, outbound_messages m " +
+		 "WHERE d.message_oid = m.oid AND d.neighbor_oid = ? " +
+		 "ORDER BY d.oid LIMIT ?",
+		 new String[] {String.valueOf(oid), String.valueOf(limit)});
+
+	    if(cursor != null && cursor.moveToFirst())
+	    {
+		arrayList = new ArrayList<> ();
+
+		while(!cursor.isAfterLast())
+		{
+		    String array[] = new String[3];
+
+		    array[0] = cursor.getString(0);
+		    array[1] = cursor.getString(1);
+		    array[2] = String.valueOf(cursor.getInt(2));
+		    arrayList.add(array);
 		    cursor.moveToNext();
 		}
 	    }
@@ -1250,49 +1656,37 @@ public class Database extends SQLiteOpenHelper
 	return arrayList;
     }
 
-    public ArrayList<String> readSipHashIdStrings(Cryptography cryptography)
+    public ArrayList<byte[]> readKeyStreams(Cryptography cryptography,
+					    String table)
     {
-	if(cryptography == null || m_db == null)
+	if(cryptography == null || m_db == null || table == null)
+	    return null;
+	else if(!table.equals("participants") && !table.equals("steam_files"))
 	    return null;
 
-	ArrayList<String> arrayList = null;
+	ArrayList<byte[]> arrayList = null;
 	Cursor cursor = null;
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("SELECT siphash_id FROM participants", null);
+	    cursor = m_db.rawQuery("SELECT keystream FROM " + table, null);
 
 	    if(cursor != null && cursor.moveToFirst())
 	    {
 		arrayList = new ArrayList<> ();
 
-		int count = cursor.getColumnCount();
-
 		while(!cursor.isAfterLast())
 		{
-		    for(int i = 0; i < count; i++)
-		    {
-			byte bytes[] = cryptography.mtd
-			    (Base64.decode(cursor.getString(i).getBytes(),
-					   Base64.DEFAULT));
-
-			if(bytes == null)
-			{
-			    StringBuilder stringBuilder = new StringBuilder();
+		    byte keyStream[] = null;
 
-			    stringBuilder.append
-				("Database::readSipHashIdStrings(): ");
-			    stringBuilder.append("error on column ");
-			    stringBuilder.append(cursor.getColumnName(i));
-			    stringBuilder.append(".");
-			    writeLog(stringBuilder.toString());
-			    break;
-			}
+		    if(!cursor.isNull(0))
+			keyStream = cryptography.mtd
+			    (Base64.decode(cursor.getString(0).getBytes(),
+					   Base64.DEFAULT));
 
-			arrayList.add
-			    (new String(bytes, StandardCharsets.UTF_8));
-		    }
+		    if(keyStream != null &&
+		       keyStream.length > Cryptography.CIPHER_KEY_LENGTH)
+			arrayList.add(keyStream);
 
 		    cursor.moveToNext();
 		}
@@ -1661,57 +2055,12 @@ public class Database extends SQLiteOpenHelper
     public PublicKey signatureKeyForDigest(Cryptography cryptography,
 					   byte digest[])
     {
-	if(cryptography == null || digest == null || m_db == null)
-	    return null;
-
-	Cursor cursor = null;
-	PublicKey publicKey = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT " +
-		 "signature_public_key " +
-		 "FROM participants WHERE encryption_public_key_digest = ?",
-		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
-
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-
-		if(bytes != null)
-		    for(int i = 0; i < 2; i++)
-			try
-			{
-			    if(i == 0)
-				publicKey = KeyFactory.getInstance("EC").
-				    generatePublic
-				    (new X509EncodedKeySpec(bytes));
-			    else
-				publicKey = KeyFactory.getInstance("RSA").
-				    generatePublic
-				    (new X509EncodedKeySpec(bytes));
-
-			    break;
-			}
-			catch(Exception exception)
-			{
-			}
-	    }
-	}
-	catch(Exception exception)
-	{
-	    publicKey = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
+	ParticipantCache.Element element = participant(cryptography, digest);
 
-	return publicKey;
+	if(element == null)
+	    return null;
+	else
+	    return element.m_signatureKey;
     }
 
     public SipHashIdElement readSipHashId(Cryptography cryptography,
@@ -2056,6 +2405,35 @@ public class Database extends SQLiteOpenHelper
 	return steamElement;
     }
 
+    public String maintenanceStatistics()
+    {
+	StringBuilder stringBuilder = new StringBuilder();
+	loadMaintenanceState();
+
+	long freePages = m_freePages.get();
+	long lastVacuum = m_lastVacuum.get();
+	long pages = m_pages.get();
+
+	stringBuilder.append("Database Pages: ");
+	stringBuilder.append(pages);
+	stringBuilder.append("\nDatabase Free Pages: ");
+	stringBuilder.append(freePages);
+	stringBuilder.append(" (");
+	stringBuilder.append(pages > 0L ? 100L * freePages / pages : 0L);
+	stringBuilder.append("%)\nDatabase Vacuumed: ");
+
+	if(lastVacuum > 0L)
+	{
+	    stringBuilder.append
+		((System.currentTimeMillis() - lastVacuum) / 60000L);
+	    stringBuilder.append(" minute(s) ago\n");
+	}
+	else
+	    stringBuilder.append("Never\n");
+
+	return stringBuilder.toString();
+    }
+
     public String nameFromSipHashId(Cryptography cryptography,
 				    String sipHashId)
     {
@@ -2146,79 +2524,25 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return null;
 
-	Cursor cursor = null;
-	String status = "";
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT status_control FROM neighbors WHERE oid = ?",
-		 new String[] {String.valueOf(oid)});
-
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-
-		if(bytes != null)
-		    status = new String(bytes);
-	    }
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
+	DatabaseRecord record = readNeighborRecord
+	    (cryptography, String.valueOf(oid));
 
-	return status;
+	if(record == null)
+	    return "";
+	else
+	    return record.getString("status_control");
     }
 
     public String readParticipantOptions(Cryptography cryptography,
 					 String sipHashId)
     {
-	if(cryptography == null || m_db == null)
-	    return "";
-
-	Cursor cursor = null;
-	String string = "";
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT options " +
-		 "FROM participants WHERE siphash_id_digest = ?",
-		 new String[] {Base64.
-			       encodeToString
-			       (cryptography.
-				hmac(sipHashId.toUpperCase().trim().
-				     getBytes(StandardCharsets.UTF_8)),
-				Base64.DEFAULT)});
-
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-
-		if(bytes != null)
-		    string = new String(bytes);
-	    }
-	}
-	catch(Exception exception)
-	{
-	    string = "";
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
+	ParticipantCache.Element element = participant
+	    (cryptography, sipHashId);
 
-	return string;
+	if(element == null)
+	    return "";
+	else
+	    return element.m_options;
     }
 
     public String readSetting(Cryptography cryptography, String name)
@@ -2422,7 +2746,7 @@ public class Database extends SQLiteOpenHelper
 		switch(ii)
 		{
 		case 0:
-		    long timestamp = Miscellaneous.byteArrayToLong
+		    long timestamp = ByteUtilities.byteArrayToLong
 			(Base64.decode(string.getBytes(), Base64.NO_WRAP));
 
 		    if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -2548,7 +2872,7 @@ public class Database extends SQLiteOpenHelper
 			if(Cryptography.
 			   verifySignature(encryptionKey,
 					   encryptionKeySignature,
-					   Miscellaneous.
+					   ByteUtilities.
 					   joinByteArrays(sipHashIdBytes,
 							  encryptionKey.
 							  getEncoded(),
@@ -2582,7 +2906,7 @@ public class Database extends SQLiteOpenHelper
 		    if(Cryptography.
 		       verifySignature(signatureKey,
 				       signatureKeySignature,
-				       Miscellaneous.
+				       ByteUtilities.
 				       joinByteArrays(sipHashIdBytes,
 						      encryptionKey.
 						      getEncoded(),
@@ -2659,7 +2983,7 @@ public class Database extends SQLiteOpenHelper
 			     signatureKey.getEncoded());
 			bytes = Cryptography.pbkdf2
 			    (salt,
-			     Miscellaneous.
+			     ByteUtilities.
 			     byteArrayAsHexString(Cryptography.sha512(salt)).
 			     toCharArray(),
 			     Cryptography.KEY_EXCHANGE_INITIAL_PBKDF2_ITERATION,
@@ -2742,6 +3066,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	return sipHashId;
@@ -2775,116 +3100,27 @@ public class Database extends SQLiteOpenHelper
 		for(int i = 0; i < 2; i++)
 		{
 		    byte bytes[] = cryptography.mtd
-			(Base64.decode(cursor.getString(i).getBytes(),
-				       Base64.DEFAULT));
-
-		    if(bytes == null)
-		    {
-			StringBuilder stringBuilder = new StringBuilder();
-
-			stringBuilder.append("Database::keysSigned(): ");
-			stringBuilder.append("error on column ");
-			stringBuilder.append(cursor.getColumnName(i));
-			stringBuilder.append(".");
-			writeLog(stringBuilder.toString());
-		    }
-		    else
-			strings[i] = new String(bytes);
-		}
-	    }
-	}
-	catch(Exception exception)
-	{
-	    strings = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
-
-	return strings;
-    }
-
-    public String[] nameSipHashIdFromDigest(Cryptography cryptography,
-					    byte digest[])
-    {
-	if(cryptography == null || digest == null || m_db == null)
-	    return null;
-
-	Cursor cursor = null;
-	String array[] = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT name, siphash_id " +
-		 "FROM siphash_ids WHERE siphash_id_digest = " +
-		 "(SELECT siphash_id_digest FROM participants " +
-		 "WHERE encryption_public_key_digest = ?)",
-		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
-
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-
-		if(bytes != null)
-		{
-		    array = new String[2];
-		    array[0] = new String(bytes);
-		    bytes = cryptography.mtd
-			(Base64.decode(cursor.getString(1).getBytes(),
-				       Base64.DEFAULT));
-
-		    if(bytes != null)
-			array[1] = new String(bytes, StandardCharsets.UTF_8);
-		    else
-			array = null;
-		}
-	    }
-	}
-	catch(Exception exception)
-	{
-	    array = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
-
-	return array;
-    }
-
-    public String[] readOutboundMessage(int oid)
-    {
-	if(m_db == null)
-	    return null;
-
-	Cursor cursor = null;
-	String array[] = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT message, message_identity_digest, oid " +
-		 "FROM outbound_queue " +
-		 "WHERE neighbor_oid = ? ORDER BY oid LIMIT 1",
-		 new String[] {String.valueOf(oid)});
+			(Base64.decode(cursor.getString(i).getBytes(),
+				       Base64.DEFAULT));
 
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		array = new String[3];
-		array[0] = cursor.getString(0);
-		array[1] = cursor.getString(1);
-		array[2] = String.valueOf(cursor.getInt(2));
+		    if(bytes == null)
+		    {
+			StringBuilder stringBuilder = new StringBuilder();
+
+			stringBuilder.append("Database::keysSigned(): ");
+			stringBuilder.append("error on column ");
+			stringBuilder.append(cursor.getColumnName(i));
+			stringBuilder.append(".");
+			writeLog(stringBuilder.toString());
+		    }
+		    else
+			strings[i] = new String(bytes);
+		}
 	    }
 	}
 	catch(Exception exception)
 	{
-	    array = null;
+	    strings = null;
 	}
 	finally
 	{
@@ -2892,7 +3128,18 @@ public class Database extends SQLiteOpenHelper
 		cursor.close();
 	}
 
-	return array;
+	return strings;
+    }
+
+    public String[] nameSipHashIdFromDigest(Cryptography cryptography,
+					    byte digest[])
+    {
+	ParticipantCache.Element element = participant(cryptography, digest);
+
+	if(element == null || element.m_name == null)
+	    return null;
+	else
+	    return new String[] {element.m_name, element.m_sipHashId};
     }
 
     public boolean accountPrepared()
@@ -2902,52 +3149,6 @@ public class Database extends SQLiteOpenHelper
 	    !readSetting(null, "saltedPassword").isEmpty();
     }
 
-    public boolean containsCongestionDigest(long value)
-    {
-	if(m_db == null)
-	    return false;
-
-	boolean contains = false;
-
-	s_congestionControlMutex.readLock().lock();
-
-	try
-	{
-	    Cursor cursor = null;
-
-	    try
-	    {
-		cursor = m_db.rawQuery
-		    ("SELECT EXISTS(SELECT 1 FROM " +
-		     "congestion_control WHERE digest = ?)",
-		     new String[] {Base64.
-				   encodeToString(Miscellaneous.
-						  longToByteArray(value),
-						  Base64.DEFAULT)});
-
-		if(cursor != null && cursor.moveToFirst())
-		    contains = cursor.getInt(0) == 1;
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	    finally
-	    {
-		if(cursor != null)
-		    cursor.close();
-	    }
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    s_congestionControlMutex.readLock().unlock();
-	}
-
-	return contains;
-    }
-
     public boolean containsParticipant(Cryptography cryptography,
 				       String sipHashId)
     {
@@ -3037,6 +3238,57 @@ public class Database extends SQLiteOpenHelper
 	    ok = false;
 	}
 	finally
+	{
+	    m_db.endTransaction();
+	    m_participantCache.clear();
+
+	    if(table.equals("neighbors"))
+		m_neighborsGeneration.getAndIncrement();
+	}
+
+	return ok;
+    }
+
+    public boolean deleteOutboundMessages(ArrayList<String> oids)
+    {
+	/*
+	** Remove the provided deliveries. A message is removed
+	** with its final delivery.
+	*/
+
+	if(m_db == null || oids == null || oids.isEmpty())
+	    return false;
+
+	boolean ok = false;
+
+	m_db.beginTransactionNonExclusive();
+
+	try
+	{
+	    for(String oid : oids)
+	    {
+		m_db.execSQL
+		    ("DELETE FROM outbound_messages WHERE oid = " +
+		     "(SELECT message_oid FROM outbound_deliveries " +
+		     "WHERE oid = ?) AND NOT EXISTS " +
+		     "(SELECT 1 FROM outbound_deliveries d " +
+		     "WHERE d.message_oid = outbound_messages.oid AND " +
+		     "d.oid <> ?)",
+		     new String[] {oid, oid});
+
+		if(m_db.delete("outbound_deliveries",
+			       "oid = ?",
+			       new String[] {oid}) > 0)
+		    ok = true;
+	    }
+
+	    m_db.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	    ok = false;
+	}
+	finally
 	{
 	    m_db.endTransaction();
 	}
@@ -3097,6 +3349,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	return true;
@@ -3161,55 +3414,12 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	return true;
     }
 
-    public boolean writeCongestionDigest(long value)
-    {
-	if(m_db == null)
-	    return false;
-
-	s_congestionControlMutex.writeLock().lock();
-
-	try
-	{
-	    m_db.beginTransactionNonExclusive();
-
-	    try
-	    {
-		ContentValues values = new ContentValues();
-
-		values.put
-		    ("digest",
-		     Base64.encodeToString(Miscellaneous.
-					   longToByteArray(value),
-					   Base64.DEFAULT));
-		m_db.insertOrThrow("congestion_control", null, values);
-		m_db.setTransactionSuccessful();
-	    }
-	    catch(Exception exception)
-	    {
-		if(exception.getMessage().toLowerCase().contains("unique"))
-		    return true;
-	    }
-	    finally
-	    {
-		m_db.endTransaction();
-	    }
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    s_congestionControlMutex.writeLock().unlock();
-	}
-
-	return false;
-    }
-
     public boolean writeEphemeralSteamKeys(Cryptography cryptography,
 					   byte privateKey[],
 					   byte publicKey[],
@@ -3415,36 +3625,28 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
+	    DatabaseRecord record = new DatabaseRecord();
 	    SparseArray<String> sparseArray = new SparseArray<> ();
 	    byte bytes[] = null;
 
-	    sparseArray.append(0, "bytes_read");
-	    sparseArray.append(1, "bytes_written");
-	    sparseArray.append(2, "echo_queue_size");
-	    sparseArray.append(3, "ip_version");
-	    sparseArray.append(4, "last_error");
-	    sparseArray.append(5, "local_ip_address");
-	    sparseArray.append(6, "local_ip_address_digest");
-	    sparseArray.append(7, "local_port");
-	    sparseArray.append(8, "local_port_digest");
-	    sparseArray.append(9, "non_tls");
-	    sparseArray.append(10, "passthrough");
-	    sparseArray.append(11, "proxy_ip_address");
-	    sparseArray.append(12, "proxy_port");
-	    sparseArray.append(13, "proxy_type");
-	    sparseArray.append(14, "remote_certificate");
-	    sparseArray.append(15, "remote_ip_address");
-	    sparseArray.append(16, "remote_ip_address_digest");
-	    sparseArray.append(17, "remote_port");
-            sparseArray.append(18, "remote_port_digest");
-            sparseArray.append(19, "remote_scope_id");
-            sparseArray.append(20, "session_cipher");
-            sparseArray.append(21, "status");
-            sparseArray.append(22, "status_control");
-            sparseArray.append(23, "transport");
-            sparseArray.append(24, "transport_digest");
-            sparseArray.append(25, "uptime");
-            sparseArray.append(26, "user_defined_digest");
+	    sparseArray.append(0, "ip_version");
+	    sparseArray.append(1, "local_ip_address_digest");
+	    sparseArray.append(2, "local_port_digest");
+	    sparseArray.append(3, "non_tls");
+	    sparseArray.append(4, "passthrough");
+	    sparseArray.append(5, "proxy_ip_address");
+	    sparseArray.append(6, "proxy_port");
+	    sparseArray.append(7, "proxy_type");
+	    sparseArray.append(8, "remote_certificate");
+	    sparseArray.append(9, "remote_ip_address");
+	    sparseArray.append(10, "remote_ip_address_digest");
+	    sparseArray.append(11, "remote_port");
+	    sparseArray.append(12, "remote_port_digest");
+	    sparseArray.append(13, "remote_scope_id");
+	    sparseArray.append(14, "status_control");
+	    sparseArray.append(15, "transport");
+	    sparseArray.append(16, "transport_digest");
+	    sparseArray.append(17, "user_defined_digest");
 
 	    /*
 	    ** Proxy information.
@@ -3485,17 +3687,16 @@ public class Database extends SQLiteOpenHelper
 
 	    for(int i = 0; i < size; i++)
 	    {
+		/*
+		** Digests are stored in separate columns. Everything
+		** else is a part of the encrypted record.
+		*/
+
 		switch(sparseArray.get(i))
 		{
-		case "echo_queue_size":
-		    bytes = cryptography.etm("0".getBytes());
-		    break;
 		case "ip_version":
-		    bytes = cryptography.etm(version.trim().getBytes());
-		    break;
-		case "last_error":
-		    bytes = cryptography.etm("".getBytes());
-		    break;
+		    record.put(sparseArray.get(i), version.trim());
+		    continue;
 		case "local_ip_address_digest":
 		    bytes = cryptography.hmac("".getBytes());
 		    break;
@@ -3503,46 +3704,42 @@ public class Database extends SQLiteOpenHelper
 		    bytes = cryptography.hmac("".getBytes());
 		    break;
 		case "non_tls":
-		    bytes = cryptography.etm(nonTls.getBytes());
-		    break;
+		    record.put(sparseArray.get(i), nonTls);
+		    continue;
 		case "passthrough":
-		    bytes = cryptography.etm(passthrough.getBytes());
-		    break;
+		    record.put(sparseArray.get(i), passthrough);
+		    continue;
 		case "proxy_ip_address":
-		    bytes = cryptography.etm(proxyIpAddress.getBytes());
-		    break;
+		    record.put(sparseArray.get(i), proxyIpAddress);
+		    continue;
 		case "proxy_port":
-		    bytes = cryptography.etm(proxyPort.getBytes());
-		    break;
+		    record.put(sparseArray.get(i), proxyPort);
+		    continue;
 		case "proxy_type":
-		    bytes = cryptography.etm(proxyType.getBytes());
-		    break;
+		    record.put(sparseArray.get(i), proxyType);
+		    continue;
 		case "remote_ip_address":
-		    bytes = cryptography.etm
-			(remoteIpAddress.trim().getBytes());
-		    break;
+		    record.put(sparseArray.get(i), remoteIpAddress.trim());
+		    continue;
 		case "remote_ip_address_digest":
 		    bytes = cryptography.hmac
 			(remoteIpAddress.trim().getBytes());
 		    break;
 		case "remote_port":
-		    bytes = cryptography.etm(remoteIpPort.trim().getBytes());
-		    break;
+		    record.put(sparseArray.get(i), remoteIpPort.trim());
+		    continue;
 		case "remote_port_digest":
 		    bytes = cryptography.hmac(remoteIpPort.trim().getBytes());
 		    break;
 		case "remote_scope_id":
-		    bytes = cryptography.etm(remoteIpScopeId.trim().getBytes());
-		    break;
-		case "status":
-		    bytes = cryptography.etm("disconnected".getBytes());
-		    break;
+		    record.put(sparseArray.get(i), remoteIpScopeId.trim());
+		    continue;
 		case "status_control":
-		    bytes = cryptography.etm("connect".getBytes());
-		    break;
+		    record.put(sparseArray.get(i), "connect");
+		    continue;
 		case "transport":
-		    bytes = cryptography.etm(transport.trim().getBytes());
-		    break;
+		    record.put(sparseArray.get(i), transport.trim());
+		    continue;
 		case "transport_digest":
 		    bytes = cryptography.hmac(transport.trim().getBytes());
 		    break;
@@ -3550,20 +3747,19 @@ public class Database extends SQLiteOpenHelper
 		    bytes = cryptography.hmac("true".getBytes());
 		    break;
 		default:
-		    bytes = cryptography.etm("".getBytes());
-		    break;
+		    record.put(sparseArray.get(i), "");
+		    continue;
 		}
 
 		if(bytes == null)
 		{
-		    sparseArray.clear();
-
 		    StringBuilder stringBuilder = new StringBuilder();
 
 		    stringBuilder.append
 			("Database::writeNeighbor(): error with ");
 		    stringBuilder.append(sparseArray.get(i));
 		    stringBuilder.append(" field.");
+		    sparseArray.clear();
 		    writeLog(stringBuilder.toString());
 		    throw new Exception();
 		}
@@ -3573,6 +3769,22 @@ public class Database extends SQLiteOpenHelper
 		values.put(sparseArray.get(i), str);
 	    }
 
+	    bytes = record.encrypt(cryptography);
+
+	    if(bytes == null)
+	    {
+		sparseArray.clear();
+		writeLog("Database::writeNeighbor(): error with record.");
+		throw new Exception();
+	    }
+
+	    for(String string : NEIGHBOR_RECORD_FIELDS)
+		values.put(string, "");
+
+	    for(String string : NEIGHBOR_STATISTICS_FIELDS)
+		values.put(string, "");
+
+	    values.put("record", bytes);
 	    sparseArray.clear();
 	}
 	catch(Exception exception)
@@ -3601,6 +3813,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_neighborsGeneration.getAndIncrement();
 	}
 
 	return ok;
@@ -3637,6 +3850,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	return true;
@@ -3778,6 +3992,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	return ok;
@@ -3880,31 +4095,13 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return null;
 
-	Cursor cursor = null;
-	byte bytes[] = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT remote_certificate FROM neighbors WHERE oid = ?",
-		 new String[] {String.valueOf(oid)});
-
-	    if(cursor != null && cursor.moveToFirst())
-		bytes = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-	}
-	catch(Exception exception)
-	{
-	    bytes = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
+	DatabaseRecord record = readNeighborRecord
+	    (cryptography, String.valueOf(oid));
 
-	return bytes;
+	if(record == null)
+	    return null;
+	else
+	    return record.get("remote_certificate");
     }
 
     public byte[] participantKeyStream(Cryptography cryptography,
@@ -3949,35 +4146,13 @@ public class Database extends SQLiteOpenHelper
     public byte[] participantKeyStream(Cryptography cryptography,
 				       byte digest[])
     {
-	if(cryptography == null || digest == null || m_db == null)
-	    return null;
+	ParticipantCache.Element element = participant(cryptography, digest);
 
-	Cursor cursor = null;
-	byte bytes[] = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT keystream FROM participants " +
-		 "WHERE encryption_public_key_digest = ?",
-		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
-
-	    if(cursor != null && cursor.moveToFirst())
-		bytes = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-	}
-	catch(Exception exception)
-	{
-	    bytes = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-		cursor.close();
-	}
-
-	return bytes;
+	if(element == null || element.m_keyStream == null)
+	    return null;
+	else
+	    return Arrays.copyOf
+		(element.m_keyStream, element.m_keyStream.length);
     }
 
     public byte[] participantKeyStream(Cryptography cryptography,
@@ -4182,11 +4357,50 @@ public class Database extends SQLiteOpenHelper
 						     Base64.DEFAULT)});
 
 	    if(cursor != null && cursor.moveToFirst())
-		oid = cursor.getInt(0);
+		oid = cursor.getInt(0);
+	}
+	catch(Exception exception)
+	{
+	    oid = -1;
+	}
+	finally
+	{
+	    if(cursor != null)
+		cursor.close();
+	}
+
+	return oid;
+    }
+
+    public long countOfMessages(Cryptography cryptography, String sipHashId)
+    {
+	if(cryptography == null || m_db == null)
+	    return -1L;
+
+	Cursor cursor = null;
+	long count = 0L;
+
+	try
+	{
+	    StringBuilder stringBuilder = new StringBuilder();
+
+	    stringBuilder.append("SELECT COUNT(*) FROM participants_messages ");
+	    stringBuilder.append("WHERE siphash_id_digest = ?");
+	    cursor = m_db.rawQuery
+		(stringBuilder.toString(),
+		 new String[] {Base64.
+			       encodeToString
+			       (cryptography.
+				hmac(sipHashId.toUpperCase().trim().
+				     getBytes(StandardCharsets.UTF_8)),
+				Base64.DEFAULT)});
+
+	    if(cursor != null && cursor.moveToFirst())
+		count = cursor.getLong(0);
 	}
 	catch(Exception exception)
 	{
-	    oid = -1;
+	    count = -1L;
 	}
 	finally
 	{
@@ -4194,12 +4408,12 @@ public class Database extends SQLiteOpenHelper
 		cursor.close();
 	}
 
-	return oid;
+	return count;
     }
 
-    public long countOfMessages(Cryptography cryptography, String sipHashId)
+    public long countOfOutboundMessages(int oid)
     {
-	if(cryptography == null || m_db == null)
+	if(m_db == null)
 	    return -1L;
 
 	Cursor cursor = null;
@@ -4207,18 +4421,10 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
-	    StringBuilder stringBuilder = new StringBuilder();
-
-	    stringBuilder.append("SELECT COUNT(*) FROM participants_messages ");
-	    stringBuilder.append("WHERE siphash_id_digest = ?");
 	    cursor = m_db.rawQuery
-		(stringBuilder.toString(),
-		 new String[] {Base64.
-			       encodeToString
-			       (cryptography.
-				hmac(sipHashId.toUpperCase().trim().
-				     getBytes(StandardCharsets.UTF_8)),
-				Base64.DEFAULT)});
+		("SELECT COUNT(*) FROM outbound_deliveries " +
+		 "WHERE neighbor_oid = ?",
+		 new String[] {String.valueOf(oid)});
 
 	    if(cursor != null && cursor.moveToFirst())
 		count = cursor.getLong(0);
@@ -4264,6 +4470,16 @@ public class Database extends SQLiteOpenHelper
 	return count;
     }
 
+    public long neighborsGeneration()
+    {
+	/*
+	** Incremented whenever the configuration of a neighbor may
+	** have changed.
+	*/
+
+	return m_neighborsGeneration.get();
+    }
+
     public static synchronized Database getInstance()
     {
 	return s_instance; // Should never be null.
@@ -4282,16 +4498,14 @@ public class Database extends SQLiteOpenHelper
 	if(m_db == null)
 	    return;
 
-	Cursor cursor = null;
-
 	m_db.beginTransactionNonExclusive();
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("DELETE FROM outbound_queue WHERE neighbor_oid " +
-		 "NOT IN (SELECT oid FROM neighbors)",
-		 null);
+	    m_db.execSQL
+		("DELETE FROM outbound_deliveries WHERE neighbor_oid " +
+		 "NOT IN (SELECT oid FROM neighbors)");
+	    m_db.execSQL(DELETE_ORPHANED_OUTBOUND_MESSAGES);
 	    m_db.setTransactionSuccessful();
 	}
 	catch(Exception exception)
@@ -4299,9 +4513,6 @@ public class Database extends SQLiteOpenHelper
 	}
 	finally
 	{
-	    if(cursor != null)
-		cursor.close();
-
 	    m_db.endTransaction();
 	}
     }
@@ -4332,6 +4543,7 @@ public class Database extends SQLiteOpenHelper
 		cursor.close();
 
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
     }
 
@@ -4362,28 +4574,9 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
-    public void cleanNeighborStatistics(Cryptography cryptography)
+    public void clearParticipantCache()
     {
-	ArrayList<NeighborElement> arrayList = readNeighborOids(cryptography);
-
-	if(arrayList == null || arrayList.isEmpty())
-	    return;
-
-	for(NeighborElement neighborElement : arrayList)
-	    if(neighborElement != null)
-		saveNeighborInformation(cryptography,
-					"0",             // Bytes Read
-					"0",             // Bytes Written
-					"0",             // Queue Size
-					"",              // Error
-					"",              // IP Address
-					"0",             // Port
-					"",              // Session Cipher
-					"disconnected",  // Status
-					"0",             // Uptime
-					String.valueOf(neighborElement.m_oid));
-
-	arrayList.clear();
+	m_participantCache.clear();
     }
 
     public void clearTable(String table)
@@ -4404,6 +4597,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	if(table.equals("participants_messages"))
@@ -4529,12 +4723,19 @@ public class Database extends SQLiteOpenHelper
     public void enqueueOutboundMessage(Cryptography cryptography,
 				       String message,
 				       byte messageIdentity[],
-				       int oid)
+				       ArrayList<Integer> oids)
     {
+	/*
+	** The message is encrypted and recorded once. Each neighbor
+	** receives a delivery.
+	*/
+
 	if(cryptography == null ||
 	   m_db == null ||
 	   message == null ||
-	   message.trim().isEmpty())
+	   message.trim().isEmpty() ||
+	   oids == null ||
+	   oids.isEmpty())
 	    return;
 
 	m_db.beginTransactionNonExclusive();
@@ -4561,8 +4762,17 @@ public class Database extends SQLiteOpenHelper
 		     Base64.encodeToString(cryptography.hmac(messageIdentity),
 					   Base64.DEFAULT));
 
-	    values.put("neighbor_oid", oid);
-	    m_db.insertOrThrow("outbound_queue", null, values);
+	    long messageOid = m_db.insertOrThrow
+		("outbound_messages", null, values);
+
+	    for(Integer oid : oids)
+	    {
+		values.clear();
+		values.put("message_oid", messageOid);
+		values.put("neighbor_oid", oid);
+		m_db.insertOrThrow("outbound_deliveries", null, values);
+	    }
+
 	    m_db.setTransactionSuccessful();
 	}
 	catch(Exception exception)
@@ -4574,33 +4784,130 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
-    public void neighborControlStatus(Cryptography cryptography,
-				      String controlStatus,
-				      String oid)
+    public void maintain(boolean vacuumAllowed)
     {
-	if(cryptography == null || m_db == null)
+	/*
+	** Incremental maintenance, performed by the Kernel while the
+	** network is idle. The database is converted to incremental
+	** auto-vacuum once. Afterwards, free pages are released in
+	** small chunks and a complete vacuum is performed only if
+	** fragmentation exceeds MAINTENANCE_VACUUM_PERCENT.
+	**
+	** A complete vacuum locks the database, so it is only attempted
+	** if vacuumAllowed is true, that is, while the user interface
+	** is not visible. Failures are retried with an exponential
+	** backoff.
+	*/
+
+	if(m_db == null)
 	    return;
 
-	m_db.beginTransactionNonExclusive();
+	loadMaintenanceState();
 
-	try
+	long freePages = pragma("freelist_count");
+	long pages = pragma("page_count");
+
+	if(freePages < 0L || pages <= 0L)
+	    return;
+
+	m_freePages.set(freePages);
+	m_pages.set(pages);
+
+	boolean incremental = pragma("auto_vacuum") == 2;
+	boolean vacuum = !incremental;
+	long now = System.currentTimeMillis();
+
+	if(!vacuum)
+	    vacuum = freePages >= MAINTENANCE_VACUUM_PAGES &&
+		100L * freePages / pages >= MAINTENANCE_VACUUM_PERCENT &&
+		now - m_lastVacuum.get() > MAINTENANCE_VACUUM_INTERVAL;
+
+	if(vacuum)
+	    vacuum = vacuumAllowed && now >= m_vacuumRetry.get();
+
+	if(vacuum)
 	{
-	    ContentValues values = new ContentValues();
+	    try
+	    {
+		m_db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+		m_db.execSQL("VACUUM");
+		m_lastVacuum.set(now);
+		m_vacuumFailures.set(0L);
+		m_vacuumRetry.set(0L);
+	    }
+	    catch(Exception exception)
+	    {
+		long failures = Math.min
+		    (16L, m_vacuumFailures.incrementAndGet());
 
-	    values.put
-		("status_control",
-		 Base64.encodeToString(cryptography.
-				       etm(controlStatus.trim().getBytes()),
-				       Base64.DEFAULT));
-	    m_db.update("neighbors", values, "oid = ?", new String[] {oid});
-	    m_db.setTransactionSuccessful();
+		m_vacuumRetry.set
+		    (now +
+		     Math.min(MAINTENANCE_VACUUM_INTERVAL,
+			      MAINTENANCE_VACUUM_BACKOFF << (failures - 1L)));
+	    }
+
+	    writeSetting(null,
+			 "database_last_vacuum",
+			 String.valueOf(m_lastVacuum.get()));
+	    writeSetting(null,
+			 "database_vacuum_failures",
+			 String.valueOf(m_vacuumFailures.get()));
+	    writeSetting(null,
+			 "database_vacuum_retry",
+			 String.valueOf(m_vacuumRetry.get()));
 	}
-	catch(Exception exception)
+	else if(incremental && freePages > 0L)
 	{
+	    Cursor cursor = null;
+
+	    try
+	    {
+		/*
+		** The cursor must be stepped in order to complete
+		** the pragma.
+		*/
+
+		cursor = m_db.rawQuery
+		    ("PRAGMA incremental_vacuum(" +
+		     MAINTENANCE_INCREMENTAL_PAGES +
+		     ")",
+		     null);
+
+		if(cursor != null)
+		    cursor.getCount();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		if(cursor != null)
+		    cursor.close();
+	    }
 	}
-	finally
+	else
+	    return;
+
+	m_freePages.set(Math.max(0L, pragma("freelist_count")));
+	m_pages.set(Math.max(0L, pragma("page_count")));
+    }
+
+    public void neighborControlStatus(Cryptography cryptography,
+				      String controlStatus,
+				      String oid)
+    {
+	if(cryptography == null || m_db == null)
+	    return;
+
+	synchronized(m_neighborRecordMutex)
 	{
-	    m_db.endTransaction();
+	    DatabaseRecord record = readNeighborRecord(cryptography, oid);
+
+	    if(record == null)
+		return;
+
+	    record.put("status_control", controlStatus.trim());
+	    writeNeighborRecord(cryptography, null, record, oid, false);
 	}
     }
 
@@ -4611,32 +4918,15 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return;
 
-	m_db.beginTransactionNonExclusive();
-
-	try
+	synchronized(m_neighborRecordMutex)
 	{
-	    ContentValues values = new ContentValues();
+	    DatabaseRecord record = readNeighborRecord(cryptography, oid);
 
-	    if(certificate == null)
-		values.put
-		    ("remote_certificate",
-		     Base64.encodeToString(cryptography.etm("".getBytes()),
-					   Base64.DEFAULT));
-	    else
-		values.put
-		    ("remote_certificate",
-		     Base64.encodeToString(cryptography.etm(certificate),
-					   Base64.DEFAULT));
+	    if(record == null)
+		return;
 
-	    m_db.update("neighbors", values, "oid = ?", new String[] {oid});
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_db.endTransaction();
+	    record.put("remote_certificate", certificate);
+	    writeNeighborRecord(cryptography, null, record, oid, false);
 	}
     }
 
@@ -4656,7 +4946,12 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
-	    db.execSQL("VACUUM");
+	    /*
+	    ** Effective for new databases only. Existing databases are
+	    ** converted by maintain().
+	    */
+
+	    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
 	}
 	catch(Exception exception)
 	{
@@ -4709,22 +5004,6 @@ public class Database extends SQLiteOpenHelper
 	{
 	}
 
-	/*
-	** Create the congestion_control table.
-	*/
-
-	str = "CREATE TABLE IF NOT EXISTS congestion_control (" +
-	    "digest TEXT NOT NULL PRIMARY KEY, " +
-	    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)";
-
-	try
-	{
-	    db.execSQL(str);
-	}
-	catch(Exception exception)
-	{
-	}
-
 	/*
 	** Create the fire table.
 	*/
@@ -4778,6 +5057,7 @@ public class Database extends SQLiteOpenHelper
 	    "proxy_ip_address TEXT NOT NULL, " +
 	    "proxy_port TEXT NOT NULL, " +
 	    "proxy_type TEXT NOT NULL, " +
+	    "record BLOB, " +
 	    "remote_certificate TEXT NOT NULL, " +
 	    "remote_ip_address TEXT NOT NULL, " +
 	    "remote_ip_address_digest TEXT NOT NULL, " +
@@ -4804,16 +5084,33 @@ public class Database extends SQLiteOpenHelper
 	}
 
 	/*
-	** Create the outbound_queue table.
+	** Create the outbound_deliveries table.
 	** A foreign-key constraint on the oid of the neighbors
-	** table cannot be assigned.
+	** table cannot be assigned. Likewise for the oid of the
+	** outbound_messages table.
 	*/
 
-	str = "CREATE TABLE IF NOT EXISTS outbound_queue (" +
-	    "message TEXT NOT NULL, " +
-	    "message_identity_digest TEXT NOT NULL, " +
+	str = "CREATE TABLE IF NOT EXISTS outbound_deliveries (" +
+	    "message_oid INTEGER NOT NULL, " +
 	    "neighbor_oid INTEGER NOT NULL, " +
-	    "PRIMARY KEY (message, neighbor_oid))";
+	    "PRIMARY KEY (message_oid, neighbor_oid))";
+
+	try
+	{
+	    db.execSQL(str);
+	}
+	catch(Exception exception)
+	{
+	}
+
+	/*
+	** Create the outbound_messages table. A message is shared
+	** by its deliveries.
+	*/
+
+	str = "CREATE TABLE IF NOT EXISTS outbound_messages (" +
+	    "message TEXT NOT NULL, " +
+	    "message_identity_digest TEXT NOT NULL)";
 
 	try
 	{
@@ -4963,6 +5260,19 @@ public class Database extends SQLiteOpenHelper
 	catch(Exception exception)
 	{
 	}
+
+	/*
+	** Create the indexes. Migrations apply to existing databases.
+	*/
+
+	for(String string : INDEXES)
+	    try
+	    {
+		db.execSQL(string);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
     }
 
     @Override
@@ -4975,6 +5285,18 @@ public class Database extends SQLiteOpenHelper
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
     {
         onCreate(db);
+
+	/*
+	** A failed migration must not be recorded as the new version.
+	** The exception rolls back the transaction of SQLiteOpenHelper
+	** and the upgrade is attempted again by the next open.
+	*/
+
+	if(!migrate(db, oldVersion))
+	    throw new SQLiteException
+		("Database::onUpgrade(): migration from version " +
+		 oldVersion +
+		 " failed.");
     }
 
     public void pauseAllSteams()
@@ -5005,35 +5327,6 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
-    public void purgeCongestion(int lifetime)
-    {
-	if(m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    /*
-	    ** The bound string value must be cast to an integer.
-	    */
-
-	    m_db.delete
-		("congestion_control",
-		 "ABS(STRFTIME('%s', 'now') - STRFTIME('%s', timestamp)) > " +
-		 "CAST(? AS INTEGER)",
-		 new String[] {String.valueOf(lifetime)});
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
-    }
-
     public void purgeNeighborQueue(final String oid)
     {
 	if(m_db == null)
@@ -5050,9 +5343,10 @@ public class Database extends SQLiteOpenHelper
 
 		    try
 		    {
-			m_db.delete("outbound_queue",
+			m_db.delete("outbound_deliveries",
 				    "neighbor_oid = ?",
 				    new String[] {oid});
+			m_db.execSQL(DELETE_ORPHANED_OUTBOUND_MESSAGES);
 			m_db.setTransactionSuccessful();
 		    }
 		    catch(Exception exception)
@@ -5109,11 +5403,11 @@ public class Database extends SQLiteOpenHelper
 	try
 	{
 	    String tables[] = new String[]
-		{"congestion_control",
-		 "fire",
+		{"fire",
 		 "log",
 		 "neighbors",
-		 "outbound_queue",
+		 "outbound_deliveries",
+		 "outbound_messages",
 		 "participants",
 		 "participants_keys",
 		 "participants_messages",
@@ -5138,6 +5432,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
 
 	synchronized(m_readMemberChatCursorMutex)
@@ -5152,6 +5447,7 @@ public class Database extends SQLiteOpenHelper
 
     public void resetAndDrop()
     {
+	m_neighborsGeneration.getAndIncrement();
 	reset();
 
 	if(m_db == null)
@@ -5162,6 +5458,8 @@ public class Database extends SQLiteOpenHelper
 	     "DROP TABLE IF EXISTS fire",
 	     "DROP TABLE IF EXISTS log",
 	     "DROP TABLE IF EXISTS neighbors",
+	     "DROP TABLE IF EXISTS outbound_deliveries",
+	     "DROP TABLE IF EXISTS outbound_messages",
 	     "DROP TABLE IF EXISTS outbound_queue",
 	     "DROP TABLE IF EXISTS participants",
 	     "DROP TABLE IF EXISTS participants_keys",
@@ -5264,7 +5562,7 @@ public class Database extends SQLiteOpenHelper
 	try
 	{
 	    ContentValues values = new ContentValues();
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(encryptionKey, keyStream);
 
 	    values.put
@@ -5299,104 +5597,6 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
-    public void saveNeighborInformation(Cryptography cryptography,
-					String bytesRead,
-					String bytesWritten,
-					String echoQueueSize,
-					String error,
-					String ipAddress,
-					String ipPort,
-					String sessionCipher,
-					String status,
-					String uptime,
-					String oid)
-    {
-	if(cryptography == null || m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    ContentValues values = new ContentValues();
-
-	    if(!status.equals("connected"))
-	    {
-		bytesRead = "";
-		bytesWritten = "";
-		echoQueueSize = "0";
-		error = error.trim(); // Do not clear the error.
-		ipAddress = "";
-		ipPort = "";
-		sessionCipher = "";
-		uptime = "";
-	    }
-
-	    values.put
-		("bytes_read",
-		 Base64.encodeToString(cryptography.etm(bytesRead.getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("bytes_written",
-		 Base64.encodeToString(cryptography.etm(bytesWritten.
-							getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("echo_queue_size",
-		 Base64.encodeToString(cryptography.etm(echoQueueSize.
-							getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("last_error",
-		 Base64.encodeToString(cryptography.etm(error.getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("local_ip_address",
-		 Base64.encodeToString(cryptography.
-				       etm(ipAddress.trim().getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("local_ip_address_digest",
-		 Base64.encodeToString(cryptography.
-				       hmac(ipAddress.trim().getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("local_port",
-		 Base64.encodeToString(cryptography.
-				       etm(ipPort.trim().getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("local_port_digest",
-		 Base64.encodeToString(cryptography.
-				       hmac(ipPort.trim().getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("session_cipher",
-		 Base64.encodeToString(cryptography.etm(sessionCipher.
-							getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("status",
-		 Base64.encodeToString(cryptography.
-				       etm(status.trim().getBytes()),
-				       Base64.DEFAULT));
-	    values.put
-		("uptime",
-		 Base64.encodeToString(cryptography.
-				       etm(uptime.trim().getBytes()),
-				       Base64.DEFAULT));
-	    m_db.update("neighbors", values, "oid = ?", new String[] {oid});
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
-    }
-
     public void updateParticipantLastTimestamp(Cryptography cryptography,
 					       String sipHashId)
     {
@@ -5413,7 +5613,7 @@ public class Database extends SQLiteOpenHelper
 		("last_status_timestamp",
 		 Base64.
 		 encodeToString(cryptography.
-				etm(Miscellaneous.
+				etm(ByteUtilities.
 				    longToByteArray(System.
 						    currentTimeMillis())),
 				Base64.DEFAULT));
@@ -5451,7 +5651,7 @@ public class Database extends SQLiteOpenHelper
 		("last_status_timestamp",
 		 Base64.
 		 encodeToString(cryptography.
-				etm(Miscellaneous.
+				etm(ByteUtilities.
 				    longToByteArray(System.
 						    currentTimeMillis())),
 				Base64.DEFAULT));
@@ -5492,7 +5692,7 @@ public class Database extends SQLiteOpenHelper
 		("last_status_timestamp",
 		 Base64.
 		 encodeToString(cryptography.
-				etm(Miscellaneous.
+				etm(ByteUtilities.
 				    longToByteArray(System.
 						    currentTimeMillis())),
 				Base64.DEFAULT));
@@ -5525,6 +5725,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
     }
 
@@ -5586,6 +5787,7 @@ public class Database extends SQLiteOpenHelper
 	finally
 	{
 	    m_db.endTransaction();
+	    m_participantCache.clear();
 	}
     }
 
@@ -5713,7 +5915,7 @@ public class Database extends SQLiteOpenHelper
 			    values.put
 				("file_digest",
 				 cryptography.
-				 etmBase64String(Cryptography.
+				 etmBase64String(Miscellaneous.
 						 sha256FileDigest(fileName)));
 			}
 			else
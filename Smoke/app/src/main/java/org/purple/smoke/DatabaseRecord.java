@@ -0,0 +1,183 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DatabaseRecord
+{
+    /*
+    ** The non-key fields of a row, serialized into a single buffer
+    ** which is encrypted once. Keyed digests remain in separate
+    ** columns so that they may be indexed.
+    **
+    ** Format: version, count, and count pairs of (name, length, value).
+    */
+
+    private final TreeMap<String, byte[]> m_values = new TreeMap<> ();
+    private final static byte VERSION = 1;
+    private final static int MAXIMUM_FIELDS = 256;
+
+    public DatabaseRecord()
+    {
+    }
+
+    public static DatabaseRecord decrypt(Cryptography cryptography,
+					 byte bytes[])
+    {
+	if(bytes == null || cryptography == null)
+	    return null;
+
+	DataInputStream dataInputStream = null;
+
+	try
+	{
+	    bytes = cryptography.mtd(bytes);
+
+	    if(bytes == null)
+		return null;
+
+	    dataInputStream = new DataInputStream
+		(new ByteArrayInputStream(bytes));
+
+	    if(dataInputStream.readByte() != VERSION)
+		return null;
+
+	    DatabaseRecord record = new DatabaseRecord();
+	    int count = dataInputStream.readInt();
+
+	    if(count < 0 || count > MAXIMUM_FIELDS)
+		return null;
+
+	    for(int i = 0; i < count; i++)
+	    {
+		String name = dataInputStream.readUTF();
+		int length = dataInputStream.readInt();
+
+		if(length < 0 || length > dataInputStream.available())
+		    return null;
+
+		byte value[] = new byte[length];
+
+		dataInputStream.readFully(value);
+		record.m_values.put(name, value);
+	    }
+
+	    return record;
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+	finally
+	{
+	    try
+	    {
+		if(dataInputStream != null)
+		    dataInputStream.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	}
+    }
+
+    public String getString(String name)
+    {
+	byte bytes[] = m_values.get(name);
+
+	if(bytes == null)
+	    return "";
+	else
+	    return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public byte[] encrypt(Cryptography cryptography)
+    {
+	if(cryptography == null)
+	    return null;
+
+	try
+	{
+	    ByteArrayOutputStream byteArrayOutputStream =
+		new ByteArrayOutputStream();
+	    DataOutputStream dataOutputStream = new DataOutputStream
+		(byteArrayOutputStream);
+
+	    dataOutputStream.writeByte(VERSION);
+	    dataOutputStream.writeInt(m_values.size());
+
+	    for(Map.Entry<String, byte[]> entry : m_values.entrySet())
+	    {
+		dataOutputStream.writeUTF(entry.getKey());
+		dataOutputStream.writeInt(entry.getValue().length);
+		dataOutputStream.write(entry.getValue());
+	    }
+
+	    dataOutputStream.flush();
+	    return cryptography.etm(byteArrayOutputStream.toByteArray());
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+    }
+
+    public byte[] get(String name)
+    {
+	return m_values.get(name);
+    }
+
+    public void put(String name, String value)
+    {
+	if(name == null)
+	    return;
+
+	if(value == null)
+	    m_values.put(name, new byte[0]);
+	else
+	    m_values.put(name, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void put(String name, byte value[])
+    {
+	if(name == null)
+	    return;
+
+	if(value == null)
+	    m_values.put(name, new byte[0]);
+	else
+	    m_values.put(name, value);
+    }
+}
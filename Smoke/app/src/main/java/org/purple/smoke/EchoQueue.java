@@ -0,0 +1,82 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.util.ArrayDeque;
+
+public class EchoQueue
+{
+    /*
+    ** A bounded FIFO of frames which are to be echoed to a single
+    ** peer. Frames which arrive while the queue is full are discarded
+    ** and counted. Neighbor and Relay share this class.
+    */
+
+    private final ArrayDeque<String> m_queue = new ArrayDeque<> ();
+    private long m_dropped = 0L;
+    public final static int MAXIMUM_SIZE = 256;
+
+    public synchronized String poll()
+    {
+	return m_queue.pollFirst();
+    }
+
+    public synchronized boolean offer(String frame)
+    {
+	/*
+	** Returns false if the frame was discarded.
+	*/
+
+	if(frame == null)
+	    return false;
+
+	if(m_queue.size() >= MAXIMUM_SIZE)
+	{
+	    m_dropped += 1L;
+	    return false;
+	}
+
+	m_queue.addLast(frame);
+	return true;
+    }
+
+    public synchronized int size()
+    {
+	return m_queue.size();
+    }
+
+    public synchronized long dropped()
+    {
+	return m_dropped;
+    }
+
+    public synchronized void clear()
+    {
+	m_queue.clear();
+    }
+}
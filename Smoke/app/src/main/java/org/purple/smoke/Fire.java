@@ -129,7 +129,7 @@ public class Fire extends AppCompatActivity
 	private FireBroadcastReceiver m_receiver = null;
 	private boolean m_receiverRegistered = false;
 	private final Hashtable<String, Integer> m_fireHash = new Hashtable<> ();
-	private final static String s_id = Miscellaneous.byteArrayAsHexString
+	private final static String s_id = ByteUtilities.byteArrayAsHexString
 			(Cryptography.randomBytes(128));
 	private final static CharsetEncoder s_latin1Encoder =
 			StandardCharsets.ISO_8859_1.newEncoder();
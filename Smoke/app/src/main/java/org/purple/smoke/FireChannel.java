@@ -67,7 +67,7 @@ public class FireChannel extends View
 
     private static class Participant
     {
-	public String m_id = Miscellaneous.byteArrayAsHexString
+	public String m_id = ByteUtilities.byteArrayAsHexString
 	    (Cryptography.randomBytes(128));
 	public String m_name = "unknown";
 	public long m_timestamp = -1L;
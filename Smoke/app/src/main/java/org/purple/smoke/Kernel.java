@@ -40,7 +40,9 @@ import android.os.PowerManager;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Base64;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import java.net.InetAddress;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
 import java.sql.Timestamp;
@@ -59,6 +61,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Inflater;
 import org.bouncycastle.crypto.agreement.jpake.JPAKEParticipant;
 
 public class Kernel
@@ -134,12 +137,15 @@ public class Kernel
 
     private ArrayList<MessageElement> m_messagesToSend = null;
     private AtomicLong m_chatTemporaryIdentityLastTick = null;
+    private AtomicLong m_lastInboundMessage = null;
+    private AtomicLong m_lastOutboundMessage = null;
     private AtomicLong m_shareSipHashIdIdentity = null;
     private AtomicLong m_shareSipHashIdIdentityLastTick = null;
     private Hashtable<String, Juggernaut> m_juggernauts = null;
     private Hashtable<String, ParticipantCall> m_callQueue = null;
     private Hashtable<String, byte[]> m_fireStreams = null;
     private ScheduledExecutorService m_callScheduler = null;
+    private ScheduledExecutorService m_maintenanceScheduler = null;
     private ScheduledExecutorService m_messagesToSendScheduler = null;
     private ScheduledExecutorService m_networkStatusScheduler = null;
     private ScheduledExecutorService m_neighborsScheduler = null;
@@ -154,8 +160,10 @@ public class Kernel
     private WakeLock m_wakeLock = null;
     private WifiLock m_wifiLock = null;
     private byte m_chatMessageRetrievalIdentity[] = null;
+    private final Inflater m_inflater = new Inflater();
     private final KernelBroadcastReceiver m_receiver =
 	new KernelBroadcastReceiver();
+    private final KeyStreamIndex m_keyStreamIndex = new KeyStreamIndex();
     private final Object m_callSchedulerMutex = new Object();
     private final Object m_messagesToSendSchedulerMutex = new Object();
     private final ReentrantReadWriteLock m_callQueueMutex =
@@ -175,6 +183,8 @@ public class Kernel
     private final SparseArray<Neighbor> m_neighbors = new SparseArray<> ();
     private final SparseArray<SteamReader> m_steams = new SparseArray<> ();
     private final SteamWriter m_steamWriter = new SteamWriter();
+    private final static CongestionControl s_congestionControl =
+	new CongestionControl(Kernel.CONGESTION_LIFETIME);
     private final static Cryptography s_cryptography =
 	Cryptography.getInstance();
     private final static Database s_databaseHelper = Database.getInstance();
@@ -198,10 +208,14 @@ public class Kernel
 							1120}; // 96 bytes.
     private final static int PARTICIPANTS_KEYSTREAMS_LIFETIME =
 	864000; // Seconds in ten days.
+    private final static int STEAM_PACKET_MAXIMUM_LENGTH = 65536;
     private final static long CALL_INTERVAL = 250L; // 0.250 seconds.
     private final static long CALL_LIFETIME = 30000L; // 30 seconds.
     private final static long JUGGERNAUT_LIFETIME = 15000L; // 15 seconds.
     private final static long JUGGERNAUT_WINDOW = 10000L; // 10 seconds.
+    private final static long MAINTENANCE_IDLE_INTERVAL =
+	30000L; // 30 seconds.
+    private final static long MAINTENANCE_INTERVAL = 60000L; // 60 seconds.
     private final static long MESSAGES_TO_SEND_INTERVAL =
 	50L; // 50 milliseconds.
     private final static long NEIGHBORS_INTERVAL = 5000L; // 5 seconds.
@@ -230,6 +244,8 @@ public class Kernel
 	    (System.currentTimeMillis());
 	m_fireStreams = new Hashtable<> ();
 	m_juggernauts = new Hashtable<> ();
+	m_lastInboundMessage = new AtomicLong(System.currentTimeMillis());
+	m_lastOutboundMessage = new AtomicLong(System.currentTimeMillis());
 	m_messagesToSend = new ArrayList<> ();
 	m_shareSipHashIdIdentity = new AtomicLong(0L);
 	m_shareSipHashIdIdentityLastTick = new AtomicLong
@@ -277,6 +293,31 @@ public class Kernel
 	s_fireSimpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
+    private void notifyNeighborsOfOutboundMessage()
+    {
+	m_neighborsMutex.readLock().lock();
+
+	try
+	{
+	    int size = m_neighbors.size();
+
+	    for(int i = 0; i < size; i++)
+	    {
+		int j = m_neighbors.keyAt(i);
+
+		if(m_neighbors.get(j) != null)
+		    m_neighbors.get(j).notifyOfOutboundMessage();
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_neighborsMutex.readLock().unlock();
+	}
+    }
+
     private void prepareNeighbors()
     {
 	if(!State.getInstance().isAuthenticated())
@@ -312,24 +353,11 @@ public class Kernel
 		   equals("delete") ||
 		   neighborElement.m_statusControl.toLowerCase().
 		   equals("disconnect"))
-		{
-		    if(neighborElement.m_statusControl.toLowerCase().
-		       equals("disconnect"))
-			s_databaseHelper.saveNeighborInformation
-			    (s_cryptography,
-			     "0",             // Bytes Read
-			     "0",             // Bytes Written
-			     "0",             // Queue Size
-			     "",              // Error
-			     "",              // IP Address
-			     "0",             // Port
-			     "",              // Session Cipher
-			     "disconnected",  // Status
-			     "0",             // Uptime
-			     String.valueOf(neighborElement.m_oid));
+		    /*
+		    ** Statistics are provided by NeighborMetrics.
+		    */
 
 		    continue;
-		}
 	    }
 
 	    Neighbor neighbor = null;
@@ -581,6 +609,41 @@ public class Kernel
 	    }, 1500L, CALL_INTERVAL, TimeUnit.MILLISECONDS);
 	}
 
+	if(m_maintenanceScheduler == null)
+	{
+	    m_maintenanceScheduler = Executors.
+		newSingleThreadScheduledExecutor();
+	    m_maintenanceScheduler.scheduleAtFixedRate(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    /*
+		    ** Database maintenance is performed while network
+		    ** traffic is idle. Complete vacuums are deferred
+		    ** while the user interface is visible.
+		    */
+
+		    try
+		    {
+			long now = System.currentTimeMillis();
+
+			if(now - m_lastInboundMessage.get() >
+			   MAINTENANCE_IDLE_INTERVAL &&
+			   now - m_lastOutboundMessage.get() >
+			   MAINTENANCE_IDLE_INTERVAL)
+			    s_databaseHelper.maintain
+				(!Smoke.isForeground());
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+		}
+	    }, MAINTENANCE_INTERVAL,
+		MAINTENANCE_INTERVAL,
+		TimeUnit.MILLISECONDS);
+	}
+
 	if(m_messagesToSendScheduler == null)
 	{
 	    m_messagesToSendScheduler = Executors.
@@ -810,7 +873,7 @@ public class Kernel
 				break;
 			    case MessageElement.SHARE_SIPHASH_ID_MESSAGE_TYPE:
 				m_shareSipHashIdIdentity.set
-				    (Miscellaneous.
+				    (ByteUtilities.
 				     byteArrayToLong
 				     (Cryptography.
 				      randomBytes(Cryptography.IDENTITY_SIZE)));
@@ -1146,7 +1209,6 @@ public class Kernel
 
 		    try
 		    {
-			s_databaseHelper.purgeCongestion(CONGESTION_LIFETIME);
 			s_databaseHelper.purgeParticipantsKeyStreams
 			    (PARTICIPANTS_KEYSTREAMS_LIFETIME);
 		    }
@@ -1400,6 +1462,7 @@ public class Kernel
 	if(message == null || message.trim().isEmpty())
 	    return;
 
+	m_lastOutboundMessage.set(System.currentTimeMillis());
 	m_neighborsMutex.readLock().lock();
 
 	try
@@ -1504,8 +1567,8 @@ public class Kernel
 	{
 	    /*
 	    ** Remove Steam objects which do not exist in the database.
-	    ** Also removed will be Steams having completed or deleted
-	    ** statuses.
+	    ** Also removed will be Steams having completed, corrupted,
+	    ** or deleted statuses.
 	    */
 
 	    for(int i = m_steams.size() - 1; i >= 0; i--)
@@ -1519,6 +1582,7 @@ public class Kernel
 			String status = steamElement.m_status.toLowerCase();
 
 			if(!status.equals("completed") &&
+			   !status.equals("corrupted") &&
 			   !status.equals("deleted"))
 			    found = true;
 
@@ -1545,6 +1609,42 @@ public class Kernel
 	return steams;
     }
 
+    public SparseIntArray steamNeighbors()
+    {
+	/*
+	** The neighbors which may carry full Steams and the sizes
+	** of their queues.
+	*/
+
+	SparseIntArray sparseIntArray = new SparseIntArray();
+
+	m_neighborsMutex.readLock().lock();
+
+	try
+	{
+	    int size = m_neighbors.size();
+
+	    for(int i = 0; i < size; i++)
+	    {
+		int j = m_neighbors.keyAt(i);
+
+		if(m_neighbors.get(j) != null &&
+		   m_neighbors.get(j).connected() &&
+		   !m_neighbors.get(j).passthrough())
+		    sparseIntArray.append(j, m_neighbors.get(j).queueSize());
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_neighborsMutex.readLock().unlock();
+	}
+
+	return sparseIntArray;
+    }
+
     public String connectedNeighborAddress()
     {
 	/*
@@ -1638,8 +1738,8 @@ public class Kernel
 			String sipHashId)
     {
 	/*
-	** Calling messages are not placed in the outbound_queue
-	** as they are considered temporary.
+	** Calling messages are not placed in the outbound_messages
+	** table as they are considered temporary.
 	*/
 
 	m_callQueueMutex.writeLock().lock();
@@ -1692,19 +1792,23 @@ public class Kernel
 	if(arrayList == null || arrayList.isEmpty())
 	    return false;
 
+	ArrayList<Integer> oids = new ArrayList<> ();
 	int size = arrayList.size();
 
 	for(int i = 0; i < size; i++)
 	    if(arrayList.get(i) != null &&
 	       arrayList.get(i).m_passthrough.toLowerCase().equals("false") &&
 	       arrayList.get(i).m_statusControl.toLowerCase().equals("connect"))
-		s_databaseHelper.enqueueOutboundMessage
-		    (s_cryptography,
-		     message,
-		     messageIdentity,
-		     arrayList.get(i).m_oid);
+		oids.add(arrayList.get(i).m_oid);
 
 	arrayList.clear();
+
+	if(oids.isEmpty())
+	    return true;
+
+	s_databaseHelper.enqueueOutboundMessage
+	    (s_cryptography, message, messageIdentity, oids);
+	notifyNeighborsOfOutboundMessage();
 	return true;
     }
 
@@ -1790,6 +1894,33 @@ public class Kernel
 	return false;
     }
 
+    public boolean sendSteam(int oid, String message)
+    {
+	/*
+	** Queue a full Steam packet on a specific neighbor.
+	*/
+
+	m_lastOutboundMessage.set(System.currentTimeMillis());
+	m_neighborsMutex.readLock().lock();
+
+	try
+	{
+	    Neighbor neighbor = m_neighbors.get(oid);
+
+	    if(neighbor != null && !neighbor.passthrough())
+		return neighbor.scheduleSend(message);
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_neighborsMutex.readLock().unlock();
+	}
+
+	return false;
+    }
+
     public boolean wakeLocked()
     {
 	if(m_wakeLock != null)
@@ -1887,25 +2018,32 @@ public class Kernel
 	** 0 - Echo
 	** 1 - Fine (Do not Echo)
 	** 2 - Force Echo
+	** 3 - Duplicate (Do not Echo)
 	*/
 
 	if(buffer == null)
 	    return 1;
 
+	Tracer.Trace trace = Tracer.begin(Tracer.STAGE_CONGESTION);
+
+	m_lastInboundMessage.set(System.currentTimeMillis());
+
 	try
 	{
-	    long value = s_congestionSipHash.hmac
-		(buffer.getBytes(), Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0];
+	    long value = s_congestionSipHash.hash64(buffer.getBytes());
 
-	    if(s_databaseHelper.containsCongestionDigest(value))
-		return 1;
-	    else if(s_databaseHelper.writeCongestionDigest(value))
-		return 1;
+	    if(s_congestionControl.add(value))
+	    {
+		trace.type(Tracer.TYPE_DUPLICATE);
+		return 3;
+	    }
 
 	    /*
 	    ** Fire!
 	    */
 
+	    trace.enter(Tracer.STAGE_FIRE);
+
 	    m_fireStreamsMutex.readLock().lock();
 
 	    try
@@ -1942,6 +2080,7 @@ public class Kernel
 						     FIRE_HASH_KEY_LENGTH)),
 				hmac))
 			    {
+				trace.type(Tracer.TYPE_FIRE);
 				ciphertext = Cryptography.decryptFire
 				    (ciphertext,
 				     Arrays.copyOfRange(entry.getValue(),
@@ -1989,16 +2128,14 @@ public class Kernel
 						       Base64.NO_WRAP),
 					 StandardCharsets.UTF_8);
 
-				value = s_congestionSipHash.hmac
+				value = s_congestionSipHash.hash64
 				    (("fire" +
 				      entry.getKey() +
 				      strings[2] +
 				      strings[3] +
-				      timestamp).getBytes(),
-				     Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0];
+				      timestamp).getBytes());
 
-				if(s_databaseHelper.
-				   writeCongestionDigest(value))
+				if(s_congestionControl.add(value))
 				    return 1;
 
 				Intent intent = new Intent
@@ -2021,6 +2158,7 @@ public class Kernel
 					("org.purple.smoke.message",
 					 strings[3]);
 
+				trace.enter(Tracer.STAGE_BROADCAST);
 				Miscellaneous.sendBroadcast(intent);
 				return 2; // Echo Fire!
 			    }
@@ -2036,6 +2174,8 @@ public class Kernel
 		m_fireStreamsMutex.readLock().unlock();
 	    }
 
+	    trace.enter(Tracer.STAGE_OZONE);
+
 	    byte bytes[] =
 		Base64.decode(Messages.stripMessage(buffer), Base64.DEFAULT);
 
@@ -2064,13 +2204,15 @@ public class Kernel
 			  Cryptography.hmac(data,
 					    s_cryptography.ozoneMacKey())))
 		{
+		    trace.type(Tracer.TYPE_OZONE);
+
 		    byte ciphertext[] = Cryptography.decrypt
 			(data, s_cryptography.ozoneEncryptionKey());
 
 		    if(ciphertext == null)
 			return 1;
 
-		    long timestamp = Miscellaneous.byteArrayToLong
+		    long timestamp = ByteUtilities.byteArrayToLong
 			(Arrays.copyOfRange(ciphertext, 1, 9));
 
 		    if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -2081,7 +2223,7 @@ public class Kernel
 		    ** Did we share something?
 		    */
 
-		    long identity = Miscellaneous.byteArrayToLong
+		    long identity = ByteUtilities.byteArrayToLong
 			(Arrays.
 			 copyOfRange(ciphertext,
 				     9 + Cryptography.SIPHASH_IDENTITY_LENGTH,
@@ -2104,11 +2246,14 @@ public class Kernel
 			 StandardCharsets.UTF_8);
 
 		    intent.putExtra("org.purple.smoke.sipHashId", sipHashId);
+		    trace.enter(Tracer.STAGE_BROADCAST);
 		    Miscellaneous.sendBroadcast(intent);
 		    return 1;
 		}
 	    }
 
+	    trace.enter(Tracer.STAGE_DESTINATION);
+
 	    boolean ourMessageViaChatTemporaryIdentity = false; /*
 								** Did the
 								** message
@@ -2179,7 +2324,9 @@ public class Kernel
 		** EPKS
 		*/
 
+		trace.type(Tracer.TYPE_EPKS);
 		data = s_cryptography.decryptWithSipHashKey(data);
+		trace.enter(Tracer.STAGE_DATABASE);
 
 		String sipHashId = s_databaseHelper.writeParticipant
 		    (s_cryptography, data);
@@ -2190,6 +2337,9 @@ public class Kernel
 		    ** New participant.
 		    */
 
+		    trace.enter(Tracer.STAGE_PAYLOAD);
+
+		    m_keyStreamIndex.invalidate();
 		    State.getInstance().populateParticipants();
 		    Miscellaneous.sendBroadcast
 			("org.purple.smoke.populate_participants");
@@ -2235,6 +2385,8 @@ public class Kernel
 		return 1;
 	    }
 
+	    trace.enter(Tracer.STAGE_PKI);
+
 	    byte pki[] = null;
 	    int pki_output_size = 0;
 
@@ -2275,16 +2427,41 @@ public class Kernel
 		    s = 3;
 		}
 
-		for(int i = s; i < e; i++)
+		/*
+		** Attempt the output size which is suggested by the
+		** authentication code first. Unknown messages are most
+		** likely key exchanges.
+		*/
+
+		int f = s;
+
+		if(!ourMessageViaChatTemporaryIdentity)
+		{
+		    int length = m_keyStreamIndex.pkiLength(data, hmac);
+
+		    if(length == Cryptography.HASH_KEY_LENGTH)
+			f = s + 1;
+		    else if(length == Cryptography.STEAM_FILE_IDENTITY_LENGTH)
+			f = s;
+		    else
+			f = s + 2;
+		}
+
+		for(int i = s - 1; i < e; i++)
 		{
+		    int j = i < s ? f : i;
+
+		    if(i >= s && j == f)
+			continue;
+
 		    pki = s_cryptography.pkiDecrypt
 			(Arrays.copyOfRange(bytes,
 					    0,
-					    MCELIECE_OUTPUT_SIZES[i]));
+					    MCELIECE_OUTPUT_SIZES[j]));
 
 		    if(pki != null)
 		    {
-			pki_output_size = MCELIECE_OUTPUT_SIZES[i];
+			pki_output_size = MCELIECE_OUTPUT_SIZES[j];
 			break;
 		    }
 		}
@@ -2311,6 +2488,8 @@ public class Kernel
 		** Message-Read Proof
 		*/
 
+		trace.enter(Tracer.STAGE_KEY_STREAM);
+
 		byte keyStream[] = s_databaseHelper.participantKeyStream
 		    (s_cryptography, pki);
 
@@ -2353,10 +2532,14 @@ public class Kernel
 		if(ciphertext == null)
 		    return 1;
 
+		trace.enter(Tracer.STAGE_PAYLOAD);
+
 		byte abyte[] = new byte[] {ciphertext[0]};
 
 		if(abyte[0] == Messages.CHAT_STATUS_MESSAGE_TYPE[0])
 		{
+		    trace.type(Tracer.TYPE_CHAT_STATUS);
+
 		    String array[] = s_databaseHelper.nameSipHashIdFromDigest
 			(s_cryptography, pki);
 
@@ -2365,11 +2548,13 @@ public class Kernel
 
 		    String sipHashId = array[1];
 
+		    trace.participant(sipHashId);
+
 		    if(s_databaseHelper.readParticipantOptions(s_cryptography,
 							       sipHashId).
 		       contains("optional_signatures = false"))
 		    {
-			long timestamp = Miscellaneous.byteArrayToLong
+			long timestamp = ByteUtilities.byteArrayToLong
 			    (Arrays.copyOfRange(ciphertext, 1, 9));
 
 			if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -2382,13 +2567,15 @@ public class Kernel
 			if(signatureKey == null)
 			    return 1;
 
+			trace.enter(Tracer.STAGE_SIGNATURE);
+
 			if(!Cryptography.
 			   verifySignature
 			   (signatureKey,
 			    Arrays.copyOfRange(ciphertext,
 					       10,
 					       ciphertext.length),
-			    Miscellaneous.
+			    ByteUtilities.
 			    joinByteArrays(pki,
 					   Arrays.
 					   copyOfRange(ciphertext,
@@ -2399,12 +2586,15 @@ public class Kernel
 			    return 1;
 		    }
 
+		    trace.enter(Tracer.STAGE_DATABASE);
 		    s_databaseHelper.updateParticipantLastTimestamp
 			(s_cryptography, pki);
 		    return 1;
 		}
 		else if(abyte[0] == Messages.JUGGERNAUT_TYPE[0])
 		{
+		    trace.type(Tracer.TYPE_JUGGERNAUT);
+
 		    ciphertext = Arrays.copyOfRange
 			(ciphertext, 1, ciphertext.length);
 
@@ -2416,7 +2606,7 @@ public class Kernel
 			switch(ii)
 			{
 			case 0:
-			    long timestamp = Miscellaneous.byteArrayToLong
+			    long timestamp = ByteUtilities.byteArrayToLong
 				(Base64.
 				 decode(string.getBytes(), Base64.NO_WRAP));
 
@@ -2442,10 +2632,12 @@ public class Kernel
 			    byte publicKeySignature[] = Base64.decode
 				(string.getBytes(), Base64.NO_WRAP);
 
+			    trace.enter(Tracer.STAGE_SIGNATURE);
+
 			    if(!Cryptography.verifySignature
 			       (signatureKey,
 				publicKeySignature,
-				Miscellaneous.
+				ByteUtilities.
 				joinByteArrays
 				(pki,
 				 abyte,
@@ -2457,6 +2649,7 @@ public class Kernel
 				 chatEncryptionPublicKeyDigest())))
 				return 1;
 
+			    trace.enter(Tracer.STAGE_PAYLOAD);
 			    break;
 			default:
 			    break;
@@ -2468,6 +2661,8 @@ public class Kernel
 		    if(array == null || array.length != 2)
 			return 1;
 
+		    trace.participant(array[1]);
+
 		    byte sessionCredentials[] = null;
 		    int state = -1;
 
@@ -2533,6 +2728,8 @@ public class Kernel
 			m_juggernautsMutex.writeLock().unlock();
 		    }
 
+		    trace.enter(Tracer.STAGE_DATABASE);
+
 		    if(bytes != null)
 		    {
 			s_databaseHelper.writeParticipantMessage
@@ -2560,6 +2757,7 @@ public class Kernel
 
 				s_databaseHelper.setParticipantKeyStream
 				    (s_cryptography, sessionCredentials, oid);
+				m_keyStreamIndex.invalidate();
 			    }
 
 			    s_databaseHelper.writeParticipantMessage
@@ -2594,19 +2792,23 @@ public class Kernel
 		    ** We do not have a timestamp!
 		    */
 
+		    trace.type(Tracer.TYPE_MESSAGE_READ);
+
 		    PublicKey signatureKey = s_databaseHelper.
 			signatureKeyForDigest(s_cryptography, pki);
 
 		    if(signatureKey == null)
 			return 1;
 
+		    trace.enter(Tracer.STAGE_SIGNATURE);
+
 		    if(!Cryptography.
 		       verifySignature
 		       (signatureKey,
 			Arrays.copyOfRange(ciphertext,
 					   Cryptography.HASH_KEY_LENGTH + 1,
 					   ciphertext.length),
-			Miscellaneous.
+			ByteUtilities.
 			joinByteArrays(pki,
 				       Arrays.
 				       copyOfRange(ciphertext,
@@ -2623,6 +2825,9 @@ public class Kernel
 		    if(array == null || array.length != 2)
 			return 1;
 
+		    trace.enter(Tracer.STAGE_DATABASE);
+		    trace.participant(array[1]);
+
 		    if(s_databaseHelper.
 		       writeMessageStatus
 		       (s_cryptography,
@@ -2636,6 +2841,7 @@ public class Kernel
 		    return 1;
 		}
 
+		trace.type(Tracer.TYPE_CHAT);
 		ciphertext = Arrays.copyOfRange
 		    (ciphertext, 1, ciphertext.length);
 
@@ -2657,7 +2863,7 @@ public class Kernel
 		    switch(ii)
 		    {
 		    case 0:
-			timestamp = Miscellaneous.byteArrayToLong
+			timestamp = ByteUtilities.byteArrayToLong
 			    (Base64.decode(string.getBytes(), Base64.NO_WRAP));
 
 			if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -2683,12 +2889,12 @@ public class Kernel
 			ii += 1;
 			break;
 		    case 2:
-			sequence = Miscellaneous.byteArrayToLong
+			sequence = ByteUtilities.byteArrayToLong
 			    (Base64.decode(string.getBytes(), Base64.NO_WRAP));
 			ii += 1;
 			break;
 		    case 3:
-			attachment = Miscellaneous.
+			attachment = ByteUtilities.
 			    decompressed(Base64.decode(string.getBytes(),
 						       Base64.NO_WRAP));
 			ii += 1;
@@ -2720,12 +2926,13 @@ public class Kernel
 
 			    publicKeySignature = Base64.decode
 				(string.getBytes(), Base64.NO_WRAP);
+			    trace.enter(Tracer.STAGE_SIGNATURE);
 
 			    if(!Cryptography.
 			       verifySignature
 			       (signatureKey,
 				publicKeySignature,
-				Miscellaneous.
+				ByteUtilities.
 				joinByteArrays
 				(pki,
 				 abyte,
@@ -2742,6 +2949,8 @@ public class Kernel
 				 s_cryptography.
 				 chatEncryptionPublicKeyDigest())))
 				return 1;
+
+			    trace.enter(Tracer.STAGE_PAYLOAD);
 			}
 
 			strings = array;
@@ -2753,15 +2962,17 @@ public class Kernel
 		if(message == null)
 		    return 1;
 
+		trace.enter(Tracer.STAGE_DATABASE);
+		trace.participant(strings[1]);
+
 		if(updateTimeStamp)
 		    s_databaseHelper.updateParticipantLastTimestamp
 			(s_cryptography, strings[1]);
 
-		value = s_congestionSipHash.hmac
-		    (("chat" + message + strings[1] + timestamp).getBytes(),
-		     Cryptography.SIPHASH_OUTPUT_LENGTH)[0];
+		value = s_congestionSipHash.hash64
+		    (("chat" + message + strings[1] + timestamp).getBytes());
 
-		if(s_databaseHelper.writeCongestionDigest(value))
+		if(s_congestionControl.add(value))
 		    return 1;
 
 		if(s_databaseHelper.
@@ -2775,6 +2986,8 @@ public class Kernel
 					   timestamp) !=
 		   Database.ExceptionLevels.EXCEPTION_PERMISSIBLE)
 		{
+		    trace.enter(Tracer.STAGE_BROADCAST);
+
 		    Intent intent = new Intent
 			("org.purple.smoke.chat_message");
 
@@ -2822,6 +3035,9 @@ public class Kernel
 		** Steam Key Exchange B
 		*/
 
+		trace.enter(Tracer.STAGE_KEY_STREAM);
+		trace.type(Tracer.TYPE_CALL);
+
 		byte hmacc[] = Cryptography.hmac
 		    (Arrays.copyOfRange(bytes,
 					0,
@@ -2847,6 +3063,8 @@ public class Kernel
 		if(ciphertext == null)
 		    return 1;
 
+		trace.enter(Tracer.STAGE_PAYLOAD);
+
 		byte tag = ciphertext[0];
 
 		if(!(tag == Messages.CALL_HALF_AND_HALF_TAGS[0] ||
@@ -2857,6 +3075,7 @@ public class Kernel
 		else if(tag == Messages.STEAM_KEY_EXCHANGE[0] ||
 			tag == Messages.STEAM_KEY_EXCHANGE[1])
 		{
+		    trace.type(Tracer.TYPE_STEAM_KEY_EXCHANGE);
 		    m_steamKeyExchange.append(ciphertext, pki);
 		    return 1;
 		}
@@ -2880,7 +3099,7 @@ public class Kernel
 		    switch(ii)
 		    {
 		    case 0:
-			timestamp = Miscellaneous.byteArrayToLong
+			timestamp = ByteUtilities.byteArrayToLong
 			    (Base64.decode(string.getBytes(), Base64.NO_WRAP));
 
 			if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -2917,11 +3136,12 @@ public class Kernel
 
 			publicKeySignature = Base64.decode
 			    (string.getBytes(), Base64.NO_WRAP);
+			trace.enter(Tracer.STAGE_SIGNATURE);
 
 			if(!Cryptography.
 			   verifySignature(signatureKey,
 					   publicKeySignature,
-					   Miscellaneous.
+					   ByteUtilities.
 					   joinByteArrays
 					   (pki,
 					    new byte[] {tag},
@@ -2939,6 +3159,7 @@ public class Kernel
 					    chatEncryptionPublicKeyDigest())))
 			    return 1;
 
+			trace.enter(Tracer.STAGE_PAYLOAD);
 			ii += 1;
 			break;
 		    default:
@@ -2950,6 +3171,8 @@ public class Kernel
 
 		if(array != null && array.length == 2)
 		{
+		    trace.participant(array[1]);
+
 		    PublicKey publicKey = null;
 		    byte keyStream[] = null;
 
@@ -2994,7 +3217,7 @@ public class Kernel
 			    ** Generate new AES-256 and SHA-512 keys.
 			    */
 
-			    keyStream = Miscellaneous.joinByteArrays
+			    keyStream = ByteUtilities.joinByteArrays
 				(Cryptography.aes256KeyBytes(),
 				 Cryptography.sha512KeyBytes());
 			}
@@ -3067,6 +3290,7 @@ public class Kernel
 		    else
 			return 1;
 
+		    trace.enter(Tracer.STAGE_DATABASE);
 		    s_databaseHelper.writeCallKeys
 			(s_cryptography, array[1], keyStream);
 
@@ -3099,6 +3323,7 @@ public class Kernel
 			     System.currentTimeMillis());
 		    }
 
+		    trace.enter(Tracer.STAGE_BROADCAST);
 		    intent.putExtra
 			("org.purple.smoke.keyType",
 			 ephemeralPublicKeyType[0] ==
@@ -3152,6 +3377,9 @@ public class Kernel
 		** Discover the Steam having the presented identity.
 		*/
 
+		trace.enter(Tracer.STAGE_KEY_STREAM);
+		trace.type(Tracer.TYPE_STEAM);
+
 		byte keyStream[] = s_databaseHelper.steamKeyStream
 		    (s_cryptography, pki);
 
@@ -3183,14 +3411,16 @@ public class Kernel
 		if(ciphertext == null)
 		    return 1;
 
-		long timestamp = Miscellaneous.byteArrayToLong
+		trace.enter(Tracer.STAGE_PAYLOAD);
+
+		long timestamp = ByteUtilities.byteArrayToLong
 		    (Arrays.copyOfRange(ciphertext, 1, 9));
 
 		if(Math.abs(System.currentTimeMillis() - timestamp) >
 		   STEAM_SHARE_WINDOW)
 		    return 1;
 
-		long offset = Miscellaneous.byteArrayToLong
+		long offset = ByteUtilities.byteArrayToLong
 		    (Arrays.copyOfRange(ciphertext, 9, 17));
 
 		if(offset < 0)
@@ -3198,18 +3428,35 @@ public class Kernel
 
 		byte abyte[] = new byte[] {ciphertext[0]};
 
-		if(abyte[0] == Messages.STEAM_SHARE[0])
+		if(abyte[0] == Messages.STEAM_SHARE[0] ||
+		   abyte[0] == Messages.STEAM_SHARE[2])
 		{
-		    if(m_steamWriter.
-		       write(pki,
-			     Arrays.copyOfRange(ciphertext,
-						17,
-						ciphertext.length),
-			     offset))
+		    byte packet[] = Arrays.copyOfRange
+			(ciphertext, 17, ciphertext.length);
+
+		    if(abyte[0] == Messages.STEAM_SHARE[2])
+			/*
+			** A compressed packet.
+			*/
+
+			synchronized(m_inflater)
+			{
+			    packet = Miscellaneous.inflated
+				(m_inflater,
+				 packet,
+				 STEAM_PACKET_MAXIMUM_LENGTH);
+			}
+
+		    if(packet == null)
+			return 1;
+
+		    if(m_steamWriter.write(pki, packet, offset))
 		    {
 			String sipHashId = s_databaseHelper.steamSipHashId
 			    (s_cryptography, pki);
 
+			trace.participant(sipHashId);
+
 			bytes = Messages.steamShare
 			    (s_cryptography,
 			     sipHashId,
@@ -3267,6 +3514,10 @@ public class Kernel
 	{
 	    return 0;
 	}
+	finally
+	{
+	    trace.end();
+	}
 
 	return 0;
     }
@@ -3294,6 +3545,50 @@ public class Kernel
 	return 0L;
     }
 
+    public long transferSteam(FileChannel channel, long position, long count)
+    {
+	/*
+	** Transfer a region of a file to the passthrough neighbors.
+	*/
+
+	long sent = -1L;
+
+	m_neighborsMutex.readLock().lock();
+
+	try
+	{
+	    int size = m_neighbors.size();
+
+	    for(int i = 0; i < size; i++)
+	    {
+		int j = m_neighbors.keyAt(i);
+
+		if(m_neighbors.get(j) != null &&
+		   m_neighbors.get(j).connected() &&
+		   m_neighbors.get(j).passthrough())
+		{
+		    /*
+		    ** Increase the offset by the minimum number of bytes.
+		    */
+
+		    long rc = m_neighbors.get(j).transfer
+			(channel, position, count);
+
+		    sent = sent == -1L ? rc : Math.min(rc, sent);
+		}
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_neighborsMutex.readLock().unlock();
+	}
+
+	return Math.max(0L, sent);
+    }
+
     public static synchronized Kernel getInstance()
     {
 	if(s_instance == null)
@@ -3307,10 +3602,8 @@ public class Kernel
 	if(message != null)
 	    try
 	    {
-		s_databaseHelper.writeCongestionDigest
-		    (s_congestionSipHash.
-		     hmac(message.getBytes(),
-			  Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0]);
+		s_congestionControl.add
+		    (s_congestionSipHash.hash64(message.getBytes()));
 	    }
 	    catch(Exception exception)
 	    {
@@ -3321,15 +3614,18 @@ public class Kernel
     {
 	try
 	{
-	    s_databaseHelper.writeCongestionDigest
-		(s_congestionSipHash.
-		 hmac(data, Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0]);
+	    s_congestionControl.add(s_congestionSipHash.hash64(data));
 	}
 	catch(Exception exception)
 	{
 	}
     }
 
+    public void clearKeyStreamIndex()
+    {
+	m_keyStreamIndex.clear();
+    }
+
     public void clearMessagesToSend()
     {
 	m_messagesToSendMutex.writeLock().lock();
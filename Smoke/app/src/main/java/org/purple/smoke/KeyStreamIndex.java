@@ -0,0 +1,227 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class KeyStreamIndex
+{
+    /*
+    ** An in-memory index of the authentication keys of participants
+    ** and Steams. The authentication code of a message reveals the
+    ** type of the message's public-key component before any expensive
+    ** public-key operation is performed. The index is a hint and
+    ** may be stale. Refreshes are performed by a background thread.
+    */
+
+    private ArrayList<byte[]> m_participantKeys = new ArrayList<> ();
+    private ArrayList<byte[]> m_steamKeys = new ArrayList<> ();
+    private final AtomicBoolean m_refreshing = new AtomicBoolean(false);
+    private final AtomicBoolean m_stale = new AtomicBoolean(true);
+    private final AtomicLong m_generation = new AtomicLong(0L);
+    private final AtomicLong m_lastRefresh = new AtomicLong(0L);
+    private final ExecutorService m_executor =
+	Executors.newSingleThreadExecutor();
+    private final ReentrantReadWriteLock m_mutex =
+	new ReentrantReadWriteLock();
+    private final static long REFRESH_INTERVAL = 15000L; // 15 seconds.
+
+    private static ArrayList<byte[]> authenticationKeys
+	(ArrayList<byte[]> keyStreams)
+    {
+	ArrayList<byte[]> arrayList = new ArrayList<> ();
+
+	if(keyStreams == null)
+	    return arrayList;
+
+	for(byte keyStream[] : keyStreams)
+	    arrayList.add
+		(Arrays.copyOfRange(keyStream,
+				    Cryptography.CIPHER_KEY_LENGTH,
+				    keyStream.length));
+
+	return arrayList;
+    }
+
+    private static boolean contains(ArrayList<byte[]> keys,
+				    byte data[],
+				    byte hmac[])
+    {
+	for(byte key[] : keys)
+	    if(Cryptography.memcmp(Cryptography.hmac(data, key), hmac))
+		return true;
+
+	return false;
+    }
+
+    private void load()
+    {
+	ArrayList<byte[]> participantKeys = new ArrayList<> ();
+	ArrayList<byte[]> steamKeys = new ArrayList<> ();
+	long generation = m_generation.get();
+
+	try
+	{
+	    if(State.getInstance().isAuthenticated())
+	    {
+		Cryptography cryptography = Cryptography.getInstance();
+		Database database = Database.getInstance();
+
+		participantKeys = authenticationKeys
+		    (database.readKeyStreams(cryptography, "participants"));
+		steamKeys = authenticationKeys
+		    (database.readKeyStreams(cryptography, "steam_files"));
+	    }
+	}
+	catch(Exception exception)
+	{
+	    m_stale.set(true);
+	    return;
+	}
+
+	m_mutex.writeLock().lock();
+
+	try
+	{
+	    /*
+	    ** Keys which were read before clear() are discarded.
+	    */
+
+	    if(generation == m_generation.get())
+	    {
+		m_participantKeys = participantKeys;
+		m_steamKeys = steamKeys;
+	    }
+	}
+	finally
+	{
+	    m_mutex.writeLock().unlock();
+	}
+    }
+
+    private void refresh()
+    {
+	/*
+	** Readers are not delayed by the database. The current keys
+	** are used until the refresh completes.
+	*/
+
+	if(!m_stale.get() &&
+	   Math.abs(System.currentTimeMillis() - m_lastRefresh.get()) <
+	   REFRESH_INTERVAL)
+	    return;
+
+	if(m_refreshing.getAndSet(true))
+	    return;
+
+	m_lastRefresh.set(System.currentTimeMillis());
+	m_stale.set(false);
+
+	try
+	{
+	    m_executor.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    try
+		    {
+			load();
+		    }
+		    finally
+		    {
+			m_refreshing.set(false);
+		    }
+		}
+	    });
+	}
+	catch(Exception exception)
+	{
+	    m_refreshing.set(false);
+	}
+    }
+
+    public int pkiLength(byte data[], byte hmac[])
+    {
+	/*
+	** Returns the expected length of the decrypted public-key
+	** component or -1 if the message is not known.
+	*/
+
+	if(data == null || hmac == null)
+	    return -1;
+
+	refresh();
+	m_mutex.readLock().lock();
+
+	try
+	{
+	    if(contains(m_participantKeys, data, hmac))
+		return Cryptography.HASH_KEY_LENGTH;
+	    else if(contains(m_steamKeys, data, hmac))
+		return Cryptography.STEAM_FILE_IDENTITY_LENGTH;
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_mutex.readLock().unlock();
+	}
+
+	return -1;
+    }
+
+    public void clear()
+    {
+	m_mutex.writeLock().lock();
+
+	try
+	{
+	    m_generation.getAndIncrement();
+	    m_participantKeys = new ArrayList<> ();
+	    m_steamKeys = new ArrayList<> ();
+	    m_stale.set(true);
+	}
+	finally
+	{
+	    m_mutex.writeLock().unlock();
+	}
+    }
+
+    public void invalidate()
+    {
+	m_stale.set(true);
+    }
+}
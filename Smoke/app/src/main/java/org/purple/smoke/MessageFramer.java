@@ -0,0 +1,210 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smoke;
+
+import java.nio.ByteBuffer;
+
+public class MessageFramer
+{
+    /*
+    ** An incremental framer of inbound neighbor data. Bytes are
+    ** appended by a reading thread and frames which are terminated by
+    ** DELIMITER are extracted by a parsing thread. Only newly-appended
+    ** bytes are examined for the delimiter. The class does not depend
+    ** upon Android.
+    */
+
+    private byte m_buffer[] = null;
+    private int m_limit = 0; // End of data.
+    private int m_position = 0; // Start of data.
+    private int m_scanned = 0; // Bytes before m_scanned lack a delimiter.
+    private final int m_maximumBytes;
+    private final static byte EOM[] = MessageFramer.DELIMITER.getBytes();
+    private final static int INITIAL_CAPACITY = 65536;
+    public final static String DELIMITER = "\r\n\r\n\r\n";
+
+    private boolean reserve(int length)
+    {
+	/*
+	** Prepare room for length bytes. The bytes are discarded, as
+	** the previous implementation did, if the maximum would
+	** be exceeded.
+	*/
+
+	if(length > m_maximumBytes - (m_limit - m_position))
+	    return false;
+
+	if(m_buffer.length - m_limit < length)
+	{
+	    int size = m_limit - m_position;
+
+	    if(m_buffer.length - size < length)
+	    {
+		/*
+		** Grow.
+		*/
+
+		int capacity = m_buffer.length;
+
+		while(capacity - size < length)
+		    capacity *= 2;
+
+		byte buffer[] = new byte[capacity];
+
+		System.arraycopy(m_buffer, m_position, buffer, 0, size);
+		m_buffer = buffer;
+	    }
+	    else
+		/*
+		** Compact.
+		*/
+
+		System.arraycopy(m_buffer, m_position, m_buffer, 0, size);
+
+	    m_scanned -= m_position;
+	    m_limit = size;
+	    m_position = 0;
+	}
+
+	return true;
+    }
+
+    private int indexOfEOM()
+    {
+	int from = Math.max(m_position, m_scanned - (EOM.length - 1));
+	int to = m_limit - EOM.length;
+
+	for(int i = from; i <= to; i++)
+	{
+	    if(m_buffer[i] != EOM[0])
+		continue;
+
+	    int j = 1;
+
+	    while(j < EOM.length && m_buffer[i + j] == EOM[j])
+		j += 1;
+
+	    if(j == EOM.length)
+		return i;
+	}
+
+	m_scanned = m_limit;
+	return -1;
+    }
+
+    private void reset()
+    {
+	m_limit = m_position = m_scanned = 0;
+
+	if(m_buffer.length > INITIAL_CAPACITY)
+	    m_buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    public MessageFramer(int maximumBytes)
+    {
+	m_buffer = new byte[INITIAL_CAPACITY];
+	m_maximumBytes = Math.max(INITIAL_CAPACITY, maximumBytes);
+    }
+
+    public synchronized String drain()
+    {
+	/*
+	** Remove and return all of the accumulated data.
+	*/
+
+	if(m_limit == m_position)
+	    return "";
+
+	String string = new String(m_buffer, m_position, m_limit - m_position);
+
+	reset();
+	return string;
+    }
+
+    public synchronized String next()
+    {
+	/*
+	** Remove and return the next complete frame, including its
+	** delimiter. Null is returned if a frame is not available.
+	*/
+
+	int indexOf = indexOfEOM();
+
+	if(indexOf < 0)
+	    return null;
+
+	int length = indexOf + EOM.length - m_position;
+	String string = new String(m_buffer, m_position, length);
+
+	m_position += length;
+	m_scanned = m_position;
+
+	if(m_position == m_limit)
+	    reset();
+
+	return string;
+    }
+
+    public synchronized boolean append(ByteBuffer buffer)
+    {
+	if(buffer == null || !buffer.hasRemaining())
+	    return true;
+
+	int length = buffer.remaining();
+
+	if(!reserve(length))
+	    return false;
+
+	buffer.get(m_buffer, m_limit, length);
+	m_limit += length;
+	return true;
+    }
+
+    public synchronized boolean append(byte bytes[], int offset, int length)
+    {
+	if(bytes == null || length <= 0)
+	    return true;
+	else if(!reserve(length))
+	    return false;
+
+	System.arraycopy(bytes, offset, m_buffer, m_limit, length);
+	m_limit += length;
+	return true;
+    }
+
+    public synchronized int length()
+    {
+	return m_limit - m_position;
+    }
+
+    public synchronized void clear()
+    {
+	reset();
+    }
+}
@@ -40,7 +40,7 @@ public class Messages
 {
     private final static SimpleDateFormat s_fireSimpleDateFormat = new
 	SimpleDateFormat("MMddyyyyHHmmss", Locale.getDefault());
-    public final static String EOM = "\r\n\r\n\r\n";
+    public final static String EOM = MessageFramer.DELIMITER;
     public final static String AUTHENTICATE_MESSAGE_TYPE = "0097b";
     public final static String FIRE_CHAT_MESSAGE_TYPE = "0040b";
     public final static String FIRE_STATUS_MESSAGE_TYPE = "0040a";
@@ -61,7 +61,8 @@ public class Messages
     public final static byte PKP_MESSAGE_REQUEST[] = new byte[] {0x01};
     public final static byte SHARE_SIPHASH_ID[] = new byte[] {0x02};
     public final static byte STEAM_KEY_EXCHANGE[] = new byte[] {0x04, 0x05};
-    public final static byte STEAM_SHARE[] = new byte[] {0x06, 0x07};
+    public final static byte STEAM_SHARE[] =
+	new byte[] {0x06, 0x07, 0x08};
     public final static int CALL_GROUP_TWO_ELEMENT_COUNT = 6; /*
 							      ** The first
 							      ** byte is not
@@ -89,7 +90,7 @@ public class Messages
 	    byte signature[] = null;
 
 	    signature = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(random,
 				cryptography.chatSignaturePublicKeyDigest(),
 				string.getBytes()));
@@ -109,7 +110,7 @@ public class Messages
 	    results.append("&content=%2\r\n\r\n\r\n");
 
 	    String base64 = Base64.encodeToString
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(random,
 				cryptography.chatSignaturePublicKeyDigest(),
 				signature),
@@ -293,7 +294,7 @@ public class Messages
 		(publicKey,
 		 Database.getInstance().
 		 publicKeyEncryptionAlgorithm(cryptography, sipHashId),
-		 Miscellaneous.joinByteArrays(aesKey, shaKey));
+		 ByteUtilities.joinByteArrays(aesKey, shaKey));
 
 	    if(pki == null)
 		return null;
@@ -305,7 +306,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.
+		(Base64.encodeToString(ByteUtilities.
 				       longToByteArray(System.
 						       currentTimeMillis()),
 				       Base64.NO_WRAP));
@@ -352,7 +353,7 @@ public class Messages
 	    */
 
 	    byte signature[] = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(aesKey,
 				shaKey,
 				new byte[] {tag},
@@ -370,7 +371,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(new byte[] {tag},
 				stringBuilder.toString().getBytes()),
 		 aesKey);
@@ -385,7 +386,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext), shaKey);
+		(ByteUtilities.joinByteArrays(pki, ciphertext), shaKey);
 
 	    if(hmac == null)
 		return null;
@@ -395,11 +396,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
@@ -460,7 +461,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.longToByteArray(timestamp),
+		(Base64.encodeToString(ByteUtilities.longToByteArray(timestamp),
 				       Base64.NO_WRAP));
 	    stringBuilder.append("\n");
 
@@ -478,7 +479,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.
+		(Base64.encodeToString(ByteUtilities.
 				       longToByteArray(sequence),
 				       Base64.NO_WRAP));
 	    stringBuilder.append("\n");
@@ -490,12 +491,12 @@ public class Messages
 	    if(attachment != null)
 		stringBuilder.append
 		    (Base64.
-		     encodeToString(Miscellaneous.compressed(attachment),
+		     encodeToString(ByteUtilities.compressed(attachment),
 				    Base64.NO_WRAP));
 	    else
 		stringBuilder.append
 		    (Base64.
-		     encodeToString(Miscellaneous.compressed(new byte[1]),
+		     encodeToString(ByteUtilities.compressed(new byte[1]),
 				    Base64.NO_WRAP));
 
 	    stringBuilder.append("\n");
@@ -518,7 +519,7 @@ public class Messages
 							     sipHashId).
 	       contains("optional_signatures = false"))
 		signature = cryptography.signViaChatSignature
-		    (Miscellaneous.
+		    (ByteUtilities.
 		     joinByteArrays(cryptography.
 				    chatEncryptionPublicKeyDigest(),
 				    CHAT_MESSAGE_TYPE,
@@ -539,7 +540,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(CHAT_MESSAGE_TYPE,
 				stringBuilder.toString().getBytes()),
 		 Arrays.copyOfRange(keyStream,
@@ -556,7 +557,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext),
+		(ByteUtilities.joinByteArrays(pki, ciphertext),
 		 Arrays.copyOfRange(keyStream,
 				    Cryptography.CIPHER_KEY_LENGTH,
 				    keyStream.length));
@@ -571,14 +572,14 @@ public class Messages
 	    if(destinationKey != null)
 	    {
 		byte destination[] = Cryptography.hmac
-		    (Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		    (ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		     destinationKey);
 
-		return Miscellaneous.joinByteArrays
+		return ByteUtilities.joinByteArrays
 		    (pki, ciphertext, hmac, destination);
 	    }
 	    else
-		return Miscellaneous.joinByteArrays
+		return ByteUtilities.joinByteArrays
 		    /*
 		    ** The SipHash ID will be removed by the Neighbor object
 		    ** before the message is created.
@@ -609,7 +610,7 @@ public class Messages
 
 	try
 	{
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -621,7 +622,7 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ Some Identity ]
@@ -649,7 +650,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.joinByteArrays(bytes, signature),
+		(ByteUtilities.joinByteArrays(bytes, signature),
 		 cryptography.ozoneEncryptionKey());
 
 	    if(ciphertext == null)
@@ -665,7 +666,7 @@ public class Messages
 	    if(hmac == null)
 		return null;
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac);
 	}
 	catch(Exception exception)
 	{
@@ -708,7 +709,7 @@ public class Messages
 	    if(pki == null)
 		return null;
 
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -720,7 +721,7 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ Status ]
@@ -738,7 +739,7 @@ public class Messages
 							     sipHashId).
 	       contains("optional_signatures = false"))
 		signature = cryptography.signViaChatSignature
-		    (Miscellaneous.
+		    (ByteUtilities.
 		     joinByteArrays(cryptography.
 				    chatEncryptionPublicKeyDigest(),
 				    bytes,
@@ -755,7 +756,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.joinByteArrays(bytes, signature),
+		(ByteUtilities.joinByteArrays(bytes, signature),
 		 Arrays.copyOfRange(keyStream,
 				    0,
 				    Cryptography.CIPHER_KEY_LENGTH));
@@ -768,7 +769,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext),
+		(ByteUtilities.joinByteArrays(pki, ciphertext),
 		 Arrays.copyOfRange(keyStream,
 				    Cryptography.CIPHER_KEY_LENGTH,
 				    keyStream.length));
@@ -781,11 +782,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
@@ -822,7 +823,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.
+		(Base64.encodeToString(ByteUtilities.
 				       longToByteArray(System.
 						       currentTimeMillis()),
 				       Base64.NO_WRAP));
@@ -865,7 +866,7 @@ public class Messages
 	    if(!encryptionKey.getAlgorithm().equals("McEliece-CCA2"))
 	    {
 		bytes = cryptography.signViaChatEncryption
-		    (Miscellaneous.
+		    (ByteUtilities.
 		     joinByteArrays(cryptography.sipHashId().
 				    getBytes(StandardCharsets.UTF_8),
 				    encryptionKey.getEncoded(),
@@ -903,7 +904,7 @@ public class Messages
 	    */
 
 	    bytes = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(cryptography.sipHashId().
 				getBytes(StandardCharsets.UTF_8),
 				encryptionKey.getEncoded(),
@@ -947,11 +948,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac, destination);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
 	{
@@ -992,7 +993,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.
+		(Base64.encodeToString(ByteUtilities.
 				       longToByteArray(System.
 						       currentTimeMillis()),
 				       Base64.NO_WRAP));
@@ -1078,11 +1079,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac, destination);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
 	{
@@ -1177,7 +1178,7 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(ciphertext, hmac),
 		 Cryptography.sha512(Arrays.copyOfRange(keyStream,
 							Cryptography.
 							CIPHER_KEY_LENGTH +
@@ -1285,7 +1286,7 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(ciphertext, hmac),
 		 Cryptography.sha512(Arrays.copyOfRange(keyStream,
 							Cryptography.
 							CIPHER_KEY_LENGTH +
@@ -1359,7 +1360,7 @@ public class Messages
 
 	    stringBuilder.append
 		(Base64.
-		 encodeToString(Miscellaneous.
+		 encodeToString(ByteUtilities.
 				longToByteArray(System.currentTimeMillis()),
 				Base64.NO_WRAP));
 	    stringBuilder.append("\n");
@@ -1376,7 +1377,7 @@ public class Messages
 	    */
 
 	    byte signature[] = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(cryptography.
 				chatEncryptionPublicKeyDigest(),
 				JUGGERNAUT_TYPE,
@@ -1394,7 +1395,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(JUGGERNAUT_TYPE,
 				stringBuilder.toString().getBytes()),
 		 Arrays.copyOfRange(keyStream,
@@ -1411,7 +1412,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext),
+		(ByteUtilities.joinByteArrays(pki, ciphertext),
 		 Arrays.copyOfRange(keyStream,
 				    Cryptography.CIPHER_KEY_LENGTH,
 				    keyStream.length));
@@ -1424,11 +1425,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
@@ -1477,7 +1478,7 @@ public class Messages
 	    if(pki == null)
 		return null;
 
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -1496,7 +1497,7 @@ public class Messages
 	    */
 
 	    byte signature[] = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(cryptography.
 				chatEncryptionPublicKeyDigest(),
 				bytes,
@@ -1510,7 +1511,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.joinByteArrays(bytes, signature),
+		(ByteUtilities.joinByteArrays(bytes, signature),
 		 Arrays.copyOfRange(keyStream,
 				    0,
 				    Cryptography.CIPHER_KEY_LENGTH));
@@ -1523,7 +1524,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext),
+		(ByteUtilities.joinByteArrays(pki, ciphertext),
 		 Arrays.copyOfRange(keyStream,
 				    Cryptography.CIPHER_KEY_LENGTH,
 				    keyStream.length));
@@ -1536,11 +1537,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
@@ -1566,7 +1567,7 @@ public class Messages
 
 	try
 	{
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -1578,7 +1579,7 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ Message Identity ]
@@ -1606,7 +1607,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.joinByteArrays(bytes, signature),
+		(ByteUtilities.joinByteArrays(bytes, signature),
 		 cryptography.ozoneEncryptionKey());
 
 	    if(ciphertext == null)
@@ -1622,7 +1623,7 @@ public class Messages
 	    if(hmac == null)
 		return null;
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac);
 	}
 	catch(Exception exception)
 	{
@@ -1639,7 +1640,7 @@ public class Messages
 
 	try
 	{
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -1651,7 +1652,7 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ Destination SipHash Identity ]
@@ -1685,7 +1686,7 @@ public class Messages
 	    if(hmac == null)
 		return null;
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac);
 	}
 	catch(Exception exception)
 	{
@@ -1703,7 +1704,7 @@ public class Messages
 
 	try
 	{
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Byte ]
@@ -1715,7 +1716,7 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ SipHash Identity ]
@@ -1727,7 +1728,7 @@ public class Messages
 		 ** [ Temporary Identity ]
 		 */
 
-		 Miscellaneous.longToByteArray(identity));
+		 ByteUtilities.longToByteArray(identity));
 
 	    /*
 	    ** [ Ciphertext ]
@@ -1749,7 +1750,7 @@ public class Messages
 	    if(hmac == null)
 		return null;
 
-	    return Miscellaneous.joinByteArrays(ciphertext, hmac);
+	    return ByteUtilities.joinByteArrays(ciphertext, hmac);
 	}
 	catch(Exception exception)
 	{
@@ -1804,7 +1805,7 @@ public class Messages
 		(publicKey,
 		 Database.getInstance().
 		 publicKeyEncryptionAlgorithm(cryptography, sipHashId),
-		 Miscellaneous.joinByteArrays(aesKey, shaKey));
+		 ByteUtilities.joinByteArrays(aesKey, shaKey));
 
 	    if(pki == null)
 		return null;
@@ -1816,7 +1817,7 @@ public class Messages
 	    */
 
 	    stringBuilder.append
-		(Base64.encodeToString(Miscellaneous.
+		(Base64.encodeToString(ByteUtilities.
 				       longToByteArray(System.
 						       currentTimeMillis()),
 				       Base64.NO_WRAP));
@@ -1871,7 +1872,7 @@ public class Messages
 
 	    stringBuilder.append
 		(Base64.
-		 encodeToString(Miscellaneous.longToByteArray(fileSize),
+		 encodeToString(ByteUtilities.longToByteArray(fileSize),
 				Base64.NO_WRAP));
 	    stringBuilder.append("\n");
 
@@ -1890,7 +1891,7 @@ public class Messages
 	    */
 
 	    byte signature[] = cryptography.signViaChatSignature
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(aesKey,
 				shaKey,
 				new byte[] {tag},
@@ -1908,7 +1909,7 @@ public class Messages
 	    */
 
 	    byte ciphertext[] = Cryptography.encrypt
-		(Miscellaneous.
+		(ByteUtilities.
 		 joinByteArrays(new byte[] {tag},
 				stringBuilder.toString().getBytes()),
 		 aesKey);
@@ -1923,7 +1924,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext), shaKey);
+		(ByteUtilities.joinByteArrays(pki, ciphertext), shaKey);
 
 	    if(hmac == null)
 		return null;
@@ -1933,11 +1934,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
@@ -1989,7 +1990,7 @@ public class Messages
 	    if(pki == null)
 		return null;
 
-	    byte bytes[] = Miscellaneous.joinByteArrays
+	    byte bytes[] = ByteUtilities.joinByteArrays
 		(
 		 /*
 		 ** [ A Tag ]
@@ -2001,13 +2002,13 @@ public class Messages
 		 ** [ A Timestamp ]
 		 */
 
-		 Miscellaneous.longToByteArray(System.currentTimeMillis()),
+		 ByteUtilities.longToByteArray(System.currentTimeMillis()),
 
 		 /*
 		 ** [ File Offset ]
 		 */
 
-		 Miscellaneous.longToByteArray(fileOffset),
+		 ByteUtilities.longToByteArray(fileOffset),
 
 		 /*
 		 ** [ File Packet ]
@@ -2033,7 +2034,7 @@ public class Messages
 	    */
 
 	    byte hmac[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext),
+		(ByteUtilities.joinByteArrays(pki, ciphertext),
 		 Arrays.copyOfRange(keyStream,
 				    Cryptography.CIPHER_KEY_LENGTH,
 				    keyStream.length));
@@ -2046,11 +2047,11 @@ public class Messages
 	    */
 
 	    byte destination[] = Cryptography.hmac
-		(Miscellaneous.joinByteArrays(pki, ciphertext, hmac),
+		(ByteUtilities.joinByteArrays(pki, ciphertext, hmac),
 		 Cryptography.
 		 sha512(sipHashId.getBytes(StandardCharsets.UTF_8)));
 
-	    return Miscellaneous.joinByteArrays
+	    return ByteUtilities.joinByteArrays
 		(pki, ciphertext, hmac, destination);
 	}
 	catch(Exception exception)
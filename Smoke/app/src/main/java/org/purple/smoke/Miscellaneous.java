@@ -53,79 +53,21 @@ import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.PopupWindow;
 import android.widget.TextView;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.lang.ref.WeakReference;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public abstract class Miscellaneous
 {
     public static final String RATE = "0.00 B / s";
-    public static final int INTEGER_BYTES = 4;
-    public static final int LONG_BYTES = 8;
     public static final long LONG_LONG_BYTES = 8L;
 
-    public static String byteArrayAsHexString(byte bytes[])
-    {
-	if(bytes == null || bytes.length == 0)
-	    return "";
-
-	try
-	{
-	    StringBuilder stringBuilder = new StringBuilder();
-
-	    for(byte b : bytes)
-		stringBuilder.append(String.format("%02x", b));
-
-	    return stringBuilder.toString();
-	}
-	catch(Exception exception)
-	{
-	    return "";
-	}
-    }
-
-    public static String byteArrayAsHexStringDelimited(byte bytes[],
-						       char delimiter,
-						       int offset)
-    {
-	if(bytes == null || bytes.length == 0 || offset < 0)
-	    return "";
-
-	String string = byteArrayAsHexString(bytes);
-
-	try
-	{
-	    StringBuilder stringBuilder = new StringBuilder();
-	    int length = string.length();
-
-	    for(int i = 0; i < length; i += offset)
-	    {
-		if(i < length - offset)
-		    stringBuilder.append(string, i, i + offset);
-		else
-		    stringBuilder.append(string.substring(i));
-
-		stringBuilder.append(delimiter);
-	    }
-
-	    if(stringBuilder.length() > 0 &&
-	       stringBuilder.charAt(stringBuilder.length() - 1) == delimiter)
-		return stringBuilder.substring(0, stringBuilder.length() - 1);
-	    else
-		return stringBuilder.toString();
-	}
-	catch(Exception exception)
-	{
-	    return "";
-	}
-    }
-
     public static String delimitString(String string,
 				       char delimiter,
 				       int offset)
@@ -255,8 +197,9 @@ public abstract class Miscellaneous
     {
 	SipHash sipHash = new SipHash();
 
-	return byteArrayAsHexStringDelimited
-	    (longArrayToByteArray(sipHash.
+	return ByteUtilities.byteArrayAsHexStringDelimited
+	    (ByteUtilities.
+	     longArrayToByteArray(sipHash.
 				  hmac(bytes,
 				       Cryptography.keyForSipHash(bytes),
 				       Cryptography.SIPHASH_OUTPUT_LENGTH)),
@@ -325,179 +268,147 @@ public abstract class Miscellaneous
 	return null;
     }
 
-    public static byte[] compressed(byte bytes[])
+    public static byte[] deflated(Deflater deflater, byte bytes[])
     {
-	if(bytes == null)
+	/*
+	** Returns null if the bytes do not shrink by at least
+	** a sixteenth. The deflater is reused by the caller.
+	*/
+
+	if(bytes == null || bytes.length == 0 || deflater == null)
 	    return null;
 
 	try
 	{
-	    ByteArrayOutputStream byteArrayOutputStream =
-		new ByteArrayOutputStream(bytes.length);
+	    byte output[] = new byte[bytes.length - bytes.length / 16];
+	    int length = 0;
 
-	    try
-	    {
-		try(GZIPOutputStream gzipOutputStream =
-		    new GZIPOutputStream(byteArrayOutputStream))
-		{
-		    gzipOutputStream.write(bytes);
-		}
+	    deflater.reset();
+	    deflater.setInput(bytes);
+	    deflater.finish();
 
-		return byteArrayOutputStream.toByteArray();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	    finally
-	    {
-		try
-		{
-		    byteArrayOutputStream.close();
-		}
-		catch(Exception exception)
-		{
-		}
-	    }
+	    while(!deflater.finished() && length < output.length)
+		length += deflater.deflate
+		    (output, length, output.length - length);
+
+	    if(deflater.finished() && length < output.length)
+		return Arrays.copyOf(output, length);
 	}
 	catch(Exception exception)
 	{
 	}
-
-	return null;
-    }
-
-    public static byte[] decompressed(byte bytes[])
-    {
-	if(bytes == null)
-	    return null;
-
-	try
+	finally
 	{
-	    ByteArrayInputStream byteArrayInputStream = null;
-	    ByteArrayOutputStream byteArrayOutputStream = null;
-
 	    try
 	    {
-		byteArrayInputStream = new ByteArrayInputStream(bytes);
-		byteArrayOutputStream = new ByteArrayOutputStream();
-
-		try(GZIPInputStream gzipInputStream =
-		    new GZIPInputStream(byteArrayInputStream))
-		{
-		    byte buffer[] = new byte[4096];
-		    int rc = 0;
-
-		    while((rc = gzipInputStream.read(buffer)) > 0)
-			byteArrayOutputStream.write(buffer, 0, rc);
-		}
-
-		return byteArrayOutputStream.toByteArray();
+		deflater.reset();
 	    }
 	    catch(Exception exception)
 	    {
 	    }
-	    finally
-	    {
-		try
-		{
-		    if(byteArrayInputStream != null)
-			byteArrayInputStream.close();
-		}
-		catch(Exception exception)
-		{
-		}
-
-		try
-		{
-		    if(byteArrayOutputStream != null)
-			byteArrayOutputStream.close();
-		}
-		catch(Exception exception)
-		{
-		}
-	    }
-	}
-	catch(Exception exception)
-	{
 	}
 
 	return null;
     }
 
-    public static byte[] intToByteArray(int value)
+    public static byte[] inflated(Inflater inflater,
+				  byte bytes[],
+				  int maximumLength)
     {
-	try
-	{
-	    return ByteBuffer.allocate(INTEGER_BYTES).putInt(value).array();
-	}
-	catch(Exception exception)
-	{
-	    return null;
-	}
-    }
+	/*
+	** Returns null if the bytes are not a complete stream or if
+	** they would expand beyond maximumLength bytes.
+	*/
 
-    public static byte[] joinByteArrays(byte[] ... data)
-    {
-	if(data == null)
+	if(bytes == null || bytes.length == 0 || inflater == null)
 	    return null;
 
 	try
 	{
+	    byte output[] = new byte[maximumLength];
 	    int length = 0;
 
-	    for(byte b[] : data)
-		if(b != null && b.length > 0)
-		    length += b.length;
+	    inflater.reset();
+	    inflater.setInput(bytes);
 
-	    if(length == 0)
-		return null;
+	    while(!inflater.finished() && length < output.length)
+	    {
+		int rc = inflater.inflate
+		    (output, length, output.length - length);
 
-	    byte bytes[] = new byte[length];
-	    int i = 0;
+		if(rc == 0 &&
+		   (inflater.needsDictionary() || inflater.needsInput()))
+		    break;
 
-	    for(byte b[] : data)
-		if(b != null && b.length > 0)
-		{
-		    System.arraycopy(b, 0, bytes, i, b.length);
-		    i += b.length;
-		}
+		length += rc;
+	    }
 
-	    return bytes; // data[0] + data[1] + ... + data[n - 1]
+	    if(inflater.finished())
+		return Arrays.copyOf(output, length);
 	}
 	catch(Exception exception)
 	{
-	    return null;
 	}
+	finally
+	{
+	    try
+	    {
+		inflater.reset();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	}
+
+	return null;
     }
 
-    public static byte[] longArrayToByteArray(long value[])
+    public static byte[] sha256FileDigest(String fileName)
     {
+	AssetFileDescriptor assetFileDescriptor = null;
+
 	try
 	{
-	    ByteBuffer byteBuffer = ByteBuffer.allocate
-		(LONG_BYTES * value.length);
+	    Uri uri = Uri.parse(fileName);
+
+	    assetFileDescriptor = Smoke.getApplication().getContentResolver().
+		openAssetFileDescriptor(uri, "r");
 
-	    for(long l : value)
-		byteBuffer.putLong(l);
+	    FileInputStream fileInputStream = assetFileDescriptor.
+		createInputStream();
+	    MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+	    byte buffer[] = new byte[4096];
+	    int n = 0;
 
-	    return byteBuffer.array();
+	    while(n != -1)
+	    {
+		if(Thread.currentThread().isInterrupted())
+		    return null;
+
+		n = fileInputStream.read(buffer);
+
+		if(n > 0)
+		    messageDigest.update(buffer, 0, n);
+	    }
+
+	    return messageDigest.digest();
 	}
 	catch(Exception exception)
 	{
-	    return null;
 	}
-    }
-
-    public static byte[] longToByteArray(long value)
-    {
-	try
-	{
-	    return ByteBuffer.allocate(LONG_BYTES).putLong(value).array();
-	}
-	catch(Exception exception)
+	finally
 	{
-	    return null;
+	    try
+	    {
+		if(assetFileDescriptor != null)
+		    assetFileDescriptor.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
 	}
+
+	return null;
     }
 
     public static int countOf(StringBuilder stringBuilder, char character)
@@ -525,25 +436,6 @@ public abstract class Miscellaneous
 	    return (int) ((100.0 * ((double) upper)) / ((double) length));
     }
 
-    public static long byteArrayToLong(byte bytes[])
-    {
-	if(bytes == null || bytes.length != LONG_BYTES)
-	    return 0L;
-
-	try
-	{
-	    ByteBuffer byteBuffer = ByteBuffer.allocate(LONG_BYTES);
-
-	    byteBuffer.put(bytes);
-	    byteBuffer.flip();
-	    return byteBuffer.getLong();
-	}
-	catch(Exception exception)
-	{
-	    return 0L;
-	}
-    }
-
     public static long fileSize(String fileName)
     {
 	AssetFileDescriptor assetFileDescriptor = null;
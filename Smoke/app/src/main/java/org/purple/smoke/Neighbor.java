@@ -31,12 +31,16 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Base64;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -44,21 +48,35 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class Neighbor
 {
-    private ArrayList<String> m_echoQueue = null;
-    private ArrayList<String> m_queue = null;
+    private ArrayDeque<String> m_queue = null;
     private AtomicBoolean m_capabilitiesSent = null;
+    private AtomicBoolean m_databasePending = null;
+    private AtomicBoolean m_identitiesPending = null;
+    private AtomicBoolean m_outboundCountPending = null;
+    private AtomicBoolean m_parsing = null;
+    private AtomicBoolean m_parsingPending = null;
+    private AtomicBoolean m_sendOutboundPending = null;
+    private AtomicBoolean m_sending = null;
+    private AtomicBoolean m_ticking = null;
+    private EchoQueue m_echoQueue = null;
+    private Runnable m_parsingTask = null;
+    private Runnable m_sendOutboundTask = null;
+    private Runnable m_timerTask = null;
+    private ScheduledFuture<?> m_identitiesFuture = null;
+    private ScheduledFuture<?> m_timerFuture = null;
     private UUID m_uuid = null;
-    private final Object m_echoQueueMutex = new Object();
+    private byte m_transferBytes[] = null;
+    private int m_batchSize = 1;
     private final Object m_queueMutex = new Object();
-    private final ScheduledExecutorService m_parsingScheduler =
-	Executors.newSingleThreadScheduledExecutor();
-    private final ScheduledExecutorService m_scheduler =
-	Executors.newSingleThreadScheduledExecutor();
-    private final ScheduledExecutorService m_sendOutboundScheduler =
-	Executors.newSingleThreadScheduledExecutor();
+    private final Object m_tasksMutex = new Object();
+    private final Object m_transferMutex = new Object();
     private final static int LANE_WIDTH = 8 * 1024 * 1024; // 8 MiB.
+    private final static int MAXIMUM_OUTBOUND_BATCH_SIZE = 128;
+    private final static int MAXIMUM_QUEUED_PACKETS = 1024;
     private final static long DATA_LIFETIME = 15000L; // 15 seconds.
-    private final static long PARSING_INTERVAL = 100L; // 100 milliseconds.
+    private final static long IDENTITIES_INTERVAL = 15000L; // 15 seconds.
+    private final static long SEND_OUTBOUND_RETRY_INTERVAL =
+	1000L; // 1 second.
     private final static long SEND_OUTBOUND_TIMER_INTERVAL =
 	200L; // 200 milliseconds.
     private final static long SILENCE = 90000L; // 90 seconds.
@@ -76,12 +94,12 @@ public abstract class Neighbor
     protected String m_ipAddress = "";
     protected String m_ipPort = "";
     protected String m_version = "";
+    protected final MessageFramer m_framer = new MessageFramer(MAXIMUM_BYTES);
+    protected final NeighborMetrics m_metrics;
     protected final Object m_errorMutex = new Object();
     protected final Object m_mutex = new Object();
-    protected final Object m_parsingSchedulerMutex = new Object();
     protected final ScheduledExecutorService m_readSocketScheduler =
 	Executors.newSingleThreadScheduledExecutor();
-    protected final StringBuffer m_stringBuffer = new StringBuffer();
     protected final StringBuilder m_error = new StringBuilder();
     protected final static int BYTES_PER_READ = 1024 * 1024; // 1 MiB.
     protected final static int MAXIMUM_BYTES = LANE_WIDTH;
@@ -91,46 +109,354 @@ public abstract class Neighbor
     protected final static long READ_SOCKET_INTERVAL =
 	100L; // 100 milliseconds.
     protected final static long WAIT_TIMEOUT = 10000L; // 10 seconds.
-    public final static int MAXIMUM_QUEUED_ECHO_PACKETS = 256;
+    protected final static long WRITE_TIMEOUT = 10000L; // 10 seconds.
+
+    private String outboundMessage(String message)
+    {
+	/*
+	** Prepare an outbound message for transmission. An empty
+	** string is returned if the message is defective.
+	*/
+
+	try
+	{
+	    byte bytes[] = m_cryptography.mtd
+		(Base64.decode(message, Base64.DEFAULT));
+
+	    if(bytes != null)
+		message = new String(bytes);
+	    else
+	    {
+		m_metrics.m_decryptFailures.getAndIncrement();
+		return "";
+	    }
+
+	    if(message.startsWith("OZONE-"))
+	    {
+		bytes = Base64.decode(message.substring(6), Base64.NO_WRAP);
+
+		if(bytes == null)
+		    return "";
+
+		byte timestamp[] = ByteUtilities.longToByteArray
+		    (TimeUnit.MILLISECONDS.
+		     toMinutes(System.currentTimeMillis()));
+
+		bytes = ByteUtilities.joinByteArrays
+		    /*
+		    ** Remove the embedded SipHash.
+		    */
+
+		    (Arrays.copyOfRange(bytes,
+					0,
+					bytes.length -
+					Cryptography.SIPHASH_IDENTITY_LENGTH),
+		     Cryptography.hmac(ByteUtilities.
+				       joinByteArrays(bytes, timestamp),
+				       m_cryptography.ozoneMacKey()));
+
+		if(bytes != null)
+		    message = Messages.bytesToMessageString(bytes);
+		else
+		    return "";
+	    }
+
+	    return message;
+	}
+	catch(Exception exception)
+	{
+	    return "";
+	}
+    }
+
+    private static String poll(ArrayDeque<String> queue, Object mutex)
+    {
+	synchronized(mutex)
+	{
+	    return queue.pollFirst();
+	}
+    }
+
+    private boolean sendOutboundMessages()
+    {
+	/*
+	** Retrieve database messages. The size of a batch
+	** is increased while the socket accepts complete batches
+	** promptly and is decreased otherwise. Returns true if
+	** additional messages may be available.
+	*/
+
+	ArrayList<String[]> arrayList = m_databaseHelper.
+	    readOutboundMessages(m_oid.get(), m_batchSize);
+
+	if(arrayList == null || arrayList.isEmpty())
+	    return false;
+
+	/*
+	** array[0]: Message
+	** array[1]: Message Identity Digest
+	** array[2]: OID
+	*/
+
+	/*
+	** If a message is sent successfully, remove it
+	** from the database.
+	*/
+
+	ArrayList<String[]> sent = new ArrayList<> ();
+	ArrayList<String> oids = new ArrayList<> ();
+	boolean ok = true;
+	int size = m_batchSize;
+	long time0 = System.nanoTime();
+
+	for(String array[] : arrayList)
+	{
+	    if(array == null || array.length != 3)
+		continue;
+
+	    if(m_aborted.get())
+	    {
+		ok = false;
+		break;
+	    }
+
+	    String message = outboundMessage(array[0]);
+
+	    if(message.isEmpty())
+		oids.add(array[2]);
+	    else if(timedSend(message) > 0)
+	    {
+		oids.add(array[2]);
+		sent.add(array);
+	    }
+	    else
+	    {
+		ok = false;
+		break;
+	    }
+	}
+
+	m_databaseHelper.deleteOutboundMessages(oids);
+
+	/*
+	** The remaining messages of a failed batch are retried
+	** without requiring another enqueue.
+	*/
+
+	if(!ok)
+	    m_databasePending.set(true);
+
+	for(String array[] : sent)
+	    if(m_databaseHelper.
+	       writeMessageStatus(m_cryptography, array[1]))
+		Kernel.getInstance().notifyOfDataSetChange(array[2]);
+
+	if(!ok ||
+	   (System.nanoTime() - time0) / 1000000L >
+	   SEND_OUTBOUND_TIMER_INTERVAL)
+	    m_batchSize = Math.max(1, m_batchSize / 2);
+	else if(arrayList.size() >= m_batchSize)
+	    m_batchSize = Math.min
+		(2 * m_batchSize, MAXIMUM_OUTBOUND_BATCH_SIZE);
+
+	return ok && arrayList.size() >= size;
+    }
+
+    private int timedSend(String message)
+    {
+	long time0 = System.nanoTime();
+	int sent = send(message);
+
+	if(sent > 0)
+	    m_metrics.recordSendLatency(System.nanoTime() - time0);
+
+	return sent;
+    }
+
+    private void dispatch(Runnable runnable, AtomicBoolean active)
+    {
+	if(m_aborted.get() || !active.compareAndSet(false, true))
+	    return;
+
+	try
+	{
+	    NeighborEngine.getInstance().executeTask(runnable);
+	}
+	catch(Exception exception)
+	{
+	    finished(active);
+	}
+    }
+
+    private void finished(AtomicBoolean active)
+    {
+	synchronized(m_tasksMutex)
+	{
+	    active.set(false);
+	    m_tasksMutex.notifyAll();
+	}
+    }
+
+    private void parse()
+    {
+	if(!connected() || m_aborted.get())
+	    return;
+
+	if(m_passthrough.get())
+	{
+	    echo(m_framer.drain());
+	    m_lastParsed.set(System.currentTimeMillis());
+	    return;
+	}
+
+	/*
+	** Detect our end-of-message delimiter.
+	*/
+
+	String buffer = null;
+
+	while((buffer = m_framer.next()) != null)
+	{
+	    if(m_aborted.get())
+		break;
+
+	    m_lastParsed.set(System.currentTimeMillis());
+	    m_metrics.m_framesParsed.getAndIncrement();
+
+	    if(buffer.contains("type=0097a&content="))
+	    {
+		scheduleSend
+		    (Messages.
+		     authenticateMessage(m_cryptography,
+					 Messages.
+					 stripMessage(buffer)));
+		continue;
+	    }
+
+	    switch(Kernel.getInstance().ourMessage(buffer))
+	    {
+	    case 0:
+		echo(buffer);
+		break;
+	    case 2:
+		echoForce(buffer);
+		break;
+	    case 3:
+		m_metrics.m_duplicates.getAndIncrement();
+		break;
+	    default:
+		break;
+	    }
+	}
+
+	if(System.currentTimeMillis() - m_lastParsed.get() >
+	   DATA_LIFETIME)
+	    m_framer.clear();
+    }
 
     private void saveStatistics()
     {
-	String echoQueueSize = "";
-	String error = "";
-	String localIp = getLocalIp();
-	String localPort = String.valueOf(getLocalPort());
-	String sessionCiper = getSessionCipher();
-	String status = "connecting";
-	boolean connected = connected();
-	long uptime = System.nanoTime() - m_startTime.get();
+	/*
+	** Statistics are published in memory. The database is only
+	** consulted for the number of outbound messages after the
+	** outbound queue may have changed.
+	*/
 
-	synchronized(m_echoQueueMutex)
+	if(m_outboundCountPending.getAndSet(false))
 	{
-	    echoQueueSize = String.valueOf(m_echoQueue.size());
+	    long count = m_databaseHelper.countOfOutboundMessages
+		(m_oid.get());
+
+	    m_metrics.m_outboundQueued.set(Math.max(0L, count));
 	}
 
+	m_metrics.m_echoQueueSize.set(m_echoQueue.size());
+
 	synchronized(m_errorMutex)
 	{
-	    error = m_error.toString();
+	    m_metrics.m_error = m_error.toString();
 	}
 
-	if(connected)
-	    status = "connected";
-	else
-	    status = "disconnected";
-
-	m_databaseHelper.saveNeighborInformation
-	    (m_cryptography,
-	     String.valueOf(m_bytesRead.get()),
-	     String.valueOf(m_bytesWritten.get()),
-	     echoQueueSize,
-	     error,
-	     localIp,
-	     localPort,
-	     sessionCiper,
-	     status,
-	     String.valueOf(uptime),
-	     String.valueOf(m_oid.get()));
+	synchronized(m_queueMutex)
+	{
+	    m_metrics.m_queueSize.set(m_queue.size());
+	}
+
+	m_metrics.m_localIpAddress = getLocalIp();
+	m_metrics.m_localPort = String.valueOf(getLocalPort());
+	m_metrics.m_sessionCipher = getSessionCipher();
+	m_metrics.m_status = connected() ? "connected" : "disconnected";
+	m_metrics.m_uptime.set(System.nanoTime() - m_startTime.get());
+    }
+
+    private void sendOutbound()
+    {
+	if(!connected() || m_aborted.get())
+	    return;
+
+	if(m_identitiesPending.getAndSet(false))
+	{
+	    if(!m_capabilitiesSent.get())
+		m_capabilitiesSent.set(send(getCapabilities()) > 0);
+
+	    send(getIdentities());
+	}
+
+	m_sendOutboundPending.set(false);
+
+	while(connected() && !m_aborted.get())
+	{
+	    String message = null;
+	    boolean pending = false;
+
+	    /*
+	    ** Transfer real-time packets. Results of send() are
+	    ** ignored.
+	    */
+
+	    while((message = poll(m_queue, m_queueMutex)) != null)
+		timedSend(message);
+
+	    /*
+	    ** Database messages. The database is only queried
+	    ** if messages were enqueued or if a previous batch
+	    ** was complete.
+	    */
+
+	    if(m_databasePending.getAndSet(false))
+	    {
+		pending = sendOutboundMessages();
+		m_outboundCountPending.set(true);
+
+		if(pending)
+		    m_databasePending.set(true);
+	    }
+
+	    /*
+	    ** Echo packets. Results of send() are ignored.
+	    */
+
+	    while((message = m_echoQueue.poll()) != null)
+		timedSend(message);
+
+	    if(!m_sendOutboundPending.getAndSet(false) && !pending)
+		break;
+	}
+
+	/*
+	** A failed batch of database messages is retried shortly.
+	*/
+
+	if(connected() && m_databasePending.get() && !m_aborted.get())
+	    NeighborEngine.getInstance().schedule
+		(new Runnable()
+		{
+		    @Override
+		    public void run()
+		    {
+			wakeSendOutboundScheduler();
+		    }
+		}, SEND_OUTBOUND_RETRY_INTERVAL);
     }
 
     private void terminateOnSilence()
@@ -142,6 +468,50 @@ public abstract class Neighbor
 	    disconnect();
     }
 
+    private void tick()
+    {
+	if(m_aborted.get())
+	    return;
+
+	String statusControl = m_databaseHelper.
+	    readNeighborStatusControl(m_cryptography, m_oid.get());
+
+	switch(statusControl)
+	{
+	case "connect":
+	    connect();
+	    break;
+	case "disconnect":
+	    disconnect();
+	    setError("");
+	    break;
+	default:
+	    /*
+	    ** Abort!
+	    */
+
+	    disconnect();
+	    return;
+	}
+
+	if(connected())
+	{
+	    if(m_databasePending.get())
+		wakeSendOutboundScheduler();
+	}
+	else
+	    m_databasePending.set(true); // Messages may accumulate.
+
+	saveStatistics();
+	terminateOnSilence();
+    }
+
+    private void wakeSendOutboundScheduler()
+    {
+	m_sendOutboundPending.set(true);
+	dispatch(m_sendOutboundTask, m_sending);
+    }
+
     protected Neighbor(String passthrough,
 		       String ipAddress,
 		       String ipPort,
@@ -151,317 +521,121 @@ public abstract class Neighbor
 		       int oid)
     {
 	m_aborted = new AtomicBoolean(false);
-	m_bytesRead = new AtomicLong(0L);
-	m_bytesWritten = new AtomicLong(0L);
+	m_metrics = NeighborMetrics.register(oid);
+	m_bytesRead = m_metrics.m_bytesRead;
+	m_bytesWritten = m_metrics.m_bytesWritten;
 	m_capabilitiesSent = new AtomicBoolean(false);
 	m_cryptography = Cryptography.getInstance();
 	m_databaseHelper = Database.getInstance();
-	m_echoQueue = new ArrayList<> ();
+	m_databasePending = new AtomicBoolean(true);
+	m_echoQueue = new EchoQueue();
+	m_identitiesPending = new AtomicBoolean(false);
 	m_ipAddress = ipAddress;
 	m_ipPort = ipPort;
 	m_lastParsed = new AtomicLong(System.currentTimeMillis());
 	m_lastTimeRead = new AtomicLong(System.nanoTime());
 	m_oid = new AtomicInteger(oid);
+	m_outboundCountPending = new AtomicBoolean(true);
+	m_parsing = new AtomicBoolean(false);
+	m_parsingPending = new AtomicBoolean(false);
 	m_passthrough = new AtomicBoolean(passthrough.equals("true"));
-	m_queue = new ArrayList<> ();
+	m_queue = new ArrayDeque<> ();
+	m_sendOutboundPending = new AtomicBoolean(true);
+	m_sending = new AtomicBoolean(false);
 	m_startTime = new AtomicLong(System.nanoTime());
+	m_ticking = new AtomicBoolean(false);
 	m_uuid = UUID.randomUUID();
 	m_version = version;
 
 	/*
-	** Start the schedules.
+	** Parsing, sending, and the timer are performed by the shared
+	** workers of NeighborEngine. An idle neighbor does not occupy
+	** a thread and at most one task of each kind is active.
 	*/
 
-	m_parsingScheduler.scheduleAtFixedRate(new Runnable()
+	m_parsingTask = new Runnable()
 	{
 	    @Override
 	    public void run()
 	    {
 		try
 		{
-		    if(!connected() && !m_aborted.get())
-			synchronized(m_mutex)
-			{
-			    try
-			    {
-				m_mutex.wait(WAIT_TIMEOUT);
-			    }
-			    catch(Exception exception)
-			    {
-			    }
-			}
-
-		    if(!connected() || m_aborted.get())
-			return;
-
-		    /*
-		    ** Await new data.
-		    */
-
-		    synchronized(m_parsingSchedulerMutex)
-		    {
-			try
-			{
-			    m_parsingSchedulerMutex.wait(WAIT_TIMEOUT);
-			}
-			catch(Exception exception)
-			{
-			}
-		    }
-
-		    if(m_passthrough.get())
-		    {
-			echo(m_stringBuffer.toString());
-			m_lastParsed.set(System.currentTimeMillis());
-			m_stringBuffer.delete(0, m_stringBuffer.length());
-		    }
-		    else
-		    {
-			/*
-			** Detect our end-of-message delimiter.
-			*/
-
-			int indexOf = -1;
-
-			while((indexOf = m_stringBuffer.
-			                 indexOf(Messages.EOM)) >= 0)
-			{
-			    if(m_aborted.get())
-				break;
-
-			    m_lastParsed.set(System.currentTimeMillis());
-
-			    String buffer = m_stringBuffer.
-				substring(0, indexOf + Messages.EOM.length());
-
-			    m_stringBuffer.delete(0, buffer.length());
-
-			    if(buffer.contains("type=0097a&content="))
-			    {
-				scheduleSend
-				    (Messages.
-				     authenticateMessage(m_cryptography,
-							 Messages.
-							 stripMessage(buffer)));
-				continue;
-			    }
-
-			    switch(Kernel.getInstance().ourMessage(buffer))
-			    {
-			    case 0:
-				echo(buffer);
-				break;
-			    case 2:
-				echoForce(buffer);
-				break;
-			    default:
-				break;
-			    }
-			}
-		    }
-
-		    if(System.currentTimeMillis() - m_lastParsed.get() >
-		       DATA_LIFETIME ||
-		       m_stringBuffer.length() > MAXIMUM_BYTES)
-			m_stringBuffer.delete(0, m_stringBuffer.length());
-
-		    m_stringBuffer.trimToSize();
+		    while(m_parsingPending.getAndSet(false))
+			parse();
 		}
 		catch(Exception exception)
 		{
 		}
+		finally
+		{
+		    finished(m_parsing);
+		}
+
+		if(m_parsingPending.get())
+		    dispatch(this, m_parsing);
 	    }
-	}, 0L, PARSING_INTERVAL, TimeUnit.MILLISECONDS);
-	m_scheduler.scheduleAtFixedRate(new Runnable()
+	};
+	m_sendOutboundTask = new Runnable()
 	{
 	    @Override
 	    public void run()
 	    {
 		try
 		{
-		    String statusControl = m_databaseHelper.
-			readNeighborStatusControl(m_cryptography, m_oid.get());
-
-		    switch(statusControl)
-		    {
-		    case "connect":
-			connect();
-			break;
-		    case "disconnect":
-			disconnect();
-			setError("");
-			break;
-		    default:
-			/*
-			** Abort!
-			*/
-
-			disconnect();
-			return;
-		    }
-
-		    saveStatistics();
-		    terminateOnSilence();
+		    sendOutbound();
 		}
 		catch(Exception exception)
 		{
 		}
+		finally
+		{
+		    finished(m_sending);
+		}
+
+		if(connected() && m_sendOutboundPending.get())
+		    dispatch(this, m_sending);
 	    }
-	}, 0L, TIMER_INTERVAL, TimeUnit.MILLISECONDS);
-	m_sendOutboundScheduler.scheduleAtFixedRate(new Runnable()
+	};
+	m_timerTask = new Runnable()
 	{
-	    private long m_accumulatedTime = System.nanoTime();
-
 	    @Override
 	    public void run()
 	    {
 		try
 		{
-		    if(!connected() && !m_aborted.get())
-			synchronized(m_mutex)
-			{
-			    try
-			    {
-				m_mutex.wait(WAIT_TIMEOUT);
-			    }
-			    catch(Exception exception)
-			    {
-			    }
-			}
-
-		    if(!connected() || m_aborted.get())
-			return;
-
-		    if(System.nanoTime() - m_accumulatedTime >= 15000000000L)
-		    {
-			/*
-			** Send every 15 seconds.
-			*/
-
-			m_accumulatedTime = System.nanoTime();
-
-			if(!m_passthrough.get())
-			{
-			    if(!m_capabilitiesSent.get())
-				m_capabilitiesSent.set
-				    (send(getCapabilities()) > 0);
-
-			    send(getIdentities());
-			}
-		    }
-
-		    /*
-		    ** Retrieve a database message.
-		    */
-
-		    String array[] = m_databaseHelper.readOutboundMessage
-			(m_oid.get());
-
-		    /*
-		    ** array[0]: Message
-		    ** array[1]: Message Identity Digest
-		    ** array[2]: OID
-		    */
-
-		    /*
-		    ** If the message is sent successfully, remove it
-		    ** from the database.
-		    */
-
-		    if(array != null && array.length == 3)
-		    {
-			byte bytes[] = m_cryptography.mtd
-			    (Base64.decode(array[0], Base64.DEFAULT));
-
-			if(bytes != null)
-			    array[0] = new String(bytes);
-			else
-			    array[0] = "";
-
-			if(array[0].startsWith("OZONE-"))
-			{
-			    bytes = Base64.decode
-				(array[0].substring(6), Base64.NO_WRAP);
-
-			    if(bytes != null)
-			    {
-				byte timestamp[] = Miscellaneous.longToByteArray
-				    (TimeUnit.MILLISECONDS.
-				     toMinutes(System.currentTimeMillis()));
-
-				bytes = Miscellaneous.joinByteArrays
-				    /*
-				    ** Remove the embedded SipHash.
-				    */
-
-				    (Arrays.
-				     copyOfRange(bytes,
-						 0,
-						 bytes.length -
-						 Cryptography.
-						 SIPHASH_IDENTITY_LENGTH),
-				     Cryptography.
-				     hmac(Miscellaneous.
-					  joinByteArrays(bytes, timestamp),
-					  m_cryptography.ozoneMacKey()));
-			    }
-			    else
-				array[0] = "";
-
-			    if(bytes != null)
-				array[0] = Messages.bytesToMessageString(bytes);
-			    else
-				array[0] = "";
-			}
-
-			if(array[0].isEmpty())
-			    m_databaseHelper.deleteEntry
-				(array[2], "outbound_queue");
-			else if(send(array[0]) > 0)
-			{
-			    m_databaseHelper.deleteEntry
-				(array[2], "outbound_queue");
-
-			    if(m_databaseHelper.
-			       writeMessageStatus(m_cryptography, array[1]))
-				Kernel.getInstance().notifyOfDataSetChange
-				    (array[2]);
-			}
-		    }
-
-		    /*
-		    ** Echo packets.
-		    */
-
-		    synchronized(m_echoQueueMutex)
-		    {
-			if(!m_echoQueue.isEmpty())
-			    /*
-			    ** Results of send() are ignored.
-			    */
-
-			    send(m_echoQueue.remove(m_echoQueue.size() - 1));
-		    }
-
-		    /*
-		    ** Transfer real-time packets.
-		    */
-
-		    synchronized(m_queueMutex)
-		    {
-			if(!m_queue.isEmpty())
-			    /*
-			    ** Results of send() are ignored.
-			    */
-
-			    send(m_queue.remove(m_queue.size() - 1));
-		    }
+		    tick();
 		}
 		catch(Exception exception)
 		{
 		}
+		finally
+		{
+		    finished(m_ticking);
+		}
 	    }
-	}, 0L, SEND_OUTBOUND_TIMER_INTERVAL, TimeUnit.MILLISECONDS);
+	};
+	m_identitiesFuture = NeighborEngine.getInstance().scheduleAtFixedRate
+	    (new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    if(connected() && !m_passthrough.get())
+		    {
+			m_identitiesPending.set(true);
+			wakeSendOutboundScheduler();
+		    }
+		}
+	    }, IDENTITIES_INTERVAL, IDENTITIES_INTERVAL);
+	m_timerFuture = NeighborEngine.getInstance().scheduleAtFixedRate
+	    (new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    dispatch(m_timerTask, m_ticking);
+		}
+	    }, 0L, TIMER_INTERVAL);
     }
 
     protected String getCapabilities()
@@ -561,114 +735,141 @@ public abstract class Neighbor
 	return false;
     }
 
-    protected void abort()
+    protected long transfer(FileChannel channel, long position, long count)
     {
-	m_aborted.set(true);
+	/*
+	** Send a region of a file. Large reads are performed into
+	** a recycled array as send() expects arrays.
+	*/
 
-	synchronized(m_mutex)
-	{
-	    m_mutex.notifyAll();
-	}
+	if(channel == null || count <= 0L || !connected())
+	    return 0L;
 
-	synchronized(m_parsingScheduler)
+	long sent = 0L;
+
+	synchronized(m_transferMutex)
 	{
+	    if(m_transferBytes == null)
+		m_transferBytes = new byte[NeighborEngine.BUFFER_SIZE];
+
 	    try
 	    {
-		m_parsingScheduler.shutdown();
+		ByteBuffer buffer = ByteBuffer.wrap(m_transferBytes);
+
+		while(sent < count && connected())
+		{
+		    buffer.clear();
+		    buffer.limit
+			((int) Math.min((long) buffer.capacity(),
+					count - sent));
+
+		    while(buffer.hasRemaining())
+			if(channel.read(buffer, position + sent +
+					buffer.position()) <= 0)
+			    break;
+
+		    if(buffer.position() == 0)
+			break;
+
+		    byte bytes[] = m_transferBytes;
+
+		    if(buffer.position() < bytes.length)
+			bytes = Arrays.copyOf(bytes, buffer.position());
+
+		    int rc = send(bytes);
+
+		    sent += (long) rc;
+
+		    if(rc < bytes.length)
+			break;
+		}
 	    }
 	    catch(Exception exception)
 	    {
 	    }
 	}
 
-	synchronized(m_parsingSchedulerMutex)
-	{
-	    m_parsingSchedulerMutex.notify();
-	}
+	return sent;
+    }
 
-	synchronized(m_parsingScheduler)
+    protected void abort()
+    {
+	m_aborted.set(true);
+
+	synchronized(m_mutex)
 	{
-	    try
-	    {
-		if(!m_parsingScheduler.awaitTermination(60L, TimeUnit.SECONDS))
-		    m_parsingScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	    m_mutex.notifyAll();
 	}
 
-	synchronized(m_scheduler)
-	{
-	    try
-	    {
-		m_scheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	if(m_identitiesFuture != null)
+	    m_identitiesFuture.cancel(false);
 
-	    try
-	    {
-		if(!m_scheduler.awaitTermination(60L, TimeUnit.SECONDS))
-		    m_scheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+	if(m_timerFuture != null)
+	    m_timerFuture.cancel(false);
 
-	synchronized(m_sendOutboundScheduler)
+	/*
+	** Await the active tasks.
+	*/
+
+	synchronized(m_tasksMutex)
 	{
-	    try
-	    {
-		m_sendOutboundScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	    long deadline = System.nanoTime() + 60000000000L;
 
-	    try
-	    {
-		if(!m_sendOutboundScheduler.
-		   awaitTermination(60L, TimeUnit.SECONDS))
-		    m_sendOutboundScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
+	    while(m_parsing.get() || m_sending.get() || m_ticking.get())
 	    {
+		long timeout = (deadline - System.nanoTime()) / 1000000L;
+
+		if(timeout <= 0L)
+		    break;
+
+		try
+		{
+		    m_tasksMutex.wait(timeout);
+		}
+		catch(Exception exception)
+		{
+		    break;
+		}
 	    }
 	}
 
+	NeighborMetrics.unregister(m_oid.get(), m_metrics);
 	Miscellaneous.sendBroadcast
 	    ("org.purple.smoke.neighbor_aborted", address());
     }
 
+    protected void appendBytes(ByteBuffer buffer)
+    {
+	/*
+	** Invoked by NeighborEngine.
+	*/
+
+	if(buffer == null || !buffer.hasRemaining())
+	    return;
+
+	m_bytesRead.getAndAdd(buffer.remaining());
+	m_lastTimeRead.set(System.nanoTime());
+	m_framer.append(buffer);
+	wakeParsingScheduler();
+    }
+
     protected void disconnect()
     {
 	m_capabilitiesSent.set(false);
 
-	synchronized(m_echoQueueMutex)
-	{
-	    m_echoQueue.clear();
-	}
+	m_echoQueue.clear();
 
 	synchronized(m_mutex)
 	{
 	    m_mutex.notifyAll();
 	}
 
-	synchronized(m_parsingSchedulerMutex)
-	{
-	    m_parsingSchedulerMutex.notify();
-	}
-
 	synchronized(m_queueMutex)
 	{
 	    m_queue.clear();
 	}
 
-	m_stringBuffer.delete(0, m_stringBuffer.length());
-	m_stringBuffer.trimToSize();
+	m_framer.clear();
 	Miscellaneous.sendBroadcast
 	    ("org.purple.smoke.neighbor_disconnected", address());
     }
@@ -693,16 +894,50 @@ public abstract class Neighbor
 	}
     }
 
+    protected void wakeParsingScheduler()
+    {
+	m_parsingPending.set(true);
+	dispatch(m_parsingTask, m_parsing);
+    }
+
     public boolean passthrough()
     {
 	return m_passthrough.get();
     }
 
+    public boolean scheduleSend(String message)
+    {
+	if(!connected() ||
+	   m_passthrough.get() ||
+	   message == null ||
+	   message.trim().isEmpty())
+	    return false;
+
+	synchronized(m_queueMutex)
+	{
+	    if(m_queue.size() < MAXIMUM_QUEUED_PACKETS)
+		m_queue.addLast(message);
+	    else
+		return false;
+	}
+
+	wakeSendOutboundScheduler();
+	return true;
+    }
+
     public int getOid()
     {
 	return m_oid.get();
     }
 
+    public int queueSize()
+    {
+	synchronized(m_queueMutex)
+	{
+	    return m_queue.size();
+	}
+    }
+
     public synchronized String address()
     {
 	return m_ipAddress + ":" + m_ipPort;
@@ -710,10 +945,7 @@ public abstract class Neighbor
 
     public void clearEchoQueue()
     {
-	synchronized(m_echoQueueMutex)
-	{
-	    m_echoQueue.clear();
-	}
+	m_echoQueue.clear();
     }
 
     public void clearQueue()
@@ -724,22 +956,17 @@ public abstract class Neighbor
 	}
     }
 
-    public void scheduleEchoSend(String message)
+    public void notifyOfOutboundMessage()
     {
-	if(!connected() ||
-	   m_passthrough.get() ||
-	   message == null ||
-	   message.trim().isEmpty())
-	    return;
-
-	synchronized(m_echoQueueMutex)
+	if(!m_passthrough.get())
 	{
-	    if(m_echoQueue.size() < MAXIMUM_QUEUED_ECHO_PACKETS)
-		m_echoQueue.add(message);
+	    m_databasePending.set(true);
+	    m_outboundCountPending.set(true);
+	    wakeSendOutboundScheduler();
 	}
     }
 
-    public void scheduleSend(String message)
+    public void scheduleEchoSend(String message)
     {
 	if(!connected() ||
 	   m_passthrough.get() ||
@@ -747,9 +974,7 @@ public abstract class Neighbor
 	   message.trim().isEmpty())
 	    return;
 
-	synchronized(m_queueMutex)
-	{
-	    m_queue.add(message);
-	}
+	if(m_echoQueue.offer(message))
+	    wakeSendOutboundScheduler();
     }
 }
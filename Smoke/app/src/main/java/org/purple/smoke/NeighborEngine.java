@@ -0,0 +1,504 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smoke;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class NeighborEngine
+{
+    /*
+    ** A small, fixed set of selector threads which service the
+    ** non-blocking channels of neighbors. Reads are performed into
+    ** pooled direct buffers. Writers which cannot complete immediately
+    ** await writability. Neighbor tasks, such as parsing and sending,
+    ** are performed by a shared pool of workers which are triggered by
+    ** a single timer thread.
+    */
+
+    public interface Handler
+    {
+	/*
+	** The methods are invoked by selector threads and must not block.
+	*/
+
+	public void closed();
+	public void readable(ByteBuffer buffer);
+	public void writable();
+    }
+
+    public static class Registration
+    {
+	private Handler m_handler = null;
+	private SelectableChannel m_channel = null;
+	private SelectionKey m_key = null;
+	private Worker m_worker = null;
+	private boolean m_writable = false;
+	private final ReentrantLock m_writeLock = new ReentrantLock();
+
+	private Registration(SelectableChannel channel,
+			     Handler handler,
+			     Worker worker)
+	{
+	    m_channel = channel;
+	    m_handler = handler;
+	    m_worker = worker;
+	}
+
+	private synchronized boolean awaitWritable(long deadline)
+	{
+	    /*
+	    ** Returns false if the deadline expired.
+	    */
+
+	    m_writable = false;
+	    setWritableInterest(true);
+
+	    while(!m_writable && m_channel.isOpen())
+	    {
+		long remaining = (deadline - System.nanoTime()) / 1000000L;
+
+		if(remaining <= 0L)
+		    return false;
+
+		try
+		{
+		    wait(remaining);
+		}
+		catch(InterruptedException exception)
+		{
+		    return false;
+		}
+	    }
+
+	    return true;
+	}
+
+	private synchronized void signalWritable()
+	{
+	    m_writable = true;
+	    notifyAll();
+	}
+
+	public int write(ByteBuffer buffer, long timeout) throws IOException
+	{
+	    /*
+	    ** Write the remaining bytes of buffer, awaiting writability
+	    ** for at most timeout milliseconds. Returns the number of
+	    ** bytes written. Writers are serialized so that partial
+	    ** writes are not interleaved.
+	    */
+
+	    WritableByteChannel channel = (WritableByteChannel) m_channel;
+	    int written = 0;
+	    long deadline = System.nanoTime() + timeout * 1000000L;
+
+	    m_writeLock.lock();
+
+	    try
+	    {
+		while(buffer.hasRemaining())
+		{
+		    int i = channel.write(buffer);
+
+		    if(i > 0)
+		    {
+			written += i;
+			continue;
+		    }
+
+		    if(!awaitWritable(deadline) || !m_channel.isOpen())
+			break;
+		}
+	    }
+	    finally
+	    {
+		m_writeLock.unlock();
+	    }
+
+	    return written;
+	}
+
+	public long transferFrom(FileChannel fileChannel,
+				 long position,
+				 long count,
+				 long timeout) throws IOException
+	{
+	    /*
+	    ** Transfer count bytes of fileChannel beginning at position
+	    ** directly to the channel, awaiting writability for at most
+	    ** timeout milliseconds. Returns the number of bytes
+	    ** transferred.
+	    */
+
+	    WritableByteChannel channel = (WritableByteChannel) m_channel;
+	    long deadline = System.nanoTime() + timeout * 1000000L;
+	    long transferred = 0L;
+
+	    m_writeLock.lock();
+
+	    try
+	    {
+		while(transferred < count)
+		{
+		    long i = fileChannel.transferTo
+			(position + transferred, count - transferred, channel);
+
+		    if(i > 0L)
+		    {
+			transferred += i;
+			continue;
+		    }
+		    else if(position + transferred >= fileChannel.size())
+			break;
+
+		    if(!awaitWritable(deadline) || !m_channel.isOpen())
+			break;
+		}
+	    }
+	    finally
+	    {
+		m_writeLock.unlock();
+	    }
+
+	    return transferred;
+	}
+
+	public void cancel()
+	{
+	    m_worker.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    if(m_key != null)
+			m_key.cancel();
+		}
+	    });
+
+	    synchronized(this)
+	    {
+		notifyAll();
+	    }
+	}
+
+	public void setWritableInterest(final boolean state)
+	{
+	    m_worker.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    if(m_key == null || !m_key.isValid())
+			return;
+
+		    if(state)
+			m_key.interestOps
+			    (m_key.interestOps() | SelectionKey.OP_WRITE);
+		    else
+			m_key.interestOps
+			    (m_key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	    });
+	}
+    }
+
+    private class Worker implements Runnable
+    {
+	private Selector m_selector = null;
+	private final ConcurrentLinkedQueue<Runnable> m_tasks =
+	    new ConcurrentLinkedQueue<> ();
+
+	private void read(SelectionKey key, ByteBuffer buffer)
+	{
+	    Registration registration = (Registration) key.attachment();
+	    ReadableByteChannel channel =
+		(ReadableByteChannel) registration.m_channel;
+
+	    for(int i = 0; i < READS_PER_SELECTION; i++)
+	    {
+		int count = 0;
+
+		buffer.clear();
+
+		try
+		{
+		    count = channel.read(buffer);
+		}
+		catch(Exception exception)
+		{
+		    count = -1;
+		}
+
+		if(count < 0)
+		{
+		    key.cancel();
+		    registration.m_handler.closed();
+		    break;
+		}
+		else if(count == 0)
+		    break;
+
+		buffer.flip();
+		registration.m_handler.readable(buffer);
+	    }
+	}
+
+	public Worker() throws IOException
+	{
+	    m_selector = Selector.open();
+	}
+
+	public void execute(Runnable runnable)
+	{
+	    m_tasks.offer(runnable);
+	    m_selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+	    ByteBuffer buffer = acquireBuffer();
+
+	    while(true)
+	    {
+		try
+		{
+		    m_selector.select();
+
+		    Runnable runnable = null;
+
+		    while((runnable = m_tasks.poll()) != null)
+			try
+			{
+			    runnable.run();
+			}
+			catch(Exception exception)
+			{
+			}
+
+		    Iterator<SelectionKey> it =
+			m_selector.selectedKeys().iterator();
+
+		    while(it.hasNext())
+		    {
+			SelectionKey key = it.next();
+
+			it.remove();
+
+			if(!key.isValid())
+			    continue;
+
+			Registration registration =
+			    (Registration) key.attachment();
+
+			if(key.isWritable())
+			{
+			    key.interestOps
+				(key.interestOps() & ~SelectionKey.OP_WRITE);
+			    registration.signalWritable();
+			    registration.m_handler.writable();
+			}
+
+			if(key.isValid() && key.isReadable())
+			    read(key, buffer);
+		    }
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}
+    }
+
+    private AtomicInteger m_next = null;
+    private ExecutorService m_executor = null;
+    private ExecutorService m_taskExecutor = null;
+    private ScheduledExecutorService m_timer = null;
+    private Worker m_workers[] = null;
+    private final ArrayDeque<ByteBuffer> m_buffers = new ArrayDeque<> ();
+    private final static int MAXIMUM_POOLED_BUFFERS = 64;
+    private final static int READS_PER_SELECTION = 16;
+    private final static int WORKERS = Math.max
+	(1, Math.min(2, Runtime.getRuntime().availableProcessors()));
+    private static NeighborEngine s_instance = null;
+    public final static int BUFFER_SIZE = 65536;
+
+    private NeighborEngine()
+    {
+	m_executor = Executors.newFixedThreadPool(WORKERS);
+	m_next = new AtomicInteger(0);
+	m_taskExecutor = Executors.newCachedThreadPool();
+	m_timer = Executors.newSingleThreadScheduledExecutor();
+	m_workers = new Worker[WORKERS];
+
+	for(int i = 0; i < WORKERS; i++)
+	    try
+	    {
+		m_workers[i] = new Worker();
+		m_executor.execute(m_workers[i]);
+	    }
+	    catch(Exception exception)
+	    {
+		m_workers[i] = null;
+	    }
+    }
+
+    public ByteBuffer acquireBuffer()
+    {
+	/*
+	** Direct buffers are expensive to allocate and are therefore
+	** recycled.
+	*/
+
+	ByteBuffer buffer = null;
+
+	synchronized(m_buffers)
+	{
+	    buffer = m_buffers.pollFirst();
+	}
+
+	if(buffer == null)
+	    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	buffer.clear();
+	return buffer;
+    }
+
+    public Registration register(SelectableChannel channel, Handler handler)
+	throws IOException
+    {
+	if(channel == null || handler == null)
+	    throw new IOException("Invalid parameters.");
+
+	Worker worker = null;
+
+	for(int i = 0; i < WORKERS; i++)
+	{
+	    worker = m_workers
+		[Math.abs(m_next.getAndIncrement() % WORKERS)];
+
+	    if(worker != null)
+		break;
+	}
+
+	if(worker == null)
+	    throw new IOException("A selector is not available.");
+
+	final Registration registration = new Registration
+	    (channel, handler, worker);
+	final Worker w = worker;
+
+	channel.configureBlocking(false);
+	worker.execute(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    registration.m_key = registration.m_channel.register
+			(w.m_selector, SelectionKey.OP_READ, registration);
+		}
+		catch(Exception exception)
+		{
+		    registration.m_handler.closed();
+		}
+	    }
+	});
+	return registration;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable runnable, long delay)
+    {
+	/*
+	** Scheduled runnables must be brief. Blocking work is
+	** submitted to executeTask().
+	*/
+
+	return m_timer.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable,
+						  long delay,
+						  long period)
+    {
+	return m_timer.scheduleAtFixedRate
+	    (runnable, delay, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void executeTask(Runnable runnable)
+    {
+	/*
+	** Blocking work, such as SSLEngine delegated tasks, must not
+	** occupy a selector thread.
+	*/
+
+	if(runnable != null)
+	    m_taskExecutor.execute(runnable);
+    }
+
+    public static synchronized NeighborEngine getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new NeighborEngine();
+
+	return s_instance;
+    }
+
+    public void releaseBuffer(ByteBuffer buffer)
+    {
+	if(buffer == null ||
+	   buffer.capacity() != BUFFER_SIZE ||
+	   !buffer.isDirect())
+	    return;
+
+	synchronized(m_buffers)
+	{
+	    if(m_buffers.size() < MAXIMUM_POOLED_BUFFERS)
+		m_buffers.addLast(buffer);
+	}
+    }
+}
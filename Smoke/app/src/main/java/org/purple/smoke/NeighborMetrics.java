@@ -0,0 +1,149 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class NeighborMetrics
+{
+    /*
+    ** Live statistics of a neighbor. Values are updated by the threads
+    ** of the neighbor and are read by the user interface. They are not
+    ** persisted. Send latencies are recorded in buckets whose bounds
+    ** are powers of two of microseconds.
+    */
+
+    private final AtomicLongArray m_sendLatencies =
+	new AtomicLongArray(LATENCY_BUCKETS);
+    private final static ConcurrentHashMap<Integer, NeighborMetrics>
+	s_metrics = new ConcurrentHashMap<> ();
+    private final static int LATENCY_BUCKETS = 24; // 1 us to 8 s.
+    private final static NeighborMetrics s_inactive = new NeighborMetrics();
+    public final AtomicInteger m_echoQueueSize = new AtomicInteger(0);
+    public final AtomicInteger m_queueSize = new AtomicInteger(0);
+    public final AtomicLong m_bytesRead = new AtomicLong(0L);
+    public final AtomicLong m_bytesWritten = new AtomicLong(0L);
+    public final AtomicLong m_decryptFailures = new AtomicLong(0L);
+    public final AtomicLong m_duplicates = new AtomicLong(0L);
+    public final AtomicLong m_framesParsed = new AtomicLong(0L);
+    public final AtomicLong m_outboundQueued = new AtomicLong(0L);
+    public final AtomicLong m_uptime = new AtomicLong(0L);
+    public volatile String m_error = "";
+    public volatile String m_localIpAddress = "";
+    public volatile String m_localPort = "0";
+    public volatile String m_sessionCipher = "";
+    public volatile String m_status = "disconnected";
+
+    public static NeighborMetrics metrics(int oid)
+    {
+	/*
+	** Neighbors which are not active are described by the
+	** initial values.
+	*/
+
+	NeighborMetrics metrics = s_metrics.get(oid);
+
+	return metrics != null ? metrics : s_inactive;
+    }
+
+    public static NeighborMetrics register(int oid)
+    {
+	NeighborMetrics metrics = new NeighborMetrics();
+
+	s_metrics.put(oid, metrics);
+	return metrics;
+    }
+
+    public long sendLatency(double percentile)
+    {
+	/*
+	** Returns the upper bound, in microseconds, of the bucket which
+	** contains the percentile. Zero is returned if latencies have
+	** not been recorded.
+	*/
+
+	long count = 0L;
+	long counts[] = new long[LATENCY_BUCKETS];
+
+	for(int i = 0; i < LATENCY_BUCKETS; i++)
+	{
+	    counts[i] = m_sendLatencies.get(i);
+	    count += counts[i];
+	}
+
+	if(count == 0L)
+	    return 0L;
+
+	long rank = (long) Math.ceil(percentile * count);
+	long total = 0L;
+
+	for(int i = 0; i < LATENCY_BUCKETS; i++)
+	{
+	    total += counts[i];
+
+	    if(total >= rank)
+		return 1L << i;
+	}
+
+	return 1L << (LATENCY_BUCKETS - 1);
+    }
+
+    public void populate(NeighborElement neighborElement)
+    {
+	if(neighborElement == null)
+	    return;
+
+	neighborElement.m_bytesRead = String.valueOf(m_bytesRead.get());
+	neighborElement.m_bytesWritten = String.valueOf(m_bytesWritten.get());
+	neighborElement.m_echoQueueSize = String.valueOf
+	    (m_echoQueueSize.get());
+	neighborElement.m_error = m_error;
+	neighborElement.m_localIpAddress = m_localIpAddress;
+	neighborElement.m_localPort = m_localPort;
+	neighborElement.m_outboundQueued = m_outboundQueued.get();
+	neighborElement.m_sessionCipher = m_sessionCipher;
+	neighborElement.m_status = m_status;
+	neighborElement.m_uptime = String.valueOf(m_uptime.get());
+    }
+
+    public void recordSendLatency(long nanoseconds)
+    {
+	long microseconds = Math.max(1L, nanoseconds / 1000L);
+	int i = 64 - Long.numberOfLeadingZeros(microseconds - 1L);
+
+	m_sendLatencies.getAndIncrement(Math.min(i, LATENCY_BUCKETS - 1));
+    }
+
+    public static void unregister(int oid, NeighborMetrics metrics)
+    {
+	s_metrics.remove(oid, metrics);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smoke;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ParticipantCache
+{
+    /*
+    ** A write-through cache of decrypted participant attributes.
+    ** Elements are discovered via the digests of the participants'
+    ** encryption public keys or via SipHash identities. Database
+    ** clears the cache whenever participants are modified.
+    */
+
+    public static class Element
+    {
+	public PublicKey m_signatureKey = null;
+	public String m_name = null;
+	public String m_options = "";
+	public String m_sipHashId = null;
+	public byte m_digest[] = null;
+	public byte m_keyStream[] = null;
+    }
+
+    private long m_generation = 0L;
+    private final HashMap<ByteBuffer, Element> m_digests = new HashMap<> ();
+    private final HashMap<String, Element> m_sipHashIds = new HashMap<> ();
+    private final ReentrantReadWriteLock m_mutex =
+	new ReentrantReadWriteLock();
+    private final static int MAXIMUM_ELEMENTS = 4096;
+
+    private static String key(String sipHashId)
+    {
+	return sipHashId.toUpperCase().trim();
+    }
+
+    public Element get(String sipHashId)
+    {
+	if(sipHashId == null)
+	    return null;
+
+	m_mutex.readLock().lock();
+
+	try
+	{
+	    return m_sipHashIds.get(key(sipHashId));
+	}
+	finally
+	{
+	    m_mutex.readLock().unlock();
+	}
+    }
+
+    public Element get(byte digest[])
+    {
+	if(digest == null)
+	    return null;
+
+	m_mutex.readLock().lock();
+
+	try
+	{
+	    return m_digests.get(ByteBuffer.wrap(digest));
+	}
+	finally
+	{
+	    m_mutex.readLock().unlock();
+	}
+    }
+
+    public long generation()
+    {
+	m_mutex.readLock().lock();
+
+	try
+	{
+	    return m_generation;
+	}
+	finally
+	{
+	    m_mutex.readLock().unlock();
+	}
+    }
+
+    public void clear()
+    {
+	m_mutex.writeLock().lock();
+
+	try
+	{
+	    m_digests.clear();
+	    m_generation += 1L;
+	    m_sipHashIds.clear();
+	}
+	finally
+	{
+	    m_mutex.writeLock().unlock();
+	}
+    }
+
+    public void put(Element element, long generation)
+    {
+	/*
+	** Elements which were read before the most recent modification
+	** of the participants are discarded.
+	*/
+
+	if(element == null ||
+	   element.m_digest == null ||
+	   element.m_sipHashId == null)
+	    return;
+
+	m_mutex.writeLock().lock();
+
+	try
+	{
+	    if(generation != m_generation)
+		return;
+
+	    if(m_digests.size() >= MAXIMUM_ELEMENTS)
+	    {
+		m_digests.clear();
+		m_sipHashIds.clear();
+	    }
+
+	    m_digests.put(ByteBuffer.wrap(element.m_digest), element);
+	    m_sipHashIds.put(key(element.m_sipHashId), element);
+	}
+	finally
+	{
+	    m_mutex.writeLock().unlock();
+	}
+    }
+}
@@ -0,0 +1,428 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Relay
+{
+    /*
+    ** A headless echo relay for servers and load tests. Frames which
+    ** are received from a peer are delivered to every other peer
+    ** unless they have been observed recently. The relay does not
+    ** possess keys and therefore does not interpret messages. Only
+    ** classes which do not depend upon Android are referenced.
+    */
+
+    private abstract class Peer
+    {
+	protected final AtomicLong m_lastRead = new AtomicLong
+	    (System.nanoTime());
+	protected final MessageFramer m_framer = new MessageFramer
+	    (MAXIMUM_BYTES);
+
+	protected abstract void close();
+	public abstract void enqueue(String frame);
+
+	public void read(ByteBuffer buffer)
+	{
+	    /*
+	    ** Invoked by a single thread per peer.
+	    */
+
+	    m_lastRead.set(System.nanoTime());
+
+	    if(!m_framer.append(buffer))
+	    {
+		m_framer.clear();
+		return;
+	    }
+
+	    String frame = null;
+
+	    while((frame = m_framer.next()) != null)
+		echo(frame, this);
+	}
+    }
+
+    private class TcpPeer extends Peer
+    {
+	private ByteBuffer m_pending = null;
+	private NeighborEngine.Registration m_registration = null;
+	private final EchoQueue m_queue = new EchoQueue();
+	private final SocketChannel m_channel;
+
+	private synchronized void flush()
+	{
+	    /*
+	    ** Write queued frames until the socket would block. The
+	    ** remainder of a partial frame is retained and writing
+	    ** resumes from writable(). Readers are never blocked by
+	    ** a slow peer.
+	    */
+
+	    NeighborEngine.Registration registration = m_registration;
+
+	    if(registration == null)
+		return;
+
+	    try
+	    {
+		while(true)
+		{
+		    if(m_pending == null || !m_pending.hasRemaining())
+		    {
+			String frame = m_queue.poll();
+
+			if(frame == null)
+			{
+			    m_pending = null;
+			    return;
+			}
+
+			m_pending = ByteBuffer.wrap(frame.getBytes());
+		    }
+
+		    registration.write(m_pending, 0L);
+
+		    if(m_pending.hasRemaining())
+			return;
+		}
+	    }
+	    catch(Exception exception)
+	    {
+		m_queue.clear();
+		close();
+	    }
+	}
+
+	protected void close()
+	{
+	    m_peers.remove(this);
+
+	    if(m_registration != null)
+		m_registration.cancel();
+
+	    try
+	    {
+		m_channel.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	}
+
+	public TcpPeer(SocketChannel channel) throws IOException
+	{
+	    m_channel = channel;
+	    m_registration = NeighborEngine.getInstance().register
+		(channel, new NeighborEngine.Handler()
+		{
+		    @Override
+		    public void closed()
+		    {
+			close();
+		    }
+
+		    @Override
+		    public void readable(ByteBuffer buffer)
+		    {
+			read(buffer);
+		    }
+
+		    @Override
+		    public void writable()
+		    {
+			flush();
+		    }
+		});
+	}
+
+	public void enqueue(String frame)
+	{
+	    if(m_queue.offer(frame))
+		flush();
+	    else
+		m_dropped.getAndIncrement();
+	}
+    }
+
+    private class UdpPeer extends Peer
+    {
+	private final SocketAddress m_address;
+
+	protected void close()
+	{
+	    m_peers.remove(this);
+	    m_udpPeers.remove(m_address);
+	}
+
+	public UdpPeer(SocketAddress address)
+	{
+	    m_address = address;
+	}
+
+	public void enqueue(String frame)
+	{
+	    /*
+	    ** Datagrams are not queued. A datagram which the socket
+	    ** cannot accept is discarded.
+	    */
+
+	    byte bytes[] = frame.getBytes();
+
+	    try
+	    {
+		for(int i = 0; i < bytes.length; i += DATAGRAM_SIZE)
+		    if(m_datagramChannel.send
+		       (ByteBuffer.wrap(bytes,
+					i,
+					Math.min(DATAGRAM_SIZE,
+						 bytes.length - i)),
+			m_address) == 0)
+		    {
+			m_dropped.getAndIncrement();
+			return;
+		    }
+	    }
+	    catch(Exception exception)
+	    {
+		close();
+	    }
+	}
+    }
+
+    private DatagramChannel m_datagramChannel = null;
+    private ServerSocketChannel m_serverSocketChannel = null;
+    private final AtomicLong m_dropped = new AtomicLong(0L);
+    private final AtomicLong m_duplicates = new AtomicLong(0L);
+    private final AtomicLong m_echoed = new AtomicLong(0L);
+    private final CongestionControl m_congestionControl =
+	new CongestionControl(CONGESTION_LIFETIME);
+    private final CopyOnWriteArrayList<Peer> m_peers =
+	new CopyOnWriteArrayList<> ();
+    private final Map<SocketAddress, UdpPeer> m_udpPeers =
+	new ConcurrentHashMap<> ();
+    private final ScheduledExecutorService m_scheduler =
+	Executors.newSingleThreadScheduledExecutor();
+    private final SipHash m_sipHash;
+    private final static int CONGESTION_LIFETIME = 60; // 60 seconds.
+    private final static int DATAGRAM_SIZE = 576;
+    private final static int DEFAULT_PORT = 4710;
+    private final static int MAXIMUM_BYTES = 8 * 1024 * 1024; // 8 MiB.
+    private final static long STATUS_INTERVAL = 30000L; // 30 seconds.
+    private final static long UDP_PEER_LIFETIME = 90000L; // 90 seconds.
+
+    private void accept()
+    {
+	while(m_serverSocketChannel.isOpen())
+	{
+	    SocketChannel channel = null;
+
+	    try
+	    {
+		channel = m_serverSocketChannel.accept();
+		channel.socket().setTcpNoDelay(true);
+		m_peers.add(new TcpPeer(channel));
+	    }
+	    catch(Exception exception1)
+	    {
+		try
+		{
+		    if(channel != null)
+			channel.close();
+		}
+		catch(Exception exception2)
+		{
+		}
+	    }
+	}
+    }
+
+    private void echo(String frame, Peer peer)
+    {
+	if(m_congestionControl.add(m_sipHash.hash64(frame.getBytes())))
+	{
+	    m_duplicates.getAndIncrement();
+	    return;
+	}
+
+	m_echoed.getAndIncrement();
+
+	for(Peer p : m_peers)
+	    if(p != peer)
+		p.enqueue(frame);
+    }
+
+    private void purge()
+    {
+	long now = System.nanoTime();
+
+	for(UdpPeer peer : m_udpPeers.values())
+	    if(now - peer.m_lastRead.get() > UDP_PEER_LIFETIME * 1000000L)
+		peer.close();
+
+	System.out.println
+	    ("Peers: " + m_peers.size() +
+	     ", echoed: " + m_echoed.get() +
+	     ", duplicates: " + m_duplicates.get() +
+	     ", dropped: " + m_dropped.get() + ".");
+    }
+
+    private void receive()
+    {
+	ByteBuffer buffer = ByteBuffer.allocateDirect
+	    (NeighborEngine.BUFFER_SIZE);
+
+	while(m_datagramChannel.isOpen())
+	    try
+	    {
+		buffer.clear();
+
+		SocketAddress address = m_datagramChannel.receive(buffer);
+
+		if(address == null)
+		    continue;
+
+		UdpPeer peer = m_udpPeers.get(address);
+
+		if(peer == null)
+		{
+		    peer = new UdpPeer(address);
+		    m_udpPeers.put(address, peer);
+		    m_peers.add(peer);
+		}
+
+		buffer.flip();
+		peer.read(buffer);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+    }
+
+    public Relay()
+    {
+	byte key[] = new byte[SipHash.KEY_LENGTH];
+
+	new SecureRandom().nextBytes(key);
+	m_sipHash = new SipHash(key);
+    }
+
+    public void listen(int tcpPort, int udpPort) throws IOException
+    {
+	if(tcpPort > 0)
+	{
+	    m_serverSocketChannel = ServerSocketChannel.open();
+	    m_serverSocketChannel.socket().setReuseAddress(true);
+	    m_serverSocketChannel.socket().bind
+		(new InetSocketAddress(tcpPort));
+	    new Thread(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    accept();
+		}
+	    }, "Relay TCP").start();
+	}
+
+	if(udpPort > 0)
+	{
+	    m_datagramChannel = DatagramChannel.open();
+	    m_datagramChannel.socket().bind(new InetSocketAddress(udpPort));
+	    new Thread(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    receive();
+		}
+	    }, "Relay UDP").start();
+	}
+
+	m_scheduler.scheduleAtFixedRate(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    purge();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}, STATUS_INTERVAL, STATUS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static void main(String args[])
+    {
+	/*
+	** Usage: Relay [TCP port] [UDP port]
+	** A port of zero disables the respective transport.
+	*/
+
+	int tcpPort = DEFAULT_PORT;
+	int udpPort = DEFAULT_PORT;
+
+	try
+	{
+	    if(args.length > 0)
+		tcpPort = Integer.parseInt(args[0]);
+
+	    if(args.length > 1)
+		udpPort = Integer.parseInt(args[1]);
+
+	    new Relay().listen(tcpPort, udpPort);
+	    System.out.println
+		("Relay listening on TCP port " + tcpPort +
+		 " and UDP port " + udpPort + ".");
+	}
+	catch(Exception exception)
+	{
+	    System.err.println(exception.toString());
+	    System.exit(1);
+	}
+    }
+}
@@ -0,0 +1,430 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smoke;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+
+public class SecureChannel implements NeighborEngine.Handler
+{
+    /*
+    ** An SSLEngine over a non-blocking SocketChannel which is serviced
+    ** by NeighborEngine. Inbound records are processed by a selector
+    ** thread. Outbound data is wrapped by the writing thread.
+    */
+
+    public interface Listener
+    {
+	public void closed();
+	public void handshakeCompleted();
+	public void readable(ByteBuffer buffer);
+    }
+
+    private ByteBuffer m_applicationBuffer = null;
+    private ByteBuffer m_inboundBuffer = null;
+    private ByteBuffer m_outboundBuffer = null;
+    private Listener m_listener = null;
+    private NeighborEngine.Registration m_registration = null;
+    private SSLEngine m_engine = null;
+    private SocketChannel m_channel = null;
+    private final AtomicBoolean m_closed = new AtomicBoolean(false);
+    private final AtomicBoolean m_delegating = new AtomicBoolean(false);
+    private final AtomicBoolean m_handshakeCompleted =
+	new AtomicBoolean(false);
+    private final Object m_inboundMutex = new Object();
+    private final ReentrantLock m_outboundLock = new ReentrantLock();
+    private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private ByteBuffer allocate(int size)
+    {
+	if(size <= NeighborEngine.BUFFER_SIZE)
+	    return NeighborEngine.getInstance().acquireBuffer();
+	else
+	    return ByteBuffer.allocateDirect(size);
+    }
+
+    private boolean flush() throws IOException
+    {
+	/*
+	** Non-blocking.
+	*/
+
+	if(m_outboundBuffer.hasRemaining())
+	    m_channel.write(m_outboundBuffer);
+
+	return !m_outboundBuffer.hasRemaining();
+    }
+
+    private boolean wrapHandshake() throws IOException
+    {
+	/*
+	** Selector threads must not wait for a writer.
+	*/
+
+	if(!m_outboundLock.tryLock())
+	    return false;
+
+	try
+	{
+	    if(m_closed.get())
+		return false;
+
+	    if(!flush())
+	    {
+		m_registration.setWritableInterest(true);
+		return false;
+	    }
+
+	    m_outboundBuffer.compact();
+
+	    SSLEngineResult result = m_engine.wrap(EMPTY, m_outboundBuffer);
+
+	    m_outboundBuffer.flip();
+
+	    if(result.getStatus() == SSLEngineResult.Status.CLOSED)
+		throw new IOException("SSLEngine closed.");
+
+	    if(!flush())
+		m_registration.setWritableInterest(true);
+
+	    return true;
+	}
+	finally
+	{
+	    m_outboundLock.unlock();
+	}
+    }
+
+    private void fail()
+    {
+	if(!m_closed.get())
+	    m_listener.closed();
+    }
+
+    private void handshake() throws IOException
+    {
+	while(!m_handshakeCompleted.get() && !m_closed.get())
+	    switch(m_engine.getHandshakeStatus())
+	    {
+	    case NEED_TASK:
+		/*
+		** Delegated tasks include certificate verification, which
+		** queries the database. The handshake resumes once the
+		** tasks have completed.
+		*/
+
+		if(!m_delegating.getAndSet(true))
+		    NeighborEngine.getInstance().executeTask(new Runnable()
+		    {
+			@Override
+			public void run()
+			{
+			    try
+			    {
+				Runnable runnable = null;
+
+				while((runnable = m_engine.
+				       getDelegatedTask()) != null)
+				    runnable.run();
+			    }
+			    catch(Exception exception)
+			    {
+			    }
+			    finally
+			    {
+				m_delegating.set(false);
+			    }
+
+			    resume();
+			}
+		    });
+
+		return;
+	    case NEED_UNWRAP:
+		return;
+	    case NEED_WRAP:
+		if(!wrapHandshake())
+		    return;
+
+		break;
+	    default:
+		if(!m_handshakeCompleted.getAndSet(true))
+		    m_listener.handshakeCompleted();
+
+		return;
+	    }
+    }
+
+    private void resume()
+    {
+	synchronized(m_inboundMutex)
+	{
+	    try
+	    {
+		if(m_closed.get())
+		    return;
+
+		handshake();
+		unwrap();
+	    }
+	    catch(Exception exception)
+	    {
+		fail();
+	    }
+	}
+    }
+
+    private void unwrap() throws IOException
+    {
+	/*
+	** The inbound buffer must be in write mode.
+	*/
+
+	m_inboundBuffer.flip();
+
+	try
+	{
+	    while(!m_closed.get())
+	    {
+		m_applicationBuffer.clear();
+
+		SSLEngineResult result = m_engine.unwrap
+		    (m_inboundBuffer, m_applicationBuffer);
+
+		m_applicationBuffer.flip();
+
+		if(m_applicationBuffer.hasRemaining())
+		    m_listener.readable(m_applicationBuffer);
+
+		switch(result.getStatus())
+		{
+		case BUFFER_OVERFLOW:
+		    throw new IOException("Application buffer overflow.");
+		case BUFFER_UNDERFLOW:
+		    return;
+		case CLOSED:
+		    throw new IOException("SSLEngine closed.");
+		default:
+		    break;
+		}
+
+		handshake();
+
+		if(result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+		    return;
+	    }
+	}
+	finally
+	{
+	    if(m_inboundBuffer != null)
+		m_inboundBuffer.compact();
+	}
+    }
+
+    public SecureChannel(SSLEngine engine,
+			 SocketChannel channel,
+			 Listener listener)
+    {
+	m_channel = channel;
+	m_engine = engine;
+	m_listener = listener;
+    }
+
+    public SSLSession session()
+    {
+	if(m_engine != null)
+	    return m_engine.getSession();
+	else
+	    return null;
+    }
+
+    public boolean handshakeCompleted()
+    {
+	return m_handshakeCompleted.get();
+    }
+
+    public int write(byte bytes[], long timeout) throws IOException
+    {
+	/*
+	** Blocks for at most timeout milliseconds per record.
+	*/
+
+	if(bytes == null || bytes.length == 0)
+	    return 0;
+
+	m_outboundLock.lock();
+
+	try
+	{
+	    if(m_closed.get())
+		throw new IOException("SecureChannel closed.");
+
+	    ByteBuffer source = ByteBuffer.wrap(bytes);
+
+	    while(source.hasRemaining())
+	    {
+		m_registration.write(m_outboundBuffer, timeout);
+
+		if(m_outboundBuffer.hasRemaining())
+		    throw new IOException("SocketChannel write() timeout.");
+
+		m_outboundBuffer.compact();
+
+		SSLEngineResult result = m_engine.wrap
+		    (source, m_outboundBuffer);
+
+		m_outboundBuffer.flip();
+
+		if(result.getStatus() != SSLEngineResult.Status.OK)
+		    throw new IOException
+			("SSLEngine wrap() " + result.getStatus() + ".");
+	    }
+
+	    m_registration.write(m_outboundBuffer, timeout);
+
+	    if(m_outboundBuffer.hasRemaining())
+		throw new IOException("SocketChannel write() timeout.");
+
+	    return bytes.length;
+	}
+	finally
+	{
+	    m_outboundLock.unlock();
+	}
+    }
+
+    public void close()
+    {
+	if(m_closed.getAndSet(true))
+	    return;
+
+	try
+	{
+	    m_engine.closeOutbound();
+	}
+	catch(Exception exception)
+	{
+	}
+
+	if(m_registration != null)
+	    m_registration.cancel();
+
+	try
+	{
+	    m_channel.close();
+	}
+	catch(Exception exception)
+	{
+	}
+
+	m_outboundLock.lock();
+
+	try
+	{
+	    NeighborEngine.getInstance().releaseBuffer(m_outboundBuffer);
+	}
+	finally
+	{
+	    m_outboundLock.unlock();
+	}
+
+	synchronized(m_inboundMutex)
+	{
+	    NeighborEngine.getInstance().releaseBuffer(m_applicationBuffer);
+	    NeighborEngine.getInstance().releaseBuffer(m_inboundBuffer);
+	    m_applicationBuffer = null;
+	    m_inboundBuffer = null;
+	}
+    }
+
+    public void start() throws IOException
+    {
+	SSLSession session = m_engine.getSession();
+
+	m_applicationBuffer = allocate(session.getApplicationBufferSize());
+	m_inboundBuffer = allocate(session.getPacketBufferSize());
+	m_outboundBuffer = allocate(session.getPacketBufferSize());
+	m_outboundBuffer.flip(); // Empty.
+	m_registration = NeighborEngine.getInstance().register
+	    (m_channel, this);
+	m_engine.beginHandshake();
+	handshake();
+    }
+
+    @Override
+    public void closed()
+    {
+	fail();
+    }
+
+    @Override
+    public void readable(ByteBuffer buffer)
+    {
+	synchronized(m_inboundMutex)
+	{
+	    try
+	    {
+		while(buffer.hasRemaining() && !m_closed.get())
+		{
+		    int length = Math.min
+			(buffer.remaining(), m_inboundBuffer.remaining());
+
+		    if(length == 0)
+			throw new IOException("Network buffer overflow.");
+
+		    ByteBuffer slice = buffer.duplicate();
+
+		    slice.limit(slice.position() + length);
+		    m_inboundBuffer.put(slice);
+		    buffer.position(buffer.position() + length);
+		    unwrap();
+		}
+	    }
+	    catch(Exception exception)
+	    {
+		fail();
+	    }
+	}
+    }
+
+    @Override
+    public void writable()
+    {
+	if(m_handshakeCompleted.get())
+	    return;
+
+	resume();
+    }
+}
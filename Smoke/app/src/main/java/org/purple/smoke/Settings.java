@@ -28,6 +28,7 @@
 package org.purple.smoke;
 
 import android.Manifest;
+import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -36,6 +37,7 @@ import android.content.IntentFilter;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
@@ -70,6 +72,7 @@ import android.widget.Spinner;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
+import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.util.ArrayList;
@@ -643,7 +646,7 @@ public class Settings extends AppCompatActivity
 		    SipHashIdElement sipHashIdElement = new SipHashIdElement();
 
 		    sipHashIdElement.m_sipHashId = s_cryptography.sipHashId();
-		    sipHashIdElement.m_stream = Miscellaneous.joinByteArrays
+		    sipHashIdElement.m_stream = ByteUtilities.joinByteArrays
 			(s_cryptography.sipHashEncryptionKey(),
 			 s_cryptography.sipHashMacKey());
 		    arrayList.add(sipHashIdElement);
@@ -713,6 +716,99 @@ public class Settings extends AppCompatActivity
 	thread.start();
     }
 
+    private void exportDiagnostics()
+    {
+	/*
+	** The report is written to the Downloads directory, which is
+	** accessible to the user. It may also be shared, for example,
+	** if the storage permission was denied.
+	*/
+
+	class SingleShot implements Runnable
+	{
+	    @Override
+	    public void run()
+	    {
+		final File file = new File
+		    (Environment.
+		     getExternalStoragePublicDirectory(Environment.
+						       DIRECTORY_DOWNLOADS),
+		     "smoke-diagnostics-" +
+		     System.currentTimeMillis() +
+		     ".txt");
+		final boolean exported = Tracer.export(file);
+
+		Settings.this.runOnUiThread(new Runnable()
+		{
+		    @Override
+		    public void run()
+		    {
+			if(Settings.this.isFinishing())
+			    return;
+
+			AlertDialog alertDialog = new AlertDialog.Builder
+			    (Settings.this).create();
+
+			alertDialog.setButton
+			    (AlertDialog.BUTTON_NEUTRAL, "Dismiss",
+			     new DialogInterface.OnClickListener()
+			     {
+				 public void onClick(DialogInterface dialog,
+						     int which)
+				 {
+				     dialog.dismiss();
+				 }
+			     });
+			alertDialog.setButton
+			    (AlertDialog.BUTTON_POSITIVE, "Share",
+			     new DialogInterface.OnClickListener()
+			     {
+				 public void onClick(DialogInterface dialog,
+						     int which)
+				 {
+				     dialog.dismiss();
+
+				     Intent intent = new Intent
+					 (Intent.ACTION_SEND);
+
+				     intent.putExtra
+					 (Intent.EXTRA_SUBJECT,
+					  "Smoke Diagnostics");
+				     intent.putExtra
+					 (Intent.EXTRA_TEXT,
+					  Tracer.report(false));
+				     intent.setType("text/plain");
+
+				     try
+				     {
+					 startActivity
+					     (Intent.createChooser
+					      (intent, "Share Diagnostics"));
+				     }
+				     catch(Exception exception)
+				     {
+				     }
+				 }
+			     });
+			alertDialog.setMessage
+			    (exported ?
+			     "The diagnostics were exported to " +
+			     file.getAbsolutePath() + "." :
+			     "The diagnostics could not be written to " +
+			     file.getAbsolutePath() + ". They may still " +
+			     "be shared.");
+			alertDialog.setTitle("Diagnostics");
+			alertDialog.show();
+		    }
+		});
+	    }
+	}
+
+	Thread thread = new Thread(new SingleShot());
+
+	thread.start();
+    }
+
     private void networkStatusChanged()
     {
 	try
@@ -860,6 +956,11 @@ public class Settings extends AppCompatActivity
 	    if(neighborElement == null)
 		continue;
 
+	    NeighborMetrics metrics = NeighborMetrics.metrics
+		(neighborElement.m_oid);
+
+	    metrics.populate(neighborElement);
+
 	    Spinner spinner = null;
 	    TableRow row = null;
 	    TextView textView1 = null;
@@ -1113,7 +1214,7 @@ public class Settings extends AppCompatActivity
 	    stringBuilder.append("Temp. Queued: ");
 	    stringBuilder.append(neighborElement.m_echoQueueSize);
 	    stringBuilder.append(" / ");
-	    stringBuilder.append(Neighbor.MAXIMUM_QUEUED_ECHO_PACKETS);
+	    stringBuilder.append(EchoQueue.MAXIMUM_SIZE);
 	    stringBuilder.append("\n");
 	    stringBuilder.append("In: ");
 	    stringBuilder.append
@@ -1128,6 +1229,22 @@ public class Settings extends AppCompatActivity
 	    stringBuilder.append("Outbound Queued: ");
 	    stringBuilder.append(neighborElement.m_outboundQueued);
 	    stringBuilder.append("\n");
+
+	    stringBuilder.append("Frames Parsed: ");
+	    stringBuilder.append(metrics.m_framesParsed.get());
+	    stringBuilder.append("\n");
+	    stringBuilder.append("Duplicates: ");
+	    stringBuilder.append(metrics.m_duplicates.get());
+	    stringBuilder.append("\n");
+	    stringBuilder.append("Decryption Failures: ");
+	    stringBuilder.append(metrics.m_decryptFailures.get());
+	    stringBuilder.append("\n");
+	    stringBuilder.append("Send Latency (p50 / p99): ");
+	    stringBuilder.append(metrics.sendLatency(0.50));
+	    stringBuilder.append(" / ");
+	    stringBuilder.append(metrics.sendLatency(0.99));
+	    stringBuilder.append(" us\n");
+
 	    stringBuilder.append("Uptime: ");
 
 	    try
@@ -2950,6 +3067,81 @@ public class Settings extends AppCompatActivity
 	thread.start();
     }
 
+    private void showDiagnostics()
+    {
+	if(Settings.this.isFinishing())
+	    return;
+
+	class SingleShot implements Runnable
+	{
+	    @Override
+	    public void run()
+	    {
+		/*
+		** The maintenance statistics are read from the database.
+		*/
+
+		final String message = m_databaseHelper.
+		    maintenanceStatistics() +
+		    "\n" +
+		    Tracer.report(true);
+
+		Settings.this.runOnUiThread(new Runnable()
+		{
+		    @Override
+		    public void run()
+		    {
+			if(Settings.this.isFinishing())
+			    return;
+
+			AlertDialog alertDialog = new AlertDialog.Builder
+			    (Settings.this).create();
+
+			alertDialog.setButton
+			    (AlertDialog.BUTTON_NEGATIVE, "Clear",
+			     new DialogInterface.OnClickListener()
+			     {
+				 public void onClick(DialogInterface dialog,
+						     int which)
+				 {
+				     Tracer.clear();
+				     dialog.dismiss();
+				 }
+			     });
+			alertDialog.setButton
+			    (AlertDialog.BUTTON_NEUTRAL, "Dismiss",
+			     new DialogInterface.OnClickListener()
+			     {
+				 public void onClick(DialogInterface dialog,
+						     int which)
+				 {
+				     dialog.dismiss();
+				 }
+			     });
+			alertDialog.setButton
+			    (AlertDialog.BUTTON_POSITIVE, "Export",
+			     new DialogInterface.OnClickListener()
+			     {
+				 public void onClick(DialogInterface dialog,
+						     int which)
+				 {
+				     dialog.dismiss();
+				     exportDiagnostics();
+				 }
+			     });
+			alertDialog.setMessage(message);
+			alertDialog.setTitle("Diagnostics");
+			alertDialog.show();
+		    }
+		});
+	    }
+	}
+
+	Thread thread = new Thread(new SingleShot());
+
+	thread.start();
+    }
+
     private void showFireActivity()
     {
 	Intent intent = new Intent(Settings.this, Fire.class);
@@ -3011,16 +3203,37 @@ public class Settings extends AppCompatActivity
 	    m_scheduler = Executors.newSingleThreadScheduledExecutor();
 	    m_scheduler.scheduleAtFixedRate(new Runnable()
 	    {
+		private ArrayList<NeighborElement> m_neighbors = null;
+		private long m_neighborsGeneration = -1L;
+
 		@Override
 		public void run()
 		{
 		    try
 		    {
-			ArrayList<NeighborElement> arrayList =
-			    m_databaseHelper.readNeighbors(s_cryptography);
+			/*
+			** The configurations of the neighbors are read
+			** if they have changed. Statistics are provided
+			** by NeighborMetrics.
+			*/
+
+			long generation = m_databaseHelper.
+			    neighborsGeneration();
+
+			if(m_neighbors == null ||
+			   m_neighborsGeneration != generation)
+			{
+			    m_neighbors = m_databaseHelper.readNeighbors
+				(s_cryptography);
+			    m_neighborsGeneration = generation;
+
+			    if(m_neighbors == null)
+				m_neighbors = new ArrayList<> ();
+			}
 
 			Settings.this.runOnUiThread
-			    (new PopulateNeighbors(arrayList));
+			    (new PopulateNeighbors
+			     (new ArrayList<> (m_neighbors)));
 			m_databaseHelper.cleanDanglingOutboundQueued();
 			m_databaseHelper.cleanDanglingParticipants();
 		    }
@@ -3714,6 +3927,9 @@ public class Settings extends AppCompatActivity
 		m_databaseHelper.writeSetting(null, "lastActivity", "Chat");
 		showChatActivity();
 		return true;
+	    case R.id.action_diagnostics:
+		showDiagnostics();
+		return true;
 	    case R.id.action_exit:
 		Smoke.exit(Settings.this);
 		return true;
@@ -31,69 +31,176 @@
 
 package org.purple.smoke;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class SipHash
 {
+    /*
+    ** The state of a computation is confined to local variables.
+    ** Instances are therefore safe for use by concurrent threads.
+    */
+
+    private boolean m_keyed = false;
+    private int m_c_rounds_index = 1;
+    private int m_d_rounds_index = 1;
+    private long m_k0 = 0L;
+    private long m_k1 = 0L;
     private final static int C_ROUNDS[] = {2, 4};
     private final static int D_ROUNDS[] = {4, 8};
     private final static long C0 = 0x736f6d6570736575L;
     private final static long C1 = 0x646f72616e646f6dL;
     private final static long C2 = 0x6c7967656e657261L;
     private final static long C3 = 0x7465646279746573L;
-    private byte m_key[] = null;
-    private int m_c_rounds_index = 1;
-    private int m_d_rounds_index = 1;
-    private long m_v0 = 0L;
-    private long m_v1 = 0L;
-    private long m_v2 = 0L;
-    private long m_v3 = 0L;
     public final static int KEY_LENGTH = 16; // Bytes.
 
-    private long byteArrayToLong(byte bytes[], int offset)
+    private static byte byteAt(byte data[], ByteBuffer buffer, int index)
     {
-	if(bytes == null || (bytes.length - offset) < Miscellaneous.LONG_BYTES)
-	    return 0L;
+	if(data != null)
+	    return data[index];
+	else
+	    return buffer.get(index);
+    }
+
+    private static long hash(byte data[],
+			     ByteBuffer buffer,
+			     int offset,
+			     int length,
+			     long k0,
+			     long k1,
+			     int c_rounds,
+			     int d_rounds,
+			     int outputLength,
+			     long output[])
+    {
+	/*
+	** Hashes either data or a little-endian buffer. The first
+	** 64 bits of the digest are returned. The second 64 bits are
+	** recorded in output[1] if outputLength is not 8.
+	*/
+
+	long v0 = k0 ^ C0;
+	long v1 = k1 ^ C1;
+	long v2 = k0 ^ C2;
+	long v3 = k1 ^ C3;
+
+	if(outputLength == 16)
+	    v1 ^= 0xeeL;
+
+	/*
+	** Compression
+	*/
+
+	int blocks = length / 8;
+
+	for(int i = 0; i <= blocks; i++)
+	{
+	    long m = 0L;
+
+	    if(i < blocks)
+		m = word(data, buffer, offset + 8 * i);
+	    else
+	    {
+		/*
+		** The final bytes are sign-extended as they were by
+		** earlier releases. Persisted digests depend on it.
+		*/
+
+		m = ((long) length) << 56L;
+
+		for(int j = length % 8 - 1; j >= 0; j--)
+		    m |= ((long) byteAt(data, buffer, offset + 8 * i + j)) <<
+			(8L * j);
+	    }
+
+	    v3 ^= m;
+
+	    for(int j = 0; j < c_rounds; j++)
+	    {
+		v0 += v1;
+		v1 = Long.rotateLeft(v1, 13);
+		v1 ^= v0;
+		v0 = Long.rotateLeft(v0, 32);
+		v2 += v3;
+		v3 = Long.rotateLeft(v3, 16);
+		v3 ^= v2;
+		v2 += v1;
+		v1 = Long.rotateLeft(v1, 17);
+		v1 ^= v2;
+		v2 = Long.rotateLeft(v2, 32);
+		v0 += v3;
+		v3 = Long.rotateLeft(v3, 21);
+		v3 ^= v0;
+	    }
+
+	    v0 ^= m;
+	}
+
+	/*
+	** Finalization
+	*/
 
 	long value = 0L;
 
-	value |= (((long) bytes[offset]) & 0xffL) << 0L;
-	value |= (((long) bytes[1 + offset]) & 0xffL) <<
-	    Miscellaneous.LONG_LONG_BYTES;
-	value |= (((long) bytes[2 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 2L);
-	value |= (((long) bytes[3 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 3L);
-	value |= (((long) bytes[4 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 4L);
-	value |= (((long) bytes[5 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 5L);
-	value |= (((long) bytes[6 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 6L);
-	value |= (((long) bytes[7 + offset]) & 0xffL) <<
-	    (Miscellaneous.LONG_LONG_BYTES * 7L);
+	for(int i = 0; i < 2; i++)
+	{
+	    if(i == 1)
+		v1 ^= 0xddL;
+	    else if(outputLength == 16)
+		v2 ^= 0xeeL;
+	    else
+		v2 ^= 0xffL;
+
+	    for(int j = 0; j < d_rounds; j++)
+	    {
+		v0 += v1;
+		v1 = Long.rotateLeft(v1, 13);
+		v1 ^= v0;
+		v0 = Long.rotateLeft(v0, 32);
+		v2 += v3;
+		v3 = Long.rotateLeft(v3, 16);
+		v3 ^= v2;
+		v2 += v1;
+		v1 = Long.rotateLeft(v1, 17);
+		v1 ^= v2;
+		v2 = Long.rotateLeft(v2, 32);
+		v0 += v3;
+		v3 = Long.rotateLeft(v3, 21);
+		v3 ^= v0;
+	    }
+
+	    if(i == 1)
+		output[1] = v0 ^ v1 ^ v2 ^ v3;
+	    else
+	    {
+		value = v0 ^ v1 ^ v2 ^ v3;
+
+		if(output == null || outputLength == 8)
+		    break;
+	    }
+	}
+
 	return value;
     }
 
-    private long rotl(long x, long b)
+    private static long key(byte key[], int offset)
     {
-	return (x << b) | (x >>> (64L - b));
+	return word(key, null, offset);
     }
 
-    private void round()
+    private static long word(byte data[], ByteBuffer buffer, int index)
     {
-	m_v0 += m_v1;
-	m_v1 = rotl(m_v1, 13L);
-	m_v1 ^= m_v0;
-	m_v0 = rotl(m_v0, 32L);
-	m_v2 += m_v3;
-	m_v3 = rotl(m_v3, 16L);
-	m_v3 ^= m_v2;
-	m_v2 += m_v1;
-	m_v1 = rotl(m_v1, 17L);
-	m_v1 ^= m_v2;
-	m_v2 = rotl(m_v2, 32L);
-	m_v0 += m_v3;
-	m_v3 = rotl(m_v3, 21L);
-	m_v3 ^= m_v0;
+	if(data == null)
+	    return buffer.getLong(index);
+	else
+	    return (data[index] & 0xffL) |
+		((data[index + 1] & 0xffL) << 8L) |
+		((data[index + 2] & 0xffL) << 16L) |
+		((data[index + 3] & 0xffL) << 24L) |
+		((data[index + 4] & 0xffL) << 32L) |
+		((data[index + 5] & 0xffL) << 40L) |
+		((data[index + 6] & 0xffL) << 48L) |
+		((data[index + 7] & 0xffL) << 56L);
     }
 
     public SipHash()
@@ -105,7 +212,9 @@ public class SipHash
 	if(key == null || key.length != KEY_LENGTH)
 	    return;
 
-	m_key = key;
+	m_k0 = key(key, 0);
+	m_k1 = key(key, KEY_LENGTH / 2);
+	m_keyed = true;
     }
 
     public SipHash(byte key[], int c_rounds_index, int d_rounds_index)
@@ -119,182 +228,110 @@ public class SipHash
 	if(d_rounds_index >= 0 && d_rounds_index < D_ROUNDS.length)
 	    m_d_rounds_index = d_rounds_index;
 
-	m_key = key;
-    }
-
-    public long[] hmac(byte data[], int outputLength)
-    {
-	return hmac(data, m_key, outputLength);
+	m_k0 = key(key, 0);
+	m_k1 = key(key, KEY_LENGTH / 2);
+	m_keyed = true;
     }
 
-    @SuppressWarnings("fallthrough")
-    public synchronized long[] hmac(byte data[], byte key[], int outputLength)
+    public long hash64(ByteBuffer buffer)
     {
-	if(data == null || key == null || key.length != KEY_LENGTH)
-	    return new long[] {0L, 0L};
-
 	/*
-	** Initialization
+	** Hashes the remaining bytes of buffer. The position, limit,
+	** and byte order of buffer are not modified.
 	*/
 
-	long k0 = byteArrayToLong(key, 0);
-	long k1 = byteArrayToLong(key, Miscellaneous.LONG_BYTES);
-
-	m_v0 = k0 ^ C0;
-	m_v1 = k1 ^ C1;
-	m_v2 = k0 ^ C2;
-	m_v3 = k1 ^ C3;
-
-	if(outputLength == 16)
-	    m_v1 ^= 0xeeL;
-
-	/*
-	** Compression
-	*/
-
-	int length1 = data.length / 8;
-	int length2 = C_ROUNDS[m_c_rounds_index];
-
-	for(int i = 0; i < length1; i++)
-	{
-	    long m = byteArrayToLong(data, 8 * i);
-
-	    m_v3 ^= m;
-
-	    switch(length2)
-	    {
-	    case 2:
-		round();
-		round();
-		break;
-	    case 4:
-		round();
-		round();
-		round();
-		round();
-		break;
-	    default:
-		break;
-	    }
-
-	    m_v0 ^= m;
-	    m = 0L;
-	}
-
-	int offset = (data.length / 8) * 8;
-	long b = ((long) data.length) << 56L;
+	if(buffer == null || !m_keyed)
+	    return 0L;
 
-	switch(data.length % 8)
-	{
-	case 7:
-	    b |= ((long) data[offset + 6]) << 48L;
-	case 6:
-	    b |= ((long) data[offset + 5]) << 40L;
-	case 5:
-	    b |= ((long) data[offset + 4]) << 32L;
-	case 4:
-	    b |= ((long) data[offset + 3]) << 24L;
-	case 3:
-	    b |= ((long) data[offset + 2]) << 16L;
-	case 2:
-	    b |= ((long) data[offset + 1]) << 8L;
-	case 1:
-	    b |= ((long) data[offset]);
-	    break;
-	case 0:
-	    break;
-	default:
-	    break;
-	}
+	if(buffer.hasArray())
+	    return hash64(buffer.array(),
+			  buffer.arrayOffset() + buffer.position(),
+			  buffer.remaining());
+
+	ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+	return hash(null,
+		    b,
+		    0,
+		    b.remaining(),
+		    m_k0,
+		    m_k1,
+		    C_ROUNDS[m_c_rounds_index],
+		    D_ROUNDS[m_d_rounds_index],
+		    8,
+		    null);
+    }
 
-	m_v3 ^= b;
+    public long hash64(byte data[])
+    {
+	if(data == null)
+	    return 0L;
+	else
+	    return hash64(data, 0, data.length);
+    }
 
-	switch(C_ROUNDS[m_c_rounds_index])
-	{
-	case 2:
-	    round();
-	    round();
-	    break;
-	case 4:
-	    round();
-	    round();
-	    round();
-	    round();
-	    break;
-	default:
-	    break;
-	}
+    public long hash64(byte data[], int offset, int length)
+    {
+	if(data == null ||
+	   length < 0 ||
+	   offset < 0 ||
+	   offset > data.length - length ||
+	   !m_keyed)
+	    return 0L;
 
-	m_v0 ^= b;
+	return hash(data,
+		    null,
+		    offset,
+		    length,
+		    m_k0,
+		    m_k1,
+		    C_ROUNDS[m_c_rounds_index],
+		    D_ROUNDS[m_d_rounds_index],
+		    8,
+		    null);
+    }
 
-	/*
-	** Finalization
-	*/
+    public long[] hmac(byte data[], int outputLength)
+    {
+	long output[] = new long[] {0L, 0L};
 
-	if(outputLength == 16)
-	    m_v2 ^= 0xeeL;
-	else
-	    m_v2 ^= 0xffL;
+	if(data == null || !m_keyed)
+	    return output;
 
-	switch(D_ROUNDS[m_d_rounds_index])
-	{
-	case 4:
-	    round();
-	    round();
-	    round();
-	    round();
-	    break;
-	case 8:
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    break;
-	default:
-	    break;
-	}
+	output[0] = hash(data,
+			 null,
+			 0,
+			 data.length,
+			 m_k0,
+			 m_k1,
+			 C_ROUNDS[m_c_rounds_index],
+			 D_ROUNDS[m_d_rounds_index],
+			 outputLength,
+			 output);
+	return output;
+    }
 
-	long output[] = new long[] {m_v0 ^ m_v1 ^ m_v2 ^ m_v3, 0L};
+    public long[] hmac(byte data[], byte key[], int outputLength)
+    {
+	long output[] = new long[] {0L, 0L};
 
-	if(outputLength == 8)
-	{
-	    k0 = k1 = m_v0 = m_v1 = m_v2 = m_v3 = 0L;
+	if(data == null || key == null || key.length != KEY_LENGTH)
 	    return output;
-	}
-
-	m_v1 ^= 0xddL;
-
-	switch(D_ROUNDS[m_d_rounds_index])
-	{
-	case 4:
-	    round();
-	    round();
-	    round();
-	    round();
-	    break;
-	case 8:
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    round();
-	    break;
-	default:
-	    break;
-	}
 
-	output[1] = m_v0 ^ m_v1 ^ m_v2 ^ m_v3;
-	k0 = k1 = m_v0 = m_v1 = m_v2 = m_v3 = 0L;
+	output[0] = hash(data,
+			 null,
+			 0,
+			 data.length,
+			 key(key, 0),
+			 key(key, KEY_LENGTH / 2),
+			 C_ROUNDS[m_c_rounds_index],
+			 D_ROUNDS[m_d_rounds_index],
+			 outputLength,
+			 output);
 	return output;
     }
 
+
     public static boolean test1()
     {
 	/*
@@ -308,15 +345,13 @@ public class SipHash
 			 (byte) 0x08, (byte) 0x09, (byte) 0x0a, (byte) 0x0b,
 			 (byte) 0x0c, (byte) 0x0d, (byte) 0x0e, (byte) 0x0f},
 	     0, 0);
-	long result = Miscellaneous.byteArrayToLong
-	    (new byte[] {(byte) 0xa1, (byte) 0x29, (byte) 0xca, (byte) 0x61,
-			 (byte) 0x49, (byte) 0xbe, (byte) 0x45, (byte) 0xe5});
+	long result = 0xa129ca6149be45e5L;
 	long value[] = s.hmac
 	    (new byte[] {(byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03,
 			 (byte) 0x04, (byte) 0x05, (byte) 0x06, (byte) 0x07,
 			 (byte) 0x08, (byte) 0x09, (byte) 0x0a, (byte) 0x0b,
 			 (byte) 0x0c, (byte) 0x0d, (byte) 0x0e},
-		Cryptography.SIPHASH_OUTPUT_LENGTH / 2);
+	     8);
 
 	return result == value[0];
     }
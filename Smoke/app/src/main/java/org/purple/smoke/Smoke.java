@@ -31,9 +31,13 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.Bundle;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Smoke extends Application
 {
+    private final static AtomicInteger s_resumedActivities =
+	new AtomicInteger(0);
     private static Smoke s_instance = null;
 
     public static String networkStatusString()
@@ -46,6 +50,11 @@ public class Smoke extends Application
 	    return "Connected (" + address + ")";
     }
 
+    public static boolean isForeground()
+    {
+	return s_resumedActivities.get() > 0;
+    }
+
     public static synchronized Smoke getApplication()
     {
 	/*
@@ -89,6 +98,47 @@ public class Smoke extends Application
     {
 	super.onCreate();
 	About.about();
+	registerActivityLifecycleCallbacks
+	    (new Application.ActivityLifecycleCallbacks()
+	{
+	    @Override
+	    public void onActivityCreated(Activity activity, Bundle bundle)
+	    {
+	    }
+
+	    @Override
+	    public void onActivityDestroyed(Activity activity)
+	    {
+	    }
+
+	    @Override
+	    public void onActivityPaused(Activity activity)
+	    {
+		s_resumedActivities.decrementAndGet();
+	    }
+
+	    @Override
+	    public void onActivityResumed(Activity activity)
+	    {
+		s_resumedActivities.incrementAndGet();
+	    }
+
+	    @Override
+	    public void onActivitySaveInstanceState(Activity activity,
+						    Bundle bundle)
+	    {
+	    }
+
+	    @Override
+	    public void onActivityStarted(Activity activity)
+	    {
+	    }
+
+	    @Override
+	    public void onActivityStopped(Activity activity)
+	    {
+	    }
+	});
 	s_instance = this;
     }
 
@@ -504,6 +504,9 @@ public class State
 
     public void reset()
     {
+	Database.getInstance().clearParticipantCache();
+	Kernel.getInstance().clearKeyStreamIndex();
+	Tracer.clearParticipants();
 	clearChatLog();
 	clearSteamDetailsStates();
 	m_bundleMutex.writeLock().lock();
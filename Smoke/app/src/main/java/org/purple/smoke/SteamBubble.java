@@ -228,6 +228,7 @@ public class SteamBubble extends View
 		case 2:
 		case 3:
 		case 4:
+		case 5:
 		    String text = "4 reads / s";
 		    int readInterval = 4;
 
@@ -249,6 +250,10 @@ public class SteamBubble extends View
 			readInterval = 100;
 			text = "100 reads / s";
 			break;
+		    case 5:
+			readInterval = 0;
+			text = "Unlimited";
+			break;
 		    }
 
 		    m_readIntervalLabel.setText(text);
@@ -316,6 +321,25 @@ public class SteamBubble extends View
 		m_controlString = "rewind";
 	    }
 
+	    m_progress.setVisibility(View.GONE);
+	    break;
+	case "corrupted":
+	    /*
+	    ** The digest of the received file differs from the
+	    ** digest which was announced. Senders may rewind.
+	    */
+
+	    if(steamElement.m_direction == SteamElement.DOWNLOAD)
+	    {
+		m_control.setText("Corrupted");
+		m_controlString = "";
+	    }
+	    else
+	    {
+		m_control.setText("Rewind");
+		m_controlString = "rewind";
+	    }
+
 	    m_progress.setVisibility(View.GONE);
 	    break;
 	case "paused":
@@ -397,14 +421,20 @@ public class SteamBubble extends View
 		 R.drawable.lock : R.drawable.unlock);
 	    m_keyExchangeStatus.setVisibility(View.VISIBLE);
 	    m_keyStreamDigest.setVisibility(View.VISIBLE);
+
+	    /*
+	    ** Full Steams are paced by their sliding window.
+	    */
+
 	    m_readInterval.setVisibility(View.GONE);
+	    m_readIntervalLabel.setVisibility(View.GONE);
 	    m_sent.setText("Sent: " + formatSize(steamElement.m_readOffset));
 	}
 
 	m_details.setChecked(State.getInstance().steamDetailsState(m_oid));
 	m_digest.setText
 	    ("SHA-256: " +
-	     Miscellaneous.byteArrayAsHexString(steamElement.m_fileDigest));
+	     ByteUtilities.byteArrayAsHexString(steamElement.m_fileDigest));
 	m_ephemeralKeyType.setText
 	    ("Ephemeral Key Type: " + steamElement.m_keyType);
 	m_eta.setText(prettyEta(steamElement.m_transferRate,
@@ -412,7 +442,7 @@ public class SteamBubble extends View
 				steamElement.m_readOffset));
 	m_fileIdentity.setText
 	    ("File Identity: " +
-	     Miscellaneous.byteArrayAsHexString(steamElement.m_fileIdentity));
+	     ByteUtilities.byteArrayAsHexString(steamElement.m_fileIdentity));
 	m_fileName.setText("File: " + steamElement.m_displayFileName);
 	m_fileSize.setText
 	    ("Size: " +
@@ -428,7 +458,7 @@ public class SteamBubble extends View
 	else
 	    m_keyStreamDigest.setText
 		("Key Stream SHA-256: " +
-		 Miscellaneous.
+		 ByteUtilities.
 		 byteArrayAsHexString(Cryptography.
 				      sha256(steamElement.m_keyStream)));
 
@@ -437,6 +467,9 @@ public class SteamBubble extends View
 
 	switch((int) steamElement.m_readInterval)
 	{
+	case 0:
+	    m_readInterval.setProgress(5);
+	    break;
 	case 4:
 	    m_readInterval.setProgress(0);
 	    break;
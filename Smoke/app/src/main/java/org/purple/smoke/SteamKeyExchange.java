@@ -142,7 +142,7 @@ public class SteamKeyExchange
 	    switch(ii)
 	    {
 	    case 0:
-		long timestamp = Miscellaneous.byteArrayToLong
+		long timestamp = ByteUtilities.byteArrayToLong
 		    (Base64.decode(string.getBytes(), Base64.NO_WRAP));
 
 		if(Math.abs(System.currentTimeMillis() - timestamp) >
@@ -205,7 +205,7 @@ public class SteamKeyExchange
 		ii += 1;
 		break;
 	    case 6:
-		fileSize = Miscellaneous.byteArrayToLong
+		fileSize = ByteUtilities.byteArrayToLong
 		    (Base64.decode(string.getBytes(), Base64.NO_WRAP));
 
 		if(fileSize < 0)
@@ -235,7 +235,7 @@ public class SteamKeyExchange
 		if(!Cryptography.
 		   verifySignature(signatureKey,
 				   publicKeySignature,
-				   Miscellaneous.
+				   ByteUtilities.
 				   joinByteArrays
 				   (pki,
 				    new byte[] {tag},
@@ -292,7 +292,7 @@ public class SteamKeyExchange
 
 	    if(displayFileName.indexOf('.') == 0)
 		steamElement.m_displayFileName = "Smoke_Steam_" +
-		    Miscellaneous.byteArrayAsHexString(fileIdentity) +
+		    ByteUtilities.byteArrayAsHexString(fileIdentity) +
 		    fileExtension;
 	    else
 		steamElement.m_displayFileName =
@@ -303,7 +303,7 @@ public class SteamKeyExchange
 	    steamElement.m_fileIdentity = fileIdentity;
 	    steamElement.m_fileName = steamElement.m_displayFileName;
 	    steamElement.m_fileSize = fileSize;
-	    steamElement.m_keyStream = Miscellaneous.joinByteArrays
+	    steamElement.m_keyStream = ByteUtilities.joinByteArrays
 		(Cryptography.aes256KeyBytes(), Cryptography.sha512KeyBytes());
 	    steamElement.m_keyType = ephemeralPublicKeyType[0] ==
 		Cryptography.MESSAGES_KEY_TYPES[0] ?
@@ -27,28 +27,208 @@
 
 package org.purple.smoke;
 
-import java.util.Arrays;
+import android.util.SparseIntArray;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 public class SteamReaderFull extends SteamReader
 {
-    private AtomicBoolean m_read = null; // Perform another read.
+    /*
+    ** Packets are delivered via a sliding window. Every packet is
+    ** acknowledged individually by its offset. Unacknowledged packets
+    ** are retransmitted after a timeout which is derived from the
+    ** measured round-trip time. The window grows with each
+    ** acknowledgement, is bounded by the product of the acknowledged
+    ** rate and the round-trip time, and is halved whenever a
+    ** retransmission is required. The final packet is withheld until
+    ** all other packets have been acknowledged as the recipient
+    ** completes a Steam after writing its final packet.
+    **
+    ** Packets are striped across the connected neighbors. Each neighbor
+    ** is a lane whose rate is measured from its acknowledgements.
+    ** A packet is assigned to the lane which should deliver it the
+    ** soonest given the lane's backlog. A lane whose packets expire
+    ** has its rate halved and its packets are retransmitted through
+    ** other lanes.
+    **
+    ** New packets are compressed if they shrink. Recipients which
+    ** predate compression discard compressed packets and the
+    ** capability is not visible to neighbors as the recipient
+    ** may be several hops away. Therefore, a single compressed packet
+    ** probes the recipient while other packets are sent uncompressed.
+    ** Compression continues once the probe is acknowledged and is
+    ** abandoned if the probe expires. Retransmissions are not
+    ** compressed.
+    */
+
+    private static class Lane
+    {
+	public long m_acknowledged = 0L; // Bytes.
+	public long m_rate = PACKET_SIZE; // Bytes per second.
+    }
+
+    private static class Packet
+    {
+	public boolean m_compressed = false;
+	public boolean m_retransmitted = false;
+	public int m_length = 0;
+	public int m_neighborOid = -1;
+	public long m_timestamp = 0L;
+
+	public Packet(int length)
+	{
+	    m_length = length;
+	    m_timestamp = System.currentTimeMillis();
+	}
+    }
+
     private AtomicInteger m_stalled = null;
     private AtomicLong m_fileSize = null;
-    private AtomicLong m_lastResponse = null;
     private AtomicLong m_previousOffset = null;
-    private AtomicLong m_rc = null;
+    private AtomicLong m_sendOffset = null;
     private String m_sipHashId = "";
     private byte m_fileIdentity[] = null;
+    private double m_window = 1.0; // Packets.
+    private int m_compression = COMPRESSION_UNKNOWN;
+    private int m_windowThreshold = MAXIMUM_WINDOW;
+    private long m_retransmissionTimeout = RESPONSE_WINDOW;
+    private long m_roundTripTime = 0L; // Smoothed.
+    private long m_roundTripTimeVariance = 0L;
+    private final HashMap<Integer, Lane> m_lanes = new HashMap<> ();
     private final Object m_waitMutex = new Object();
+    private final TreeMap<Long, Packet> m_packets = new TreeMap<> ();
+    private final static int COMPRESSION_SUPPORTED = 1;
+    private final static int COMPRESSION_UNKNOWN = 0;
+    private final static int COMPRESSION_UNSUPPORTED = 2;
+    private final static int MAXIMUM_WINDOW = 128; // Packets.
     private final static int PACKET_SIZE = 32768;
+    private final static long MINIMUM_LANE_RATE =
+	1024L; // Bytes per second.
+    private final static long MINIMUM_RETRANSMISSION_TIMEOUT =
+	1000L; // 1 second.
     private final static long READ_INTERVAL = 250L; // 250 milliseconds.
     private final static long RESPONSE_WINDOW = 7500L; // 7.5 seconds.
 
+    private boolean compress()
+    {
+	/*
+	** The caller must own m_packets.
+	*/
+
+	if(m_compression != COMPRESSION_UNKNOWN)
+	    return m_compression == COMPRESSION_SUPPORTED;
+
+	for(Packet packet : m_packets.values())
+	    if(packet.m_compressed)
+		return false;
+
+	return true;
+    }
+
+    private byte[] read(long offset, int length) throws Exception
+    {
+	ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+
+	synchronized(m_fileInputStreamMutex)
+	{
+	    if(m_fileInputStream == null)
+		return null;
+
+	    while(byteBuffer.hasRemaining())
+	    {
+		int rc = m_fileInputStream.getChannel().read
+		    (byteBuffer, offset + byteBuffer.position());
+
+		if(rc == -1)
+		    break;
+	    }
+	}
+
+	if(byteBuffer.position() == 0)
+	    return null;
+	else if(byteBuffer.position() == length)
+	    return byteBuffer.array();
+	else
+	{
+	    byte bytes[] = new byte[byteBuffer.position()];
+
+	    System.arraycopy(byteBuffer.array(), 0, bytes, 0, bytes.length);
+	    return bytes;
+	}
+    }
+
+    private int selectNeighbor(SparseIntArray neighbors, int exclude)
+    {
+	/*
+	** Select the lane which should deliver another packet the
+	** soonest. The neighbor's queue and the lane's unacknowledged
+	** packets form the backlog. The excluded neighbor is avoided
+	** if another neighbor exists. The caller must own m_packets.
+	*/
+
+	if(neighbors == null || neighbors.size() == 0)
+	    return -1;
+
+	SparseIntArray inFlight = new SparseIntArray();
+
+	for(Packet packet : m_packets.values())
+	    if(packet.m_neighborOid != -1)
+		inFlight.put(packet.m_neighborOid,
+			     inFlight.get(packet.m_neighborOid) + 1);
+
+	double minimum = Double.MAX_VALUE;
+	int oid = -1;
+
+	for(int i = 0; i < neighbors.size(); i++)
+	{
+	    int j = neighbors.keyAt(i);
+
+	    if(j == exclude && neighbors.size() > 1)
+		continue;
+
+	    Lane lane = m_lanes.get(j);
+
+	    if(lane == null)
+	    {
+		lane = new Lane();
+		m_lanes.put(j, lane);
+	    }
+
+	    double estimate = (double) PACKET_SIZE *
+		(double) (neighbors.valueAt(i) + inFlight.get(j) + 1) /
+		(double) Math.max(MINIMUM_LANE_RATE, lane.m_rate);
+
+	    if(estimate < minimum)
+	    {
+		minimum = estimate;
+		oid = j;
+	    }
+	}
+
+	return oid;
+    }
+
+    private int windowLimit()
+    {
+	/*
+	** Twice the bandwidth-delay product allows the window to
+	** outgrow the current rate.
+	*/
+
+	long roundTripTime = Math.max(READ_INTERVAL, m_roundTripTime);
+	long packets = m_rate.get() * roundTripTime / (1000L * PACKET_SIZE);
+
+	return (int) Math.min
+	    ((long) MAXIMUM_WINDOW, Math.max(4L, 2L * packets + 2L));
+    }
+
     private void computeRate()
     {
 	long seconds = Math.abs
@@ -69,6 +249,33 @@ public class SteamReaderFull extends SteamReader
 
 	    m_previousOffset.set(m_readOffset.get());
 	    m_time0.set(System.currentTimeMillis() / 1000L);
+
+	    synchronized(m_packets)
+	    {
+		/*
+		** Lanes without acknowledgements or unacknowledged
+		** packets were idle and retain their rates.
+		*/
+
+		SparseIntArray inFlight = new SparseIntArray();
+
+		for(Packet packet : m_packets.values())
+		    inFlight.put(packet.m_neighborOid, 1);
+
+		for(Map.Entry<Integer, Lane> entry : m_lanes.entrySet())
+		{
+		    Lane lane = entry.getValue();
+
+		    if(lane.m_acknowledged > 0L ||
+		       inFlight.get(entry.getKey()) > 0)
+			lane.m_rate = Math.max
+			    (MINIMUM_LANE_RATE,
+			     (3L * lane.m_rate +
+			      lane.m_acknowledged / seconds) / 4L);
+
+		    lane.m_acknowledged = 0L;
+		}
+	    }
 	}
     }
 
@@ -80,6 +287,185 @@ public class SteamReaderFull extends SteamReader
 	    m_reader.scheduleAtFixedRate(new Runnable()
 	    {
 		private byte m_keyStream[] = null;
+		private final Deflater m_deflater = new Deflater
+		    (Deflater.BEST_SPEED);
+
+		private boolean send(byte bytes[],
+				     long offset,
+				     int oid,
+				     boolean compressed)
+		{
+		    /*
+		    ** Send a Steam packet. Retransmissions are encrypted
+		    ** anew and are therefore not discarded as congestion.
+		    ** The packet is broadcast if the selected neighbor
+		    ** is not available.
+		    */
+
+		    bytes = Messages.steamShare
+			(s_cryptography,
+			 m_sipHashId,
+			 m_fileIdentity,
+			 m_keyStream,
+			 bytes,
+			 compressed ?
+			 Messages.STEAM_SHARE[2] : Messages.STEAM_SHARE[0],
+			 offset);
+
+		    if(bytes == null)
+			return true;
+
+		    String message = Messages.bytesToMessageString(bytes);
+
+		    if(oid != -1 &&
+		       Kernel.getInstance().sendSteam(oid, message))
+			return true;
+
+		    Kernel.getInstance().sendSteam(false, message.getBytes());
+		    return false;
+		}
+
+		private void unassign(long offset)
+		{
+		    synchronized(m_packets)
+		    {
+			Packet packet = m_packets.get(offset);
+
+			if(packet != null)
+			    packet.m_neighborOid = -1;
+		    }
+		}
+
+		private void transfer() throws Exception
+		{
+		    /*
+		    ** Retransmit expired packets.
+		    */
+
+		    SparseIntArray neighbors = Kernel.getInstance().
+			steamNeighbors();
+		    TreeMap<Long, Packet> expired = new TreeMap<> ();
+
+		    synchronized(m_packets)
+		    {
+			SparseIntArray penalized = new SparseIntArray();
+			long now = System.currentTimeMillis();
+
+			for(Map.Entry<Long, Packet> entry :
+				m_packets.entrySet())
+			    if(now - entry.getValue().m_timestamp >=
+			       m_retransmissionTimeout)
+			    {
+				Packet packet = entry.getValue();
+				Lane lane = m_lanes.get(packet.m_neighborOid);
+
+				if(packet.m_compressed &&
+				   m_compression == COMPRESSION_UNKNOWN)
+				    m_compression = COMPRESSION_UNSUPPORTED;
+
+				if(lane != null &&
+				   penalized.get(packet.m_neighborOid) == 0)
+				{
+				    lane.m_rate = Math.max
+					(MINIMUM_LANE_RATE, lane.m_rate / 2L);
+				    penalized.put(packet.m_neighborOid, 1);
+				}
+
+				packet.m_compressed = false;
+				packet.m_neighborOid = selectNeighbor
+				    (neighbors, packet.m_neighborOid);
+				packet.m_retransmitted = true;
+				packet.m_timestamp = now;
+
+				Packet p = new Packet(packet.m_length);
+
+				p.m_neighborOid = packet.m_neighborOid;
+				expired.put(entry.getKey(), p);
+			    }
+
+			if(!expired.isEmpty())
+			{
+			    m_retransmissionTimeout = Math.min
+				(2L * m_retransmissionTimeout,
+				 RESPONSE_WINDOW);
+			    m_window = Math.max(1.0, m_window / 2.0);
+			    m_windowThreshold = Math.max(2, (int) m_window);
+			}
+		    }
+
+		    for(Map.Entry<Long, Packet> entry : expired.entrySet())
+		    {
+			if(m_canceled.get())
+			    return;
+
+			Packet packet = entry.getValue();
+			byte bytes[] = read(entry.getKey(), packet.m_length);
+
+			if(bytes != null &&
+			   !send(bytes,
+				 entry.getKey(),
+				 packet.m_neighborOid,
+				 false))
+			    unassign(entry.getKey());
+		    }
+
+		    /*
+		    ** Transmit new packets.
+		    */
+
+		    while(!m_canceled.get() && !m_completed.get())
+		    {
+			long offset = m_sendOffset.get();
+
+			if(offset >= m_fileSize.get())
+			    break;
+
+			synchronized(m_packets)
+			{
+			    if(m_packets.size() >= (int) m_window)
+				break;
+			    else if(!m_packets.isEmpty() &&
+				    offset + PACKET_SIZE >= m_fileSize.get())
+				/*
+				** Withhold the final packet.
+				*/
+
+				break;
+			}
+
+			byte bytes[] = read(offset, PACKET_SIZE);
+
+			if(bytes == null)
+			    break;
+
+			Packet packet = new Packet(bytes.length);
+			boolean compress = false;
+
+			synchronized(m_packets)
+			{
+			    compress = compress();
+			}
+
+			byte compressed[] = compress ?
+			    Miscellaneous.deflated(m_deflater, bytes) : null;
+
+			synchronized(m_packets)
+			{
+			    packet.m_compressed = compressed != null;
+			    packet.m_neighborOid = selectNeighbor
+				(neighbors, -1);
+			    m_packets.put(offset, packet);
+			}
+
+			m_sendOffset.set(offset + bytes.length);
+
+			if(!send(compressed != null ? compressed : bytes,
+				 offset,
+				 packet.m_neighborOid,
+				 compressed != null))
+			    unassign(offset);
+		    }
+		}
 
 		@Override
 		public void run()
@@ -148,26 +534,6 @@ public class SteamReaderFull extends SteamReader
 				return;
 			}
 
-			synchronized(m_waitMutex)
-			{
-			    m_waitMutex.wait(RESPONSE_WINDOW);
-			}
-
-			if(!m_read.get())
-			{
-			    if(System.currentTimeMillis() -
-			       m_lastResponse.get() <= RESPONSE_WINDOW ||
-			       m_canceled.get() ||
-			       m_completed.get())
-				/*
-				** Completed or missing response.
-				*/
-
-				return;
-			    else
-				m_lastResponse.set(System.currentTimeMillis());
-			}
-
 			if(m_keyStream == null)
 			{
 			    m_keyStream = s_databaseHelper.readSteam
@@ -177,48 +543,27 @@ public class SteamReaderFull extends SteamReader
 				return;
 			}
 
-			byte bytes[] = new byte[PACKET_SIZE];
-			int offset = 0;
+			/*
+			** Service the window until the status of the Steam
+			** should be inspected again.
+			*/
 
-			synchronized(m_fileInputStreamMutex)
-			{
-			    m_fileInputStream.getChannel().position
-				(m_readOffset.get());
-			    offset = m_fileInputStream.read(bytes);
-			}
+			long time0 = System.currentTimeMillis();
 
-			if(offset == -1)
+			do
 			{
-			    /*
-			    ** A response is required, do not set m_completed.
-			    */
+			    transfer();
 
-			    m_read.set(false);
-			    return;
+			    synchronized(m_waitMutex)
+			    {
+				if(!m_canceled.get() && !m_completed.get())
+				    m_waitMutex.wait(READ_INTERVAL);
+			    }
 			}
-			else
-			    m_rc.set((long) offset);
-
-			m_read.set(false);
-
-			/*
-			** Send a Steam packet.
-			*/
-
-			bytes = Messages.steamShare
-			    (s_cryptography,
-			     m_sipHashId,
-			     m_fileIdentity,
-			     m_keyStream,
-			     Arrays.copyOfRange(bytes, 0, offset),
-			     Messages.STEAM_SHARE[0],
-			     m_readOffset.get());
-
-			if(bytes != null)
-			    Kernel.getInstance().
-				sendSteam(false,
-					  Messages.bytesToMessageString(bytes).
-					  getBytes());
+			while(!m_canceled.get() &&
+			      !m_completed.get() &&
+			      System.currentTimeMillis() - time0 <
+			      4L * READ_INTERVAL);
 		    }
 		    catch(Exception exception)
 		    {
@@ -232,23 +577,20 @@ public class SteamReaderFull extends SteamReader
     {
 	m_completed.set(false);
 
-	try
-	{
-	    synchronized(m_fileInputStreamMutex)
-	    {
-		if(m_fileInputStream != null)
-		    m_fileInputStream.getChannel().position(0);
-	    }
-	}
-	catch(Exception exception)
+	synchronized(m_packets)
 	{
+	    m_lanes.clear();
+	    m_packets.clear();
+	    m_retransmissionTimeout = RESPONSE_WINDOW;
+	    m_roundTripTime = 0L;
+	    m_roundTripTimeVariance = 0L;
+	    m_window = 1.0;
+	    m_windowThreshold = MAXIMUM_WINDOW;
 	}
 
-	m_lastResponse.set(0L);
 	m_previousOffset.set(0L);
-	m_rc.set(0L);
-	m_read.set(true);
 	m_readOffset.set(0L);
+	m_sendOffset.set(0L);
 	saveReadOffset();
 
 	synchronized(m_waitMutex)
@@ -273,10 +615,8 @@ public class SteamReaderFull extends SteamReader
 	super(fileName, oid, readOffset);
 	m_fileIdentity = fileIdentity;
 	m_fileSize = new AtomicLong(fileSize);
-	m_lastResponse = new AtomicLong(System.currentTimeMillis());
 	m_previousOffset = new AtomicLong(readOffset);
-	m_rc = new AtomicLong(0L);
-	m_read = new AtomicBoolean(true);
+	m_sendOffset = new AtomicLong(m_readOffset.get());
 	m_sipHashId = Miscellaneous.sipHashIdFromDestination(destination);
 	m_stalled = new AtomicInteger(0);
 	prepareReader();
@@ -290,10 +630,12 @@ public class SteamReaderFull extends SteamReader
     public void delete()
     {
 	m_canceled.set(true);
-	m_lastResponse.set(0L);
 	m_previousOffset.set(0L);
-	m_rc.set(0L);
-	m_read.set(false);
+
+	synchronized(m_packets)
+	{
+	    m_packets.clear();
+	}
 
 	synchronized(m_waitMutex)
 	{
@@ -305,26 +647,73 @@ public class SteamReaderFull extends SteamReader
 
     public void setAcknowledgedOffset(long readOffset)
     {
-	boolean read = false;
-
-	if(m_readOffset.get() == readOffset)
+	synchronized(m_packets)
 	{
-	    m_lastResponse.set(System.currentTimeMillis());
-	    m_readOffset.addAndGet(m_rc.get());
-	    read = true;
-	    saveReadOffset();
+	    Packet packet = m_packets.remove(readOffset);
+
+	    if(packet == null)
+		/*
+		** A duplicate or an obsolete acknowledgement.
+		*/
+
+		return;
+
+	    Lane lane = m_lanes.get(packet.m_neighborOid);
+
+	    if(lane != null)
+		lane.m_acknowledged += packet.m_length;
+
+	    if(packet.m_compressed)
+		m_compression = COMPRESSION_SUPPORTED;
+
+	    if(!packet.m_retransmitted)
+	    {
+		/*
+		** RFC 6298. Retransmitted packets are not sampled.
+		*/
+
+		long sample = Math.max
+		    (1L, System.currentTimeMillis() - packet.m_timestamp);
+
+		if(m_roundTripTime == 0L)
+		{
+		    m_roundTripTime = sample;
+		    m_roundTripTimeVariance = sample / 2L;
+		}
+		else
+		{
+		    m_roundTripTimeVariance =
+			(3L * m_roundTripTimeVariance +
+			 Math.abs(m_roundTripTime - sample)) / 4L;
+		    m_roundTripTime = (7L * m_roundTripTime + sample) / 8L;
+		}
+
+		m_retransmissionTimeout = Math.max
+		    (MINIMUM_RETRANSMISSION_TIMEOUT,
+		     Math.min(RESPONSE_WINDOW,
+			      m_roundTripTime + 4L * m_roundTripTimeVariance));
+	    }
+
+	    if(m_window < m_windowThreshold)
+		m_window += 1.0;
+	    else
+		m_window += 1.0 / m_window;
+
+	    m_window = Math.min((double) windowLimit(), m_window);
+
+	    if(m_packets.isEmpty())
+		m_readOffset.set(m_sendOffset.get());
+	    else
+		m_readOffset.set(m_packets.firstKey());
 	}
 
 	if(m_fileSize.get() == m_readOffset.get())
 	{
 	    m_completed.set(true);
-	    read = false;
 	    s_databaseHelper.writeSteamStatus
 		(s_cryptography, "completed", "", m_oid, m_readOffset.get());
 	}
 
-	m_read.set(read);
-
 	synchronized(m_waitMutex)
 	{
 	    m_waitMutex.notify();
@@ -333,5 +722,9 @@ public class SteamReaderFull extends SteamReader
 
     public void setReadInterval(int readInterval)
     {
+	/*
+	** The sliding window paces full Steams. SteamBubble does not
+	** offer the read-interval control for them.
+	*/
     }
 }
@@ -27,20 +27,28 @@
 
 package org.purple.smoke;
 
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SteamReaderSimple extends SteamReader
 {
     /*
-    ** Anywhere transfers.
+    ** Anywhere transfers. An unlimited reader transfers large regions
+    ** of the file and is paced by the writability of the neighbors
+    ** rather than by its read interval.
     */
 
+    private AtomicBoolean m_unlimited = null;
     private AtomicLong m_lastBytesSent = null;
     private AtomicLong m_readInterval = null;
     private final static int PACKET_SIZE = 8192;
+    private final static long TRANSFER_INTERVAL = 1000L; // 1 second.
+    private final static long TRANSFER_SIZE = 1048576L; // 1 MiB.
+    private final static long UNLIMITED_READ_INTERVAL = 10L; // 10 ms.
 
     private void computeRate(long bytesSent)
     {
@@ -109,6 +117,12 @@ public class SteamReaderSimple extends SteamReader
 			   m_canceled.get())
 			    return;
 
+			if(m_unlimited.get())
+			{
+			    transfer();
+			    return;
+			}
+
 			synchronized(m_fileInputStreamMutex)
 			{
 			    if(m_fileInputStream == null)
@@ -189,6 +203,59 @@ public class SteamReaderSimple extends SteamReader
 	m_readOffset.set(0L);
     }
 
+    private void transfer() throws Exception
+    {
+	/*
+	** Transfer regions of the file for at most TRANSFER_INTERVAL
+	** milliseconds. Plain TCP neighbors transfer directly from
+	** the file.
+	*/
+
+	long time0 = System.currentTimeMillis();
+
+	while(!m_canceled.get() &&
+	      System.currentTimeMillis() - time0 < TRANSFER_INTERVAL)
+	{
+	    long sent = 0L;
+
+	    synchronized(m_fileInputStreamMutex)
+	    {
+		if(m_fileInputStream == null)
+		    return;
+
+		FileChannel channel = m_fileInputStream.getChannel();
+
+		if(m_readOffset.get() >= channel.size())
+		{
+		    /*
+		    ** Completed!
+		    */
+
+		    m_completed.set(true);
+		    s_databaseHelper.writeSteamStatus
+			(s_cryptography,
+			 "completed",
+			 "",
+			 m_oid,
+			 m_readOffset.get());
+		    return;
+		}
+
+		sent = Kernel.getInstance().transferSteam
+		    (channel, m_readOffset.get(), TRANSFER_SIZE);
+	    }
+
+	    if(sent <= 0L)
+		break;
+
+	    computeRate(sent);
+	    m_readOffset.addAndGet(sent);
+	}
+
+	s_databaseHelper.writeSteamStatus
+	    (s_cryptography, "", prettyRate(), m_oid, m_readOffset.get());
+    }
+
     public SteamReaderSimple(String fileName,
 			     int oid,
 			     long readInterval,
@@ -196,7 +263,14 @@ public class SteamReaderSimple extends SteamReader
     {
 	super(fileName, oid, readOffset);
 	m_lastBytesSent = new AtomicLong(0L);
-	m_readInterval = new AtomicLong(1000L / Math.max(4L, readInterval));
+	m_unlimited = new AtomicBoolean(readInterval == 0L);
+
+	if(m_unlimited.get())
+	    m_readInterval = new AtomicLong(UNLIMITED_READ_INTERVAL);
+	else
+	    m_readInterval = new AtomicLong
+		(1000L / Math.max(4L, readInterval));
+
 	prepareReader();
     }
 
@@ -210,21 +284,35 @@ public class SteamReaderSimple extends SteamReader
 
     public void setReadInterval(int interval)
     {
-	if(1000L / (long) interval == m_readInterval.get())
-	    return;
+	if(interval == 0)
+	{
+	    if(m_unlimited.get())
+		return;
 
-	switch(interval)
+	    m_readInterval.set(UNLIMITED_READ_INTERVAL);
+	    m_unlimited.set(true);
+	}
+	else
 	{
-	case 4:
-	case 10:
-	case 20:
-	case 50:
-	case 100:
-	    m_readInterval.set(1000L / (long) interval);
-	    break;
-	default:
-	    m_readInterval.set(250L);
-	    break;
+	    if(!m_unlimited.get() &&
+	       1000L / (long) interval == m_readInterval.get())
+		return;
+
+	    switch(interval)
+	    {
+	    case 4:
+	    case 10:
+	    case 20:
+	    case 50:
+	    case 100:
+		m_readInterval.set(1000L / (long) interval);
+		break;
+	    default:
+		m_readInterval.set(250L);
+		break;
+	    }
+
+	    m_unlimited.set(false);
 	}
 
 	m_canceled.set(true);
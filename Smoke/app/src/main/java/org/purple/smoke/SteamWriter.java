@@ -29,9 +29,17 @@ package org.purple.smoke;
 
 import android.os.Environment;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,21 +49,50 @@ public class SteamWriter
 {
     private static class FileInformation
     {
+	/*
+	** A file remains open while packets arrive. Contiguous packets
+	** are coalesced in a write-behind buffer. Data are forced onto
+	** the storage device periodically and after FORCE_THRESHOLD
+	** bytes. The SHA-256 digest of the file is computed as
+	** contiguous ranges arrive. Ranges which arrive ahead of the
+	** digest are recorded and are read back once the gap is closed.
+	*/
+
+	public ByteBuffer m_buffer = null;
+	public FileChannel m_fileChannel = null;
+	public MessageDigest m_messageDigest = null;
+	public RandomAccessFile m_randomAccessFile = null;
+	public TreeMap<Long, Long> m_ranges = null;
+	public byte m_fileDigest[] = null;
 	public byte m_fileIdentity[] = null;
 	public int m_oid = -1;
+	public long m_bufferOffset = 0L;
+	public long m_digestOffset = 0L;
+	public long m_fileSize = 0L;
 	public long m_lastStatusTimestamp = 0L;
 	public long m_offset = 0L;
 	public long m_previousOffset = 0L;
 	public long m_rate = 0L;
 	public long m_time0 = 0L;
+	public long m_unforced = 0L;
 	public short m_stalled = 0;
 
-	public FileInformation(byte fileIdentity[], int oid, long offset)
+	public FileInformation(File file,
+			       byte fileDigest[],
+			       byte fileIdentity[],
+			       int oid,
+			       long fileSize) throws Exception
 	{
+	    m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	    m_fileDigest = fileDigest;
 	    m_fileIdentity = fileIdentity;
+	    m_fileSize = fileSize;
 	    m_lastStatusTimestamp = System.currentTimeMillis();
-	    m_offset = offset;
+	    m_messageDigest = MessageDigest.getInstance("SHA-256");
 	    m_oid = oid;
+	    m_randomAccessFile = new RandomAccessFile(file, "rw");
+	    m_ranges = new TreeMap<> ();
+	    m_fileChannel = m_randomAccessFile.getChannel();
 	    m_time0 = System.currentTimeMillis();
 	}
 
@@ -65,6 +102,59 @@ public class SteamWriter
 		(String.valueOf(m_rate)) + " / s";
 	}
 
+	public boolean digested()
+	{
+	    return m_fileDigest == null || m_digestOffset == m_fileSize;
+	}
+
+	public boolean verify() throws IOException
+	{
+	    /*
+	    ** The file is read again if portions of the digest
+	    ** are not known. Callers should avoid network threads
+	    ** if digested() is false.
+	    */
+
+	    if(m_fileDigest == null)
+		return true;
+
+	    if(m_digestOffset != m_fileSize)
+	    {
+		m_digestOffset = 0L;
+		m_messageDigest.reset();
+		m_ranges.clear();
+		flush();
+		digest(m_fileSize);
+	    }
+
+	    return Cryptography.memcmp(m_fileDigest, m_messageDigest.digest());
+	}
+
+	public void close()
+	{
+	    try
+	    {
+		force();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+
+	    try
+	    {
+		if(m_randomAccessFile != null)
+		    m_randomAccessFile.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		m_fileChannel = null;
+		m_randomAccessFile = null;
+	    }
+	}
+
 	public void computeRate()
 	{
 	    long seconds = Math.abs
@@ -86,26 +176,242 @@ public class SteamWriter
 		m_time0 = System.currentTimeMillis() / 1000L;
 	    }
 	}
+
+	public void digest(byte packet[], long offset) throws IOException
+	{
+	    long end = offset + packet.length;
+
+	    if(end <= m_digestOffset)
+		/*
+		** A duplicate.
+		*/
+
+		return;
+	    else if(offset > m_digestOffset)
+	    {
+		Long value = m_ranges.get(offset);
+
+		if(value == null || value < end)
+		    m_ranges.put(offset, end);
+
+		return;
+	    }
+
+	    m_messageDigest.update
+		(packet,
+		 (int) (m_digestOffset - offset),
+		 (int) (end - m_digestOffset));
+	    m_digestOffset = end;
+
+	    while(!m_ranges.isEmpty())
+	    {
+		Map.Entry<Long, Long> entry = m_ranges.firstEntry();
+
+		if(entry.getKey() > m_digestOffset)
+		    break;
+
+		m_ranges.remove(entry.getKey());
+
+		if(entry.getValue() > m_digestOffset)
+		{
+		    flush();
+		    digest(entry.getValue());
+		}
+	    }
+	}
+
+	public void digest(long end) throws IOException
+	{
+	    /*
+	    ** Digest the file from m_digestOffset to end.
+	    */
+
+	    ByteBuffer buffer = ByteBuffer.allocate(65536);
+
+	    while(m_digestOffset < end)
+	    {
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(),
+					    end - m_digestOffset));
+
+		int rc = m_fileChannel.read(buffer, m_digestOffset);
+
+		if(rc <= 0)
+		    throw new IOException("Short read.");
+
+		m_messageDigest.update(buffer.array(), 0, rc);
+		m_digestOffset += rc;
+	    }
+	}
+
+	public void flush() throws IOException
+	{
+	    if(m_buffer.position() == 0)
+		return;
+
+	    m_buffer.flip();
+
+	    try
+	    {
+		write(m_buffer, m_bufferOffset);
+	    }
+	    finally
+	    {
+		m_buffer.clear();
+	    }
+	}
+
+	public void force() throws IOException
+	{
+	    if(m_fileChannel == null)
+		return;
+
+	    flush();
+
+	    if(m_unforced > 0L)
+	    {
+		m_fileChannel.force(false);
+		m_unforced = 0L;
+	    }
+	}
+
+	public void write(ByteBuffer buffer, long offset) throws IOException
+	{
+	    while(buffer.hasRemaining())
+		offset += m_fileChannel.write(buffer, offset);
+	}
+
+	public void write(byte packet[], long offset) throws IOException
+	{
+	    if(m_fileChannel == null)
+		throw new IOException("Closed file.");
+
+	    if(m_buffer.position() > 0 &&
+	       (m_bufferOffset + m_buffer.position() != offset ||
+		m_buffer.remaining() < packet.length))
+		flush();
+
+	    if(packet.length >= m_buffer.capacity())
+		write(ByteBuffer.wrap(packet), offset);
+	    else
+	    {
+		if(m_buffer.position() == 0)
+		    m_bufferOffset = offset;
+
+		m_buffer.put(packet);
+	    }
+
+	    digest(packet, offset);
+	    m_lastStatusTimestamp = System.currentTimeMillis();
+	    m_offset = Math.max(m_offset, offset + packet.length);
+	    m_unforced += packet.length;
+
+	    if(m_unforced >= FORCE_THRESHOLD)
+		force();
+	}
     }
 
+    private ExecutorService m_verifier = null;
     private ScheduledExecutorService m_scheduler = null;
-    private final Hashtable<Integer, FileInformation> m_files;
+    private final Hashtable<ByteBuffer, FileInformation> m_files;
     private final Object m_schedulerMutex = new Object();
     private final ReentrantReadWriteLock m_filesMutex =
 	new ReentrantReadWriteLock();
     private final static Cryptography s_cryptography =
 	Cryptography.getInstance();
     private final static Database s_databaseHelper = Database.getInstance();
+    private final static int BUFFER_SIZE = 262144;
     private final static long FILE_INFORMATION_LIFETIME = 15000L; // 15 Seconds
+    private final static long FORCE_THRESHOLD = 4194304L;
     private final static long SCHEDULER_INTERVAL = 1500L;
 
-    private void removeFileInformation(int oid)
+    private FileInformation fileInformation(byte fileIdentity[])
+    {
+	/*
+	** Discover or prepare the information of an active file.
+	** The database is only consulted for new files.
+	*/
+
+	ByteBuffer key = ByteBuffer.wrap(fileIdentity);
+
+	m_filesMutex.readLock().lock();
+
+	try
+	{
+	    FileInformation fileInformation = m_files.get(key);
+
+	    if(fileInformation != null)
+		return fileInformation;
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_filesMutex.readLock().unlock();
+	}
+
+	int oid = s_databaseHelper.steamOidFromFileIdentity
+	    (s_cryptography, fileIdentity);
+
+	if(oid == -1)
+	    return null;
+
+	SteamElement steamElement = s_databaseHelper.readSteam
+	    (s_cryptography, -1, oid - 1);
+
+	if(steamElement == null)
+	    return null;
+
+	m_filesMutex.writeLock().lock();
+
+	try
+	{
+	    FileInformation fileInformation = m_files.get(key);
+
+	    if(fileInformation != null)
+		return fileInformation;
+
+	    File file = new File
+		(Environment.
+		 getExternalStoragePublicDirectory(Environment.
+						   DIRECTORY_DOWNLOADS),
+		 steamElement.m_fileName);
+
+	    if(!file.exists())
+		file.createNewFile();
+
+	    fileInformation = new FileInformation
+		(file,
+		 steamElement.m_fileDigest,
+		 Arrays.copyOf(fileIdentity, fileIdentity.length),
+		 oid,
+		 steamElement.m_fileSize);
+	    m_files.put
+		(ByteBuffer.wrap(fileInformation.m_fileIdentity),
+		 fileInformation);
+	    return fileInformation;
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+	finally
+	{
+	    m_filesMutex.writeLock().unlock();
+	}
+    }
+
+    private void forgetFileInformation(FileInformation fileInformation)
     {
 	m_filesMutex.writeLock().lock();
 
 	try
 	{
-	    m_files.remove(oid);
+	    ByteBuffer key = ByteBuffer.wrap(fileInformation.m_fileIdentity);
+
+	    if(m_files.get(key) == fileInformation)
+		m_files.remove(key);
 	}
 	catch(Exception exception)
 	{
@@ -116,9 +422,61 @@ public class SteamWriter
 	}
     }
 
+    private void removeFileInformation(FileInformation fileInformation)
+    {
+	forgetFileInformation(fileInformation);
+
+	synchronized(fileInformation)
+	{
+	    fileInformation.close();
+	}
+    }
+
+    private void verify(final FileInformation fileInformation,
+			final long offset)
+    {
+	/*
+	** Some ranges were not digested as they arrived. The file
+	** is read again on a separate thread so that the neighbor
+	** is not delayed. The entry is forgotten immediately so that
+	** the scheduler does not expire it.
+	*/
+
+	forgetFileInformation(fileInformation);
+	m_verifier.submit(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		boolean verified = false;
+
+		synchronized(fileInformation)
+		{
+		    try
+		    {
+			verified = fileInformation.verify();
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+
+		    fileInformation.close();
+		}
+
+		s_databaseHelper.writeSteamStatus
+		    (s_cryptography,
+		     verified ? "completed" : "corrupted",
+		     "",
+		     fileInformation.m_oid,
+		     offset);
+	    }
+	});
+    }
+
     public SteamWriter()
     {
 	m_files = new Hashtable<> ();
+	m_verifier = Executors.newSingleThreadExecutor();
 	m_scheduler = Executors.newSingleThreadScheduledExecutor();
 	m_scheduler.scheduleAtFixedRate(new Runnable()
 	{
@@ -127,13 +485,18 @@ public class SteamWriter
 	    {
 		try
 		{
-		    boolean empty = false;
+		    ArrayList<FileInformation> arrayList = null;
+
+		    /*
+		    ** The database and the storage device are consulted
+		    ** outside of the lock so that writers are not delayed.
+		    */
 
 		    m_filesMutex.readLock().lock();
 
 		    try
 		    {
-			empty = m_files.isEmpty();
+			arrayList = new ArrayList<> (m_files.values());
 		    }
 		    catch(Exception exception)
 		    {
@@ -143,7 +506,8 @@ public class SteamWriter
 			m_filesMutex.readLock().unlock();
 		    }
 
-		    if(empty)
+		    if(arrayList == null || arrayList.isEmpty())
+		    {
 			synchronized(m_schedulerMutex)
 			{
 			    try
@@ -155,53 +519,48 @@ public class SteamWriter
 			    }
 			}
 
-		    m_filesMutex.writeLock().lock();
+			return;
+		    }
 
-		    try
+		    for(FileInformation fileInformation : arrayList)
 		    {
-			Iterator<Hashtable.Entry<Integer, FileInformation> >
-			    it = m_files.entrySet().iterator();
+			boolean expired = false;
+			int oid = s_databaseHelper.steamOidFromFileIdentity
+			    (s_cryptography, fileInformation.m_fileIdentity);
 
-			while(it.hasNext())
+			synchronized(fileInformation)
 			{
-			    Hashtable.Entry<Integer, FileInformation> entry =
-				it.next();
-
-			    if(entry.getValue() == null)
-			     {
-				 it.remove();
-				 continue;
-			     }
-
-			    int oid = s_databaseHelper.steamOidFromFileIdentity
-				(s_cryptography,
-				 entry.getValue().m_fileIdentity);
-
-			    if(Math.
-			       abs(System.currentTimeMillis() -
-				   entry.getValue().m_lastStatusTimestamp) >
-			       FILE_INFORMATION_LIFETIME ||
-			       oid == -1)
+			    expired = Math.
+				abs(System.currentTimeMillis() -
+				    fileInformation.m_lastStatusTimestamp) >
+				FILE_INFORMATION_LIFETIME || oid == -1;
+
+			    if(!expired)
 			    {
-				it.remove();
-				continue;
+				try
+				{
+				    fileInformation.force();
+				}
+				catch(Exception exception)
+				{
+				}
+
+				fileInformation.computeRate();
 			    }
+			}
 
-			    entry.getValue().computeRate();
-			    s_databaseHelper.writeSteamStatus
-				(s_cryptography,
-				 "receiving",
-				 entry.getValue().prettyRate(),
-				 entry.getValue().m_oid,
-				 entry.getValue().m_offset);
+			if(expired)
+			{
+			    removeFileInformation(fileInformation);
+			    continue;
 			}
-		    }
-		    catch(Exception exception)
-		    {
-		    }
-		    finally
-		    {
-			m_filesMutex.writeLock().unlock();
+
+			s_databaseHelper.writeSteamStatus
+			    (s_cryptography,
+			     "receiving",
+			     fileInformation.prettyRate(),
+			     fileInformation.m_oid,
+			     fileInformation.m_offset);
 		    }
 		}
 		catch(Exception exception)
@@ -220,106 +579,84 @@ public class SteamWriter
 	   packet.length == 0)
 	    return false;
 
-	int oid = s_databaseHelper.steamOidFromFileIdentity
-	    (s_cryptography, fileIdentity);
-
-	if(oid == -1)
-	    return false;
-
-	SteamElement steamElement = s_databaseHelper.readSteam
-	    (s_cryptography, -1, oid - 1);
+	FileInformation fileInformation = fileInformation(fileIdentity);
 
-	if(steamElement == null)
+	if(fileInformation == null)
 	    return false;
-	else if(offset + packet.length > steamElement.m_fileSize)
+	else if(offset + packet.length > fileInformation.m_fileSize)
 	    /*
 	    ** Really?
 	    */
 
 	    return false;
 
-	RandomAccessFile randomAccessFile = null;
+	boolean completed = false;
+	boolean digested = true;
+	boolean ok = true;
+	boolean verified = false;
 
-	try
+	synchronized(fileInformation)
 	{
-	    File file = new File
-		(Environment.
-		 getExternalStoragePublicDirectory(Environment.
-						   DIRECTORY_DOWNLOADS),
-		 steamElement.m_fileName);
-
-	    if(!file.exists())
-		file.createNewFile();
-
-	    randomAccessFile = new RandomAccessFile(file, "rwd");
-	    randomAccessFile.seek(offset);
-	    randomAccessFile.write(packet);
-
-	    if(offset == 0)
-		/*
-		** Erase the ephemeral key.
-		*/
-
-		s_databaseHelper.writeEphemeralSteamKeys
-		    (s_cryptography, null, null, oid);
-
-	    if(offset + packet.length == steamElement.m_fileSize)
-	    {
-		removeFileInformation(oid);
-		s_databaseHelper.writeSteamStatus
-		    (s_cryptography,
-		     "completed",
-		     "",
-		     oid,
-		     offset + packet.length);
-		return true;
-	    }
-
-	    m_filesMutex.writeLock().lock();
-
 	    try
 	    {
-		FileInformation fileInformation = m_files.get(oid);
+		fileInformation.write(packet, offset);
 
-		if(fileInformation == null)
-		    fileInformation = new FileInformation
-			(fileIdentity, oid, offset + packet.length);
-		else
+		if(offset + packet.length == fileInformation.m_fileSize)
 		{
-		    fileInformation.m_lastStatusTimestamp =
-			System.currentTimeMillis();
-		    fileInformation.m_offset = offset + packet.length;
-		}
+		    fileInformation.force();
+		    completed = true;
+		    digested = fileInformation.digested();
 
-		m_files.put(oid, fileInformation);
+		    if(digested)
+			verified = fileInformation.verify();
+		}
 	    }
 	    catch(Exception exception)
 	    {
-	    }
-	    finally
-	    {
-		m_filesMutex.writeLock().unlock();
-	    }
-
-	    synchronized(m_schedulerMutex)
-	    {
-		m_schedulerMutex.notify();
+		ok = false;
 	    }
 	}
-	catch(Exception exception)
+
+	if(!ok)
 	{
+	    removeFileInformation(fileInformation);
 	    return false;
 	}
-	finally
+
+	if(offset == 0)
+	    /*
+	    ** Erase the ephemeral key.
+	    */
+
+	    s_databaseHelper.writeEphemeralSteamKeys
+		(s_cryptography, null, null, fileInformation.m_oid);
+
+	if(completed)
 	{
-	    try
-	    {
-		if(randomAccessFile != null)
-		    randomAccessFile.close();
-	    }
-	    catch(Exception exception)
+	    /*
+	    ** The final packet is acknowledged even if the digests
+	    ** differ as the file is complete.
+	    */
+
+	    if(!digested)
 	    {
+		verify(fileInformation, offset + packet.length);
+		return true;
 	    }
+
+	    removeFileInformation(fileInformation);
+	    s_databaseHelper.writeSteamStatus
+		(s_cryptography,
+		 verified ? "completed" : "corrupted",
+		 "",
+		 fileInformation.m_oid,
+		 offset + packet.length);
+	    return true;
+	}
+
+	synchronized(m_schedulerMutex)
+	{
+	    m_schedulerMutex.notify();
 	}
 
 	return true;
@@ -27,20 +27,52 @@
 
 package org.purple.smoke;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.TimeUnit;
 
 public class TcpNeighbor extends Neighbor
 {
     private InetSocketAddress m_proxyInetSocketAddress = null;
-    private Socket m_socket = null;
+    private volatile NeighborEngine.Registration m_registration = null;
+    private volatile Socket m_socket = null;
     private String m_proxyIpAddress = "";
     private String m_proxyType = "";
     private final static int CONNECTION_TIMEOUT = 10000; // 10 seconds.
     private int m_proxyPort = -1;
 
+    private NeighborEngine.Handler handler(final SocketChannel channel)
+    {
+	return new NeighborEngine.Handler()
+	{
+	    @Override
+	    public void closed()
+	    {
+		if(m_socket == null || m_socket.getChannel() != channel)
+		    return;
+
+		setError("A socket read() error occurred.");
+		disconnect();
+	    }
+
+	    @Override
+	    public void readable(ByteBuffer buffer)
+	    {
+		appendBytes(buffer);
+	    }
+
+	    @Override
+	    public void writable()
+	    {
+	    }
+	};
+    }
+
     protected String getLocalIp()
     {
 	try
@@ -109,7 +141,18 @@ public class TcpNeighbor extends Neighbor
 
 	try
 	{
-	    if(m_socket == null || m_socket.getOutputStream() == null)
+	    NeighborEngine.Registration registration = m_registration;
+
+	    if(registration != null)
+	    {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+		registration.write(buffer, WRITE_TIMEOUT);
+
+		if(buffer.hasRemaining())
+		    throw new IOException("SocketChannel write() timeout.");
+	    }
+	    else if(m_socket == null || m_socket.getOutputStream() == null)
 		return sent;
 	    else
 		m_socket.getOutputStream().write(bytes);
@@ -127,6 +170,40 @@ public class TcpNeighbor extends Neighbor
 	return sent;
     }
 
+    protected long transfer(FileChannel channel, long position, long count)
+    {
+	NeighborEngine.Registration registration = m_registration;
+
+	if(registration == null)
+	    /*
+	    ** Proxied sockets are not channels.
+	    */
+
+	    return super.transfer(channel, position, count);
+	else if(channel == null || count <= 0L || !connected())
+	    return 0L;
+
+	long sent = 0L;
+
+	try
+	{
+	    sent = registration.transferFrom
+		(channel, position, count, WRITE_TIMEOUT);
+
+	    if(sent < count && position + sent < channel.size())
+		throw new IOException("SocketChannel transferTo() timeout.");
+
+	    m_bytesWritten.getAndAdd(sent);
+	}
+	catch(Exception exception)
+	{
+	    setError("A socket error occurred on transfer().");
+	    disconnect();
+	}
+
+	return sent;
+    }
+
     protected void abort()
     {
 	disconnect();
@@ -176,10 +253,18 @@ public class TcpNeighbor extends Neighbor
 
 	    if(m_proxyInetSocketAddress == null)
 	    {
-		m_socket = new Socket();
+		/*
+		** The channel is serviced by NeighborEngine.
+		*/
+
+		SocketChannel channel = SocketChannel.open();
+
+		m_socket = channel.socket();
 		m_socket.setReceiveBufferSize(SO_RCVBUF);
-		m_socket.setSendBufferSize(SO_RCVBUF);
+		m_socket.setSendBufferSize(SO_SNDBUF);
 		m_socket.connect(inetSocketAddress, CONNECTION_TIMEOUT);
+		m_registration = NeighborEngine.getInstance().register
+		    (channel, handler(channel));
 	    }
 	    else
 	    {
@@ -225,10 +310,16 @@ public class TcpNeighbor extends Neighbor
     {
 	super.disconnect();
 
+	NeighborEngine.Registration registration = m_registration;
+	Socket socket = m_socket;
+
+	if(registration != null)
+	    registration.cancel();
+
 	try
 	{
-	    if(m_socket != null)
-		m_socket.close();
+	    if(socket != null)
+		socket.close();
 	}
 	catch(Exception exception)
 	{
@@ -238,6 +329,7 @@ public class TcpNeighbor extends Neighbor
 	    m_bytesRead.set(0L);
 	    m_bytesWritten.set(0L);
 	    m_lastParsed.set(0L);
+	    m_registration = null;
 	    m_socket = null;
 	    m_startTime.set(System.nanoTime());
 	}
@@ -280,9 +372,18 @@ public class TcpNeighbor extends Neighbor
 		m_proxyInetSocketAddress = null;
 	    }
 
+	if(m_proxyInetSocketAddress == null)
+	    /*
+	    ** NeighborEngine reads from direct connections. Proxied
+	    ** sockets are blocking.
+	    */
+
+	    return;
+
 	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
 	{
 	    private boolean m_error = false;
+	    private final byte m_bytes[] = new byte[BYTES_PER_READ];
 
 	    @Override
 	    public void run()
@@ -314,12 +415,11 @@ public class TcpNeighbor extends Neighbor
 			    m_socket.getInputStream() == null)
 			return;
 
-		    byte bytes[] = new byte[BYTES_PER_READ];
 		    int i = 0;
 
 		    try
 		    {
-			i = m_socket.getInputStream().read(bytes);
+			i = m_socket.getInputStream().read(m_bytes);
 		    }
 		    catch(java.net.SocketTimeoutException exception)
 		    {
@@ -344,15 +444,8 @@ public class TcpNeighbor extends Neighbor
 
 		    m_bytesRead.getAndAdd(bytesRead);
 		    m_lastTimeRead.set(System.nanoTime());
-
-		    if(m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(bytes, 0, (int) bytesRead));
-
-		    synchronized(m_parsingSchedulerMutex)
-		    {
-			m_parsingSchedulerMutex.notify();
-		    }
+		    m_framer.append(m_bytes, 0, (int) bytesRead);
+		    wakeParsingScheduler();
 		}
 		catch(java.net.SocketException exception)
 		{
@@ -31,6 +31,8 @@ import android.os.Build;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.concurrent.TimeUnit;
@@ -38,6 +40,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
@@ -47,7 +51,9 @@ public class TcpTlsNeighbor extends Neighbor
     private AtomicBoolean m_handshakeCompleted = null;
     private AtomicBoolean m_isValidCertificate = null;
     private InetSocketAddress m_proxyInetSocketAddress = null;
-    private SSLSocket m_socket = null;
+    private volatile SSLSocket m_socket = null;
+    private volatile SecureChannel m_secureChannel = null;
+    private volatile SocketChannel m_channel = null;
     private String m_protocols[] = null;
     private String m_proxyIpAddress = "";
     private String m_proxyType = "";
@@ -56,12 +62,125 @@ public class TcpTlsNeighbor extends Neighbor
     private final static int HANDSHAKE_TIMEOUT = 10000; // 10 seconds.
     private int m_proxyPort = -1;
 
+    private Socket socket()
+    {
+	/*
+	** Direct connections are serviced by NeighborEngine whereas
+	** proxied connections are blocking SSL sockets.
+	*/
+
+	SocketChannel channel = m_channel;
+
+	if(channel != null)
+	    return channel.socket();
+	else
+	    return m_socket;
+    }
+
+    private void handshakeCompleted()
+    {
+	m_handshakeCompleted.set(true);
+	scheduleSend(getCapabilities());
+	scheduleSend(getIdentities());
+	Kernel.getInstance().retrieveChatMessages(m_cryptography.sipHashId());
+
+	synchronized(m_mutex)
+	{
+	    m_mutex.notifyAll();
+	}
+    }
+
+    private void prepareTrustManagers()
+    {
+	m_trustManagers = new TrustManager[]
+	{
+	    new X509TrustManager()
+	    {
+		public X509Certificate[] getAcceptedIssuers()
+		{
+		    return new X509Certificate[0];
+		}
+
+		public void checkClientTrusted
+		    (X509Certificate chain[], String authType)
+		{
+		}
+
+		public void checkServerTrusted
+		    (X509Certificate chain[], String authType)
+		{
+		    if(authType == null || authType.length() == 0)
+			m_isValidCertificate.set(false);
+		    else if(chain == null || chain.length == 0)
+			m_isValidCertificate.set(false);
+		    else
+		    {
+			try
+			{
+			    chain[0].checkValidity();
+
+			    byte bytes[] = m_databaseHelper.
+				neighborRemoteCertificate
+				(m_cryptography, m_oid.get());
+
+			    if(bytes == null || bytes.length == 0)
+			    {
+				m_databaseHelper.neighborRecordCertificate
+				    (m_cryptography,
+				     String.valueOf(m_oid.get()),
+				     chain[0].getEncoded());
+				m_isValidCertificate.set(true);
+			    }
+			    else if(!Cryptography.memcmp(bytes,
+							 chain[0].getEncoded()))
+			    {
+				m_databaseHelper.neighborControlStatus
+				    (m_cryptography,
+				     "disconnect",
+				     String.valueOf(m_oid.get()));
+				m_isValidCertificate.set(false);
+				setError("The stored server's " +
+					 "certificate does not match the " +
+					 "certificate that was provided by " +
+					 "the server.");
+			    }
+			    else
+				m_isValidCertificate.set(true);
+			}
+			catch(Exception exception)
+			{
+
+			    m_databaseHelper.neighborControlStatus
+				(m_cryptography,
+				 "disconnect",
+				 String.valueOf(m_oid.get()));
+			    m_isValidCertificate.set(false);
+			    setError("A certificate error (" +
+				     exception.getMessage() +
+				     ") occurred.");
+			}
+		    }
+
+		    if(!m_isValidCertificate.get())
+			synchronized(m_errorMutex)
+			{
+			    if(m_error.length() == 0)
+				m_error.append
+				    ("A generic certificate error occurred.");
+			}
+		}
+	    }
+	};
+    }
+
     protected String getLocalIp()
     {
 	try
 	{
-	    if(m_socket != null && m_socket.getLocalAddress() != null)
-		return m_socket.getLocalAddress().getHostAddress();
+	    Socket socket = socket();
+
+	    if(socket != null && socket.getLocalAddress() != null)
+		return socket.getLocalAddress().getHostAddress();
 	}
 	catch(Exception exception)
 	{
@@ -77,12 +196,21 @@ public class TcpTlsNeighbor extends Neighbor
     {
 	try
 	{
-	    if(m_socket != null &&
-	       m_socket.getSession() != null &&
-	       m_socket.getSession().isValid())
-		return m_socket.getSession().getCipherSuite() +
+	    SSLSession session = null;
+	    SecureChannel secureChannel = m_secureChannel;
+
+	    if(secureChannel != null)
+	    {
+		if(secureChannel.handshakeCompleted())
+		    session = secureChannel.session();
+	    }
+	    else if(m_socket != null)
+		session = m_socket.getSession();
+
+	    if(session != null && session.isValid())
+		return session.getCipherSuite() +
 		    "_" +
-		    m_socket.getSession().getProtocol();
+		    session.getProtocol();
 	}
 	catch(Exception exception)
 	{
@@ -95,11 +223,13 @@ public class TcpTlsNeighbor extends Neighbor
     {
 	try
 	{
+	    Socket socket = socket();
+
 	    return isNetworkConnected() &&
 		m_handshakeCompleted.get() &&
 		m_isValidCertificate.get() &&
-		m_socket != null &&
-		!m_socket.isClosed();
+		socket != null &&
+		!socket.isClosed();
 	}
 	catch(Exception exception)
 	{
@@ -112,8 +242,10 @@ public class TcpTlsNeighbor extends Neighbor
     {
 	try
 	{
-	    if(m_socket != null && !m_socket.isClosed())
-		return m_socket.getLocalPort();
+	    Socket socket = socket();
+
+	    if(socket != null && !socket.isClosed())
+		return socket.getLocalPort();
 	}
 	catch(Exception exception)
 	{
@@ -139,7 +271,11 @@ public class TcpTlsNeighbor extends Neighbor
 
 	try
 	{
-	    if(m_socket == null || m_socket.getOutputStream() == null)
+	    SecureChannel secureChannel = m_secureChannel;
+
+	    if(secureChannel != null)
+		secureChannel.write(bytes, WRITE_TIMEOUT);
+	    else if(m_socket == null || m_socket.getOutputStream() == null)
 		return sent;
 	    else
 		m_socket.getOutputStream().write(bytes);
@@ -217,11 +353,50 @@ public class TcpTlsNeighbor extends Neighbor
 
 	    if(m_proxyInetSocketAddress == null)
 	    {
-		m_socket = (SSLSocket) sslContext.getSocketFactory().
-		    createSocket();
-		m_socket.setReceiveBufferSize(SO_RCVBUF);
-		m_socket.setSendBufferSize(SO_SNDBUF);
-		m_socket.connect(inetSocketAddress, CONNECTION_TIMEOUT);
+		/*
+		** The channel is serviced by NeighborEngine.
+		*/
+
+		SSLEngine engine = sslContext.createSSLEngine
+		    (m_ipAddress, Integer.parseInt(m_ipPort));
+		final SocketChannel channel = SocketChannel.open();
+
+		m_channel = channel;
+		m_channel.socket().setReceiveBufferSize(SO_RCVBUF);
+		m_channel.socket().setSendBufferSize(SO_SNDBUF);
+		m_channel.socket().connect
+		    (inetSocketAddress, CONNECTION_TIMEOUT);
+		m_channel.socket().setTcpNoDelay(true);
+		engine.setEnabledProtocols(m_protocols);
+		engine.setUseClientMode(true);
+		m_secureChannel = new SecureChannel
+		    (engine, channel, new SecureChannel.Listener()
+		    {
+			@Override
+			public void closed()
+			{
+			    if(m_channel != channel)
+				return;
+
+			    setError("A socket read() error occurred.");
+			    disconnect();
+			}
+
+			@Override
+			public void handshakeCompleted()
+			{
+			    TcpTlsNeighbor.this.handshakeCompleted();
+			}
+
+			@Override
+			public void readable(ByteBuffer buffer)
+			{
+			    appendBytes(buffer);
+			}
+		    });
+		m_startTime.set(System.nanoTime());
+		setError("");
+		m_secureChannel.start();
 	    }
 	    else
 	    {
@@ -239,32 +414,22 @@ public class TcpTlsNeighbor extends Neighbor
 		socket.connect(inetSocketAddress, CONNECTION_TIMEOUT);
 		m_socket = (SSLSocket) sslContext.getSocketFactory().
 		    createSocket(socket, m_proxyIpAddress, m_proxyPort, true);
-	    }
-
-	    m_socket.addHandshakeCompletedListener
-		(new HandshakeCompletedListener()
-		{
-		    @Override
-		    public void handshakeCompleted
-			(HandshakeCompletedEvent event)
+		m_socket.addHandshakeCompletedListener
+		    (new HandshakeCompletedListener()
 		    {
-			m_handshakeCompleted.set(true);
-			scheduleSend(getCapabilities());
-			scheduleSend(getIdentities());
-			Kernel.getInstance().retrieveChatMessages
-			    (m_cryptography.sipHashId());
-
-			synchronized(m_mutex)
+			@Override
+			public void handshakeCompleted
+			    (HandshakeCompletedEvent event)
 			{
-			    m_mutex.notifyAll();
+			    TcpTlsNeighbor.this.handshakeCompleted();
 			}
-		    }
-		});
-	    m_socket.setEnabledProtocols(m_protocols);
-	    m_socket.setSoTimeout(HANDSHAKE_TIMEOUT); // SSL/TLS process.
-	    m_socket.setTcpNoDelay(true);
-	    m_startTime.set(System.nanoTime());
-	    setError("");
+		    });
+		m_socket.setEnabledProtocols(m_protocols);
+		m_socket.setSoTimeout(HANDSHAKE_TIMEOUT); // SSL/TLS process.
+		m_socket.setTcpNoDelay(true);
+		m_startTime.set(System.nanoTime());
+		setError("");
+	    }
 
 	    synchronized(m_mutex)
 	    {
@@ -285,10 +450,25 @@ public class TcpTlsNeighbor extends Neighbor
     {
 	super.disconnect();
 
+	SSLSocket socket = m_socket;
+	SecureChannel secureChannel = m_secureChannel;
+	SocketChannel channel = m_channel;
+
 	try
 	{
-	    if(m_socket != null)
-		m_socket.close();
+	    if(secureChannel != null)
+		secureChannel.close();
+	    else if(channel != null)
+		channel.close();
+	}
+	catch(Exception exception)
+	{
+	}
+
+	try
+	{
+	    if(socket != null)
+		socket.close();
 	}
 	catch(Exception exception)
 	{
@@ -299,7 +479,9 @@ public class TcpTlsNeighbor extends Neighbor
 	    m_bytesWritten.set(0L);
 	    m_handshakeCompleted.set(false);
 	    m_isValidCertificate.set(false);
+	    m_channel = null;
 	    m_lastParsed.set(0L);
+	    m_secureChannel = null;
 	    m_socket = null;
 	    m_startTime.set(System.nanoTime());
 	}
@@ -352,9 +534,20 @@ public class TcpTlsNeighbor extends Neighbor
 		m_proxyInetSocketAddress = null;
 	    }
 
+	prepareTrustManagers();
+
+	if(m_proxyInetSocketAddress == null)
+	    /*
+	    ** NeighborEngine reads from direct connections. Proxied
+	    ** sockets are blocking.
+	    */
+
+	    return;
+
 	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
 	{
 	    private boolean m_error = false;
+	    private final byte m_bytes[] = new byte[BYTES_PER_READ];
 
 	    @Override
 	    public void run()
@@ -392,12 +585,11 @@ public class TcpTlsNeighbor extends Neighbor
 
 			m_socket.setSoTimeout(SO_TIMEOUT);
 
-		    byte bytes[] = new byte[BYTES_PER_READ];
 		    int i = 0;
 
 		    try
 		    {
-			i = m_socket.getInputStream().read(bytes);
+			i = m_socket.getInputStream().read(m_bytes);
 		    }
 		    catch(java.net.SocketTimeoutException exception)
 		    {
@@ -422,15 +614,8 @@ public class TcpTlsNeighbor extends Neighbor
 
 		    m_bytesRead.getAndAdd(bytesRead);
 		    m_lastTimeRead.set(System.nanoTime());
-
-		    if(m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(bytes, 0, (int) bytesRead));
-
-		    synchronized(m_parsingSchedulerMutex)
-		    {
-			m_parsingSchedulerMutex.notify();
-		    }
+		    m_framer.append(m_bytes, 0, (int) bytesRead);
+		    wakeParsingScheduler();
 		}
 		catch(java.net.SocketException exception)
 		{
@@ -443,84 +628,5 @@ public class TcpTlsNeighbor extends Neighbor
 		}
 	    }
 	}, 0, READ_SOCKET_INTERVAL, TimeUnit.MILLISECONDS);
-	m_trustManagers = new TrustManager[]
-	{
-	    new X509TrustManager()
-	    {
-		public X509Certificate[] getAcceptedIssuers()
-		{
-		    return new X509Certificate[0];
-		}
-
-		public void checkClientTrusted
-		    (X509Certificate chain[], String authType)
-		{
-		}
-
-		public void checkServerTrusted
-		    (X509Certificate chain[], String authType)
-		{
-		    if(authType == null || authType.length() == 0)
-			m_isValidCertificate.set(false);
-		    else if(chain == null || chain.length == 0)
-			m_isValidCertificate.set(false);
-		    else
-		    {
-			try
-			{
-			    chain[0].checkValidity();
-
-			    byte bytes[] = m_databaseHelper.
-				neighborRemoteCertificate
-				(m_cryptography, m_oid.get());
-
-			    if(bytes == null || bytes.length == 0)
-			    {
-				m_databaseHelper.neighborRecordCertificate
-				    (m_cryptography,
-				     String.valueOf(m_oid.get()),
-				     chain[0].getEncoded());
-				m_isValidCertificate.set(true);
-			    }
-			    else if(!Cryptography.memcmp(bytes,
-							 chain[0].getEncoded()))
-			    {
-				m_databaseHelper.neighborControlStatus
-				    (m_cryptography,
-				     "disconnect",
-				     String.valueOf(m_oid.get()));
-				m_isValidCertificate.set(false);
-				setError("The stored server's " +
-					 "certificate does not match the " +
-					 "certificate that was provided by " +
-					 "the server.");
-			    }
-			    else
-				m_isValidCertificate.set(true);
-			}
-			catch(Exception exception)
-			{
-
-			    m_databaseHelper.neighborControlStatus
-				(m_cryptography,
-				 "disconnect",
-				 String.valueOf(m_oid.get()));
-			    m_isValidCertificate.set(false);
-			    setError("A certificate error (" +
-				     exception.getMessage() +
-				     ") occurred.");
-			}
-		    }
-
-		    if(!m_isValidCertificate.get())
-			synchronized(m_errorMutex)
-			{
-			    if(m_error.length() == 0)
-				m_error.append
-				    ("A generic certificate error occurred.");
-			}
-		}
-	    }
-	};
     }
 }
@@ -0,0 +1,397 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Tracer
+{
+    /*
+    ** Stage timers and message counters of the inbound pipeline.
+    ** Samples are recorded into histograms whose buckets are powers of
+    ** two which are divided into eight linear sub-buckets, similar to
+    ** HdrHistogram. Recording a sample is a handful of atomic
+    ** increments and traces are recycled per thread. Participant
+    ** statistics identify contacts and are therefore not exported.
+    */
+
+    private static class Histogram
+    {
+	private final AtomicLong m_count = new AtomicLong(0L);
+	private final AtomicLong m_sum = new AtomicLong(0L);
+	private final AtomicLongArray m_buckets =
+	    new AtomicLongArray(BUCKETS);
+
+	private void clear()
+	{
+	    for(int i = 0; i < BUCKETS; i++)
+		m_buckets.set(i, 0L);
+
+	    m_count.set(0L);
+	    m_sum.set(0L);
+	}
+
+	private long mean()
+	{
+	    long count = m_count.get();
+
+	    return count > 0L ? m_sum.get() / count : 0L;
+	}
+
+	private long percentile(double percentile)
+	{
+	    /*
+	    ** Returns the upper bound of the bucket which contains the
+	    ** percentile.
+	    */
+
+	    long count = m_count.get();
+
+	    if(count <= 0L)
+		return 0L;
+
+	    long rank = (long) Math.ceil(percentile / 100.0 * count);
+	    long total = 0L;
+
+	    for(int i = 0; i < BUCKETS; i++)
+	    {
+		total += m_buckets.get(i);
+
+		if(total >= rank)
+		    return upperBound(i);
+	    }
+
+	    return upperBound(BUCKETS - 1);
+	}
+
+	private void record(long value)
+	{
+	    if(value < 0L)
+		value = 0L;
+
+	    m_buckets.getAndIncrement(index(value));
+	    m_count.getAndIncrement();
+	    m_sum.getAndAdd(value);
+	}
+    }
+
+    public static class Trace
+    {
+	private String m_participant = null;
+	private int m_stage = -1;
+	private int m_type = TYPE_FOREIGN;
+	private long m_stageStart = 0L;
+	private long m_start = 0L;
+
+	private Trace()
+	{
+	}
+
+	public void end()
+	{
+	    enter(-1);
+
+	    long elapsed = m_stageStart - m_start;
+
+	    s_types[m_type].record(elapsed);
+
+	    if(m_participant != null)
+	    {
+		AtomicLongArray array = s_participants.get(m_participant);
+
+		if(array == null &&
+		   s_participants.size() < MAXIMUM_PARTICIPANTS)
+		{
+		    array = new AtomicLongArray(2);
+
+		    AtomicLongArray a = s_participants.putIfAbsent
+			(m_participant, array);
+
+		    if(a != null)
+			array = a;
+		}
+
+		if(array != null)
+		{
+		    array.getAndIncrement(0);
+		    array.getAndAdd(1, elapsed);
+		}
+	    }
+
+	    m_participant = null;
+	}
+
+	public void enter(int stage)
+	{
+	    /*
+	    ** Closes the current stage and opens the next one.
+	    */
+
+	    long now = System.nanoTime();
+
+	    if(m_stage >= 0)
+		s_stages[m_stage].record(now - m_stageStart);
+
+	    m_stage = stage;
+	    m_stageStart = now;
+	}
+
+	public void participant(String sipHashId)
+	{
+	    m_participant = sipHashId;
+	}
+
+	public void type(int type)
+	{
+	    m_type = type;
+	}
+    }
+
+    private final static Histogram s_stages[];
+    private final static Histogram s_types[];
+    private final static ConcurrentHashMap<String, AtomicLongArray>
+	s_participants = new ConcurrentHashMap<> ();
+    private final static String STAGE_NAMES[] = new String[]
+	{"Congestion",
+	 "Fire",
+	 "Ozone",
+	 "Destination",
+	 "PKI",
+	 "Key Stream",
+	 "Payload",
+	 "Signature",
+	 "Database",
+	 "Broadcast"};
+    private final static String TYPE_NAMES[] = new String[]
+	{"Foreign",
+	 "Call",
+	 "Chat",
+	 "Chat Status",
+	 "Duplicate",
+	 "EPKS",
+	 "Fire",
+	 "Juggernaut",
+	 "Message Read",
+	 "Ozone",
+	 "Steam",
+	 "Steam Key Exchange"};
+    private final static ThreadLocal<Trace> s_traces =
+	new ThreadLocal<Trace> ()
+	{
+	    @Override
+	    protected Trace initialValue()
+	    {
+		return new Trace();
+	    }
+	};
+    private final static int BUCKETS = 272; // Up to approximately 68 s.
+    private final static int MAXIMUM_PARTICIPANTS = 256;
+    private final static int SUB_BUCKET_BITS = 3;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public final static int STAGE_BROADCAST = 9;
+    public final static int STAGE_CONGESTION = 0;
+    public final static int STAGE_DATABASE = 8;
+    public final static int STAGE_DESTINATION = 3;
+    public final static int STAGE_FIRE = 1;
+    public final static int STAGE_KEY_STREAM = 5;
+    public final static int STAGE_OZONE = 2;
+    public final static int STAGE_PAYLOAD = 6;
+    public final static int STAGE_PKI = 4;
+    public final static int STAGE_SIGNATURE = 7;
+    public final static int STAGES = 10;
+    public final static int TYPE_CALL = 1;
+    public final static int TYPE_CHAT = 2;
+    public final static int TYPE_CHAT_STATUS = 3;
+    public final static int TYPE_DUPLICATE = 4;
+    public final static int TYPE_EPKS = 5;
+    public final static int TYPE_FIRE = 6;
+    public final static int TYPE_FOREIGN = 0;
+    public final static int TYPE_JUGGERNAUT = 7;
+    public final static int TYPE_MESSAGE_READ = 8;
+    public final static int TYPE_OZONE = 9;
+    public final static int TYPE_STEAM = 10;
+    public final static int TYPE_STEAM_KEY_EXCHANGE = 11;
+    public final static int TYPES = 12;
+
+    static
+    {
+	s_stages = new Histogram[STAGES];
+	s_types = new Histogram[TYPES];
+
+	for(int i = 0; i < STAGES; i++)
+	    s_stages[i] = new Histogram();
+
+	for(int i = 0; i < TYPES; i++)
+	    s_types[i] = new Histogram();
+    }
+
+    private static int index(long value)
+    {
+	if(value < SUB_BUCKETS)
+	    return (int) value;
+
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	int index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS +
+	    (int) ((value >>> (exponent - SUB_BUCKET_BITS)) &
+		   (SUB_BUCKETS - 1));
+
+	return Math.min(BUCKETS - 1, index);
+    }
+
+    private static long upperBound(int index)
+    {
+	if(index < SUB_BUCKETS)
+	    return index;
+
+	int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+	long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) <<
+	    (exponent - SUB_BUCKET_BITS);
+
+	return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+    }
+
+    private static void append(StringBuilder stringBuilder,
+			       String name,
+			       Histogram histogram)
+    {
+	stringBuilder.append(name);
+	stringBuilder.append(": ");
+	stringBuilder.append(histogram.m_count.get());
+	stringBuilder.append(", mean ");
+	stringBuilder.append(histogram.mean() / 1000L);
+	stringBuilder.append(" us, p50 ");
+	stringBuilder.append(histogram.percentile(50.0) / 1000L);
+	stringBuilder.append(" us, p99 ");
+	stringBuilder.append(histogram.percentile(99.0) / 1000L);
+	stringBuilder.append(" us, p99.9 ");
+	stringBuilder.append(histogram.percentile(99.9) / 1000L);
+	stringBuilder.append(" us\n");
+    }
+
+    public static String report(boolean participants)
+    {
+	StringBuilder stringBuilder = new StringBuilder();
+
+	stringBuilder.append("Stages\n");
+
+	for(int i = 0; i < STAGES; i++)
+	    append(stringBuilder, STAGE_NAMES[i], s_stages[i]);
+
+	stringBuilder.append("\nMessage Types\n");
+
+	for(int i = 0; i < TYPES; i++)
+	    append(stringBuilder, TYPE_NAMES[i], s_types[i]);
+
+	if(!participants)
+	    return stringBuilder.toString();
+
+	stringBuilder.append("\nParticipants\n");
+
+	for(Map.Entry<String, AtomicLongArray> entry :
+		new TreeMap<> (s_participants).entrySet())
+	{
+	    long count = entry.getValue().get(0);
+
+	    stringBuilder.append(entry.getKey());
+	    stringBuilder.append(": ");
+	    stringBuilder.append(count);
+	    stringBuilder.append(", mean ");
+	    stringBuilder.append
+		(count > 0L ? entry.getValue().get(1) / count / 1000L : 0L);
+	    stringBuilder.append(" us\n");
+	}
+
+	return stringBuilder.toString();
+    }
+
+    public static Trace begin(int stage)
+    {
+	Trace trace = s_traces.get();
+
+	trace.m_participant = null;
+	trace.m_stage = -1;
+	trace.m_type = TYPE_FOREIGN;
+	trace.enter(stage);
+	trace.m_start = trace.m_stageStart;
+	return trace;
+    }
+
+    public static boolean export(File file)
+    {
+	if(file == null)
+	    return false;
+
+	FileOutputStream fileOutputStream = null;
+
+	try
+	{
+	    fileOutputStream = new FileOutputStream(file);
+	    fileOutputStream.write
+		(report(false).getBytes(StandardCharsets.UTF_8));
+	    return true;
+	}
+	catch(Exception exception)
+	{
+	    return false;
+	}
+	finally
+	{
+	    try
+	    {
+		if(fileOutputStream != null)
+		    fileOutputStream.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	}
+    }
+
+    public static void clear()
+    {
+	for(int i = 0; i < STAGES; i++)
+	    s_stages[i].clear();
+
+	for(int i = 0; i < TYPES; i++)
+	    s_types[i].clear();
+
+	s_participants.clear();
+    }
+
+    public static void clearParticipants()
+    {
+	s_participants.clear();
+    }
+}
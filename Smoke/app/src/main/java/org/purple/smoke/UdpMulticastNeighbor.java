@@ -28,7 +28,6 @@
 package org.purple.smoke;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
@@ -224,12 +223,11 @@ public class UdpMulticastNeighbor extends Neighbor
 	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
 	{
 	    private boolean m_error = false;
+	    private final byte m_bytes[] = new byte[BYTES_PER_READ];
 
 	    @Override
 	    public void run()
 	    {
-		ByteArrayOutputStream byteArrayOutputStream = null;
-
 		try
 		{
 		    if(!connected() && !m_aborted.get())
@@ -256,10 +254,8 @@ public class UdpMulticastNeighbor extends Neighbor
 		    else if(m_socket == null)
 			return;
 
-		    DatagramPacket datagramPacket = null;
-		    byte bytes[] = new byte[BYTES_PER_READ];
-
-		    datagramPacket = new DatagramPacket(bytes, bytes.length);
+		    DatagramPacket datagramPacket = new DatagramPacket
+			(m_bytes, m_bytes.length);
 
 		    try
 		    {
@@ -273,15 +269,6 @@ public class UdpMulticastNeighbor extends Neighbor
 			return;
 		    }
 
-		    if(datagramPacket.getLength() > 0)
-		    {
-			byteArrayOutputStream = new ByteArrayOutputStream();
-			byteArrayOutputStream.write
-			    (datagramPacket.getData(),
-			     0,
-			     datagramPacket.getLength());
-		    }
-
 		    int bytesRead = datagramPacket.getLength();
 
 		    if(bytesRead < 0)
@@ -296,31 +283,15 @@ public class UdpMulticastNeighbor extends Neighbor
 
 		    m_bytesRead.getAndAdd(bytesRead);
 		    m_lastTimeRead.set(System.nanoTime());
-
-		    if(byteArrayOutputStream != null &&
-		       m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(byteArrayOutputStream.toByteArray()));
-
-		    synchronized(m_parsingSchedulerMutex)
-		    {
-			m_parsingSchedulerMutex.notify();
-		    }
+		    m_framer.append
+			(datagramPacket.getData(),
+			 datagramPacket.getOffset(),
+			 bytesRead);
+		    wakeParsingScheduler();
 		}
 		catch(Exception exception)
 		{
 		}
-		finally
-		{
-		    try
-		    {
-			if(byteArrayOutputStream != null)
-			    byteArrayOutputStream.close();
-		    }
-		    catch(Exception exception)
-		    {
-		    }
-		}
 	    }
 	}, 0L, READ_SOCKET_INTERVAL, TimeUnit.MILLISECONDS);
     }
@@ -27,16 +27,46 @@
 
 package org.purple.smoke;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.net.DatagramPacket;
+import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.TimeUnit;
 
 public class UdpNeighbor extends Neighbor
 {
     private DatagramSocket m_socket = null;
+    private NeighborEngine.Registration m_registration = null;
+    private final static int DATAGRAM_SIZE = 576;
+
+    private NeighborEngine.Handler handler(final DatagramChannel channel)
+    {
+	return new NeighborEngine.Handler()
+	{
+	    @Override
+	    public void closed()
+	    {
+		if(m_socket == null || m_socket.getChannel() != channel)
+		    return;
+
+		setError("A socket receive() error occurred.");
+		disconnect();
+	    }
+
+	    @Override
+	    public void readable(ByteBuffer buffer)
+	    {
+		appendBytes(buffer);
+	    }
+
+	    @Override
+	    public void writable()
+	    {
+	    }
+	};
+    }
 
     protected String getLocalIp()
     {
@@ -100,27 +130,28 @@ public class UdpNeighbor extends Neighbor
 
 	try
 	{
-	    if(m_socket == null)
+	    NeighborEngine.Registration registration = m_registration;
+
+	    if(registration == null)
 		return sent;
 
-	    ByteArrayInputStream byteArrayInputStream = new
-		ByteArrayInputStream(bytes);
+	    ByteBuffer buffer = ByteBuffer.wrap(bytes);
 
-	    while(byteArrayInputStream.available() > 0)
+	    while(buffer.hasRemaining())
 	    {
 		if(m_aborted.get())
 		    break;
 
-		byte b[] = new byte
-		    [Math.min(576, byteArrayInputStream.available())];
+		int length = Math.min(DATAGRAM_SIZE, buffer.remaining());
+
+		buffer.limit(buffer.position() + length);
+		registration.write(buffer, WRITE_TIMEOUT);
+
+		if(buffer.hasRemaining())
+		    throw new IOException("DatagramChannel write() timeout.");
 
-		byteArrayInputStream.read(b);
-		m_socket.send
-		    (new DatagramPacket(b,
-					b.length,
-					InetAddress.getByName(m_ipAddress),
-					Integer.parseInt(m_ipPort)));
-		sent += b.length;
+		buffer.limit(bytes.length);
+		sent += length;
 	    }
 
 	    Kernel.writeCongestionDigest(bytes);
@@ -179,10 +210,18 @@ public class UdpNeighbor extends Neighbor
 	    m_bytesWritten.set(0L);
 	    m_lastParsed.set(System.currentTimeMillis());
 	    m_lastTimeRead.set(System.nanoTime());
-	    m_socket = new DatagramSocket();
-	    m_socket.connect(InetAddress.getByName(m_ipAddress),
-			     Integer.parseInt(m_ipPort));
-	    m_socket.setSoTimeout(SO_TIMEOUT);
+	    /*
+	    ** The channel is serviced by NeighborEngine.
+	    */
+
+	    DatagramChannel channel = DatagramChannel.open();
+
+	    channel.connect
+		(new InetSocketAddress(InetAddress.getByName(m_ipAddress),
+				       Integer.parseInt(m_ipPort)));
+	    m_socket = channel.socket();
+	    m_registration = NeighborEngine.getInstance().register
+		(channel, handler(channel));
 	    m_startTime.set(System.nanoTime());
 	    setError("");
 
@@ -202,6 +241,9 @@ public class UdpNeighbor extends Neighbor
     {
 	super.disconnect();
 
+	if(m_registration != null)
+	    m_registration.cancel();
+
 	try
 	{
 	    if(m_socket != null)
@@ -215,6 +257,7 @@ public class UdpNeighbor extends Neighbor
 	    m_bytesRead.set(0L);
 	    m_bytesWritten.set(0L);
 	    m_lastTimeRead.set(0L);
+	    m_registration = null;
 	    m_socket = null;
 	    m_startTime.set(System.nanoTime());
 	}
@@ -228,107 +271,5 @@ public class UdpNeighbor extends Neighbor
 		       int oid)
     {
 	super(passthrough, ipAddress, ipPort, scopeId, "UDP", version, oid);
-	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
-	{
-	    private boolean m_error = false;
-
-	    @Override
-	    public void run()
-	    {
-		ByteArrayOutputStream byteArrayOutputStream = null;
-
-		try
-		{
-		    if(!connected() && !m_aborted.get())
-			synchronized(m_mutex)
-			{
-			    try
-			    {
-				m_mutex.wait(WAIT_TIMEOUT);
-			    }
-			    catch(Exception exception)
-			    {
-			    }
-			}
-
-		    if(!connected())
-			return;
-		    else if(m_error)
-		    {
-			if(connected())
-			    m_error = false;
-			else
-			    return;
-		    }
-		    else if(m_socket == null)
-			return;
-
-		    DatagramPacket datagramPacket = null;
-		    byte bytes[] = new byte[BYTES_PER_READ];
-
-		    datagramPacket = new DatagramPacket(bytes, bytes.length);
-
-		    try
-		    {
-			m_socket.receive(datagramPacket);
-		    }
-		    catch(Exception exception)
-		    {
-			m_error = true;
-			setError("A socket receive() error occurred.");
-			disconnect();
-			return;
-		    }
-
-		    if(datagramPacket.getLength() > 0)
-		    {
-			byteArrayOutputStream = new ByteArrayOutputStream();
-			byteArrayOutputStream.write
-			    (datagramPacket.getData(),
-			     0,
-			     datagramPacket.getLength());
-		    }
-
-		    int bytesRead = datagramPacket.getLength();
-
-		    if(bytesRead < 0)
-		    {
-			m_error = true;
-			setError("A socket receive() error occurred.");
-			disconnect();
-			return;
-		    }
-		    else if(bytesRead == 0)
-			return;
-
-		    m_bytesRead.getAndAdd(bytesRead);
-		    m_lastTimeRead.set(System.nanoTime());
-
-		    if(byteArrayOutputStream != null &&
-		       m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(byteArrayOutputStream.toByteArray()));
-
-		    synchronized(m_parsingSchedulerMutex)
-		    {
-			m_parsingSchedulerMutex.notify();
-		    }
-		}
-		catch(Exception exception)
-		{
-		}
-		finally
-		{
-		    try
-		    {
-			if(byteArrayOutputStream != null)
-			    byteArrayOutputStream.close();
-		    }
-		    catch(Exception exception)
-		    {
-		    }
-		}
-	    }
-	}, 0L, READ_SOCKET_INTERVAL, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,96 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CryptographyBenchmark
+{
+    /*
+    ** The instance methods require the keys of an authenticated
+    ** participant.
+    */
+
+    private Cryptography m_cryptography = null;
+    private byte m_bytes[] = null;
+    private byte m_encryptionKey[] = null;
+    private byte m_etm[] = null;
+    private byte m_macKey[] = null;
+
+    @Param({"64", "1024", "16384"})
+    public int m_size;
+
+    @Setup
+    public void setup()
+    {
+	if(!Participant.prepare(Cryptography.PUBLIC_KEY_TYPES[4]))
+	    throw new IllegalStateException("Participant.prepare() failure.");
+
+	m_bytes = Payloads.bytes(m_size);
+	m_cryptography = Cryptography.getInstance();
+	m_encryptionKey = Cryptography.randomBytes
+	    (Cryptography.CIPHER_KEY_LENGTH);
+	m_etm = m_cryptography.etm(m_bytes);
+	m_macKey = Cryptography.randomBytes(Cryptography.HASH_KEY_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] encrypt()
+    {
+	return Cryptography.encrypt(m_bytes, m_encryptionKey);
+    }
+
+    @Benchmark
+    public byte[] etm()
+    {
+	return m_cryptography.etm(m_bytes);
+    }
+
+    @Benchmark
+    public byte[] hmac()
+    {
+	return Cryptography.hmac(m_bytes, m_macKey);
+    }
+
+    @Benchmark
+    public byte[] mtd()
+    {
+	return m_cryptography.mtd(m_etm);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class IndexBenchmark
+{
+    /*
+    ** Lookups of the columns which are indexed by the migrations
+    ** of Database, without and with the indexes. The tables are
+    ** populated in an in-memory SQLite database.
+    */
+
+    private Connection m_connection = null;
+    private PreparedStatement m_outboundDeliveries = null;
+    private PreparedStatement m_participants = null;
+    private PreparedStatement m_participantsMessages = null;
+    private int m_i = 0;
+    private final static String INDEXES[] = new String[]
+	{"CREATE INDEX IF NOT EXISTS outbound_deliveries_neighbor_oid_index " +
+	 "ON outbound_deliveries (neighbor_oid)",
+	 "CREATE INDEX IF NOT EXISTS participants_encryption_index " +
+	 "ON participants (encryption_public_key_digest)",
+	 "CREATE INDEX IF NOT EXISTS participants_messages_siphash_id_index " +
+	 "ON participants_messages (siphash_id_digest, timestamp)"};
+    private final static int NEIGHBORS = 8;
+    private final static int PARTICIPANTS = 100;
+
+    @Param({"false", "true"})
+    public boolean m_indexed;
+
+    @Param({"10000", "100000"})
+    public int m_rows;
+
+    private static String digest(int i)
+    {
+	/*
+	** The length of a Base64-encoded SHA-512 digest.
+	*/
+
+	return String.format("%088d", i);
+    }
+
+    private static boolean query(PreparedStatement statement)
+	throws Exception
+    {
+	try(ResultSet resultSet = statement.executeQuery())
+	{
+	    return resultSet.next();
+	}
+    }
+
+    @Benchmark
+    public boolean outboundDeliveriesByNeighbor() throws Exception
+    {
+	m_outboundDeliveries.setLong(1, m_i++ % NEIGHBORS);
+	return query(m_outboundDeliveries);
+    }
+
+    @Benchmark
+    public boolean participantsByKeyDigest() throws Exception
+    {
+	m_participants.setString(1, digest((m_i++ * 7919) % m_rows));
+	return query(m_participants);
+    }
+
+    @Benchmark
+    public boolean participantsMessagesBySipHashId() throws Exception
+    {
+	m_participantsMessages.setString(1, digest(m_i++ % PARTICIPANTS));
+	return query(m_participantsMessages);
+    }
+
+    @Setup
+    public void setup() throws Exception
+    {
+	m_connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+	try(Statement statement = m_connection.createStatement())
+	{
+	    statement.execute("CREATE TABLE outbound_deliveries (" +
+			      "message_oid INTEGER NOT NULL, " +
+			      "neighbor_oid INTEGER NOT NULL)");
+	    statement.execute("CREATE TABLE participants (" +
+			      "encryption_public_key_digest TEXT NOT NULL, " +
+			      "siphash_id_digest TEXT NOT NULL)");
+	    statement.execute("CREATE TABLE participants_messages (" +
+			      "message TEXT NOT NULL, " +
+			      "siphash_id_digest TEXT NOT NULL, " +
+			      "timestamp INTEGER NOT NULL)");
+	}
+
+	m_connection.setAutoCommit(false);
+
+	try(PreparedStatement deliveries = m_connection.prepareStatement
+	    ("INSERT INTO outbound_deliveries VALUES (?, ?)");
+	    PreparedStatement messages = m_connection.prepareStatement
+	    ("INSERT INTO participants_messages VALUES (?, ?, ?)");
+	    PreparedStatement participants = m_connection.prepareStatement
+	    ("INSERT INTO participants VALUES (?, ?)"))
+	{
+	    for(int i = 0; i < m_rows; i++)
+	    {
+		deliveries.setLong(1, i);
+		deliveries.setLong(2, i % NEIGHBORS);
+		deliveries.executeUpdate();
+		messages.setString(1, digest(i));
+		messages.setString(2, digest(i % PARTICIPANTS));
+		messages.setLong(3, i);
+		messages.executeUpdate();
+		participants.setString(1, digest(i));
+		participants.setString(2, digest(i));
+		participants.executeUpdate();
+	    }
+	}
+
+	m_connection.commit();
+	m_connection.setAutoCommit(true);
+
+	if(m_indexed)
+	    try(Statement statement = m_connection.createStatement())
+	    {
+		for(String string : INDEXES)
+		    statement.execute(string);
+
+		statement.execute("ANALYZE");
+	    }
+
+	m_outboundDeliveries = m_connection.prepareStatement
+	    ("SELECT COUNT(*) FROM outbound_deliveries WHERE neighbor_oid = ?");
+	m_participants = m_connection.prepareStatement
+	    ("SELECT COUNT(*) FROM participants " +
+	     "WHERE encryption_public_key_digest = ?");
+	m_participantsMessages = m_connection.prepareStatement
+	    ("SELECT message FROM participants_messages " +
+	     "WHERE siphash_id_digest = ? ORDER BY timestamp DESC LIMIT 1");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+	if(m_connection != null)
+	    m_connection.close();
+    }
+}
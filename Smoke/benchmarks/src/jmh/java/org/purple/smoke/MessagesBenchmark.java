@@ -0,0 +1,122 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class MessagesBenchmark
+{
+    /*
+    ** The participant addresses itself so that a single set of keys
+    ** is required.
+    */
+
+    private Cryptography m_cryptography = null;
+    private String m_sipHashId = "";
+    private byte m_fileIdentity[] = null;
+    private byte m_fireKeyStream[] = null;
+    private byte m_keyStream[] = null;
+    private byte m_messageIdentity[] = null;
+    private byte m_packet[] = null;
+
+    @Param({"RSA"})
+    public String m_algorithm;
+
+    @Setup
+    public void setup()
+    {
+	if(!Participant.prepare(m_algorithm))
+	    throw new IllegalStateException("Participant.prepare() failure.");
+
+	m_cryptography = Cryptography.getInstance();
+	m_fileIdentity = Cryptography.randomBytes
+	    (Cryptography.STEAM_FILE_IDENTITY_LENGTH);
+	m_fireKeyStream = ByteUtilities.joinByteArrays
+	    (m_cryptography.generateFireEncryptionKey("Benchmarks", "Salt"),
+	     m_cryptography.generateFireDigestKeyStream("Digest"));
+	m_keyStream = Cryptography.randomBytes
+	    (Cryptography.CIPHER_HASH_KEYS_LENGTH);
+	m_messageIdentity = Cryptography.randomBytes
+	    (Cryptography.HASH_KEY_LENGTH);
+	m_packet = Payloads.bytes(16384);
+	m_sipHashId = m_cryptography.sipHashId();
+	Database.getInstance().writeParticipant
+	    (m_algorithm,
+	     Participant.OPTIONS,
+	     m_sipHashId,
+	     m_cryptography.chatEncryptionPublicKey());
+    }
+
+    @Benchmark
+    public byte[] chatMessage()
+    {
+	return Messages.chatMessage(m_cryptography,
+				    "The quick brown fox.",
+				    m_sipHashId,
+				    null,
+				    null,
+				    m_keyStream,
+				    m_messageIdentity,
+				    1L,
+				    System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public byte[] fireMessage()
+    {
+	return Messages.fireMessage(m_cryptography,
+				    "Benchmarks",
+				    "The quick brown fox.",
+				    "Smoke",
+				    m_fireKeyStream);
+    }
+
+    @Benchmark
+    public byte[] steamShare()
+    {
+	return Messages.steamShare(m_cryptography,
+				   m_sipHashId,
+				   m_fileIdentity,
+				   m_keyStream,
+				   m_packet,
+				   Messages.STEAM_SHARE[0],
+				   0L);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PkiBenchmark
+{
+    private KeyPair m_keyPair = null;
+    private byte m_bytes[] = null;
+    private byte m_encrypted[] = null;
+
+    @Param({"McEliece-Fujisaki (11, 50)",
+	    "McEliece-Fujisaki (12, 68)",
+	    "McEliece-Fujisaki (13, 118)",
+	    "McEliece-Pointcheval (11, 50)",
+	    "RSA"})
+    public String m_algorithm;
+
+    @Setup
+    public void setup()
+    {
+	Platform.prepare();
+	m_keyPair = Cryptography.generatePrivatePublicKeyPair
+	    (m_algorithm,
+	     Cryptography.PKI_ENCRYPTION_KEY_SIZES[0],
+	     m_algorithm.contains("12, 68") ? 1 :
+	     m_algorithm.contains("13, 118") ? 2 : 0);
+
+	if(m_keyPair == null)
+	    throw new IllegalStateException
+		("generatePrivatePublicKeyPair() failure.");
+
+	m_bytes = Payloads.bytes(Cryptography.CIPHER_HASH_KEYS_LENGTH);
+	m_encrypted = Cryptography.pkiEncrypt
+	    (m_keyPair.getPublic(), m_algorithm, m_bytes);
+    }
+
+    @Benchmark
+    public byte[] pkiDecrypt()
+    {
+	return Cryptography.pkiDecrypt(m_keyPair.getPrivate(), m_encrypted);
+    }
+
+    @Benchmark
+    public byte[] pkiEncrypt()
+    {
+	return Cryptography.pkiEncrypt
+	    (m_keyPair.getPublic(), m_algorithm, m_bytes);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+public class Base64
+{
+    /*
+    ** A stand-in for android.util.Base64 so that Cryptography and
+    ** Messages may be executed by a Java virtual machine. Only the
+    ** flags which are used by Smoke are honored. Decoding ignores
+    ** line terminators, as Android's decoder does.
+    */
+
+    public final static int CRLF = 4;
+    public final static int DEFAULT = 0;
+    public final static int NO_CLOSE = 16;
+    public final static int NO_PADDING = 1;
+    public final static int NO_WRAP = 2;
+    public final static int URL_SAFE = 8;
+    private final static int LINE_LENGTH = 76;
+
+    private Base64()
+    {
+    }
+
+    public static String encodeToString(byte input[], int flags)
+    {
+	return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] decode(String string, int flags)
+    {
+	return decode(string.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte input[], int flags)
+    {
+	/*
+	** An IllegalArgumentException is thrown if input is incorrect.
+	*/
+
+	byte bytes[] = input.clone();
+
+	if((flags & URL_SAFE) != 0)
+	    for(int i = 0; i < bytes.length; i++)
+		if(bytes[i] == '-')
+		    bytes[i] = '+';
+		else if(bytes[i] == '_')
+		    bytes[i] = '/';
+
+	return java.util.Base64.getMimeDecoder().decode(bytes);
+    }
+
+    public static byte[] encode(byte input[], int flags)
+    {
+	java.util.Base64.Encoder encoder = null;
+
+	if((flags & NO_WRAP) != 0)
+	    encoder = (flags & URL_SAFE) != 0 ?
+		java.util.Base64.getUrlEncoder() :
+		java.util.Base64.getEncoder();
+	else
+	    encoder = java.util.Base64.getMimeEncoder
+		(LINE_LENGTH,
+		 (flags & CRLF) != 0 ? new byte[] {'\r', '\n'} :
+		 new byte[] {'\n'});
+
+	if((flags & NO_PADDING) != 0)
+	    encoder = encoder.withoutPadding();
+
+	byte bytes[] = encoder.encode(input);
+
+	if((flags & NO_WRAP) != 0 || bytes.length == 0)
+	    return bytes;
+
+	/*
+	** Android terminates the final line.
+	*/
+
+	byte terminator[] = (flags & CRLF) != 0 ?
+	    new byte[] {'\r', '\n'} : new byte[] {'\n'};
+	byte output[] = new byte[bytes.length + terminator.length];
+
+	System.arraycopy(bytes, 0, output, 0, bytes.length);
+	System.arraycopy
+	    (terminator, 0, output, bytes.length, terminator.length);
+
+	if((flags & URL_SAFE) != 0)
+	    for(int i = 0; i < output.length; i++)
+		if(output[i] == '+')
+		    output[i] = '-';
+		else if(output[i] == '/')
+		    output[i] = '_';
+
+	return output;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.security.PublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Database
+{
+    /*
+    ** A stand-in for the participants of the application's database.
+    ** Only the queries which are issued by Cryptography and Messages
+    ** are provided. Participants are recorded in memory by the
+    ** benchmarks and nothing is persisted.
+    */
+
+    private static class Participant
+    {
+	public PublicKey m_publicKey = null;
+	public String m_algorithm = "";
+	public String m_options = "";
+    }
+
+    private final ConcurrentHashMap<String, Participant> m_participants =
+	new ConcurrentHashMap<> ();
+    private final static Database s_instance = new Database();
+
+    private Database()
+    {
+    }
+
+    public static Database getInstance()
+    {
+	return s_instance;
+    }
+
+    public PublicKey publicEncryptionKeyForSipHashId(Cryptography cryptography,
+						     String sipHashId)
+    {
+	Participant participant = m_participants.get(sipHashId);
+
+	return participant != null ? participant.m_publicKey : null;
+    }
+
+    public String publicKeyEncryptionAlgorithm(Cryptography cryptography,
+					       String sipHashId)
+    {
+	Participant participant = m_participants.get(sipHashId);
+
+	return participant != null ? participant.m_algorithm : "";
+    }
+
+    public String readParticipantOptions(Cryptography cryptography,
+					 String sipHashId)
+    {
+	Participant participant = m_participants.get(sipHashId);
+
+	return participant != null ? participant.m_options : "";
+    }
+
+    public void writeLog(String event)
+    {
+	System.err.println(event);
+    }
+
+    public void writeParticipant(String algorithm,
+				 String options,
+				 String sipHashId,
+				 PublicKey publicKey)
+    {
+	Participant participant = new Participant();
+
+	participant.m_algorithm = algorithm;
+	participant.m_options = options;
+	participant.m_publicKey = publicKey;
+	m_participants.put(sipHashId, participant);
+    }
+}
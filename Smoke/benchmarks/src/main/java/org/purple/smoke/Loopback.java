@@ -0,0 +1,314 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class Loopback
+{
+    /*
+    ** An end-to-end measurement of several participants. A Relay is
+    ** started within this process and every participant is a separate
+    ** LoopbackNode process having its own keys and database. The
+    ** nodes exchange chat, Fire, and Steam messages through the Relay.
+    ** Messages per second, bytes per second, latencies, allocations,
+    ** and losses are reported.
+    */
+
+    private static class Node
+    {
+	public Process m_process = null;
+	public Writer m_writer = null;
+	public final LinkedBlockingQueue<String> m_lines =
+	    new LinkedBlockingQueue<> ();
+
+	public String line(String prefix) throws Exception
+	{
+	    /*
+	    ** Discard lines which do not begin with prefix.
+	    */
+
+	    while(true)
+	    {
+		String line = m_lines.poll(LINE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+		if(line == null || line.equals(EOF))
+		    throw new IllegalStateException
+			("A node did not respond.");
+		else if(line.startsWith(prefix))
+		    return line;
+	    }
+	}
+
+	public void write(String string) throws Exception
+	{
+	    m_writer.write(string);
+	    m_writer.write("\n");
+	    m_writer.flush();
+	}
+    }
+
+    private final static String EOF = "\0";
+    private final static int DEFAULT_NODES = 4;
+    private final static int DEFAULT_ROUNDS = 100;
+    private final static long LINE_TIMEOUT = 300000L; // 5 minutes.
+
+    private static Node start(String java,
+			      int index,
+			      int port,
+			      int rounds) throws Exception
+    {
+	ProcessBuilder processBuilder = new ProcessBuilder
+	    (java,
+	     "-cp",
+	     System.getProperty("java.class.path"),
+	     LoopbackNode.class.getName(),
+	     String.valueOf(index),
+	     String.valueOf(port),
+	     String.valueOf(rounds));
+
+	processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+	final Node node = new Node();
+
+	node.m_process = processBuilder.start();
+	node.m_writer = new OutputStreamWriter
+	    (node.m_process.getOutputStream(), StandardCharsets.UTF_8);
+
+	Thread thread = new Thread(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try(BufferedReader reader = new BufferedReader
+		    (new InputStreamReader(node.m_process.getInputStream(),
+					   StandardCharsets.UTF_8)))
+		{
+		    String line = null;
+
+		    while((line = reader.readLine()) != null)
+			node.m_lines.offer(line);
+		}
+		catch(Exception exception)
+		{
+		}
+
+		node.m_lines.offer(EOF);
+	    }
+	}, "Loopback " + index);
+
+	thread.setDaemon(true);
+	thread.start();
+	return node;
+    }
+
+    private static long percentile(ArrayList<Long> list, int percentile)
+    {
+	if(list.isEmpty())
+	    return -1L;
+
+	int index = (int) Math.ceil(percentile / 100.0 * list.size()) - 1;
+
+	return list.get(Math.max(0, Math.min(index, list.size() - 1)));
+    }
+
+    private static void run(int count, int rounds) throws Exception
+    {
+	int port = 0;
+
+	try(ServerSocket serverSocket = new ServerSocket(0))
+	{
+	    port = serverSocket.getLocalPort();
+	}
+
+	new Relay().listen(port, 0);
+
+	ArrayList<Node> nodes = new ArrayList<> ();
+	String java = System.getProperty("java.home") +
+	    File.separator + "bin" + File.separator + "java";
+
+	try
+	{
+	    for(int i = 0; i < count; i++)
+		nodes.add(start(java, i, port, rounds));
+
+	    /*
+	    ** Distribute the public keys and the key streams.
+	    */
+
+	    ArrayList<String> announcements = new ArrayList<> ();
+
+	    for(Node node : nodes)
+		announcements.add(node.line("node\t"));
+
+	    for(Node node : nodes)
+	    {
+		for(String announcement : announcements)
+		    node.write(announcement);
+
+		node.write("connect");
+	    }
+
+	    for(Node node : nodes)
+		node.line("connected");
+
+	    long start = LoopbackNode.now();
+
+	    for(Node node : nodes)
+		node.write("start");
+
+	    report(nodes, count, rounds, start);
+	}
+	finally
+	{
+	    for(Node node : nodes)
+		node.m_process.destroy();
+	}
+    }
+
+    private static void report(ArrayList<Node> nodes,
+			       int count,
+			       int rounds,
+			       long start) throws Exception
+    {
+	int kinds = LoopbackNode.KINDS.length;
+	ArrayList<ArrayList<Long> > latencies = new ArrayList<> ();
+	long allocated = 0L;
+	long bytes[] = new long[kinds];
+	long expected[] = new long[kinds];
+	long finish = start;
+	long received[] = new long[kinds];
+
+	for(int i = 0; i < kinds; i++)
+	    latencies.add(new ArrayList<Long> ());
+
+	for(Node node : nodes)
+	{
+	    for(int i = 0; i < kinds; i++)
+	    {
+		/*
+		** result kind received expected bytes latencies
+		*/
+
+		String strings[] = node.line("result\t").split("\t", -1);
+
+		received[i] += Long.parseLong(strings[2]);
+		expected[i] += Long.parseLong(strings[3]);
+		bytes[i] += Long.parseLong(strings[4]);
+
+		if(!strings[5].isEmpty())
+		    for(String string : strings[5].split(","))
+			latencies.get(i).add(Long.parseLong(string));
+	    }
+
+	    /*
+	    ** done last-receipt allocated
+	    */
+
+	    String strings[] = node.line("done\t").split("\t");
+
+	    finish = Math.max(finish, Long.parseLong(strings[1]));
+
+	    if(allocated >= 0L && Long.parseLong(strings[2]) >= 0L)
+		allocated += Long.parseLong(strings[2]);
+	    else
+		allocated = -1L;
+	}
+
+	double seconds = Math.max(1L, finish - start) / 1000000.0;
+	long total = 0L;
+
+	System.out.println
+	    ("Loopback: " + count + " nodes, " + rounds + " rounds, " +
+	     String.format("%.3f", seconds) + " seconds.");
+
+	for(int i = 0; i < kinds; i++)
+	{
+	    Collections.sort(latencies.get(i));
+	    total += received[i];
+	    System.out.println
+		(String.format
+		 ("%-5s received %d of %d (lost %d), %.1f messages/s, " +
+		  "%.1f KiB/s, latency p50 %.3f ms, p99 %.3f ms.",
+		  LoopbackNode.KINDS[i],
+		  received[i],
+		  expected[i],
+		  expected[i] - received[i],
+		  received[i] / seconds,
+		  bytes[i] / seconds / 1024.0,
+		  percentile(latencies.get(i), 50) / 1000.0,
+		  percentile(latencies.get(i), 99) / 1000.0));
+	}
+
+	System.out.println
+	    (String.format("Total %.1f messages/s", total / seconds) +
+	     (allocated >= 0L && total > 0L ?
+	      String.format(", %d bytes allocated per message.",
+			    allocated / total) :
+	      ", allocations are not available."));
+    }
+
+    public static void main(String args[])
+    {
+	/*
+	** Usage: Loopback [nodes] [rounds]
+	** Every round of a node sends a chat message and a Steam packet
+	** to every other node and a single Fire message to all nodes.
+	*/
+
+	int count = DEFAULT_NODES;
+	int rounds = DEFAULT_ROUNDS;
+
+	try
+	{
+	    if(args.length > 0)
+		count = Math.max(2, Integer.parseInt(args[0]));
+
+	    if(args.length > 1)
+		rounds = Math.max(1, Integer.parseInt(args[1]));
+
+	    run(count, rounds);
+	    System.exit(0);
+	}
+	catch(Exception exception)
+	{
+	    System.err.println("Loopback: " + exception.toString());
+	    System.exit(1);
+	}
+    }
+}
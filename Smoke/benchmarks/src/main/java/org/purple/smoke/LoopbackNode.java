@@ -0,0 +1,731 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import android.util.Base64;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoopbackNode
+{
+    /*
+    ** A participant of the loopback harness. Every node is a separate
+    ** process and therefore possesses its own Cryptography and
+    ** Database. Nodes exchange real chat, Fire, and Steam messages
+    ** through a Relay and inspect inbound frames as
+    ** Kernel.ourMessage() does. Please see Loopback.
+    */
+
+    private static class Peer
+    {
+	public PublicKey m_signatureKey = null;
+	public String m_sipHashId = "";
+	public byte m_chatKeyStream[] = null;
+	public byte m_fileIdentity[] = null;
+	public byte m_steamKeyStream[] = null;
+    }
+
+    private SocketChannel m_channel = null;
+    private final ArrayList<Peer> m_peers = new ArrayList<> ();
+    private final AtomicLong m_bytes[] = new AtomicLong[KINDS.length];
+    private final AtomicLong m_frames = new AtomicLong(0L);
+    private final AtomicLong m_lastReceipt = new AtomicLong(0L);
+    private final AtomicLong m_received[] = new AtomicLong[KINDS.length];
+    private final AtomicLong m_receiverAllocated = new AtomicLong(0L);
+    private final ArrayList<ArrayList<Long> > m_latencies =
+	new ArrayList<> ();
+    private final ConcurrentHashMap<String, Peer> m_chatPeers =
+	new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<String, Peer> m_steamPeers =
+	new ConcurrentHashMap<> ();
+    private final CongestionControl m_congestionControl =
+	new CongestionControl(CONGESTION_LIFETIME);
+    private final Cryptography m_cryptography = Cryptography.getInstance();
+    private final SipHash m_sipHash = new SipHash
+	(Cryptography.randomBytes(SipHash.KEY_LENGTH));
+    private final byte m_chatKeyStream[] = Cryptography.randomBytes
+	(Cryptography.CIPHER_HASH_KEYS_LENGTH);
+    private final byte m_fileIdentity[] = Cryptography.randomBytes
+	(Cryptography.STEAM_FILE_IDENTITY_LENGTH);
+    private final byte m_fireKeyStream[];
+    private final byte m_steamKeyStream[] = Cryptography.randomBytes
+	(Cryptography.CIPHER_HASH_KEYS_LENGTH);
+    private final int m_index;
+    private final int m_rounds;
+    private final static String ALGORITHM = "RSA";
+    private final static int CHAT_SIZE = 512;
+    private final static int CONGESTION_LIFETIME = 60; // 60 seconds.
+    private final static int FIRE_SIZE = 512;
+    private final static int STEAM_SIZE = 32768; // SteamReaderFull.
+    private final static int WINDOW = EchoQueue.MAXIMUM_SIZE / 2; // Frames.
+    private final static long QUIET_INTERVAL = 10000L; // 10 seconds.
+    private final static long STALL_INTERVAL = 5000L; // 5 seconds.
+    public final static String KINDS[] = {"chat", "fire", "steam"};
+    public final static int CHAT = 0;
+    public final static int FIRE = 1;
+    public final static int STEAM = 2;
+
+    private static String encode(byte bytes[])
+    {
+	return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    private static String text(long timestamp, int size)
+    {
+	/*
+	** The time of sending followed by padding.
+	*/
+
+	StringBuilder stringBuilder = new StringBuilder();
+
+	stringBuilder.append(timestamp).append(' ');
+
+	while(stringBuilder.length() < size)
+	    stringBuilder.append('.');
+
+	return stringBuilder.toString();
+    }
+
+    private static byte[] decode(String string)
+    {
+	return Base64.decode(string, Base64.NO_WRAP);
+    }
+
+    private static long allocated()
+    {
+	/*
+	** Bytes allocated by the current thread, if available.
+	*/
+
+	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+	if(bean instanceof com.sun.management.ThreadMXBean)
+	    return ((com.sun.management.ThreadMXBean) bean).
+		getThreadAllocatedBytes(Thread.currentThread().getId());
+	else
+	    return -1L;
+    }
+
+    private static long sent(String message)
+    {
+	int indexOf = message.indexOf(' ');
+
+	return Long.parseLong
+	    (indexOf > 0 ? message.substring(0, indexOf) : message);
+    }
+
+    private String announcement()
+    {
+	return "node\t" +
+	    m_index + "\t" +
+	    encode(m_cryptography.sipHashId().
+		   getBytes(StandardCharsets.UTF_8)) + "\t" +
+	    encode(m_cryptography.chatEncryptionPublicKey().getEncoded()) +
+	    "\t" +
+	    encode(m_cryptography.chatSignaturePublicKey().getEncoded()) +
+	    "\t" +
+	    encode(m_chatKeyStream) + "\t" +
+	    encode(m_fileIdentity) + "\t" +
+	    encode(m_steamKeyStream);
+    }
+
+    private boolean fire(String frame, long now)
+    {
+	/*
+	** Returns true if the frame is a Fire message. Please see
+	** Kernel.ourMessage().
+	*/
+
+	String strings[] = Messages.stripMessage(frame).split("\\n");
+
+	if(strings.length < 2)
+	    return false;
+
+	byte ciphertext[] = null;
+
+	try
+	{
+	    ciphertext = decode(strings[0]);
+
+	    if(!Cryptography.
+	       memcmp(Cryptography.
+		      hmacFire(ciphertext,
+			       Arrays.
+			       copyOfRange(m_fireKeyStream,
+					   Cryptography.CIPHER_KEY_LENGTH,
+					   Cryptography.CIPHER_KEY_LENGTH +
+					   Cryptography.FIRE_HASH_KEY_LENGTH)),
+		      decode(strings[1])))
+		return false;
+	}
+	catch(Exception exception)
+	{
+	    return false;
+	}
+
+	ciphertext = Cryptography.decryptFire
+	    (ciphertext,
+	     Arrays.copyOfRange(m_fireKeyStream,
+				0,
+				Cryptography.CIPHER_KEY_LENGTH));
+
+	if(ciphertext == null)
+	    return true;
+
+	strings = new String
+	    (Arrays.copyOfRange(ciphertext, 0, ciphertext.length - 4)).
+	    split("\\n");
+
+	if(!(strings.length == 4 || strings.length == 5))
+	    return true;
+
+	String message = new String
+	    (decode(strings[3]), StandardCharsets.UTF_8);
+
+	record(FIRE, frame.length(), now, sent(message));
+	return true;
+    }
+
+    private boolean prepare(BufferedReader reader) throws Exception
+    {
+	/*
+	** Register the peers which are announced by Loopback.
+	*/
+
+	String line = null;
+
+	while((line = reader.readLine()) != null)
+	{
+	    if(line.equals("connect"))
+		return true;
+
+	    String strings[] = line.split("\t");
+
+	    if(strings.length != 8 ||
+	       !strings[0].equals("node") ||
+	       Integer.parseInt(strings[1]) == m_index)
+		continue;
+
+	    Peer peer = new Peer();
+	    PublicKey publicKey = Cryptography.publicKeyFromBytes
+		(decode(strings[3]));
+
+	    peer.m_chatKeyStream = decode(strings[5]);
+	    peer.m_fileIdentity = decode(strings[6]);
+	    peer.m_signatureKey = Cryptography.publicKeyFromBytes
+		(decode(strings[4]));
+	    peer.m_sipHashId = new String
+		(decode(strings[2]), StandardCharsets.UTF_8);
+	    peer.m_steamKeyStream = decode(strings[7]);
+
+	    if(publicKey == null || peer.m_signatureKey == null)
+		return false;
+
+	    Database.getInstance().writeParticipant
+		(ALGORITHM, Participant.OPTIONS, peer.m_sipHashId, publicKey);
+	    m_chatPeers.put
+		(encode(Cryptography.sha512(publicKey.getEncoded())), peer);
+	    m_peers.add(peer);
+	    m_steamPeers.put(encode(peer.m_fileIdentity), peer);
+	}
+
+	return false;
+    }
+
+    private long chat(byte bytes[], byte pki[], byte hmac[])
+    {
+	Peer peer = m_chatPeers.get(encode(pki));
+
+	if(peer == null)
+	    return -1L;
+
+	if(!Cryptography.
+	   memcmp(hmac,
+		  Cryptography.
+		  hmac(Arrays.copyOfRange(bytes,
+					  0,
+					  bytes.length -
+					  2 * Cryptography.HASH_KEY_LENGTH),
+		       Arrays.copyOfRange(peer.m_chatKeyStream,
+					  Cryptography.CIPHER_KEY_LENGTH,
+					  peer.m_chatKeyStream.length))))
+	    return -1L;
+
+	byte ciphertext[] = Cryptography.decrypt
+	    (Arrays.copyOfRange(bytes,
+				Cryptography.PKI_ENCRYPTION_KEY_SIZES[0] / 8,
+				bytes.length -
+				2 * Cryptography.HASH_KEY_LENGTH),
+	     Arrays.copyOfRange(peer.m_chatKeyStream,
+				0,
+				Cryptography.CIPHER_KEY_LENGTH));
+
+	if(ciphertext == null ||
+	   ciphertext[0] != Messages.CHAT_MESSAGE_TYPE[0])
+	    return -1L;
+
+	byte abyte[] = new byte[] {ciphertext[0]};
+	String strings[] = new String
+	    (Arrays.copyOfRange(ciphertext, 1, ciphertext.length)).
+	    split("\\n");
+
+	if(strings.length != Messages.CHAT_GROUP_TWO_ELEMENT_COUNT)
+	    return -1L;
+
+	if(!Cryptography.
+	   verifySignature
+	   (peer.m_signatureKey,
+	    decode(strings[5]),
+	    ByteUtilities.
+	    joinByteArrays(pki,
+			   abyte,
+			   strings[0].getBytes(),
+			   "\n".getBytes(),
+			   strings[1].getBytes(),
+			   "\n".getBytes(),
+			   strings[2].getBytes(),
+			   "\n".getBytes(),
+			   strings[3].getBytes(),
+			   "\n".getBytes(),
+			   strings[4].getBytes(),
+			   "\n".getBytes(),
+			   m_cryptography.chatEncryptionPublicKeyDigest())))
+	    return -1L;
+
+	return sent
+	    (new String(decode(strings[1]), StandardCharsets.UTF_8).trim());
+    }
+
+    private long received()
+    {
+	long received = 0L;
+
+	for(AtomicLong atomicLong : m_received)
+	    received += atomicLong.get();
+
+	return received;
+    }
+
+    private long steam(byte bytes[], byte pki[], byte hmac[])
+    {
+	Peer peer = m_steamPeers.get(encode(pki));
+
+	if(peer == null)
+	    return -1L;
+
+	if(!Cryptography.
+	   memcmp(hmac,
+		  Cryptography.
+		  hmac(Arrays.copyOfRange(bytes,
+					  0,
+					  bytes.length -
+					  2 * Cryptography.HASH_KEY_LENGTH),
+		       Arrays.copyOfRange(peer.m_steamKeyStream,
+					  Cryptography.CIPHER_KEY_LENGTH,
+					  peer.m_steamKeyStream.length))))
+	    return -1L;
+
+	byte ciphertext[] = Cryptography.decrypt
+	    (Arrays.copyOfRange(bytes,
+				Cryptography.PKI_ENCRYPTION_KEY_SIZES[0] / 8,
+				bytes.length -
+				2 * Cryptography.HASH_KEY_LENGTH),
+	     Arrays.copyOfRange(peer.m_steamKeyStream,
+				0,
+				Cryptography.CIPHER_KEY_LENGTH));
+
+	if(ciphertext == null ||
+	   ciphertext.length < 25 ||
+	   ciphertext[0] != Messages.STEAM_SHARE[0])
+	    return -1L;
+
+	return ByteUtilities.byteArrayToLong
+	    (Arrays.copyOfRange(ciphertext, 17, 25));
+    }
+
+    private void read()
+    {
+	/*
+	** Frames are inspected on this thread only.
+	*/
+
+	ByteBuffer buffer = ByteBuffer.allocate(NeighborEngine.BUFFER_SIZE);
+	MessageFramer framer = new MessageFramer(8 * 1024 * 1024);
+	long allocated = allocated();
+
+	try
+	{
+	    while(m_channel.read(buffer) > 0)
+	    {
+		buffer.flip();
+
+		if(!framer.append(buffer))
+		    framer.clear();
+
+		buffer.clear();
+
+		String frame = null;
+
+		while((frame = framer.next()) != null)
+		{
+		    m_frames.getAndIncrement();
+
+		    try
+		    {
+			receive(frame);
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+		}
+
+		m_receiverAllocated.set(allocated() - allocated);
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+    }
+
+    private void receive(String frame)
+    {
+	/*
+	** Please see Kernel.ourMessage().
+	*/
+
+	long now = now();
+
+	if(m_congestionControl.add(m_sipHash.hash64(frame.getBytes())))
+	    return;
+
+	if(fire(frame, now))
+	    return;
+
+	byte bytes[] = Base64.decode
+	    (Messages.stripMessage(frame), Base64.DEFAULT);
+
+	if(bytes == null || bytes.length < 128)
+	    return;
+
+	byte destination[] = Arrays.copyOfRange
+	    (bytes, bytes.length - Cryptography.HASH_KEY_LENGTH, bytes.length);
+	byte hmac[] = Arrays.copyOfRange
+	    (bytes,
+	     bytes.length - 2 * Cryptography.HASH_KEY_LENGTH,
+	     bytes.length - Cryptography.HASH_KEY_LENGTH);
+
+	if(!m_cryptography.
+	   iAmTheDestination(Arrays.copyOfRange(bytes,
+						0,
+						bytes.length -
+						Cryptography.HASH_KEY_LENGTH),
+			     destination))
+	    return;
+
+	byte pki[] = m_cryptography.pkiDecrypt
+	    (Arrays.copyOfRange(bytes,
+				0,
+				Cryptography.PKI_ENCRYPTION_KEY_SIZES[0] / 8));
+
+	if(pki == null)
+	    return;
+
+	if(pki.length == Cryptography.HASH_KEY_LENGTH)
+	{
+	    long sent = chat(bytes, pki, hmac);
+
+	    if(sent >= 0L)
+		record(CHAT, frame.length(), now, sent);
+	}
+	else if(pki.length == Cryptography.STEAM_FILE_IDENTITY_LENGTH)
+	{
+	    long sent = steam(bytes, pki, hmac);
+
+	    if(sent >= 0L)
+		record(STEAM, frame.length(), now, sent);
+	}
+    }
+
+    private void record(int kind, long bytes, long now, long sent)
+    {
+	m_bytes[kind].getAndAdd(bytes);
+	m_lastReceipt.set(now);
+	m_received[kind].getAndIncrement();
+
+	synchronized(m_latencies)
+	{
+	    m_latencies.get(kind).add(now - sent);
+	}
+    }
+
+    private void send(String frame) throws Exception
+    {
+	ByteBuffer buffer = ByteBuffer.wrap(frame.getBytes());
+
+	while(buffer.hasRemaining())
+	    m_channel.write(buffer);
+    }
+
+    private void transmit() throws Exception
+    {
+	/*
+	** Every round consists of a chat message and a Steam packet
+	** for every peer and of a single Fire message. At most two
+	** rounds are in flight so that the bounded echo queues of the
+	** Relay do not discard frames and so that latencies are not
+	** dominated by queueing.
+	*/
+
+	int peers = m_peers.size();
+	long perRound = (long) peers * (2L * peers + 1L);
+	long window = Math.min(WINDOW, 2L * perRound);
+
+	for(int i = 0; i < m_rounds; i++)
+	{
+	    long deadline = System.nanoTime() + STALL_INTERVAL * 1000000L;
+	    long frames = m_frames.get();
+
+	    while((long) i * perRound - m_frames.get() > window)
+	    {
+		if(m_frames.get() != frames)
+		{
+		    deadline = System.nanoTime() + STALL_INTERVAL * 1000000L;
+		    frames = m_frames.get();
+		}
+		else if(System.nanoTime() > deadline)
+		    break;
+
+		Thread.sleep(1L);
+	    }
+
+	    for(Peer peer : m_peers)
+	    {
+		byte bytes[] = Messages.chatMessage
+		    (m_cryptography,
+		     text(now(), CHAT_SIZE),
+		     peer.m_sipHashId,
+		     null,
+		     Cryptography.
+		     sha512(peer.m_sipHashId.getBytes(StandardCharsets.UTF_8)),
+		     m_chatKeyStream,
+		     Cryptography.randomBytes(Cryptography.HASH_KEY_LENGTH),
+		     i,
+		     System.currentTimeMillis());
+
+		if(bytes != null)
+		    send(Messages.bytesToMessageString(bytes));
+	    }
+
+	    byte bytes[] = Messages.fireMessage
+		(m_cryptography,
+		 String.valueOf(m_index),
+		 text(now(), FIRE_SIZE),
+		 "Node " + m_index,
+		 m_fireKeyStream);
+
+	    if(bytes != null)
+		send(Messages.bytesToMessageStringNonBase64(bytes));
+
+	    for(Peer peer : m_peers)
+	    {
+		byte packet[] = new byte[STEAM_SIZE];
+
+		System.arraycopy
+		    (ByteUtilities.longToByteArray(now()), 0, packet, 0, 8);
+		bytes = Messages.steamShare
+		    (m_cryptography,
+		     peer.m_sipHashId,
+		     m_fileIdentity,
+		     m_steamKeyStream,
+		     packet,
+		     Messages.STEAM_SHARE[0],
+		     (long) i * STEAM_SIZE);
+
+		if(bytes != null)
+		    send(Messages.bytesToMessageString(bytes));
+	    }
+	}
+    }
+
+    private LoopbackNode(int index, int rounds)
+    {
+	m_fireKeyStream = ByteUtilities.joinByteArrays
+	    (m_cryptography.generateFireEncryptionKey("Loopback", "Salt"),
+	     m_cryptography.generateFireDigestKeyStream("Digest"));
+	m_index = index;
+	m_rounds = rounds;
+
+	for(int i = 0; i < KINDS.length; i++)
+	{
+	    m_bytes[i] = new AtomicLong(0L);
+	    m_latencies.add(new ArrayList<Long> ());
+	    m_received[i] = new AtomicLong(0L);
+	}
+    }
+
+    public static long now()
+    {
+	/*
+	** Microseconds since the epoch. The nodes share a host and
+	** therefore a clock.
+	*/
+
+	Instant instant = Instant.now();
+
+	return TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) +
+	    instant.getNano() / 1000L;
+    }
+
+    public static void main(String args[])
+    {
+	/*
+	** Usage: LoopbackNode index relay-port rounds
+	** Lines are exchanged with Loopback through the standard streams.
+	*/
+
+	try
+	{
+	    if(!Participant.prepare(ALGORITHM))
+		throw new IllegalStateException
+		    ("Participant.prepare() failure.");
+
+	    BufferedReader reader = new BufferedReader
+		(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+	    final LoopbackNode node = new LoopbackNode
+		(Integer.parseInt(args[0]), Integer.parseInt(args[2]));
+
+	    System.out.println(node.announcement());
+	    System.out.flush();
+
+	    if(!node.prepare(reader))
+		throw new IllegalStateException("Incomplete peers.");
+
+	    node.m_channel = SocketChannel.open
+		(new InetSocketAddress("127.0.0.1", Integer.parseInt(args[1])));
+	    node.m_channel.socket().setTcpNoDelay(true);
+
+	    Thread thread = new Thread(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    node.read();
+		}
+	    }, "LoopbackNode Reader");
+
+	    thread.setDaemon(true);
+	    thread.start();
+	    System.out.println("connected");
+	    System.out.flush();
+
+	    if(!"start".equals(reader.readLine()))
+		throw new IllegalStateException("Loopback did not start.");
+
+	    long allocated = allocated();
+
+	    node.transmit();
+	    allocated = allocated() - allocated;
+
+	    /*
+	    ** Await the remaining frames.
+	    */
+
+	    long expected = (long) KINDS.length * node.m_peers.size() *
+		node.m_rounds;
+	    long frames = -1L;
+	    long quiet = System.nanoTime();
+
+	    while(node.received() < expected)
+	    {
+		if(node.m_frames.get() != frames)
+		{
+		    frames = node.m_frames.get();
+		    quiet = System.nanoTime();
+		}
+		else if(System.nanoTime() - quiet > QUIET_INTERVAL * 1000000L)
+		    break;
+
+		Thread.sleep(10L);
+	    }
+
+	    /*
+	    ** result kind received expected bytes latencies
+	    */
+
+	    synchronized(node.m_latencies)
+	    {
+		for(int i = 0; i < KINDS.length; i++)
+		{
+		    StringBuilder stringBuilder = new StringBuilder();
+
+		    for(long latency : node.m_latencies.get(i))
+		    {
+			if(stringBuilder.length() > 0)
+			    stringBuilder.append(',');
+
+			stringBuilder.append(latency);
+		    }
+
+		    System.out.println
+			("result\t" + KINDS[i] + "\t" +
+			 node.m_received[i].get() + "\t" +
+			 (long) node.m_peers.size() * node.m_rounds + "\t" +
+			 node.m_bytes[i].get() + "\t" +
+			 stringBuilder);
+		}
+	    }
+
+	    System.out.println
+		("done\t" +
+		 node.m_lastReceipt.get() + "\t" +
+		 (allocated < 0L || node.m_receiverAllocated.get() < 0L ?
+		  -1L : allocated + node.m_receiverAllocated.get()));
+	    System.out.flush();
+	    node.m_channel.close();
+	    System.exit(0);
+	}
+	catch(Exception exception)
+	{
+	    System.err.println("LoopbackNode: " + exception.toString());
+	    System.exit(1);
+	}
+    }
+}
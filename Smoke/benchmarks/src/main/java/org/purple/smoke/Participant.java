@@ -0,0 +1,93 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from Smoke without specific prior written permission.
+**
+** SMOKE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smoke;
+
+import java.security.KeyPair;
+import javax.crypto.SecretKey;
+
+public abstract class Participant
+{
+    /*
+    ** Prepares the keys of the participant which is represented by
+    ** Cryptography.getInstance(), as Settings does after a password
+    ** is defined. A Java virtual machine represents a single
+    ** participant.
+    */
+
+    public final static String OPTIONS = "optional_signatures = false";
+
+    public static boolean prepare(String algorithm)
+    {
+	Platform.prepare();
+
+	Cryptography cryptography = Cryptography.getInstance();
+	int index = 0;
+
+	if(algorithm.contains("12, 68"))
+	    index = 1;
+	else if(algorithm.contains("13, 118"))
+	    index = 2;
+
+	KeyPair chatEncryptionKeyPair = Cryptography.
+	    generatePrivatePublicKeyPair
+	    (algorithm, Cryptography.PKI_ENCRYPTION_KEY_SIZES[0], index);
+	KeyPair chatSignatureKeyPair = Cryptography.
+	    generatePrivatePublicKeyPair
+	    ("EC", Cryptography.PKI_SIGNATURE_KEY_SIZES[0], 0);
+
+	if(chatEncryptionKeyPair == null || chatSignatureKeyPair == null)
+	    return false;
+
+	/*
+	** A single iteration of Argon2id as the password is not secret.
+	*/
+
+	char password[] = "Smoke".toCharArray();
+	SecretKey encryptionKey = Cryptography.generateEncryptionKey
+	    (Cryptography.randomBytes(Cryptography.CIPHER_KEY_LENGTH),
+	     password,
+	     1,
+	     0);
+	SecretKey macKey = Cryptography.generateMacKey
+	    (Cryptography.randomBytes(Cryptography.HASH_KEY_LENGTH),
+	     password,
+	     1,
+	     0);
+
+	if(encryptionKey == null || macKey == null)
+	    return false;
+
+	cryptography.setChatEncryptionPublicKeyAlgorithm(algorithm);
+	cryptography.setChatEncryptionPublicKeyPair(chatEncryptionKeyPair);
+	cryptography.setChatSignaturePublicKeyPair(chatSignatureKeyPair);
+	cryptography.setEncryptionKey(encryptionKey);
+	cryptography.setMacKey(macKey);
+	return cryptography.prepareSipHashIds(null) &&
+	    cryptography.prepareSipHashKeys();
+    }
+}